@@ -0,0 +1,178 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.security.limiter.rate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.GuavaRateLimiters;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.testutil.AbstractTest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@link LocalRateLimiter} on striped token buckets versus the nested Guava caches of Guava rate limiters it
+ * replaced, both for a single hot target contended by many threads and for more targets than fit, exercising
+ * creation and clock sweep eviction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenBucketBenchmark extends AbstractTest {
+
+    /** Same as the limit on the old per capacity caches */
+    private static final long MAX_BUCKETS = 100_000L;
+    private static final int CHURN_TARGET_COUNT = 4 * (int) MAX_BUCKETS;
+    private static final double PRECHARGED_IN_SECONDS = 1d;
+    /** Two tiers, as used for web requests */
+    private static final double[] ALT_PERM_CAP = {1_000_000d, 1d, 100_000d, 10d};
+
+    @Inject
+    private LocalRateLimiter localRateLimiter;
+    @Inject
+    private LocalRateLimiter.Config config;
+    @Inject
+    private GuavaRateLimiters guavaRateLimiters;
+
+    private NestedCacheRateLimiter nestedCacheRateLimiter;
+    private String[] churnTargets;
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private int nextTarget = ThreadLocalRandom.current().nextInt(CHURN_TARGET_COUNT);
+
+        private int next() {
+            int target = nextTarget;
+            nextTarget = target + 1 == CHURN_TARGET_COUNT ? 0 : target + 1;
+            return target;
+        }
+    }
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Modules.override(
+                LocalRateLimiter.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(LocalRateLimiter.Config.class, om -> {
+                    om.override(om.id().maxBuckets()).withValue(MAX_BUCKETS);
+                }));
+            }
+        }));
+        install(GuavaRateLimiters.module());
+    }
+
+    @Setup
+    public void setupBenchmark() throws Exception {
+        setup();
+        nestedCacheRateLimiter = new NestedCacheRateLimiter(config, guavaRateLimiters);
+        churnTargets = new String[CHURN_TARGET_COUNT];
+        for (int i = 0; i < CHURN_TARGET_COUNT; i++) {
+            churnTargets[i] = "10.0." + (i >> 8) + "." + (i & 0xFF);
+        }
+    }
+
+    @TearDown
+    public void cleanupBenchmark() throws Exception {
+        cleanup();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean hotTargetTokenBucket() {
+        return localRateLimiter.tryAcquire("hot", 1, PRECHARGED_IN_SECONDS, ALT_PERM_CAP);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean hotTargetNestedCache() {
+        return nestedCacheRateLimiter.tryAcquire("hot", 1, PRECHARGED_IN_SECONDS, ALT_PERM_CAP);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean churnTokenBucket(ThreadState threadState) {
+        return localRateLimiter.tryAcquire(churnTargets[threadState.next()], 1, PRECHARGED_IN_SECONDS, ALT_PERM_CAP);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean churnNestedCache(ThreadState threadState) {
+        return nestedCacheRateLimiter.tryAcquire(churnTargets[threadState.next()], 1, PRECHARGED_IN_SECONDS, ALT_PERM_CAP);
+    }
+
+    /**
+     * {@link LocalRateLimiter} as it was before token buckets: a cache per tier capacity, each holding a Guava rate
+     * limiter per target.
+     */
+    private static class NestedCacheRateLimiter {
+        private final ConcurrentMap<Double, Cache<String, com.google.common.util.concurrent.RateLimiter>> rateLimiters = CacheBuilder.newBuilder()
+                .expireAfterAccess(Duration.ofDays(30))
+                .<Double, Cache<String, com.google.common.util.concurrent.RateLimiter>>build()
+                .asMap();
+        private final LocalRateLimiter.Config config;
+        private final GuavaRateLimiters guavaRateLimiters;
+
+        private NestedCacheRateLimiter(LocalRateLimiter.Config config, GuavaRateLimiters guavaRateLimiters) {
+            this.config = config;
+            this.guavaRateLimiters = guavaRateLimiters;
+        }
+
+        private boolean tryAcquire(String target, int permits, double prechargedDurationInSeconds, double... altPermCap) {
+            if (!config.enabled()) {
+                return true;
+            }
+            checkArgument(altPermCap.length % 2 == 0);
+
+            for (int i = 0; i < altPermCap.length; i += 2) {
+                if (!getRateLimiter(target, prechargedDurationInSeconds, altPermCap[i], altPermCap[i + 1]).tryAcquire(permits)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private com.google.common.util.concurrent.RateLimiter getRateLimiter(String target, double prechargedDuration, double permitsPerSecond, double capacityInSeconds) {
+            Cache<String, com.google.common.util.concurrent.RateLimiter> rateLimiterCache = rateLimiters.get(capacityInSeconds);
+            if (rateLimiterCache == null) {
+                rateLimiterCache = rateLimiters.computeIfAbsent(capacityInSeconds, capacityInSec -> CacheBuilder.newBuilder()
+                        .expireAfterAccess(capacityInSec.longValue(), TimeUnit.SECONDS)
+                        .maximumSize(100000)
+                        .build());
+            }
+            try {
+                return rateLimiterCache.get(target, () -> guavaRateLimiters.create(
+                        permitsPerSecond, capacityInSeconds, Math.min(capacityInSeconds, prechargedDuration)));
+            } catch (ExecutionException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.dynamo.mapper;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableSchema;
+import com.smotana.clearflask.testutil.AbstractTest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marshalling the hot models to and from Dynamo items and attribute maps.
+ * <p>
+ * Only uses the mapper API that predates method handle marshalling, so the same benchmark can be run on a build
+ * from before it for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DynamoMapperBenchmark extends AbstractTest {
+
+    @Param({"idea", "user", "comment"})
+    public String model;
+
+    @Inject
+    private DynamoMapper mapper;
+
+    private TableSchema<Object> schema;
+    private Object obj;
+    private Item item;
+    private ImmutableMap<String, AttributeValue> attrMap;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(InMemoryDynamoDbProvider.module());
+        install(DynamoMapperImpl.module());
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setupBenchmark() throws Exception {
+        setup();
+        Class<?> clazz;
+        switch (model) {
+            case "idea":
+                clazz = IdeaModel.class;
+                obj = MockModelUtil.getRandomIdea();
+                break;
+            case "user":
+                clazz = UserModel.class;
+                obj = MockModelUtil.getRandomUser();
+                break;
+            case "comment":
+                clazz = CommentModel.class;
+                obj = MockModelUtil.getRandomComment();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown model " + model);
+        }
+        schema = (TableSchema<Object>) mapper.parseTableSchema(clazz);
+        item = schema.toItem(obj);
+        attrMap = schema.toAttrMap(obj);
+    }
+
+    @TearDown
+    public void cleanupBenchmark() throws Exception {
+        cleanup();
+    }
+
+    @Benchmark
+    public Item toItem() {
+        return schema.toItem(obj);
+    }
+
+    @Benchmark
+    public Object fromItem() {
+        return schema.fromItem(item);
+    }
+
+    @Benchmark
+    public ImmutableMap<String, AttributeValue> toAttrMap() {
+        return schema.toAttrMap(obj);
+    }
+
+    @Benchmark
+    public Object fromAttrMap() {
+        return schema.fromAttrMap(attrMap);
+    }
+}
@@ -25,6 +25,7 @@ import com.google.inject.Module;
 import com.google.inject.TypeLiteral;
 import com.google.inject.multibindings.MapBinder;
 import com.google.inject.util.Types;
+import com.smotana.clearflask.util.ElasticUtil;
 import io.jsonwebtoken.SignatureAlgorithm;
 import nl.martijndwars.webpush.Urgency;
 
@@ -89,7 +90,8 @@ public class MoreConfigValueConverters {
 
     public static Module module() {
         return module(ImmutableSet.of(
-                Urgency.class
+                Urgency.class,
+                ElasticUtil.IndexLayout.class
         ));
     }
 
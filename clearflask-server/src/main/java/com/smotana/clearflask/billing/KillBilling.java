@@ -27,6 +27,7 @@ import com.smotana.clearflask.api.model.InvoiceItem;
 import com.smotana.clearflask.api.model.Invoices;
 import com.smotana.clearflask.api.model.SubscriptionStatus;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.Metrics;
 import com.smotana.clearflask.core.push.NotificationService;
 import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.UserStore;
@@ -80,6 +81,7 @@ import org.killbill.billing.invoice.api.InvoiceStatus;
 import org.killbill.billing.util.api.AuditLevel;
 import org.killbill.billing.util.tag.ControlTagType;
 
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import javax.ws.rs.core.Response;
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -88,7 +90,6 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -132,6 +133,8 @@ public class KillBilling extends ManagedService implements Billing {
     @Inject
     private Config config;
     @Inject
+    private Metrics metrics;
+    @Inject
     @Named("cursor")
     private ServerSecret serverSecretCursor;
     @Inject
@@ -166,10 +169,10 @@ public class KillBilling extends ManagedService implements Billing {
 
     @Override
     protected void serviceStart() throws Exception {
-        usageExecutor = MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder()
-                .setNameFormat("KillBilling-usage-%d").build()));
-        accountCreationExecutor = MoreExecutors.listeningDecorator(Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder()
-                .setNameFormat("KillBilling-account-creation-%d").build()));
+        usageExecutor = MoreExecutors.listeningDecorator(metrics.monitorExecutor("KillBilling-usage", new ScheduledThreadPoolExecutor(2, new ThreadFactoryBuilder()
+                .setNameFormat("KillBilling-usage-%d").build())));
+        accountCreationExecutor = MoreExecutors.listeningDecorator(metrics.monitorExecutor("KillBilling-account-creation", new ScheduledThreadPoolExecutor(2, new ThreadFactoryBuilder()
+                .setNameFormat("KillBilling-account-creation-%d").build())));
     }
 
     @Override
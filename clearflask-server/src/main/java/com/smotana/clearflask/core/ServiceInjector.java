@@ -28,6 +28,7 @@ import com.smotana.clearflask.billing.SelfHostPlanStore;
 import com.smotana.clearflask.billing.StripeClientSetup;
 import com.smotana.clearflask.core.email.AmazonSimpleEmailServiceProvider;
 import com.smotana.clearflask.core.image.ImageNormalizationImpl;
+import com.smotana.clearflask.core.metrics.Metrics;
 import com.smotana.clearflask.core.push.NotificationServiceImpl;
 import com.smotana.clearflask.core.push.message.EmailLogin;
 import com.smotana.clearflask.core.push.message.EmailTemplates;
@@ -35,6 +36,7 @@ import com.smotana.clearflask.core.push.message.EmailVerify;
 import com.smotana.clearflask.core.push.message.OnAccountSignup;
 import com.smotana.clearflask.core.push.message.OnCommentReply;
 import com.smotana.clearflask.core.push.message.OnCreditChange;
+import com.smotana.clearflask.core.push.message.OnDigest;
 import com.smotana.clearflask.core.push.message.OnEmailChanged;
 import com.smotana.clearflask.core.push.message.OnForgotPassword;
 import com.smotana.clearflask.core.push.message.OnModInvite;
@@ -45,15 +47,19 @@ import com.smotana.clearflask.core.push.message.OnTeammateInvite;
 import com.smotana.clearflask.core.push.message.OnTrialEnded;
 import com.smotana.clearflask.core.push.provider.BrowserPushServiceImpl;
 import com.smotana.clearflask.core.push.provider.EmailServiceImpl;
+import com.smotana.clearflask.core.trace.Tracer;
 import com.smotana.clearflask.security.ClearFlaskSso;
 import com.smotana.clearflask.security.limiter.TieredWebLimiter;
 import com.smotana.clearflask.security.limiter.challenge.CaptchaChallenger;
 import com.smotana.clearflask.security.limiter.challenge.LocalChallengeLimiter;
+import com.smotana.clearflask.security.limiter.rate.DynamoRateLimiter;
 import com.smotana.clearflask.security.limiter.rate.LocalRateLimiter;
 import com.smotana.clearflask.store.ConfigAwsCredentialsProvider;
 import com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
 import com.smotana.clearflask.store.elastic.DefaultElasticSearchProvider;
+import com.smotana.clearflask.store.elastic.ElasticIndexLayoutMigrator;
+import com.smotana.clearflask.store.elastic.ElasticIndexingBatcher;
 import com.smotana.clearflask.store.github.GitHubClientProviderImpl;
 import com.smotana.clearflask.store.github.GitHubStoreImpl;
 import com.smotana.clearflask.store.impl.DynamoCertStore;
@@ -63,6 +69,8 @@ import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.store.impl.DynamoNotificationStore;
+import com.smotana.clearflask.store.impl.DynamoImportJobStore;
+import com.smotana.clearflask.store.impl.DynamoOutboxStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoTokenVerifyStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
@@ -71,6 +79,7 @@ import com.smotana.clearflask.store.impl.S3ContentStore;
 import com.smotana.clearflask.store.route53.DefaultRoute53Provider;
 import com.smotana.clearflask.store.s3.DefaultS3ClientProvider;
 import com.smotana.clearflask.util.BeanUtil;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.ConfigSchemaUpgrader;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.ElasticUtil;
@@ -88,10 +97,13 @@ import com.smotana.clearflask.web.resource.ContentResource;
 import com.smotana.clearflask.web.resource.CreditResource;
 import com.smotana.clearflask.web.resource.GitHubResource;
 import com.smotana.clearflask.web.resource.HealthResource;
+import com.smotana.clearflask.web.resource.MetricsResource;
 import com.smotana.clearflask.web.resource.IdeaResource;
+import com.smotana.clearflask.web.resource.ImportJobResource;
 import com.smotana.clearflask.web.resource.KillBillResource;
 import com.smotana.clearflask.web.resource.NotificationResource;
 import com.smotana.clearflask.web.resource.ProjectResource;
+import com.smotana.clearflask.web.resource.SlowQueryResource;
 import com.smotana.clearflask.web.resource.SupportResource;
 import com.smotana.clearflask.web.resource.TestResource;
 import com.smotana.clearflask.web.resource.UserResource;
@@ -101,7 +113,10 @@ import com.smotana.clearflask.web.security.AuthenticationFilter;
 import com.smotana.clearflask.web.security.Sanitizer;
 import com.smotana.clearflask.web.security.SuperAdminPredicate;
 import com.smotana.clearflask.web.security.UserBindUtil;
+import com.smotana.clearflask.web.util.CsvImporter;
+import com.smotana.clearflask.web.util.IdeaImportHandler;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
+import com.smotana.clearflask.web.util.ZipCsvExporter;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -172,6 +187,8 @@ public enum ServiceInjector {
                 install(ServiceManagerProvider.module());
                 install(GsonProvider.module());
                 install(GuavaRateLimiters.module());
+                install(Metrics.module());
+                install(Tracer.module());
 
                 // Stores
                 install(ConfigAwsCredentialsProvider.module());
@@ -186,6 +203,8 @@ public enum ServiceInjector {
                 install(DynamoElasticIdeaStore.module());
                 install(DynamoDraftStore.module());
                 install(DynamoNotificationStore.module());
+                install(DynamoOutboxStore.module());
+                install(DynamoImportJobStore.module());
                 install(DynamoElasticCommentStore.module());
                 install(DynamoVoteStore.module());
                 install(DynamoCertStore.module());
@@ -197,6 +216,9 @@ public enum ServiceInjector {
                 install(ResourceLegalStore.module());
                 install(DynamoMapperImpl.module());
                 install(ElasticUtil.module());
+                install(BloomFilterCache.module());
+                install(ElasticIndexingBatcher.module());
+                install(ElasticIndexLayoutMigrator.module());
                 install(DefaultServerSecret.module(Names.named("cursor")));
                 install(WebhookServiceImpl.module());
 
@@ -208,6 +230,7 @@ public enum ServiceInjector {
                 install(BrowserPushServiceImpl.module());
                 install(OnCommentReply.module());
                 install(OnCreditChange.module());
+                install(OnDigest.module());
                 install(OnStatusOrResponseChange.module());
                 install(OnForgotPassword.module());
                 install(OnAccountSignup.module());
@@ -224,7 +247,12 @@ public enum ServiceInjector {
                 install(AuthenticationFilter.module());
                 install(SuperAdminPredicate.module());
                 install(TieredWebLimiter.module());
-                install(LocalRateLimiter.module());
+                if (env == Environment.PRODUCTION_AWS) {
+                    // Limits per node until shared buckets are enabled in config
+                    install(DynamoRateLimiter.module());
+                } else {
+                    install(LocalRateLimiter.module());
+                }
                 install(LocalChallengeLimiter.module());
                 install(CaptchaChallenger.module());
                 install(UserBindUtil.module());
@@ -246,6 +274,8 @@ public enum ServiceInjector {
                 // API endpoints
                 install(Application.module());
                 bind(HealthResource.class);
+                install(MetricsResource.module());
+                install(SlowQueryResource.module());
                 if (!env.isProduction()) {
                     bind(TestResource.class);
                 }
@@ -258,6 +288,10 @@ public enum ServiceInjector {
                 install(IdeaResource.module());
                 install(VoteResource.module());
                 install(ProjectResource.module());
+                install(ZipCsvExporter.module());
+                install(CsvImporter.module());
+                install(IdeaImportHandler.module());
+                install(ImportJobResource.module());
                 install(SupportResource.module());
                 install(ConnectResource.module());
                 install(ContentResource.module());
@@ -0,0 +1,318 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.core.metrics;
+
+import com.google.common.cache.Cache;
+import com.google.common.collect.Maps;
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Registry of counters, gauges and latency histograms exposed in Prometheus text format.
+ * <p>
+ * Metrics are identified by name and alternating label names and values. Lookups are cheap but not free, so hot
+ * paths should hold on to returned metrics. Recording into a histogram is a bucket search and two
+ * {@link LongAdder} increments.
+ */
+@Slf4j
+@Singleton
+public class Metrics {
+
+    public static final String PREFIX = "clearflask_";
+    /** Histogram bucket upper bounds in seconds, suitable for request latencies */
+    private static final double[] LATENCY_BUCKETS_SECONDS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] LATENCY_BUCKETS_NANOS = Arrays.stream(LATENCY_BUCKETS_SECONDS)
+            .mapToLong(seconds -> (long) (seconds * 1_000_000_000d))
+            .toArray();
+
+    private enum Type {
+        COUNTER("counter"),
+        GAUGE("gauge"),
+        HISTOGRAM("histogram");
+
+        private final String prometheusName;
+
+        Type(String prometheusName) {
+            this.prometheusName = prometheusName;
+        }
+    }
+
+    private final ConcurrentMap<String, Family> families = Maps.newConcurrentMap();
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER)
+                .metrics.computeIfAbsent(formatLabels(labels), l -> new Counter());
+    }
+
+    public Timer timer(String name, String help, String... labels) {
+        return (Timer) family(name, help, Type.HISTOGRAM)
+                .metrics.computeIfAbsent(formatLabels(labels), l -> new Timer());
+    }
+
+    /**
+     * Histogram of arbitrary values, with the given ascending bucket upper bounds.
+     */
+    public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        return (Histogram) family(name, help, Type.HISTOGRAM)
+                .metrics.computeIfAbsent(formatLabels(labels), l -> new Histogram(buckets));
+    }
+
+    public void gauge(String name, String help, DoubleSupplier supplier, String... labels) {
+        family(name, help, Type.GAUGE)
+                .metrics.put(formatLabels(labels), new Gauge(supplier));
+    }
+
+    /**
+     * Exposes queue depth, thread counts and rejections of an executor.
+     */
+    public <T extends ThreadPoolExecutor> T monitorExecutor(String executorName, T executor) {
+        gauge(PREFIX + "executor_queue_size", "Tasks waiting in executor queue",
+                () -> executor.getQueue().size(), "executor", executorName);
+        gauge(PREFIX + "executor_active_threads", "Threads actively executing tasks",
+                executor::getActiveCount, "executor", executorName);
+        gauge(PREFIX + "executor_pool_size", "Current number of threads in the pool",
+                executor::getPoolSize, "executor", executorName);
+        gauge(PREFIX + "executor_completed_tasks_total", "Tasks completed by the executor",
+                executor::getCompletedTaskCount, "executor", executorName);
+        Counter rejected = counter(PREFIX + "executor_rejected_total", "Tasks rejected by the executor",
+                "executor", executorName);
+        RejectedExecutionHandler rejectedExecutionHandler = executor.getRejectedExecutionHandler();
+        executor.setRejectedExecutionHandler((r, e) -> {
+            rejected.increment();
+            rejectedExecutionHandler.rejectedExecution(r, e);
+        });
+        return executor;
+    }
+
+    /**
+     * Exposes hit rate, request counts and size of a cache. Cache must be built with recordStats.
+     */
+    public <T extends Cache<?, ?>> T monitorCache(String cacheName, T cache) {
+        gauge(PREFIX + "cache_hit_ratio", "Ratio of cache requests that were hits",
+                () -> cache.stats().hitRate(), "cache", cacheName);
+        gauge(PREFIX + "cache_hits_total", "Cache requests that were hits",
+                () -> cache.stats().hitCount(), "cache", cacheName);
+        gauge(PREFIX + "cache_misses_total", "Cache requests that were misses",
+                () -> cache.stats().missCount(), "cache", cacheName);
+        gauge(PREFIX + "cache_evictions_total", "Entries evicted from the cache",
+                () -> cache.stats().evictionCount(), "cache", cacheName);
+        gauge(PREFIX + "cache_size", "Approximate number of entries in the cache",
+                cache::size, "cache", cacheName);
+        return cache;
+    }
+
+    public void writePrometheus(Writer writer) throws IOException {
+        for (Map.Entry<String, Family> familyEntry : families.entrySet()) {
+            String name = familyEntry.getKey();
+            Family family = familyEntry.getValue();
+            writer.write("# HELP " + name + " " + family.help + "\n");
+            writer.write("# TYPE " + name + " " + family.type.prometheusName + "\n");
+            for (Map.Entry<String, Object> metricEntry : family.metrics.entrySet()) {
+                String labels = metricEntry.getKey();
+                Object metric = metricEntry.getValue();
+                if (metric instanceof Counter) {
+                    writeSample(writer, name, labels, null, ((Counter) metric).get());
+                } else if (metric instanceof Gauge) {
+                    writeSample(writer, name, labels, null, ((Gauge) metric).supplier.getAsDouble());
+                } else if (metric instanceof Timer) {
+                    Timer timer = (Timer) metric;
+                    writeHistogram(writer, name, labels, LATENCY_BUCKETS_SECONDS, timer.buckets, timer.sumNanos.sum() / 1_000_000_000d);
+                } else if (metric instanceof Histogram) {
+                    Histogram histogram = (Histogram) metric;
+                    writeHistogram(writer, name, labels, histogram.bounds, histogram.buckets, histogram.sum.sum());
+                }
+            }
+        }
+    }
+
+    private void writeHistogram(Writer writer, String name, String labels, double[] bounds, LongAdder[] buckets, double sum) throws IOException {
+        long cumulative = 0L;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += buckets[i].sum();
+            writeSample(writer, name + "_bucket", labels, "le=\"" + bounds[i] + "\"", cumulative);
+        }
+        cumulative += buckets[bounds.length].sum();
+        writeSample(writer, name + "_bucket", labels, "le=\"+Inf\"", cumulative);
+        writeSample(writer, name + "_sum", labels, null, sum);
+        writeSample(writer, name + "_count", labels, null, cumulative);
+    }
+
+    private void writeSample(Writer writer, String name, String labels, String extraLabel, double value) throws IOException {
+        writer.write(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            writer.write('{');
+            writer.write(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) {
+                    writer.write(',');
+                }
+                writer.write(extraLabel);
+            }
+            writer.write('}');
+        }
+        writer.write(' ');
+        if (value == (long) value) {
+            writer.write(Long.toString((long) value));
+        } else {
+            writer.write(Double.toString(value));
+        }
+        writer.write('\n');
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+        checkState(family.type == type, "Metric %s already registered as %s", name, family.type);
+        return family;
+    }
+
+    private static String formatLabels(String... labels) {
+        checkArgument(labels.length % 2 == 0, "Labels must be alternating names and values");
+        StringBuilder labelsBuilder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                labelsBuilder.append(',');
+            }
+            labelsBuilder.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\':
+                        labelsBuilder.append("\\\\");
+                        break;
+                    case '"':
+                        labelsBuilder.append("\\\"");
+                        break;
+                    case '\n':
+                        labelsBuilder.append("\\n");
+                        break;
+                    default:
+                        labelsBuilder.append(c);
+                }
+            }
+            labelsBuilder.append('"');
+        }
+        return labelsBuilder.toString();
+    }
+
+    private static class Family {
+        private final String help;
+        private final Type type;
+        private final ConcurrentMap<String, Object> metrics = Maps.newConcurrentMap();
+
+        private Family(String help, Type type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    public static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    private static class Gauge {
+        private final DoubleSupplier supplier;
+
+        private Gauge(DoubleSupplier supplier) {
+            this.supplier = supplier;
+        }
+    }
+
+    public static class Timer {
+        private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS_NANOS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Timer() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long durationNanos) {
+            int bucket = Arrays.binarySearch(LATENCY_BUCKETS_NANOS, durationNanos);
+            // Upper bounds are inclusive; on miss binarySearch returns -(insertion point) - 1
+            buckets[bucket >= 0 ? bucket : -bucket - 1].increment();
+            sumNanos.add(durationNanos);
+        }
+
+        public void record(long duration, TimeUnit unit) {
+            record(unit.toNanos(duration));
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            long count = 0L;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+    }
+
+    public static class Histogram {
+        private final double[] bounds;
+        private final LongAdder[] buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Histogram(double[] bounds) {
+            this.bounds = bounds.clone();
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(double value) {
+            int bucket = Arrays.binarySearch(bounds, value);
+            // Upper bounds are inclusive; on miss binarySearch returns -(insertion point) - 1
+            buckets[bucket >= 0 ? bucket : -bucket - 1].increment();
+            sum.add(value);
+        }
+
+        public long getCount() {
+            long count = 0L;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(Metrics.class);
+            }
+        };
+    }
+}
@@ -2,15 +2,20 @@
 // SPDX-License-Identifier: AGPL-3.0-only
 package com.smotana.clearflask.core.push;
 
+import com.google.common.base.MoreObjects;
 import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -22,12 +27,14 @@ import com.smotana.clearflask.api.model.ConfigAdmin;
 import com.smotana.clearflask.api.model.IdeaStatus;
 import com.smotana.clearflask.api.model.NotifySubscribers;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.Metrics;
 import com.smotana.clearflask.core.push.message.EmailLogin;
 import com.smotana.clearflask.core.push.message.EmailVerify;
 import com.smotana.clearflask.core.push.message.OnAccountSignup;
 import com.smotana.clearflask.core.push.message.OnCommentReply;
 import com.smotana.clearflask.core.push.message.OnCommentReply.AuthorType;
 import com.smotana.clearflask.core.push.message.OnCreditChange;
+import com.smotana.clearflask.core.push.message.OnDigest;
 import com.smotana.clearflask.core.push.message.OnEmailChanged;
 import com.smotana.clearflask.core.push.message.OnForgotPassword;
 import com.smotana.clearflask.core.push.message.OnModInvite;
@@ -38,37 +45,65 @@ import com.smotana.clearflask.core.push.message.OnStatusOrResponseChange.Subscri
 import com.smotana.clearflask.core.push.message.OnTeammateInvite;
 import com.smotana.clearflask.core.push.message.OnTrialEnded;
 import com.smotana.clearflask.core.push.provider.BrowserPushService;
+import com.smotana.clearflask.core.push.provider.BrowserPushService.BrowserPush;
 import com.smotana.clearflask.core.push.provider.EmailService;
+import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import com.smotana.clearflask.core.push.provider.EmailService.Recipient;
+import com.smotana.clearflask.core.trace.Tracer;
+import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.AccountStore.Account;
+import com.smotana.clearflask.store.CommentStore;
 import com.smotana.clearflask.store.CommentStore.CommentModel;
+import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.NotificationStore;
 import com.smotana.clearflask.store.NotificationStore.NotificationModel;
+import com.smotana.clearflask.store.OutboxStore;
+import com.smotana.clearflask.store.OutboxStore.OutboxModel;
+import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.InvitationModel;
 import com.smotana.clearflask.store.ProjectStore.Project;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.store.UserStore.UserNotificationView;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.ListResponse;
 import com.smotana.clearflask.store.VoteStore.TransactionModel;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.Sanitizer;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -98,11 +133,91 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
 
         @DefaultValue("false")
         boolean notifyPaymentFailedBecauseNoPaymentMethod();
+
+        @DefaultValue("4")
+        int workerThreads();
+
+        /**
+         * Maximum number of queued tasks, further submissions block for up to {@link #submitTimeout()}.
+         */
+        @DefaultValue("10000")
+        int queueCapacity();
+
+        @DefaultValue("PT5S")
+        Duration submitTimeout();
+
+        /**
+         * Number of recipients handled by a single work item during fan-out.
+         */
+        @DefaultValue("100")
+        int fanOutBatchSize();
+
+        /**
+         * Post notifications for a user arriving within this window are combined into a single digest, counted
+         * from the first one. For example PT5M or PT1H. Zero sends each notification immediately.
+         */
+        @DefaultValue("PT0S")
+        Duration digestWindow();
+
+        /**
+         * Number of posts pending in a digest at which it is sent before the window closes.
+         */
+        @DefaultValue("50")
+        int digestMaxEvents();
+
+        /**
+         * Persist the type and ids of each event to the outbox before processing it. Events a node did not finish,
+         * including their fan-out batches, are loaded again from the stores and processed by any node once the lease
+         * expires. Pending digests and emails carrying a one-time token are still held in memory only.
+         */
+        @DefaultValue("true")
+        boolean useOutbox();
+
+        @DefaultValue("PT10S")
+        Duration outboxDrainInterval();
+
+        @DefaultValue("25")
+        int outboxDrainBatchSize();
+
+        /**
+         * Must exceed the time an event spends queued and processed, otherwise it may be sent twice.
+         */
+        @DefaultValue("PT10M")
+        Duration outboxLeaseDuration();
+
+        @DefaultValue("3")
+        long outboxMaxLeaseAttempts();
+    }
+
+    private static final String OUTBOX_TYPE = "notification";
+
+    /**
+     * Lower ordinal is served first.
+     */
+    public enum Priority {
+        TRANSACTIONAL,
+        BULK
+    }
+
+    private enum EventType {
+        STATUS_OR_RESPONSE_CHANGED,
+        CREDIT_CHANGED,
+        COMMENT_REPLY,
+        FORGOT_PASSWORD,
+        TRIAL_ENDED,
+        PAYMENT_FAILED,
+        MOD_INVITE,
+        TEAMMATE_INVITE,
+        EMAIL_CHANGED,
+        POST_CREATED,
+        ACCOUNT_SIGNUP
     }
 
     @Inject
     private Config config;
     @Inject
+    private Metrics metrics;
+    @Inject
     private Application.Config configApp;
     @Inject
     private EmailService emailService;
@@ -137,25 +252,68 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
     @Inject
     private OnPostCreated onPostCreated;
     @Inject
+    private OnDigest onDigest;
+    @Inject
     private EmailVerify emailVerify;
     @Inject
     private EmailLogin emailLogin;
     @Inject
     private Sanitizer sanitizer;
+    @Inject
+    private Gson gson;
+    @Inject
+    private OutboxStore outboxStore;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private CommentStore commentStore;
+    @Inject
+    private AccountStore accountStore;
 
-    private ListeningExecutorService executor;
+    private final AtomicLong taskSequence = new AtomicLong();
+    private final ImmutableMap<Priority, AtomicInteger> queueDepths = Arrays.stream(Priority.values())
+            .collect(ImmutableMap.toImmutableMap(p -> p, p -> new AtomicInteger()));
+    private final LongAdder rejectedCount = new LongAdder();
+    private final ConcurrentMap<DigestKey, DigestBuffer> digestBuffers = Maps.newConcurrentMap();
+    /** Outbox entry being replayed on the drainer thread, taken over by the next submitted event */
+    private final ThreadLocal<OutboxModel> replayEntry = new ThreadLocal<>();
+    /** Outbox entry of the task running on a worker thread, carried over to its continuations */
+    private final ThreadLocal<OutboxTracker> currentTracker = new ThreadLocal<>();
+    private ThreadPoolExecutor executor;
+    private Semaphore queuePermits;
+    private ScheduledExecutorService digestScheduler;
+    private ScheduledExecutorService outboxExecutor;
 
     @Override
     protected void serviceStart() throws Exception {
-        executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
-                2, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+        queuePermits = new Semaphore(config.queueCapacity());
+        executor = metrics.monitorExecutor("NotificationServiceImpl-worker", new ThreadPoolExecutor(
+                config.workerThreads(), config.workerThreads(), 60L, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
                 new ThreadFactoryBuilder().setNameFormat("NotificationServiceImpl-worker-%d").build()));
+        executor.allowCoreThreadTimeOut(true);
+        digestScheduler = metrics.monitorExecutor("NotificationServiceImpl-digest", new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("NotificationServiceImpl-digest-%d").build()));
+        outboxExecutor = metrics.monitorExecutor("NotificationServiceImpl-outbox", new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("NotificationServiceImpl-outbox-%d").build()));
+        outboxExecutor.scheduleWithFixedDelay(this::drainOutbox,
+                config.outboxDrainInterval().toMillis(), config.outboxDrainInterval().toMillis(), TimeUnit.MILLISECONDS);
     }
 
     @Override
     protected void serviceStop() throws Exception {
-        executor.shutdownNow();
-        executor.awaitTermination(30, TimeUnit.SECONDS);
+        outboxExecutor.shutdownNow();
+
+        // Send out pending digests early rather than losing them
+        digestScheduler.shutdownNow();
+        ImmutableMap.copyOf(digestBuffers).forEach(this::flushDigest);
+
+        // Finish queued work on graceful shutdown, dropped tasks are left leased in the outbox for another node
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Dropping {} queued notification tasks on shutdown", executor.shutdownNow().size());
+        }
     }
 
     @Override
@@ -164,7 +322,14 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(Priority.BULK, OutboxEvent.builder()
+                .type(EventType.STATUS_OR_RESPONSE_CHANGED)
+                .projectId(idea.getProjectId())
+                .ideaId(idea.getIdeaId())
+                .senderUserId(senderOpt.map(UserModel::getUserId).orElse(null))
+                .statusChanged(statusChanged)
+                .responseChanged(responseChanged)
+                .build(), () -> {
             checkArgument(statusChanged || responseChanged);
 
             Optional<IdeaStatus> changedStatus;
@@ -197,35 +362,43 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/post/" + idea.getIdeaId();
 
             Set<String> userSeen = Sets.newHashSet();
-            BiConsumer<SubscriptionAction, UserModel> sendToUser = (subscriptionAction, user) -> {
-                if (!userSeen.add(user.getUserId())) {
-                    return;
+            // Returns email recipient to be sent in bulk with others sharing the same subscription action
+            BiFunction<SubscriptionAction, UserNotificationView, Optional<Recipient>> sendToUser = (subscriptionAction, user) -> {
+                NotificationModel inApp = new NotificationModel(
+                        idea.getProjectId(),
+                        user.getUserId(),
+                        notificationStore.genNotificationId(),
+                        idea.getIdeaId(),
+                        null,
+                        Instant.now(),
+                        Instant.now().plus(config.notificationExpiry()).getEpochSecond(),
+                        onStatusOrResponseChange.inAppDescription(
+                                user, idea, configAdmin, subscriptionAction,
+                                link, changedStatus, changedResponse));
+                if (isDigestEnabled()) {
+                    addToDigest(configAdmin, user, new DigestEvent(
+                            inApp,
+                            authToken -> onStatusOrResponseChange.email(
+                                    user, idea, configAdmin, subscriptionAction,
+                                    link, changedStatus, changedResponse, authToken),
+                            authToken -> onStatusOrResponseChange.browserPush(
+                                    user, idea, configAdmin, subscriptionAction,
+                                    link, changedStatus, changedResponse, authToken)));
+                    return Optional.empty();
                 }
-
                 try {
-                    notificationStore.notificationCreate(new NotificationModel(
-                            idea.getProjectId(),
-                            user.getUserId(),
-                            notificationStore.genNotificationId(),
-                            idea.getIdeaId(),
-                            null,
-                            Instant.now(),
-                            Instant.now().plus(config.notificationExpiry()).getEpochSecond(),
-                            onStatusOrResponseChange.inAppDescription(
-                                    user, idea, configAdmin, subscriptionAction,
-                                    link, changedStatus, changedResponse)));
+                    notificationStore.notificationCreate(inApp);
                 } catch (Exception ex) {
                     log.warn("Failed to send in-app notification", ex);
                 }
                 Optional<String> authTokenOpt = Optional.empty();
+                Optional<Recipient> emailRecipientOpt = Optional.empty();
                 try {
                     if (user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail())) {
                         if (!authTokenOpt.isPresent()) {
                             authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), config.autoLoginExpiry()));
                         }
-                        emailService.send(onStatusOrResponseChange.email(
-                                user, idea, configAdmin, subscriptionAction,
-                                link, changedStatus, changedResponse, authTokenOpt.get()));
+                        emailRecipientOpt = Optional.of(onStatusOrResponseChange.emailRecipient(user, authTokenOpt.get()));
                     }
                 } catch (Exception ex) {
                     log.warn("Failed to send email notification", ex);
@@ -242,11 +415,32 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
                 } catch (Exception ex) {
                     log.warn("Failed to send browser push notification", ex);
                 }
+                return emailRecipientOpt;
             };
             Subscribers subscribers = getSubscribers(idea, senderOpt);
-            subscribers.usersExpressed.forEach(user -> sendToUser.accept(EXPRESSED, user));
-            subscribers.usersFunded.forEach(user -> sendToUser.accept(FUNDED, user));
-            subscribers.usersVoted.forEach(user -> sendToUser.accept(VOTED, user));
+            ImmutableList<Map.Entry<SubscriptionAction, UserNotificationView>> recipients = Stream.of(
+                            subscribers.usersExpressed.stream().map(user -> Maps.immutableEntry(EXPRESSED, user)),
+                            subscribers.usersFunded.stream().map(user -> Maps.immutableEntry(FUNDED, user)),
+                            subscribers.usersVoted.stream().map(user -> Maps.immutableEntry(VOTED, user)))
+                    .flatMap(s -> s)
+                    .filter(recipient -> userSeen.add(recipient.getValue().getUserId()))
+                    .collect(ImmutableList.toImmutableList());
+            for (List<Map.Entry<SubscriptionAction, UserNotificationView>> batch : Iterables.partition(recipients, config.fanOutBatchSize())) {
+                submitContinuation(Priority.BULK, () -> {
+                    ListMultimap<SubscriptionAction, Recipient> emailRecipients = ArrayListMultimap.create();
+                    batch.forEach(recipient -> sendToUser.apply(recipient.getKey(), recipient.getValue())
+                            .ifPresent(emailRecipient -> emailRecipients.put(recipient.getKey(), emailRecipient)));
+                    emailRecipients.asMap().forEach((subscriptionAction, subscriptionActionRecipients) -> {
+                        try {
+                            emailService.sendBulk(onStatusOrResponseChange.emailBulk(
+                                    idea, configAdmin, subscriptionAction, link, changedStatus, changedResponse,
+                                    ImmutableList.copyOf(subscriptionActionRecipients)));
+                        } catch (Exception ex) {
+                            log.warn("Failed to send email notification", ex);
+                        }
+                    });
+                });
+            }
         });
     }
 
@@ -256,7 +450,12 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(Priority.TRANSACTIONAL, OutboxEvent.builder()
+                .type(EventType.CREDIT_CHANGED)
+                .projectId(transaction.getProjectId())
+                .userId(user.getUserId())
+                .transaction(transaction)
+                .build(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/transaction";
 
             try {
@@ -313,30 +512,45 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.trace("Not sending notification, user is replying to self");
             return;
         }
-        submit(() -> {
+        submit(Priority.TRANSACTIONAL, OutboxEvent.builder()
+                .type(EventType.COMMENT_REPLY)
+                .projectId(idea.getProjectId())
+                .ideaId(idea.getIdeaId())
+                .parentCommentId(parentCommentOpt.map(CommentModel::getCommentId).orElse(null))
+                .commentId(comment.getCommentId())
+                .senderUserId(sender.getUserId())
+                .build(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/post/" + idea.getIdeaId() + "/comment/" + comment.getCommentId();
 
-            Optional<UserModel> userOpt = userStore.getUser(idea.getProjectId(), userId);
+            Optional<UserNotificationView> userOpt = userStore.getUserForNotification(idea.getProjectId(), userId);
             if (!userOpt.isPresent()) {
                 log.warn("Cannot send comment notification, user disappeared {} commentId {}",
                         userId, comment.getCommentId());
                 return;
             }
-            UserModel user = userOpt.get();
+            UserNotificationView user = userOpt.get();
             AuthorType userAuthorType = parentCommentOpt.isPresent()
                     ? AuthorType.COMMENT_REPLY
                     : AuthorType.IDEA_REPLY;
 
+            NotificationModel inApp = new NotificationModel(
+                    idea.getProjectId(),
+                    user.getUserId(),
+                    notificationStore.genNotificationId(),
+                    idea.getIdeaId(),
+                    comment.getCommentId(),
+                    Instant.now(),
+                    Instant.now().plus(config.notificationExpiry()).getEpochSecond(),
+                    onCommentReply.inAppDescription(user, userAuthorType, sender, idea, comment, link));
+            if (isDigestEnabled()) {
+                addToDigest(configAdmin, user, new DigestEvent(
+                        inApp,
+                        authToken -> onCommentReply.email(user, userAuthorType, sender, idea, comment, configAdmin, link, authToken),
+                        authToken -> onCommentReply.browserPush(user, userAuthorType, sender, idea, comment, link, authToken)));
+                return;
+            }
             try {
-                notificationStore.notificationCreate(new NotificationModel(
-                        idea.getProjectId(),
-                        user.getUserId(),
-                        notificationStore.genNotificationId(),
-                        idea.getIdeaId(),
-                        comment.getCommentId(),
-                        Instant.now(),
-                        Instant.now().plus(config.notificationExpiry()).getEpochSecond(),
-                        onCommentReply.inAppDescription(user, userAuthorType, sender, idea, comment, link)));
+                notificationStore.notificationCreate(inApp);
             } catch (Exception ex) {
                 log.warn("Failed to send in-app notification", ex);
             }
@@ -370,7 +584,11 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(Priority.TRANSACTIONAL, OutboxEvent.builder()
+                .type(EventType.FORGOT_PASSWORD)
+                .projectId(user.getProjectId())
+                .userId(user.getUserId())
+                .build(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/account";
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -390,7 +608,12 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(Priority.TRANSACTIONAL, OutboxEvent.builder()
+                .type(EventType.TRIAL_ENDED)
+                .accountId(accountId)
+                .email(accountEmail)
+                .hasPaymentMethod(hasPaymentMethod)
+                .build(), () -> {
             String link = "https://" + configApp.domain() + "/dashboard";
             if (!hasPaymentMethod) {
                 link += "/billing";
@@ -415,7 +638,14 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             // Only notify when has payment method, mainly to not duplicate emails right after trial ended
             return;
         }
-        submit(() -> {
+        submit(Priority.TRANSACTIONAL, OutboxEvent.builder()
+                .type(EventType.PAYMENT_FAILED)
+                .accountId(accountId)
+                .email(accountEmail)
+                .amount(amount)
+                .requiresAction(requiresAction)
+                .hasPaymentMethod(hasPaymentMethod)
+                .build(), () -> {
             String link = "https://" + configApp.domain() + "/dashboard/billing";
             checkState(!Strings.isNullOrEmpty(accountEmail));
 
@@ -437,7 +667,11 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.trace("On mod invite with user having no email {}", user);
             return;
         }
-        submit(() -> {
+        submit(Priority.TRANSACTIONAL, OutboxEvent.builder()
+                .type(EventType.MOD_INVITE)
+                .projectId(user.getProjectId())
+                .userId(user.getUserId())
+                .build(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/account";
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -457,7 +691,10 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(Priority.TRANSACTIONAL, OutboxEvent.builder()
+                .type(EventType.TEAMMATE_INVITE)
+                .invitationId(invitation.getInvitationId())
+                .build(), () -> {
             String link = "https://" + configApp.domain() + "/invitation/" + invitation.getInvitationId();
             try {
                 emailService.send(onTeammateInvite.email(invitation, link));
@@ -477,7 +714,12 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.warn("On email changed with user having no email {}", user);
             return;
         }
-        submit(() -> {
+        submit(Priority.TRANSACTIONAL, OutboxEvent.builder()
+                .type(EventType.EMAIL_CHANGED)
+                .projectId(user.getProjectId())
+                .userId(user.getUserId())
+                .email(oldEmail)
+                .build(), () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp) + "/account";
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -497,7 +739,8 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        // Kept off the outbox so the one-time token is never persisted
+        submit(Priority.TRANSACTIONAL, () -> {
             try {
                 emailService.send(emailVerify.email(configAdmin, email, token));
             } catch (Exception ex) {
@@ -512,7 +755,8 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        // Kept off the outbox so the one-time token is never persisted
+        submit(Priority.TRANSACTIONAL, () -> {
             String link = "https://" + Project.getHostname(configAdmin, configApp);
             checkState(!Strings.isNullOrEmpty(user.getEmail()));
 
@@ -537,67 +781,89 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
                 .isPresent()) {
             return;
         }
-        submit(() -> {
-            String projectId = project.getProjectId();
-            ConfigAdmin configAdmin = project.getVersionedConfigAdmin().getConfig();
-            String link = "https://"
-                    + Project.getHostname(configAdmin, configApp)
-                    + "/post/"
-                    + idea.getIdeaId();
+        submit(Priority.BULK, OutboxEvent.builder()
+                .type(EventType.POST_CREATED)
+                .projectId(project.getProjectId())
+                .ideaId(idea.getIdeaId())
+                .userId(author.getUserId())
+                .notifySubscribers(notifySubscribers)
+                .build(), () -> onPostCreatedBatch(project, idea, notifySubscribers, Optional.empty()));
+    }
 
-            Optional<String> cursor = Optional.empty();
-            do {
-                ListResponse<VoteStore.VoteModel> subscriptionsBatch = voteStore.voteListByTarget(projectId, idea.getCategoryId(), cursor);
-                cursor = subscriptionsBatch.getCursorOpt();
+    private void onPostCreatedBatch(Project project, IdeaModel idea, NotifySubscribers notifySubscribers, Optional<String> cursor) {
+        String projectId = project.getProjectId();
+        ConfigAdmin configAdmin = project.getVersionedConfigAdmin().getConfig();
+        String link = "https://"
+                + Project.getHostname(configAdmin, configApp)
+                + "/post/"
+                + idea.getIdeaId();
 
-                ImmutableMap<String, UserModel> subscribersBatch = userStore.getUsers(
+        ListResponse<VoteStore.VoteModel> subscriptionsBatch = voteStore.voteListByTarget(projectId, idea.getCategoryId(), cursor);
+        if (subscriptionsBatch.getCursorOpt().isPresent()) {
+            // Queue up next page as its own work item
+            submitContinuation(Priority.BULK, () -> onPostCreatedBatch(project, idea, notifySubscribers, subscriptionsBatch.getCursorOpt()));
+        }
+
+        ImmutableMap<String, UserNotificationView> subscribersBatch = userStore.getUsersForNotification(
+                projectId,
+                subscriptionsBatch.getItems().stream()
+                        .map(VoteStore.VoteModel::getUserId)
+                        .collect(ImmutableList.toImmutableList()));
+
+        ImmutableMap<String, NotificationModel> inAppByUserId = subscribersBatch.values().stream()
+                .collect(ImmutableMap.toImmutableMap(UserNotificationView::getUserId, user -> new NotificationModel(
                         projectId,
-                        subscriptionsBatch.getItems().stream()
-                                .map(VoteStore.VoteModel::getUserId)
-                                .collect(ImmutableList.toImmutableList()));
+                        user.getUserId(),
+                        notificationStore.genNotificationId(),
+                        idea.getIdeaId(),
+                        null,
+                        idea.getCreated(),
+                        Instant.now().plus(this.config.notificationExpiry()).getEpochSecond(),
+                        onPostCreated.inAppDescription(notifySubscribers, configAdmin, user))));
+        if (isDigestEnabled()) {
+            subscribersBatch.values().forEach(user -> addToDigest(configAdmin, user, new DigestEvent(
+                    inAppByUserId.get(user.getUserId()),
+                    authToken -> onPostCreated.email(notifySubscribers, configAdmin, user, link, authToken),
+                    authToken -> onPostCreated.browserPush(notifySubscribers, configAdmin, user, link, authToken))));
+            return;
+        }
 
-                try {
-                    notificationStore.notificationsCreate(subscribersBatch.values().stream()
-                            .map(user -> new NotificationModel(
-                                    projectId,
-                                    user.getUserId(),
-                                    notificationStore.genNotificationId(),
-                                    idea.getIdeaId(),
-                                    null,
-                                    idea.getCreated(),
-                                    Instant.now().plus(this.config.notificationExpiry()).getEpochSecond(),
-                                    onPostCreated.inAppDescription(notifySubscribers, configAdmin, user)))
-                            .collect(ImmutableList.toImmutableList()));
-                } catch (Exception ex) {
-                    log.warn("Failed to send in-app notification", ex);
-                }
+        try {
+            notificationStore.notificationsCreate(inAppByUserId.values());
+        } catch (Exception ex) {
+            log.warn("Failed to send in-app notification", ex);
+        }
 
-                subscribersBatch.values().forEach(user -> {
-                    Optional<String> authTokenOpt = Optional.empty();
-                    try {
-                        if (user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail())) {
-                            if (!authTokenOpt.isPresent()) {
-                                authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), this.config.autoLoginExpiry()));
-                            }
-                            emailService.send(onPostCreated.email(notifySubscribers, configAdmin, user, link, authTokenOpt.get()));
-                        }
-                    } catch (Exception ex) {
-                        log.warn("Failed to send email notification", ex);
+        ImmutableList.Builder<Recipient> emailRecipientsBuilder = ImmutableList.builder();
+        subscribersBatch.values().forEach(user -> {
+            Optional<String> authTokenOpt = Optional.empty();
+            try {
+                if (user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail())) {
+                    if (!authTokenOpt.isPresent()) {
+                        authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), this.config.autoLoginExpiry()));
                     }
-                    try {
-                        if (!Strings.isNullOrEmpty(user.getBrowserPushToken())) {
-                            if (!authTokenOpt.isPresent()) {
-                                authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), this.config.autoLoginExpiry()));
-                            }
-                            browserPushService.send(onPostCreated.browserPush(notifySubscribers, configAdmin, user, link, authTokenOpt.get()));
-                        }
-                    } catch (Exception ex) {
-                        log.warn("Failed to send browser push notification", ex);
+                    emailRecipientsBuilder.add(onPostCreated.emailRecipient(user, authTokenOpt.get()));
+                }
+            } catch (Exception ex) {
+                log.warn("Failed to send email notification", ex);
+            }
+            try {
+                if (!Strings.isNullOrEmpty(user.getBrowserPushToken())) {
+                    if (!authTokenOpt.isPresent()) {
+                        authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), this.config.autoLoginExpiry()));
                     }
-                });
-
-            } while (cursor.isPresent());
+                    browserPushService.send(onPostCreated.browserPush(notifySubscribers, configAdmin, user, link, authTokenOpt.get()));
+                }
+            } catch (Exception ex) {
+                log.warn("Failed to send browser push notification", ex);
+            }
         });
+
+        try {
+            emailService.sendBulk(onPostCreated.emailBulk(notifySubscribers, configAdmin, link, emailRecipientsBuilder.build()));
+        } catch (Exception ex) {
+            log.warn("Failed to send email notification", ex);
+        }
     }
 
     @Override
@@ -606,7 +872,10 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
             log.debug("Not enabled, skipping");
             return;
         }
-        submit(() -> {
+        submit(Priority.TRANSACTIONAL, OutboxEvent.builder()
+                .type(EventType.ACCOUNT_SIGNUP)
+                .accountId(account.getAccountId())
+                .build(), () -> {
             String link = "https://" + configApp.domain() + "/dashboard";
 
             try {
@@ -666,7 +935,7 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
         if (userIds.isEmpty()) {
             return new Subscribers(ImmutableSet.of(), ImmutableSet.of(), ImmutableSet.of());
         }
-        ImmutableMap<String, UserModel> usersById = userStore.getUsers(idea.getProjectId(), userIds);
+        ImmutableMap<String, UserNotificationView> usersById = userStore.getUsersForNotification(idea.getProjectId(), userIds);
 
         return new Subscribers(
                 userIdsFund.stream()
@@ -680,16 +949,303 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
                         .map(usersById::get).filter(Objects::nonNull).collect(ImmutableSet.toImmutableSet()));
     }
 
-    private void submit(Runnable task) {
-        executor.submit(() -> {
-            try {
-                task.run();
-            } catch (Throwable th) {
-                log.warn("Failed to complete task", th);
+    @Extern
+    public ImmutableMap<Priority, Integer> getQueueDepths() {
+        return queueDepths.entrySet().stream()
+                .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, e -> e.getValue().get()));
+    }
+
+    @Extern
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Extern
+    public int getPendingDigestCount() {
+        return digestBuffers.size();
+    }
+
+    private boolean isDigestEnabled() {
+        return !config.digestWindow().isZero();
+    }
+
+    private void addToDigest(ConfigAdmin configAdmin, UserNotificationView user, DigestEvent event) {
+        DigestKey key = new DigestKey(user.getProjectId(), user.getUserId());
+        digestBuffers.compute(key, (k, buffer) -> {
+            if (buffer == null) {
+                buffer = new DigestBuffer();
+                DigestBuffer bufferNew = buffer;
+                try {
+                    digestScheduler.schedule(() -> flushDigest(key, bufferNew), config.digestWindow().toMillis(), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ex) {
+                    log.warn("Digest scheduler rejected, shutting down?", ex);
+                }
+            }
+            buffer.add(configAdmin, user, event);
+            if (buffer.size() >= config.digestMaxEvents()) {
+                DigestBuffer bufferFull = buffer;
+                try {
+                    digestScheduler.execute(() -> flushDigest(key, bufferFull));
+                } catch (RejectedExecutionException ex) {
+                    log.warn("Digest scheduler rejected, shutting down?", ex);
+                }
             }
+            return buffer;
         });
     }
 
+    private void flushDigest(DigestKey key, DigestBuffer buffer) {
+        // Only flush the buffer we were scheduled for, it may have been replaced by a fresh one
+        if (!digestBuffers.remove(key, buffer)) {
+            return;
+        }
+        submit(Priority.BULK, () -> sendDigest(buffer));
+    }
+
+    private void sendDigest(DigestBuffer buffer) {
+        ConfigAdmin configAdmin = buffer.getConfigAdmin();
+        UserNotificationView user = buffer.getUser();
+        ImmutableList<DigestEvent> events = buffer.getEvents();
+        String link = "https://" + Project.getHostname(configAdmin, configApp);
+        ImmutableList<String> descriptions = events.stream()
+                .map(event -> event.getInApp().getDescription())
+                .collect(ImmutableList.toImmutableList());
+
+        try {
+            notificationStore.notificationsCreate(events.stream()
+                    .map(DigestEvent::getInApp)
+                    .collect(ImmutableList.toImmutableList()));
+        } catch (Exception ex) {
+            log.warn("Failed to send in-app notification", ex);
+        }
+        Optional<String> authTokenOpt = Optional.empty();
+        try {
+            if (user.isEmailNotify() && !Strings.isNullOrEmpty(user.getEmail())) {
+                if (!authTokenOpt.isPresent()) {
+                    authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), config.autoLoginExpiry()));
+                }
+                emailService.send(events.size() == 1
+                        ? events.get(0).getEmail().apply(authTokenOpt.get())
+                        : onDigest.email(configAdmin, user, descriptions, link, authTokenOpt.get()));
+            }
+        } catch (Exception ex) {
+            log.warn("Failed to send email notification", ex);
+        }
+        try {
+            if (!Strings.isNullOrEmpty(user.getBrowserPushToken())) {
+                if (!authTokenOpt.isPresent()) {
+                    authTokenOpt = Optional.of(userStore.createToken(user.getProjectId(), user.getUserId(), config.autoLoginExpiry()));
+                }
+                browserPushService.send(events.size() == 1
+                        ? events.get(0).getBrowserPush().apply(authTokenOpt.get())
+                        : onDigest.browserPush(configAdmin, user, descriptions, link, authTokenOpt.get()));
+            }
+        } catch (Exception ex) {
+            log.warn("Failed to send browser push notification", ex);
+        }
+    }
+
+    /**
+     * Submits a new event, first persisting it to the outbox unless it is an entry being replayed.
+     */
+    private void submit(Priority priority, OutboxEvent event, Runnable task) {
+        Optional<OutboxModel> entryOpt = Optional.ofNullable(replayEntry.get());
+        replayEntry.remove();
+        if (!entryOpt.isPresent() && config.useOutbox()) {
+            try {
+                entryOpt = Optional.of(outboxStore.enqueueLeased(OUTBOX_TYPE, gson.toJson(event), config.outboxLeaseDuration()));
+            } catch (Exception ex) {
+                log.warn("Failed to write notification event {} to outbox, processing from memory only", event.getType(), ex);
+            }
+        }
+        submit(priority, entryOpt.map(OutboxTracker::new), task);
+    }
+
+    private void submit(Priority priority, Runnable task) {
+        submit(priority, Optional.empty(), task);
+    }
+
+    /**
+     * Submits a new task, blocking while the queue is at capacity.
+     */
+    private void submit(Priority priority, Optional<OutboxTracker> trackerOpt, Runnable task) {
+        boolean acquired;
+        try {
+            acquired = queuePermits.tryAcquire(config.submitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            rejectedCount.increment();
+            log.warn("Notification queue full with depths {}, dropping {} task", getQueueDepths(), priority);
+            return;
+        }
+        enqueue(priority, task, true, trackerOpt);
+    }
+
+    /**
+     * Submits a follow-up task from within a running task. Bypasses the queue capacity as it only replaces work
+     * already accounted for, and blocking a worker on its own queue could starve the pool.
+     */
+    private void submitContinuation(Priority priority, Runnable task) {
+        enqueue(priority, task, false, Optional.ofNullable(currentTracker.get()));
+    }
+
+    private void enqueue(Priority priority, Runnable task, boolean holdsPermit, Optional<OutboxTracker> trackerOpt) {
+        Runnable tracedTask = Tracer.wrap("NotificationService task", task);
+        queueDepths.get(priority).incrementAndGet();
+        trackerOpt.ifPresent(OutboxTracker::retain);
+        try {
+            executor.execute(new PrioritizedTask(priority, taskSequence.getAndIncrement(), () -> {
+                queueDepths.get(priority).decrementAndGet();
+                if (holdsPermit) {
+                    queuePermits.release();
+                }
+                trackerOpt.ifPresent(currentTracker::set);
+                try {
+                    tracedTask.run();
+                } catch (Throwable th) {
+                    log.warn("Failed to complete task", th);
+                } finally {
+                    currentTracker.remove();
+                    trackerOpt.ifPresent(OutboxTracker::release);
+                }
+            }));
+        } catch (RejectedExecutionException ex) {
+            // Tracker is left retained so the outbox entry stays leased and is replayed once it expires
+            queueDepths.get(priority).decrementAndGet();
+            if (holdsPermit) {
+                queuePermits.release();
+            }
+            rejectedCount.increment();
+            log.warn("Notification executor rejected {} task, shutting down?", priority, ex);
+        }
+    }
+
+    private void drainOutbox() {
+        if (!config.useOutbox()) {
+            return;
+        }
+        try {
+            for (long shard = 0; shard < outboxStore.getShardCount(); shard++) {
+                for (OutboxModel entry : outboxStore.lease(OUTBOX_TYPE, shard, config.outboxDrainBatchSize(), config.outboxLeaseDuration())) {
+                    if (entry.getAttempt() > config.outboxMaxLeaseAttempts()) {
+                        log.warn("Giving up on notification outbox entry after {} leases, entryId {}", entry.getAttempt() - 1, entry.getEntryId());
+                        outboxStore.complete(entry);
+                        continue;
+                    }
+                    replay(entry);
+                }
+            }
+        } catch (Exception ex) {
+            if (LogUtil.rateLimitAllowLog("notificationService-outbox-drain-failed")) {
+                log.warn("Failed to drain notification outbox", ex);
+            }
+        }
+    }
+
+    private void replay(OutboxModel entry) {
+        replayEntry.set(entry);
+        try {
+            replay(gson.fromJson(entry.getPayload(), OutboxEvent.class));
+        } catch (Exception ex) {
+            log.warn("Failed to replay notification outbox entry {}, dropping", entry.getEntryId(), ex);
+        } finally {
+            // Not taken over by a submitted event, such as when the event no longer applies
+            if (replayEntry.get() != null) {
+                replayEntry.remove();
+                outboxStore.complete(entry);
+            }
+        }
+    }
+
+    /**
+     * Loads all models referenced by an event as they are now and raises the event again.
+     */
+    private void replay(OutboxEvent event) {
+        String projectId = event.getProjectId();
+        switch (event.getType()) {
+            case STATUS_OR_RESPONSE_CHANGED:
+                onStatusOrResponseChanged(
+                        getConfigAdmin(projectId),
+                        require(ideaStore.getIdea(projectId, event.getIdeaId())),
+                        event.isStatusChanged(),
+                        event.isResponseChanged(),
+                        Optional.ofNullable(event.getSenderUserId())
+                                .flatMap(senderUserId -> userStore.getUser(projectId, senderUserId)));
+                break;
+            case CREDIT_CHANGED:
+                onCreditChanged(
+                        getConfigAdmin(projectId),
+                        require(userStore.getUser(projectId, event.getUserId())),
+                        event.getTransaction());
+                break;
+            case COMMENT_REPLY:
+                onCommentReply(
+                        getConfigAdmin(projectId),
+                        require(ideaStore.getIdea(projectId, event.getIdeaId())),
+                        Optional.ofNullable(event.getParentCommentId())
+                                .map(parentCommentId -> require(commentStore.getComment(projectId, event.getIdeaId(), parentCommentId))),
+                        require(commentStore.getComment(projectId, event.getIdeaId(), event.getCommentId())),
+                        require(userStore.getUser(projectId, event.getSenderUserId())));
+                break;
+            case FORGOT_PASSWORD:
+                onForgotPassword(
+                        getConfigAdmin(projectId),
+                        require(userStore.getUser(projectId, event.getUserId())));
+                break;
+            case TRIAL_ENDED:
+                onTrialEnded(
+                        event.getAccountId(),
+                        event.getEmail(),
+                        event.isHasPaymentMethod());
+                break;
+            case PAYMENT_FAILED:
+                onPaymentFailed(
+                        event.getAccountId(),
+                        event.getEmail(),
+                        event.getAmount(),
+                        event.isRequiresAction(),
+                        event.isHasPaymentMethod());
+                break;
+            case MOD_INVITE:
+                onModInvite(
+                        getConfigAdmin(projectId),
+                        require(userStore.getUser(projectId, event.getUserId())));
+                break;
+            case TEAMMATE_INVITE:
+                onTeammateInvite(require(projectStore.getInvitation(event.getInvitationId())));
+                break;
+            case EMAIL_CHANGED:
+                onEmailChanged(
+                        getConfigAdmin(projectId),
+                        require(userStore.getUser(projectId, event.getUserId())),
+                        event.getEmail());
+                break;
+            case POST_CREATED:
+                onPostCreated(
+                        require(projectStore.getProject(projectId, true)),
+                        require(ideaStore.getIdea(projectId, event.getIdeaId())),
+                        event.getNotifySubscribers(),
+                        require(userStore.getUser(projectId, event.getUserId())));
+                break;
+            case ACCOUNT_SIGNUP:
+                onAccountSignup(require(accountStore.getAccount(event.getAccountId(), false)));
+                break;
+            default:
+                throw new IllegalStateException("Unknown notification event type " + event.getType());
+        }
+    }
+
+    private ConfigAdmin getConfigAdmin(String projectId) {
+        return require(projectStore.getProject(projectId, true)).getVersionedConfigAdmin().getConfig();
+    }
+
+    private <T> T require(Optional<T> modelOpt) {
+        return modelOpt.orElseThrow(() -> new IllegalStateException("Model referenced by notification event no longer exists"));
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
@@ -706,10 +1262,136 @@ public class NotificationServiceImpl extends ManagedService implements Notificat
     @AllArgsConstructor
     private static class Subscribers {
         @NonNull
-        private final ImmutableSet<UserModel> usersExpressed;
+        private final ImmutableSet<UserNotificationView> usersExpressed;
         @NonNull
-        private final ImmutableSet<UserModel> usersFunded;
+        private final ImmutableSet<UserNotificationView> usersFunded;
         @NonNull
-        private final ImmutableSet<UserModel> usersVoted;
+        private final ImmutableSet<UserNotificationView> usersVoted;
+    }
+
+    /**
+     * Serialized form of an event as stored in the outbox. Models are referenced by id and loaded again on replay.
+     */
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    private static class OutboxEvent {
+        @NonNull
+        EventType type;
+        String projectId;
+        String accountId;
+        String ideaId;
+        String commentId;
+        String parentCommentId;
+        String userId;
+        String senderUserId;
+        String invitationId;
+        String email;
+        Long amount;
+        TransactionModel transaction;
+        NotifySubscribers notifySubscribers;
+        boolean statusChanged;
+        boolean responseChanged;
+        boolean requiresAction;
+        boolean hasPaymentMethod;
+    }
+
+    /**
+     * Completes an outbox entry once the task it was submitted with and all of its continuations have run.
+     */
+    private class OutboxTracker {
+        private final OutboxModel entry;
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private OutboxTracker(OutboxModel entry) {
+            this.entry = entry;
+        }
+
+        void retain() {
+            pending.incrementAndGet();
+        }
+
+        void release() {
+            if (pending.decrementAndGet() > 0) {
+                return;
+            }
+            try {
+                outboxStore.complete(entry);
+            } catch (Exception ex) {
+                log.warn("Failed to complete notification outbox entry {}, may be sent twice", entry.getEntryId(), ex);
+            }
+        }
+    }
+
+    @Value
+    private static class DigestKey {
+        @NonNull
+        String projectId;
+        @NonNull
+        String userId;
+    }
+
+    /**
+     * Post notification held back for a digest, along with how to send it standalone if it ends up alone.
+     */
+    @Value
+    private static class DigestEvent {
+        @NonNull
+        NotificationModel inApp;
+        @NonNull
+        Function<String, Email> email;
+        @NonNull
+        Function<String, BrowserPush> browserPush;
+    }
+
+    /**
+     * Pending digest events of a single user in arrival order, one per post with later events replacing earlier
+     * ones in place. Only accessed within {@link ConcurrentMap#compute} or after removal from the map.
+     */
+    private static class DigestBuffer {
+        private final LinkedHashMap<String, DigestEvent> events = Maps.newLinkedHashMap();
+        @Getter
+        private ConfigAdmin configAdmin;
+        @Getter
+        private UserNotificationView user;
+
+        void add(ConfigAdmin configAdmin, UserNotificationView user, DigestEvent event) {
+            this.configAdmin = configAdmin;
+            this.user = user;
+            events.put(MoreObjects.firstNonNull(event.getInApp().getRelatedIdeaId(), event.getInApp().getNotificationId()), event);
+        }
+
+        int size() {
+            return events.size();
+        }
+
+        ImmutableList<DigestEvent> getEvents() {
+            return ImmutableList.copyOf(events.values());
+        }
+    }
+
+    /**
+     * Orders by priority, then by submission order within the same priority.
+     */
+    @Value
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        @NonNull
+        Priority priority;
+        long sequence;
+        @NonNull
+        Runnable task;
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            return ComparisonChain.start()
+                    .compare(priority, other.priority)
+                    .compare(sequence, other.sequence)
+                    .result();
+        }
     }
 }
@@ -0,0 +1,105 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.core.push.message;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Template parsed once into literal segments and __name__ placeholder slots.
+ * <p>
+ * Rendering appends literals and values straight into a single builder, instead of copying the whole template for
+ * each replaced placeholder. A value may itself be a {@link CompiledTemplate}, rendered in place with the same
+ * values, matching the effect of replacing its placeholders after it was inserted. Placeholders without a value
+ * are rendered as is.
+ */
+public class CompiledTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("__([A-Za-z0-9]+(?:_[A-Za-z0-9]+)*)__");
+    private static final int REUSABLE_BUILDER_MAX_CAPACITY = 256 * 1024;
+    private static final ThreadLocal<StringBuilder> REUSABLE_BUILDER = ThreadLocal.withInitial(StringBuilder::new);
+
+    private final String template;
+    /** Literal segment boundaries, segment i spans literalStarts[i] to literalEnds[i] */
+    private final int[] literalStarts;
+    private final int[] literalEnds;
+    /** Slot i follows literal segment i */
+    private final String[] slotNames;
+
+    private CompiledTemplate(String template, int[] literalStarts, int[] literalEnds, String[] slotNames) {
+        this.template = template;
+        this.literalStarts = literalStarts;
+        this.literalEnds = literalEnds;
+        this.slotNames = slotNames;
+    }
+
+    public static CompiledTemplate compile(String template) {
+        ImmutableList.Builder<Integer> literalStartsBuilder = ImmutableList.builder();
+        ImmutableList.Builder<Integer> literalEndsBuilder = ImmutableList.builder();
+        ImmutableList.Builder<String> slotNamesBuilder = ImmutableList.builder();
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        int literalStart = 0;
+        while (matcher.find()) {
+            literalStartsBuilder.add(literalStart);
+            literalEndsBuilder.add(matcher.start());
+            slotNamesBuilder.add(matcher.group(1));
+            literalStart = matcher.end();
+        }
+        literalStartsBuilder.add(literalStart);
+        literalEndsBuilder.add(template.length());
+        return new CompiledTemplate(
+                template,
+                literalStartsBuilder.build().stream().mapToInt(Integer::intValue).toArray(),
+                literalEndsBuilder.build().stream().mapToInt(Integer::intValue).toArray(),
+                slotNamesBuilder.build().toArray(String[]::new));
+    }
+
+    public String render(Map<String, ?> values) {
+        StringBuilder builder = REUSABLE_BUILDER.get();
+        builder.setLength(0);
+        renderTo(builder, values);
+        String result = builder.toString();
+        if (builder.capacity() > REUSABLE_BUILDER_MAX_CAPACITY) {
+            REUSABLE_BUILDER.remove();
+        }
+        return result;
+    }
+
+    public void renderTo(StringBuilder builder, Map<String, ?> values) {
+        builder.ensureCapacity(builder.length() + template.length());
+        for (int i = 0; i < slotNames.length; i++) {
+            builder.append(template, literalStarts[i], literalEnds[i]);
+            Object value = values.get(slotNames[i]);
+            if (value == null) {
+                builder.append("__").append(slotNames[i]).append("__");
+            } else if (value instanceof CompiledTemplate) {
+                ((CompiledTemplate) value).renderTo(builder, values);
+            } else {
+                builder.append((CharSequence) value);
+            }
+        }
+        builder.append(template, literalStarts[slotNames.length], literalEnds[slotNames.length]);
+    }
+
+    /**
+     * Placeholder names in order of appearance.
+     */
+    public ImmutableList<String> getSlotNames() {
+        return ImmutableList.copyOf(slotNames);
+    }
+
+    /**
+     * Literal text preceding placeholder i, or following the last placeholder when i is the placeholder count.
+     */
+    public String getLiteral(int i) {
+        return template.substring(literalStarts[i], literalEnds[i]);
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+}
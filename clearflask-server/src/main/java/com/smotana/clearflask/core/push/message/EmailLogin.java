@@ -3,6 +3,7 @@
 package com.smotana.clearflask.core.push.message;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -14,6 +15,8 @@ import com.smotana.clearflask.core.push.provider.EmailService.Email;
 import com.smotana.clearflask.web.Application;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.core.push.NotificationServiceImpl.AUTH_TOKEN_PARAM_NAME;
 
@@ -45,28 +48,29 @@ public class EmailLogin {
         String projectName = emailTemplates.sanitize(configAdmin.getName());
         content = content.replace("__project_name__", projectName);
 
-        String templateHtml = emailTemplates.getLoginTemplateHtml();
-        String templateText = emailTemplates.getLoginTemplateText();
+        Map<String, Object> valuesHtml = Maps.newHashMap();
+        Map<String, Object> valuesText = Maps.newHashMap();
 
-        templateHtml = templateHtml.replace("__CONTENT__", content);
-        templateText = templateText.replace("__CONTENT__", content);
+        CompiledTemplate contentTemplate = CompiledTemplate.compile(content);
+        valuesHtml.put("CONTENT", contentTemplate);
+        valuesText.put("CONTENT", contentTemplate);
 
-        templateHtml = templateHtml.replace("__TOKEN__", token);
-        templateText = templateText.replace("__TOKEN__", token);
+        valuesHtml.put("TOKEN", token);
+        valuesText.put("TOKEN", token);
 
         String buttonText = "Login";
-        templateHtml = templateHtml.replace("__BUTTON_TEXT__", buttonText);
-        templateText = templateText.replace("__BUTTON_TEXT__", buttonText);
+        valuesHtml.put("BUTTON_TEXT", buttonText);
+        valuesText.put("BUTTON_TEXT", buttonText);
 
         link += "?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
-        templateHtml = templateHtml.replace("__BUTTON_URL__", link);
-        templateText = templateText.replace("__BUTTON_URL__", link);
+        valuesHtml.put("BUTTON_URL", link);
+        valuesText.put("BUTTON_URL", link);
 
         return new Email(
                 email,
                 subject,
-                templateHtml,
-                templateText,
+                emailTemplates.getLoginTemplateHtml().render(valuesHtml),
+                emailTemplates.getLoginTemplateText().render(valuesText),
                 configAdmin.getProjectId(),
                 "EMAIL_VERIFY"
         );
@@ -3,42 +3,55 @@
 package com.smotana.clearflask.core.push.message;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Resources;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.smotana.clearflask.core.push.provider.EmailService.Recipient;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.regex.Pattern;
 
 @Slf4j
 @Singleton
 @Getter
 public class EmailTemplates {
 
-    private final String notificationNoUnsubTemplateHtml;
-    private final String notificationNoUnsubTemplateText;
-    private final String notificationTemplateHtml;
-    private final String notificationTemplateText;
-    private final String verificationTemplateHtml;
-    private final String verificationTemplateText;
-    private final String loginTemplateHtml;
-    private final String loginTemplateText;
+    /**
+     * Per-recipient auth token in bulk emails, see {@link #bulkRecipient}
+     */
+    public static final String AUTH_TOKEN_PLACEHOLDER = "__AUTH_TOKEN__";
+    private static final Pattern SANITIZE_PATTERN = Pattern.compile("[^A-Za-z0-9 ]+");
+
+    private final CompiledTemplate notificationNoUnsubTemplateHtml;
+    private final CompiledTemplate notificationNoUnsubTemplateText;
+    private final CompiledTemplate notificationTemplateHtml;
+    private final CompiledTemplate notificationTemplateText;
+    private final CompiledTemplate verificationTemplateHtml;
+    private final CompiledTemplate verificationTemplateText;
+    private final CompiledTemplate loginTemplateHtml;
+    private final CompiledTemplate loginTemplateText;
 
     public EmailTemplates() throws IOException {
-        this.notificationNoUnsubTemplateHtml = Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/notificationNoUnsub.html"), Charsets.UTF_8);
-        this.notificationNoUnsubTemplateText = Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/notificationNoUnsub.txt"), Charsets.UTF_8);
-        this.notificationTemplateHtml = Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/notification.html"), Charsets.UTF_8);
-        this.notificationTemplateText = Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/notification.txt"), Charsets.UTF_8);
-        this.verificationTemplateHtml = Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/emailVerify.html"), Charsets.UTF_8);
-        this.verificationTemplateText = Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/emailVerify.txt"), Charsets.UTF_8);
-        this.loginTemplateHtml = Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/emailLogin.html"), Charsets.UTF_8);
-        this.loginTemplateText = Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/emailLogin.txt"), Charsets.UTF_8);
+        this.notificationNoUnsubTemplateHtml = CompiledTemplate.compile(Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/notificationNoUnsub.html"), Charsets.UTF_8));
+        this.notificationNoUnsubTemplateText = CompiledTemplate.compile(Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/notificationNoUnsub.txt"), Charsets.UTF_8));
+        this.notificationTemplateHtml = CompiledTemplate.compile(Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/notification.html"), Charsets.UTF_8));
+        this.notificationTemplateText = CompiledTemplate.compile(Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/notification.txt"), Charsets.UTF_8));
+        this.verificationTemplateHtml = CompiledTemplate.compile(Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/emailVerify.html"), Charsets.UTF_8));
+        this.verificationTemplateText = CompiledTemplate.compile(Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/emailVerify.txt"), Charsets.UTF_8));
+        this.loginTemplateHtml = CompiledTemplate.compile(Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/emailLogin.html"), Charsets.UTF_8));
+        this.loginTemplateText = CompiledTemplate.compile(Resources.toString(Thread.currentThread().getContextClassLoader().getResource("email/emailLogin.txt"), Charsets.UTF_8));
     }
 
     public String sanitize(String input) {
-        return input.replaceAll("[^A-Za-z0-9 ]+", "");
+        return SANITIZE_PATTERN.matcher(input).replaceAll("");
+    }
+
+    public Recipient bulkRecipient(String toAddress, String authToken) {
+        return new Recipient(toAddress, ImmutableMap.of("AUTH_TOKEN", authToken));
     }
 
     public static Module module() {
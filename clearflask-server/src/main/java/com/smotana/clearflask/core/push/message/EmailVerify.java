@@ -3,6 +3,7 @@
 package com.smotana.clearflask.core.push.message;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -14,6 +15,8 @@ import com.smotana.clearflask.core.push.provider.EmailService.Email;
 import com.smotana.clearflask.web.Application;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+
 import static com.google.common.base.Preconditions.checkArgument;
 
 @Slf4j
@@ -44,20 +47,21 @@ public class EmailVerify {
         String projectName = emailTemplates.sanitize(configAdmin.getName());
         content = content.replace("__project_name__", projectName);
 
-        String templateHtml = emailTemplates.getVerificationTemplateHtml();
-        String templateText = emailTemplates.getVerificationTemplateText();
+        Map<String, Object> valuesHtml = Maps.newHashMap();
+        Map<String, Object> valuesText = Maps.newHashMap();
 
-        templateHtml = templateHtml.replace("__CONTENT__", content);
-        templateText = templateText.replace("__CONTENT__", content);
+        CompiledTemplate contentTemplate = CompiledTemplate.compile(content);
+        valuesHtml.put("CONTENT", contentTemplate);
+        valuesText.put("CONTENT", contentTemplate);
 
-        templateHtml = templateHtml.replace("__TOKEN__", token);
-        templateText = templateText.replace("__TOKEN__", token);
+        valuesHtml.put("TOKEN", token);
+        valuesText.put("TOKEN", token);
 
         return new Email(
                 email,
                 subject,
-                templateHtml,
-                templateText,
+                emailTemplates.getVerificationTemplateHtml().render(valuesHtml),
+                emailTemplates.getVerificationTemplateText().render(valuesText),
                 configAdmin.getProjectId(),
                 "EMAIL_VERIFY"
         );
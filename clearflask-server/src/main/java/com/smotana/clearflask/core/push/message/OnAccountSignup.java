@@ -3,6 +3,7 @@
 package com.smotana.clearflask.core.push.message;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -15,6 +16,8 @@ import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.web.Application;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+
 import static com.google.common.base.Preconditions.checkArgument;
 
 @Slf4j
@@ -45,24 +48,25 @@ public class OnAccountSignup {
         String content = config.content();
         content = content.replace("__NAME__", emailTemplates.sanitize(account.getName()));
 
-        String templateHtml = emailTemplates.getNotificationTemplateHtml();
-        String templateText = emailTemplates.getNotificationTemplateText();
+        Map<String, Object> valuesHtml = Maps.newHashMap();
+        Map<String, Object> valuesText = Maps.newHashMap();
 
-        templateHtml = templateHtml.replace("__CONTENT__", content);
-        templateText = templateText.replace("__CONTENT__", content);
+        CompiledTemplate contentTemplate = CompiledTemplate.compile(content);
+        valuesHtml.put("CONTENT", contentTemplate);
+        valuesText.put("CONTENT", contentTemplate);
 
         String buttonText = "Dashboard";
-        templateHtml = templateHtml.replace("__BUTTON_TEXT__", buttonText);
-        templateText = templateText.replace("__BUTTON_TEXT__", buttonText);
+        valuesHtml.put("BUTTON_TEXT", buttonText);
+        valuesText.put("BUTTON_TEXT", buttonText);
 
-        templateHtml = templateHtml.replace("__BUTTON_URL__", link);
-        templateText = templateText.replace("__BUTTON_URL__", link);
+        valuesHtml.put("BUTTON_URL", link);
+        valuesText.put("BUTTON_URL", link);
 
         return new Email(
                 account.getEmail(),
                 subject,
-                templateHtml,
-                templateText,
+                emailTemplates.getNotificationTemplateHtml().render(valuesHtml),
+                emailTemplates.getNotificationTemplateText().render(valuesText),
                 account.getAccountId(),
                 "ACCOUNT_SIGNUP"
         );
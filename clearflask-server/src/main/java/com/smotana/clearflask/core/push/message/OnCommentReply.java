@@ -3,6 +3,7 @@
 package com.smotana.clearflask.core.push.message;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -16,11 +17,14 @@ import com.smotana.clearflask.store.CommentStore.CommentModel;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.store.UserStore.UserNotificationView;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.Sanitizer;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 
+import java.util.Map;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.core.push.NotificationServiceImpl.AUTH_TOKEN_PARAM_NAME;
 
@@ -60,7 +64,7 @@ public class OnCommentReply {
     @Inject
     private Sanitizer sanitizer;
 
-    public Email email(UserModel user, AuthorType userAuthorType, UserModel sender, IdeaModel idea, CommentModel comment, ConfigAdmin configAdmin, String link, String authToken) {
+    public Email email(UserNotificationView user, AuthorType userAuthorType, UserModel sender, IdeaModel idea, CommentModel comment, ConfigAdmin configAdmin, String link, String authToken) {
         checkArgument(!Strings.isNullOrEmpty(user.getEmail()));
 
         String subject = config.subjectTemplate();
@@ -69,61 +73,59 @@ public class OnCommentReply {
         subject = subject.replace("__reply_type__", userAuthorType.getReplyString());
         content = content.replace("__reply_type__", userAuthorType.getReplyString());
 
-        String templateHtml = emailTemplates.getNotificationTemplateHtml();
-        String templateText = emailTemplates.getNotificationTemplateText();
+        Map<String, Object> valuesHtml = Maps.newHashMap();
+        Map<String, Object> valuesText = Maps.newHashMap();
 
-        templateHtml = templateHtml.replace("__CONTENT__", content);
-        templateText = templateText.replace("__CONTENT__", content);
+        CompiledTemplate contentTemplate = CompiledTemplate.compile(content);
+        valuesHtml.put("CONTENT", contentTemplate);
+        valuesText.put("CONTENT", contentTemplate);
 
         String title = StringUtils.abbreviate(emailTemplates.sanitize(idea.getTitle()), 50);
-        templateHtml = templateHtml.replace("__title__",
-                "<span style=\"font-weight: bold\">" +
-                        title +
-                        "</span>");
-        templateText = templateText.replace("__title__", title);
+        valuesHtml.put("title", "<span style=\"font-weight: bold\">" +
+                title +
+                "</span>");
+        valuesText.put("title", title);
         title = StringUtils.abbreviate(title, 20);
         subject = subject.replace("__title__", title);
 
         String reply = StringUtils.abbreviate(emailTemplates.sanitize(comment.getContentAsText(sanitizer)), 50);
-        templateHtml = templateHtml.replace("__reply__",
-                "<span style=\"font-weight: bold\">" +
-                        reply +
-                        "</span>");
-        templateText = templateText.replace("__reply__", reply);
+        valuesHtml.put("reply", "<span style=\"font-weight: bold\">" +
+                reply +
+                "</span>");
+        valuesText.put("reply", reply);
 
         String senderName = StringUtils.abbreviate(emailTemplates.sanitize(sender.getName() == null ? "" : sender.getName()), 10);
         if (senderName.isEmpty()) {
             senderName = "Someone";
         }
         subject = subject.replace("__sender__", senderName);
-        templateText = templateText.replace("__sender__", senderName);
-        templateHtml = templateHtml.replace("__sender__",
-                "<span style=\"font-weight: bold\">" +
-                        senderName +
-                        "</span>");
+        valuesText.put("sender", senderName);
+        valuesHtml.put("sender", "<span style=\"font-weight: bold\">" +
+                senderName +
+                "</span>");
 
-        templateHtml = templateHtml.replace("__BUTTON_TEXT__", "VIEW REPLY");
-        templateText = templateText.replace("__BUTTON_TEXT__", "VIEW REPLY");
+        valuesHtml.put("BUTTON_TEXT", "VIEW REPLY");
+        valuesText.put("BUTTON_TEXT", "VIEW REPLY");
 
         link += "?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
-        templateHtml = templateHtml.replace("__BUTTON_URL__", link);
-        templateText = templateText.replace("__BUTTON_URL__", link);
+        valuesHtml.put("BUTTON_URL", link);
+        valuesText.put("BUTTON_URL", link);
 
         String unsubscribeLink = "https://" + ProjectStore.Project.getHostname(configAdmin, configApp) + "/account?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
-        templateHtml = templateHtml.replace("__UNSUBSCRIBE_URL__", unsubscribeLink);
-        templateText = templateText.replace("__UNSUBSCRIBE_URL__", unsubscribeLink);
+        valuesHtml.put("UNSUBSCRIBE_URL", unsubscribeLink);
+        valuesText.put("UNSUBSCRIBE_URL", unsubscribeLink);
 
         return new Email(
                 user.getEmail(),
                 subject,
-                templateHtml,
-                templateText,
+                emailTemplates.getNotificationTemplateHtml().render(valuesHtml),
+                emailTemplates.getNotificationTemplateText().render(valuesText),
                 configAdmin.getProjectId(),
                 "COMMENT_REPLY"
         );
     }
 
-    public BrowserPush browserPush(UserModel user, AuthorType userAuthorType, UserModel sender, IdeaModel idea, CommentModel comment, String link, String authToken) {
+    public BrowserPush browserPush(UserNotificationView user, AuthorType userAuthorType, UserModel sender, IdeaModel idea, CommentModel comment, String link, String authToken) {
         checkArgument(!Strings.isNullOrEmpty(user.getBrowserPushToken()));
 
         String subject = config.subjectTemplate();
@@ -151,7 +153,7 @@ public class OnCommentReply {
         );
     }
 
-    public String inAppDescription(UserModel user, AuthorType userAuthorType, UserModel sender, IdeaModel idea, CommentModel comment, String link) {
+    public String inAppDescription(UserNotificationView user, AuthorType userAuthorType, UserModel sender, IdeaModel idea, CommentModel comment, String link) {
         String subject = config.subjectTemplate();
 
         subject = subject.replace("__reply_type__", userAuthorType.getReplyString());
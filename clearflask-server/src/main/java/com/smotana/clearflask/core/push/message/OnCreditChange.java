@@ -3,6 +3,7 @@
 package com.smotana.clearflask.core.push.message;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -19,6 +20,8 @@ import com.smotana.clearflask.util.CreditViewUtil;
 import com.smotana.clearflask.web.Application;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.core.push.NotificationServiceImpl.AUTH_TOKEN_PARAM_NAME;
 
@@ -56,28 +59,29 @@ public class OnCreditChange {
 
         content = content.replace("__summary__", emailTemplates.sanitize(transaction.getSummary()));
 
-        String templateHtml = emailTemplates.getNotificationTemplateHtml();
-        String templateText = emailTemplates.getNotificationTemplateText();
+        Map<String, Object> valuesHtml = Maps.newHashMap();
+        Map<String, Object> valuesText = Maps.newHashMap();
 
-        templateHtml = templateHtml.replace("__CONTENT__", content);
-        templateText = templateText.replace("__CONTENT__", content);
+        CompiledTemplate contentTemplate = CompiledTemplate.compile(content);
+        valuesHtml.put("CONTENT", contentTemplate);
+        valuesText.put("CONTENT", contentTemplate);
 
-        templateHtml = templateHtml.replace("__BUTTON_TEXT__", "VIEW BALANCE");
-        templateText = templateText.replace("__BUTTON_TEXT__", "VIEW BALANCE");
+        valuesHtml.put("BUTTON_TEXT", "VIEW BALANCE");
+        valuesText.put("BUTTON_TEXT", "VIEW BALANCE");
 
         link += "?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
-        templateHtml = templateHtml.replace("__BUTTON_URL__", link);
-        templateText = templateText.replace("__BUTTON_URL__", link);
+        valuesHtml.put("BUTTON_URL", link);
+        valuesText.put("BUTTON_URL", link);
 
         String unsubscribeLink = "https://" + ProjectStore.Project.getHostname(configAdmin, configApp) + "/account?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
-        templateHtml = templateHtml.replace("__UNSUBSCRIBE_URL__", unsubscribeLink);
-        templateText = templateText.replace("__UNSUBSCRIBE_URL__", unsubscribeLink);
+        valuesHtml.put("UNSUBSCRIBE_URL", unsubscribeLink);
+        valuesText.put("UNSUBSCRIBE_URL", unsubscribeLink);
 
         return new Email(
                 user.getEmail(),
                 subject,
-                templateHtml,
-                templateText,
+                emailTemplates.getNotificationTemplateHtml().render(valuesHtml),
+                emailTemplates.getNotificationTemplateText().render(valuesText),
                 configAdmin.getProjectId(),
                 "CREDIT_CHANGE"
         );
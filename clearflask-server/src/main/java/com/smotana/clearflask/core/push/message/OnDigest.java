@@ -0,0 +1,135 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.core.push.message;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.api.model.ConfigAdmin;
+import com.smotana.clearflask.core.push.provider.BrowserPushService.BrowserPush;
+import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.UserStore.UserNotificationView;
+import com.smotana.clearflask.web.Application;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.smotana.clearflask.core.push.NotificationServiceImpl.AUTH_TOKEN_PARAM_NAME;
+
+/**
+ * Several pending notifications for a single user combined into one.
+ */
+@Slf4j
+@Singleton
+public class OnDigest {
+
+    public interface Config {
+        @DefaultValue("__count__ updates on posts you follow")
+        String subjectTemplate();
+
+        @DefaultValue("There are __count__ updates on posts you follow:")
+        String template();
+
+        @DefaultValue("10")
+        int maxListedUpdates();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private Application.Config configApp;
+    @Inject
+    private EmailTemplates emailTemplates;
+
+    public Email email(ConfigAdmin configAdmin, UserNotificationView user, List<String> descriptions, String link, String authToken) {
+        checkArgument(!Strings.isNullOrEmpty(user.getEmail()));
+        checkArgument(!descriptions.isEmpty());
+
+        String subject = config.subjectTemplate();
+        String content = config.template();
+
+        String count = String.valueOf(descriptions.size());
+        subject = subject.replace("__count__", count);
+        content = content.replace("__count__", count);
+
+        List<String> updates = descriptions.stream()
+                .limit(config.maxListedUpdates())
+                .map(description -> StringUtils.abbreviate(emailTemplates.sanitize(description), 80))
+                .collect(Collectors.toList());
+        String more = descriptions.size() > updates.size()
+                ? "and " + (descriptions.size() - updates.size()) + " more"
+                : null;
+
+        Map<String, Object> valuesHtml = Maps.newHashMap();
+        Map<String, Object> valuesText = Maps.newHashMap();
+
+        valuesHtml.put("CONTENT", content + updates.stream()
+                .map(update -> "<br />- <span style=\"font-weight: bold\">" + update + "</span>")
+                .collect(Collectors.joining())
+                + (more == null ? "" : "<br />" + more));
+        valuesText.put("CONTENT", content + updates.stream()
+                .map(update -> "\n- " + update)
+                .collect(Collectors.joining())
+                + (more == null ? "" : "\n" + more));
+
+        valuesHtml.put("BUTTON_TEXT", "VIEW");
+        valuesText.put("BUTTON_TEXT", "VIEW");
+
+        link += "?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
+        valuesHtml.put("BUTTON_URL", link);
+        valuesText.put("BUTTON_URL", link);
+
+        String unsubscribeLink = "https://" + ProjectStore.Project.getHostname(configAdmin, configApp) + "/account?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
+        valuesHtml.put("UNSUBSCRIBE_URL", unsubscribeLink);
+        valuesText.put("UNSUBSCRIBE_URL", unsubscribeLink);
+
+        return new Email(
+                user.getEmail(),
+                subject,
+                emailTemplates.getNotificationTemplateHtml().render(valuesHtml),
+                emailTemplates.getNotificationTemplateText().render(valuesText),
+                configAdmin.getProjectId(),
+                "DIGEST"
+        );
+    }
+
+    public BrowserPush browserPush(ConfigAdmin configAdmin, UserNotificationView user, List<String> descriptions, String link, String authToken) {
+        checkArgument(!Strings.isNullOrEmpty(user.getBrowserPushToken()));
+        checkArgument(!descriptions.isEmpty());
+
+        String subject = config.subjectTemplate();
+
+        subject = subject.replace("__count__", String.valueOf(descriptions.size()));
+
+        String content = StringUtils.abbreviate(emailTemplates.sanitize(descriptions.get(descriptions.size() - 1)), 65);
+
+        return new BrowserPush(
+                user.getBrowserPushToken(),
+                subject,
+                content,
+                configAdmin.getProjectId(),
+                user.getUserId(),
+                link + "?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken
+        );
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(OnDigest.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
@@ -3,6 +3,9 @@
 package com.smotana.clearflask.core.push.message;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -10,14 +13,19 @@ import com.google.inject.Singleton;
 import com.smotana.clearflask.api.model.ConfigAdmin;
 import com.smotana.clearflask.api.model.NotifySubscribers;
 import com.smotana.clearflask.core.push.provider.BrowserPushService.BrowserPush;
+import com.smotana.clearflask.core.push.provider.EmailService.BulkEmail;
 import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import com.smotana.clearflask.core.push.provider.EmailService.Recipient;
 import com.smotana.clearflask.store.ProjectStore;
-import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.store.UserStore.UserNotificationView;
 import com.smotana.clearflask.web.Application;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.core.push.NotificationServiceImpl.AUTH_TOKEN_PARAM_NAME;
+import static com.smotana.clearflask.core.push.message.EmailTemplates.AUTH_TOKEN_PLACEHOLDER;
 
 @Slf4j
 @Singleton
@@ -27,40 +35,50 @@ public class OnPostCreated {
     @Inject
     private EmailTemplates emailTemplates;
 
-    public Email email(NotifySubscribers notifySubscribers, ConfigAdmin configAdmin, UserModel user, String link, String authToken) {
+    public Email email(NotifySubscribers notifySubscribers, ConfigAdmin configAdmin, UserNotificationView user, String link, String authToken) {
+        return Iterables.getOnlyElement(emailBulk(notifySubscribers, configAdmin, link,
+                ImmutableList.of(emailRecipient(user, authToken))).toEmails());
+    }
+
+    public Recipient emailRecipient(UserNotificationView user, String authToken) {
         checkArgument(!Strings.isNullOrEmpty(user.getEmail()));
 
+        return emailTemplates.bulkRecipient(user.getEmail(), authToken);
+    }
+
+    public BulkEmail emailBulk(NotifySubscribers notifySubscribers, ConfigAdmin configAdmin, String link, ImmutableList<Recipient> recipients) {
         String subject = emailTemplates.sanitize(notifySubscribers.getTitle());
         String content = emailTemplates.sanitize(notifySubscribers.getBody());
 
-        String templateHtml = emailTemplates.getNotificationTemplateHtml();
-        String templateText = emailTemplates.getNotificationTemplateText();
+        Map<String, Object> valuesHtml = Maps.newHashMap();
+        Map<String, Object> valuesText = Maps.newHashMap();
 
-        templateHtml = templateHtml.replace("__CONTENT__", content);
-        templateText = templateText.replace("__CONTENT__", content);
+        CompiledTemplate contentTemplate = CompiledTemplate.compile(content);
+        valuesHtml.put("CONTENT", contentTemplate);
+        valuesText.put("CONTENT", contentTemplate);
 
-        templateHtml = templateHtml.replace("__BUTTON_TEXT__", "VIEW");
-        templateText = templateText.replace("__BUTTON_TEXT__", "VIEW");
+        valuesHtml.put("BUTTON_TEXT", "VIEW");
+        valuesText.put("BUTTON_TEXT", "VIEW");
 
-        link += "?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
-        templateHtml = templateHtml.replace("__BUTTON_URL__", link);
-        templateText = templateText.replace("__BUTTON_URL__", link);
+        link += "?" + AUTH_TOKEN_PARAM_NAME + "=" + AUTH_TOKEN_PLACEHOLDER;
+        valuesHtml.put("BUTTON_URL", link);
+        valuesText.put("BUTTON_URL", link);
 
-        String unsubscribeLink = "https://" + ProjectStore.Project.getHostname(configAdmin, configApp) + "/account?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
-        templateHtml = templateHtml.replace("__UNSUBSCRIBE_URL__", unsubscribeLink);
-        templateText = templateText.replace("__UNSUBSCRIBE_URL__", unsubscribeLink);
+        String unsubscribeLink = "https://" + ProjectStore.Project.getHostname(configAdmin, configApp) + "/account?" + AUTH_TOKEN_PARAM_NAME + "=" + AUTH_TOKEN_PLACEHOLDER;
+        valuesHtml.put("UNSUBSCRIBE_URL", unsubscribeLink);
+        valuesText.put("UNSUBSCRIBE_URL", unsubscribeLink);
 
-        return new Email(
-                user.getEmail(),
+        return new BulkEmail(
                 subject,
-                templateHtml,
-                templateText,
+                emailTemplates.getNotificationTemplateHtml().render(valuesHtml),
+                emailTemplates.getNotificationTemplateText().render(valuesText),
                 configAdmin.getProjectId(),
-                "POST_CREATED"
+                "POST_CREATED",
+                recipients
         );
     }
 
-    public BrowserPush browserPush(NotifySubscribers notifySubscribers, ConfigAdmin configAdmin, UserModel user, String link, String authToken) {
+    public BrowserPush browserPush(NotifySubscribers notifySubscribers, ConfigAdmin configAdmin, UserNotificationView user, String link, String authToken) {
         checkArgument(!Strings.isNullOrEmpty(user.getBrowserPushToken()));
 
         String subject = emailTemplates.sanitize(notifySubscribers.getTitle());
@@ -76,7 +94,7 @@ public class OnPostCreated {
         );
     }
 
-    public String inAppDescription(NotifySubscribers notifySubscribers, ConfigAdmin configAdmin, UserModel user) {
+    public String inAppDescription(NotifySubscribers notifySubscribers, ConfigAdmin configAdmin, UserNotificationView user) {
         String subject = emailTemplates.sanitize(notifySubscribers.getTitle());
 
         return subject;
@@ -3,6 +3,9 @@
 package com.smotana.clearflask.core.push.message;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -12,18 +15,22 @@ import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.ConfigAdmin;
 import com.smotana.clearflask.api.model.IdeaStatus;
 import com.smotana.clearflask.core.push.provider.BrowserPushService.BrowserPush;
+import com.smotana.clearflask.core.push.provider.EmailService.BulkEmail;
 import com.smotana.clearflask.core.push.provider.EmailService.Email;
+import com.smotana.clearflask.core.push.provider.EmailService.Recipient;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.ProjectStore;
-import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.store.UserStore.UserNotificationView;
 import com.smotana.clearflask.web.Application;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 
+import java.util.Map;
 import java.util.Optional;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.core.push.NotificationServiceImpl.AUTH_TOKEN_PARAM_NAME;
+import static com.smotana.clearflask.core.push.message.EmailTemplates.AUTH_TOKEN_PLACEHOLDER;
 
 @Slf4j
 @Singleton
@@ -72,10 +79,20 @@ public class OnStatusOrResponseChange {
     @Inject
     private EmailTemplates emailTemplates;
 
-    public Email email(UserModel user, IdeaModel idea, ConfigAdmin configAdmin, SubscriptionAction subscriptionAction, String link, Optional<IdeaStatus> changedStatus, Optional<String> changedResponse, String authToken) {
-        checkArgument(changedStatus.isPresent() || changedResponse.isPresent());
+    public Email email(UserNotificationView user, IdeaModel idea, ConfigAdmin configAdmin, SubscriptionAction subscriptionAction, String link, Optional<IdeaStatus> changedStatus, Optional<String> changedResponse, String authToken) {
+        return Iterables.getOnlyElement(emailBulk(idea, configAdmin, subscriptionAction, link, changedStatus, changedResponse,
+                ImmutableList.of(emailRecipient(user, authToken))).toEmails());
+    }
+
+    public Recipient emailRecipient(UserNotificationView user, String authToken) {
         checkArgument(!Strings.isNullOrEmpty(user.getEmail()));
 
+        return emailTemplates.bulkRecipient(user.getEmail(), authToken);
+    }
+
+    public BulkEmail emailBulk(IdeaModel idea, ConfigAdmin configAdmin, SubscriptionAction subscriptionAction, String link, Optional<IdeaStatus> changedStatus, Optional<String> changedResponse, ImmutableList<Recipient> recipients) {
+        checkArgument(changedStatus.isPresent() || changedResponse.isPresent());
+
         String type;
         String subject;
         String content;
@@ -95,18 +112,18 @@ public class OnStatusOrResponseChange {
 
         content = content.replace("__subscription_action__", subscriptionAction.getActionString());
 
-        String templateHtml = emailTemplates.getNotificationTemplateHtml();
-        String templateText = emailTemplates.getNotificationTemplateText();
+        Map<String, Object> valuesHtml = Maps.newHashMap();
+        Map<String, Object> valuesText = Maps.newHashMap();
 
-        templateHtml = templateHtml.replace("__CONTENT__", content);
-        templateText = templateText.replace("__CONTENT__", content);
+        CompiledTemplate contentTemplate = CompiledTemplate.compile(content);
+        valuesHtml.put("CONTENT", contentTemplate);
+        valuesText.put("CONTENT", contentTemplate);
 
         String title = StringUtils.abbreviate(emailTemplates.sanitize(idea.getTitle()), 50);
-        templateHtml = templateHtml.replace("__title__",
-                "<span style=\"font-weight: bold\">" +
-                        title +
-                        "</span>");
-        templateText = templateText.replace("__title__", title);
+        valuesHtml.put("title", "<span style=\"font-weight: bold\">" +
+                title +
+                "</span>");
+        valuesText.put("title", title);
         title = StringUtils.abbreviate(title, 20);
         subject = subject.replace("__title__", title);
 
@@ -115,46 +132,44 @@ public class OnStatusOrResponseChange {
             if (statusName.isEmpty()) {
                 statusName = "unknown";
             }
-            templateHtml = templateHtml.replace("__status__",
-                    "<span style=\"color: " + changedStatus.get().getColor() + ";font-weight: bold\">" +
+            valuesHtml.put("status", "<span style=\"color: " + changedStatus.get().getColor() + ";font-weight: bold\">" +
                             statusName +
                             "</span>");
-            templateText = templateText.replace("__status__", statusName);
+            valuesText.put("status", statusName);
             statusName = StringUtils.abbreviate(statusName, 15);
             subject = subject.replace("__status__", statusName);
         }
 
         if (changedResponse.isPresent()) {
             String response = StringUtils.abbreviate(emailTemplates.sanitize(changedResponse.get()), 50);
-            templateHtml = templateHtml.replace("__response__",
-                    "<span style=\"font-weight: bold\">" +
-                            response +
-                            "</span>");
-            templateText = templateText.replace("__response__", response);
+            valuesHtml.put("response", "<span style=\"font-weight: bold\">" +
+                    response +
+                    "</span>");
+            valuesText.put("response", response);
         }
 
-        templateHtml = templateHtml.replace("__BUTTON_TEXT__", "VIEW POST");
-        templateText = templateText.replace("__BUTTON_TEXT__", "VIEW POST");
+        valuesHtml.put("BUTTON_TEXT", "VIEW POST");
+        valuesText.put("BUTTON_TEXT", "VIEW POST");
 
-        link += "?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
-        templateHtml = templateHtml.replace("__BUTTON_URL__", link);
-        templateText = templateText.replace("__BUTTON_URL__", link);
+        link += "?" + AUTH_TOKEN_PARAM_NAME + "=" + AUTH_TOKEN_PLACEHOLDER;
+        valuesHtml.put("BUTTON_URL", link);
+        valuesText.put("BUTTON_URL", link);
 
-        String unsubscribeLink = "https://" + ProjectStore.Project.getHostname(configAdmin, configApp) + "/account?" + AUTH_TOKEN_PARAM_NAME + "=" + authToken;
-        templateHtml = templateHtml.replace("__UNSUBSCRIBE_URL__", unsubscribeLink);
-        templateText = templateText.replace("__UNSUBSCRIBE_URL__", unsubscribeLink);
+        String unsubscribeLink = "https://" + ProjectStore.Project.getHostname(configAdmin, configApp) + "/account?" + AUTH_TOKEN_PARAM_NAME + "=" + AUTH_TOKEN_PLACEHOLDER;
+        valuesHtml.put("UNSUBSCRIBE_URL", unsubscribeLink);
+        valuesText.put("UNSUBSCRIBE_URL", unsubscribeLink);
 
-        return new Email(
-                user.getEmail(),
+        return new BulkEmail(
                 subject,
-                templateHtml,
-                templateText,
+                emailTemplates.getNotificationTemplateHtml().render(valuesHtml),
+                emailTemplates.getNotificationTemplateText().render(valuesText),
                 configAdmin.getProjectId(),
-                type
+                type,
+                recipients
         );
     }
 
-    public BrowserPush browserPush(UserModel user, IdeaModel idea, ConfigAdmin configAdmin, SubscriptionAction subscriptionAction, String link, Optional<IdeaStatus> changedStatus, Optional<String> changedResponse, String authToken) {
+    public BrowserPush browserPush(UserNotificationView user, IdeaModel idea, ConfigAdmin configAdmin, SubscriptionAction subscriptionAction, String link, Optional<IdeaStatus> changedStatus, Optional<String> changedResponse, String authToken) {
         checkArgument(changedStatus.isPresent() || changedResponse.isPresent());
         checkArgument(!Strings.isNullOrEmpty(user.getBrowserPushToken()));
 
@@ -196,7 +211,7 @@ public class OnStatusOrResponseChange {
         );
     }
 
-    public String inAppDescription(UserModel user, IdeaModel idea, ConfigAdmin configAdmin, SubscriptionAction subscriptionAction, String link, Optional<IdeaStatus> changedStatus, Optional<String> changedResponse) {
+    public String inAppDescription(UserNotificationView user, IdeaModel idea, ConfigAdmin configAdmin, SubscriptionAction subscriptionAction, String link, Optional<IdeaStatus> changedStatus, Optional<String> changedResponse) {
         checkArgument(changedStatus.isPresent() || changedResponse.isPresent());
 
         String subject;
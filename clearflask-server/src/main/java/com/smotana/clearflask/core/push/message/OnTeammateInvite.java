@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: AGPL-3.0-only
 package com.smotana.clearflask.core.push.message;
 
+import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -14,6 +15,8 @@ import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.web.Application;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Map;
+
 @Slf4j
 @Singleton
 public class OnTeammateInvite {
@@ -47,24 +50,25 @@ public class OnTeammateInvite {
         subject = subject.replace("__invitee_name__", inviteeName);
         content = content.replace("__invitee_name__", inviteeName);
 
-        String templateHtml = emailTemplates.getNotificationNoUnsubTemplateHtml();
-        String templateText = emailTemplates.getNotificationNoUnsubTemplateText();
+        Map<String, Object> valuesHtml = Maps.newHashMap();
+        Map<String, Object> valuesText = Maps.newHashMap();
 
-        templateHtml = templateHtml.replace("__CONTENT__", content);
-        templateText = templateText.replace("__CONTENT__", content);
+        CompiledTemplate contentTemplate = CompiledTemplate.compile(content);
+        valuesHtml.put("CONTENT", contentTemplate);
+        valuesText.put("CONTENT", contentTemplate);
 
         String buttonText = "View invitation";
-        templateHtml = templateHtml.replace("__BUTTON_TEXT__", buttonText);
-        templateText = templateText.replace("__BUTTON_TEXT__", buttonText);
+        valuesHtml.put("BUTTON_TEXT", buttonText);
+        valuesText.put("BUTTON_TEXT", buttonText);
 
-        templateHtml = templateHtml.replace("__BUTTON_URL__", link);
-        templateText = templateText.replace("__BUTTON_URL__", link);
+        valuesHtml.put("BUTTON_URL", link);
+        valuesText.put("BUTTON_URL", link);
 
         return new Email(
                 invitation.getInvitedEmail(),
                 subject,
-                templateHtml,
-                templateText,
+                emailTemplates.getNotificationNoUnsubTemplateHtml().render(valuesHtml),
+                emailTemplates.getNotificationNoUnsubTemplateText().render(valuesText),
                 invitation.getProjectId(),
                 "INVITE_TEAMMATE"
         );
@@ -2,6 +2,9 @@
 // SPDX-License-Identifier: AGPL-3.0-only
 package com.smotana.clearflask.core.push.provider;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.smotana.clearflask.core.push.message.CompiledTemplate;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.NonNull;
@@ -11,6 +14,12 @@ public interface EmailService {
 
     void send(Email email);
 
+    /**
+     * Sends the same email to many recipients at once. Subject and contents may contain __name__ placeholders
+     * filled in from each recipient's replacements.
+     */
+    void sendBulk(BulkEmail bulkEmail);
+
     @Value
     @Builder(toBuilder = true)
     @AllArgsConstructor
@@ -28,4 +37,49 @@ public interface EmailService {
         @NonNull
         private final String typeTag;
     }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    class BulkEmail {
+        @NonNull
+        private final String subject;
+        @NonNull
+        private final String contentHtml;
+        @NonNull
+        private final String contentText;
+        @NonNull
+        private final String projectOrAccountId;
+        @NonNull
+        private final String typeTag;
+        @NonNull
+        private final ImmutableList<Recipient> recipients;
+
+        /**
+         * Renders an individual email for each recipient.
+         */
+        public ImmutableList<Email> toEmails() {
+            CompiledTemplate subjectTemplate = CompiledTemplate.compile(subject);
+            CompiledTemplate contentHtmlTemplate = CompiledTemplate.compile(contentHtml);
+            CompiledTemplate contentTextTemplate = CompiledTemplate.compile(contentText);
+            return recipients.stream()
+                    .map(recipient -> new Email(
+                            recipient.getToAddress(),
+                            subjectTemplate.render(recipient.getReplacements()),
+                            contentHtmlTemplate.render(recipient.getReplacements()),
+                            contentTextTemplate.render(recipient.getReplacements()),
+                            projectOrAccountId,
+                            typeTag))
+                    .collect(ImmutableList.toImmutableList());
+        }
+    }
+
+    @Value
+    @AllArgsConstructor
+    class Recipient {
+        @NonNull
+        private final String toAddress;
+        @NonNull
+        private final ImmutableMap<String, String> replacements;
+    }
 }
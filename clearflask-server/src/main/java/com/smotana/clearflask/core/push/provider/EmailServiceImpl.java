@@ -4,26 +4,45 @@ package com.smotana.clearflask.core.push.provider;
 
 import com.amazonaws.services.simpleemailv2.AmazonSimpleEmailServiceV2;
 import com.amazonaws.services.simpleemailv2.model.AccountSuspendedException;
+import com.amazonaws.services.simpleemailv2.model.AlreadyExistsException;
 import com.amazonaws.services.simpleemailv2.model.BadRequestException;
 import com.amazonaws.services.simpleemailv2.model.Body;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailContent;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailEntry;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailEntryResult;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailStatus;
 import com.amazonaws.services.simpleemailv2.model.Content;
+import com.amazonaws.services.simpleemailv2.model.CreateEmailTemplateRequest;
 import com.amazonaws.services.simpleemailv2.model.Destination;
 import com.amazonaws.services.simpleemailv2.model.EmailContent;
+import com.amazonaws.services.simpleemailv2.model.EmailTemplateContent;
 import com.amazonaws.services.simpleemailv2.model.LimitExceededException;
 import com.amazonaws.services.simpleemailv2.model.MailFromDomainNotVerifiedException;
 import com.amazonaws.services.simpleemailv2.model.Message;
 import com.amazonaws.services.simpleemailv2.model.MessageRejectedException;
 import com.amazonaws.services.simpleemailv2.model.MessageTag;
 import com.amazonaws.services.simpleemailv2.model.NotFoundException;
+import com.amazonaws.services.simpleemailv2.model.ReplacementEmailContent;
+import com.amazonaws.services.simpleemailv2.model.ReplacementTemplate;
+import com.amazonaws.services.simpleemailv2.model.SendBulkEmailRequest;
+import com.amazonaws.services.simpleemailv2.model.SendBulkEmailResult;
 import com.amazonaws.services.simpleemailv2.model.SendEmailRequest;
 import com.amazonaws.services.simpleemailv2.model.SendEmailResult;
 import com.amazonaws.services.simpleemailv2.model.SendingPausedException;
+import com.amazonaws.services.simpleemailv2.model.Template;
 import com.amazonaws.services.simpleemailv2.model.TooManyRequestsException;
 import com.google.common.base.Charsets;
 import com.google.common.base.Enums;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.GuavaRateLimiters;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -31,8 +50,10 @@ import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.push.message.CompiledTemplate;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.Application;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.simplejavamail.api.email.EmailPopulatingBuilder;
 import org.simplejavamail.api.mailer.AsyncResponse;
@@ -44,13 +65,16 @@ import rx.Observable;
 
 import java.time.Duration;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Singleton
 public class EmailServiceImpl implements EmailService {
 
+    /** SESv2 SendBulkEmail limit */
+    static final int SES_BULK_MAX_DESTINATIONS = 50;
+
     public interface Config {
         @DefaultValue("true")
         boolean enabled();
@@ -81,7 +105,6 @@ public class EmailServiceImpl implements EmailService {
         @DefaultValue(value = "events@clearflask.com", innerType = String.class)
         List<String> bccEmails();
 
-
         /** Valid options: TransportStrategy */
         @DefaultValue("SMTP_TLS")
         String smtpStrategy();
@@ -97,6 +120,18 @@ public class EmailServiceImpl implements EmailService {
 
         @DefaultValue("")
         String smtpPassword();
+
+        @DefaultValue("4")
+        int smtpThreadPoolSize();
+
+        @DefaultValue("true")
+        boolean sesBulkEnabled();
+
+        /**
+         * Below this, recipients are sent individual emails instead.
+         */
+        @DefaultValue("3")
+        long sesBulkMinRecipients();
     }
 
     @Inject
@@ -107,9 +142,13 @@ public class EmailServiceImpl implements EmailService {
     private Provider<AmazonSimpleEmailServiceV2> sesProvider;
     @Inject
     private GuavaRateLimiters guavaRateLimiters;
+    @Inject
+    private Gson gson;
 
     private RateLimiter rateLimiter;
-    private Optional<Mailer> smtpOpt;
+    private volatile Mailer smtp;
+    /** Bulk templates known to exist in SES, by name */
+    private final Set<String> registeredSesBulkTemplates = Sets.newConcurrentHashSet();
 
     @Inject
     private void setup() {
@@ -140,96 +179,291 @@ public class EmailServiceImpl implements EmailService {
             return;
         }
 
-        String fromEmailAddress = config.fromEmailLocalPart() + "@" + configApp.domain();
-
         if ("ses".equals(config.useService())) {
-            String emailDisplayName = config.emailDisplayName();
-            if (!Strings.isNullOrEmpty(emailDisplayName)) {
-                fromEmailAddress = emailDisplayName + " <" + fromEmailAddress + ">";
-            }
+            sendSes(email);
+        } else {
+            sendSmtp(email);
+        }
+    }
 
-            Destination destination = new Destination()
-                    .withToAddresses(email.getToAddress());
-            if (config.bccOnTagTypes() != null
-                    && config.bccOnTagTypes().contains(email.getTypeTag())) {
-                destination.withBccAddresses(config.bccEmails());
-            }
+    @Override
+    public void sendBulk(BulkEmail bulkEmail) {
+        if (!config.enabled()) {
+            log.debug("Not enabled, skipping");
+            return;
+        }
+        if (bulkEmail.getRecipients().isEmpty()) {
+            return;
+        }
 
-            SendEmailResult sendEmailResult;
-            try {
-                sendEmailResult = sesProvider.get().sendEmail(new SendEmailRequest()
-                        .withDestination(destination)
-                        .withFromEmailAddress(fromEmailAddress)
-                        .withEmailTags(new MessageTag().withName("id").withValue(email.getProjectOrAccountId()),
-                                new MessageTag().withName("type").withValue(email.getTypeTag()))
-                        .withContent(new EmailContent().withSimple(new Message()
-                                .withSubject(new Content()
-                                        .withCharset(Charsets.UTF_8.name())
-                                        .withData(email.getSubject()))
-                                .withBody(new Body()
-                                        .withHtml(new Content()
-                                                .withCharset(Charsets.UTF_8.name())
-                                                .withData(email.getContentHtml()))
-                                        .withText(new Content()
-                                                .withCharset(Charsets.UTF_8.name())
-                                                .withData(email.getContentText()))))));
-            } catch (TooManyRequestsException | SendingPausedException | LimitExceededException ex) {
-                if (LogUtil.rateLimitAllowLog("emailpush-toomanyreqs")) {
-                    log.warn("Email service limited, project/account id {} toAddress {} subject {}",
-                            email.getProjectOrAccountId(), email.getToAddress(), email.getSubject(), ex);
+        if (!"ses".equals(config.useService())
+                || !config.sesBulkEnabled()
+                || bulkEmail.getRecipients().size() < config.sesBulkMinRecipients()) {
+            bulkEmail.toEmails().forEach(this::send);
+            return;
+        }
+
+        sendSesBulk(bulkEmail);
+    }
+
+    private void sendSes(Email email) {
+        SendEmailResult sendEmailResult;
+        try {
+            sendEmailResult = sesProvider.get().sendEmail(new SendEmailRequest()
+                    .withDestination(getSesDestination(email.getToAddress(), email.getTypeTag()))
+                    .withFromEmailAddress(getSesFromEmailAddress())
+                    .withEmailTags(getSesEmailTags(email.getProjectOrAccountId(), email.getTypeTag()))
+                    .withContent(new EmailContent().withSimple(new Message()
+                            .withSubject(new Content()
+                                    .withCharset(Charsets.UTF_8.name())
+                                    .withData(email.getSubject()))
+                            .withBody(new Body()
+                                    .withHtml(new Content()
+                                            .withCharset(Charsets.UTF_8.name())
+                                            .withData(email.getContentHtml()))
+                                    .withText(new Content()
+                                            .withCharset(Charsets.UTF_8.name())
+                                            .withData(email.getContentText()))))));
+        } catch (Exception ex) {
+            logSesException(ex, email.getProjectOrAccountId(), email.getToAddress(), email.getSubject());
+            return;
+        }
+        log.trace("Email sent to {} project/account id {} message id {} subject {}",
+                email.getToAddress(), email.getProjectOrAccountId(), sendEmailResult.getMessageId(), email.getSubject());
+    }
+
+    /**
+     * SendBulkEmail only accepts stored templates, so each message type has a static template consisting solely of
+     * variables. The literal content is passed as default template data shared by all destinations, while
+     * placeholders become variables supplied by each destination's replacement data.
+     */
+    private void sendSesBulk(BulkEmail bulkEmail) {
+        ImmutableSet<String> replacementNames = bulkEmail.getRecipients().stream()
+                .flatMap(recipient -> recipient.getReplacements().keySet().stream())
+                .collect(ImmutableSet.toImmutableSet());
+        SesBulkTemplatePart subject = SesBulkTemplatePart.split("subject", bulkEmail.getSubject(), replacementNames);
+        SesBulkTemplatePart html = SesBulkTemplatePart.split("html", bulkEmail.getContentHtml(), replacementNames);
+        SesBulkTemplatePart text = SesBulkTemplatePart.split("text", bulkEmail.getContentText(), replacementNames);
+        AmazonSimpleEmailServiceV2 ses = sesProvider.get();
+        String templateName;
+        try {
+            templateName = getSesBulkTemplate(ses, bulkEmail.getTypeTag(), subject, html, text);
+        } catch (Exception ex) {
+            logSesException(ex, bulkEmail.getProjectOrAccountId(), bulkEmail.getRecipients().size() + " recipients", bulkEmail.getSubject());
+            return;
+        }
+        String defaultTemplateData = gson.toJson(ImmutableMap.<String, String>builder()
+                .putAll(subject.getLiterals())
+                .putAll(html.getLiterals())
+                .putAll(text.getLiterals())
+                .build());
+        for (List<Recipient> recipientsBatch : Iterables.partition(bulkEmail.getRecipients(), SES_BULK_MAX_DESTINATIONS)) {
+            if (!rateLimiter.tryAcquire(recipientsBatch.size())) {
+                if (LogUtil.rateLimitAllowLog("emailpush-ratelimited")) {
+                    log.warn("Email service self rate limited, project/account id {} recipients {} subject {}",
+                            bulkEmail.getProjectOrAccountId(), recipientsBatch.size(), bulkEmail.getSubject());
                 }
                 return;
-            } catch (AccountSuspendedException ex) {
-                if (LogUtil.rateLimitAllowLog("emailpush-accountsuspended")) {
-                    log.warn("Email service account suspended", ex);
-                }
+            }
+            SendBulkEmailResult sendBulkEmailResult;
+            try {
+                sendBulkEmailResult = ses.sendBulkEmail(new SendBulkEmailRequest()
+                        .withFromEmailAddress(getSesFromEmailAddress())
+                        .withDefaultEmailTags(getSesEmailTags(bulkEmail.getProjectOrAccountId(), bulkEmail.getTypeTag()))
+                        .withDefaultContent(new BulkEmailContent().withTemplate(new Template()
+                                .withTemplateName(templateName)
+                                .withTemplateData(defaultTemplateData)))
+                        .withBulkEmailEntries(recipientsBatch.stream()
+                                .map(recipient -> new BulkEmailEntry()
+                                        .withDestination(getSesDestination(recipient.getToAddress(), bulkEmail.getTypeTag()))
+                                        .withReplacementEmailContent(new ReplacementEmailContent()
+                                                .withReplacementTemplate(new ReplacementTemplate()
+                                                        .withReplacementTemplateData(gson.toJson(recipient.getReplacements())))))
+                                .collect(Collectors.toList())));
+            } catch (Exception ex) {
+                logSesException(ex, bulkEmail.getProjectOrAccountId(), recipientsBatch.size() + " recipients", bulkEmail.getSubject());
                 return;
-            } catch (MessageRejectedException | MailFromDomainNotVerifiedException | NotFoundException | BadRequestException ex) {
-                if (LogUtil.rateLimitAllowLog("emailpush-misconfigured")) {
-                    log.warn("Email service misconfigured", ex);
+            }
+            List<BulkEmailEntryResult> results = sendBulkEmailResult.getBulkEmailEntryResults();
+            for (int i = 0; i < results.size(); i++) {
+                if (!BulkEmailStatus.SUCCESS.toString().equals(results.get(i).getStatus())
+                        && LogUtil.rateLimitAllowLog("emailpush-bulk-entry-failed")) {
+                    log.warn("Email cannot be delivered to {} project/account id {} status {} error {}",
+                            recipientsBatch.get(i).getToAddress(), bulkEmail.getProjectOrAccountId(),
+                            results.get(i).getStatus(), results.get(i).getError());
                 }
-                return;
-            } catch (Exception ex) {
-                if (LogUtil.rateLimitAllowLog("emailpush-exception")) {
+            }
+            log.trace("Bulk email sent to {} recipients project/account id {} subject {}",
+                    recipientsBatch.size(), bulkEmail.getProjectOrAccountId(), bulkEmail.getSubject());
+        }
+    }
+
+    /**
+     * Template name is derived from its content, so a template is created once and never changes. It stays the same
+     * for every email of a message type unless the placeholders used by that type change.
+     */
+    private String getSesBulkTemplate(AmazonSimpleEmailServiceV2 ses, String typeTag, SesBulkTemplatePart subject, SesBulkTemplatePart html, SesBulkTemplatePart text) {
+        String templateName = "bulk-" + typeTag + "-" + Hashing.murmur3_128()
+                .hashString(subject.getTemplate() + "|" + html.getTemplate() + "|" + text.getTemplate(), Charsets.UTF_8)
+                .toString().substring(0, 16);
+        if (registeredSesBulkTemplates.contains(templateName)) {
+            return templateName;
+        }
+        try {
+            ses.createEmailTemplate(new CreateEmailTemplateRequest()
+                    .withTemplateName(templateName)
+                    .withTemplateContent(new EmailTemplateContent()
+                            .withSubject(subject.getTemplate())
+                            .withHtml(html.getTemplate())
+                            .withText(text.getTemplate())));
+            log.info("Created bulk email template {}", templateName);
+        } catch (AlreadyExistsException ex) {
+            // Created earlier or by another instance
+        }
+        registeredSesBulkTemplates.add(templateName);
+        return templateName;
+    }
+
+    /**
+     * Content split into literal segments and placeholder variables.
+     */
+    @Value
+    private static class SesBulkTemplatePart {
+        /** Unescaped variables only, literal segments are named by prefix and index */
+        String template;
+        ImmutableMap<String, String> literals;
+
+        /**
+         * Placeholders not among the given names stay as is within the literal segments.
+         */
+        static SesBulkTemplatePart split(String prefix, String content, Set<String> variableNames) {
+            CompiledTemplate compiled = CompiledTemplate.compile(content);
+            ImmutableList<String> slotNames = compiled.getSlotNames();
+            StringBuilder templateBuilder = new StringBuilder();
+            ImmutableMap.Builder<String, String> literalsBuilder = ImmutableMap.builder();
+            StringBuilder literal = new StringBuilder(compiled.getLiteral(0));
+            int literalCount = 0;
+            for (int i = 0; i < slotNames.size(); i++) {
+                if (variableNames.contains(slotNames.get(i))) {
+                    String literalName = prefix + literalCount++;
+                    literalsBuilder.put(literalName, literal.toString());
+                    templateBuilder.append("{{{").append(literalName).append("}}}")
+                            .append("{{{").append(slotNames.get(i)).append("}}}");
+                    literal.setLength(0);
+                } else {
+                    literal.append("__").append(slotNames.get(i)).append("__");
+                }
+                literal.append(compiled.getLiteral(i + 1));
+            }
+            String literalName = prefix + literalCount;
+            literalsBuilder.put(literalName, literal.toString());
+            templateBuilder.append("{{{").append(literalName).append("}}}");
+            return new SesBulkTemplatePart(templateBuilder.toString(), literalsBuilder.build());
+        }
+    }
+
+    private void sendSmtp(Email email) {
+        EmailPopulatingBuilder emailBuilder = EmailBuilder.startingBlank()
+                .from(config.emailDisplayName(), getFromEmailAddress())
+                .to(email.getToAddress())
+                .withSubject(email.getSubject())
+                .withHTMLText(email.getContentHtml())
+                .withPlainText(email.getContentText());
+        if (config.bccOnTagTypes() != null
+                && config.bccOnTagTypes().contains(email.getTypeTag())) {
+            emailBuilder.bcc(config.bccEmails().stream().collect(Collectors.joining(",")));
+        }
+        AsyncResponse asyncResponse = getSmtp().sendMail(emailBuilder
+                .buildEmail(), true);
+        if (asyncResponse != null) {
+            asyncResponse.onException(ex -> {
+                if (LogUtil.rateLimitAllowLog("emailpush-smtp-exception")) {
                     log.warn("Email cannot be delivered", ex);
                 }
-                return;
+            });
+            asyncResponse.onSuccess(() -> log.trace("Email sent to {} project/account id {} to {} subject {}",
+                    email.getToAddress(), email.getProjectOrAccountId(), email.getToAddress(), email.getSubject()));
+        }
+    }
+
+    /**
+     * Single mailer shared across all sends, bulk sends reuse its worker threads instead of each opening their own.
+     */
+    private Mailer getSmtp() {
+        Mailer smtp = this.smtp;
+        if (smtp == null) {
+            synchronized (this) {
+                smtp = this.smtp;
+                if (smtp == null) {
+                    smtp = MailerBuilder
+                            .withSMTPServer(
+                                    config.smtpHost(),
+                                    config.smtpPort(),
+                                    config.smtpUser(),
+                                    config.smtpPassword())
+                            .withTransportStrategy(Enums.getIfPresent(TransportStrategy.class, config.smtpStrategy())
+                                    .or(TransportStrategy.SMTP_TLS))
+                            .withThreadPoolSize(config.smtpThreadPoolSize())
+                            .async()
+                            .buildMailer();
+                    this.smtp = smtp;
+                }
             }
-            log.trace("Email sent to {} project/account id {} message id {} subject {}",
-                    email.getToAddress(), email.getProjectOrAccountId(), sendEmailResult.getMessageId(), email.getSubject());
-        } else {
-            if (this.smtpOpt.isEmpty()) {
-                this.smtpOpt = Optional.of(MailerBuilder
-                        .withSMTPServer(
-                                config.smtpHost(),
-                                config.smtpPort(),
-                                config.smtpUser(),
-                                config.smtpPassword())
-                        .withTransportStrategy(Enums.getIfPresent(TransportStrategy.class, config.smtpStrategy())
-                                .or(TransportStrategy.SMTP_TLS))
-                        .async()
-                        .buildMailer());
+        }
+        return smtp;
+    }
+
+    private String getFromEmailAddress() {
+        return config.fromEmailLocalPart() + "@" + configApp.domain();
+    }
+
+    private String getSesFromEmailAddress() {
+        String fromEmailAddress = getFromEmailAddress();
+        String emailDisplayName = config.emailDisplayName();
+        if (!Strings.isNullOrEmpty(emailDisplayName)) {
+            fromEmailAddress = emailDisplayName + " <" + fromEmailAddress + ">";
+        }
+        return fromEmailAddress;
+    }
+
+    private Destination getSesDestination(String toAddress, String typeTag) {
+        Destination destination = new Destination()
+                .withToAddresses(toAddress);
+        if (config.bccOnTagTypes() != null
+                && config.bccOnTagTypes().contains(typeTag)) {
+            destination.withBccAddresses(config.bccEmails());
+        }
+        return destination;
+    }
+
+    private MessageTag[] getSesEmailTags(String projectOrAccountId, String typeTag) {
+        return new MessageTag[]{
+                new MessageTag().withName("id").withValue(projectOrAccountId),
+                new MessageTag().withName("type").withValue(typeTag)};
+    }
+
+    private void logSesException(Exception ex, String projectOrAccountId, String toAddress, String subject) {
+        if (ex instanceof TooManyRequestsException
+                || ex instanceof SendingPausedException
+                || ex instanceof LimitExceededException) {
+            if (LogUtil.rateLimitAllowLog("emailpush-toomanyreqs")) {
+                log.warn("Email service limited, project/account id {} toAddress {} subject {}",
+                        projectOrAccountId, toAddress, subject, ex);
             }
-            EmailPopulatingBuilder emailBuilder = EmailBuilder.startingBlank()
-                    .from(config.emailDisplayName(), fromEmailAddress)
-                    .to(email.getToAddress())
-                    .withSubject(email.getSubject())
-                    .withHTMLText(email.getContentHtml())
-                    .withPlainText(email.getContentText());
-            if (config.bccOnTagTypes() != null
-                    && config.bccOnTagTypes().contains(email.getTypeTag())) {
-                emailBuilder.bcc(config.bccEmails().stream().collect(Collectors.joining(",")));
+        } else if (ex instanceof AccountSuspendedException) {
+            if (LogUtil.rateLimitAllowLog("emailpush-accountsuspended")) {
+                log.warn("Email service account suspended", ex);
             }
-            AsyncResponse asyncResponse = this.smtpOpt.get().sendMail(emailBuilder
-                    .buildEmail(), true);
-            if (asyncResponse != null) {
-                asyncResponse.onException(ex -> {
-                    if (LogUtil.rateLimitAllowLog("emailpush-smtp-exception")) {
-                        log.warn("Email cannot be delivered", ex);
-                    }
-                });
-                asyncResponse.onSuccess(() -> log.trace("Email sent to {} project/account id {} to {} subject {}",
-                        email.getToAddress(), email.getProjectOrAccountId(), email.getToAddress(), email.getSubject()));
+        } else if (ex instanceof MessageRejectedException
+                || ex instanceof MailFromDomainNotVerifiedException
+                || ex instanceof NotFoundException
+                || ex instanceof BadRequestException) {
+            if (LogUtil.rateLimitAllowLog("emailpush-misconfigured")) {
+                log.warn("Email service misconfigured", ex);
+            }
+        } else {
+            if (LogUtil.rateLimitAllowLog("emailpush-exception")) {
+                log.warn("Email cannot be delivered", ex);
             }
         }
     }
@@ -0,0 +1,114 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.core.trace;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A timed unit of work within a trace. Closing a span ends it; spans are only exported as part of a sampled trace.
+ * <p>
+ * Scoped spans become the current span of the thread that started them until closed, so that any spans started in
+ * the meantime become their children.
+ *
+ * @see Tracer
+ */
+public class Span implements AutoCloseable {
+
+    /** Returned when there is no trace to attach to, all operations are no-ops */
+    static final Span NOOP = new Span(null, null, null, null, false, null);
+
+    final Tracer.Trace trace;
+    final String spanId;
+    final String parentSpanId;
+    final long startEpochNanos;
+    final long startNanos;
+    private final boolean scoped;
+    private final Span previous;
+    private final AtomicBoolean ended = new AtomicBoolean(false);
+    private volatile String name;
+    private volatile long durationNanos;
+    private volatile boolean error;
+    private Map<String, String> attributes;
+
+    Span(Tracer.Trace trace, String spanId, String parentSpanId, String name, boolean scoped, Span previous) {
+        this.trace = trace;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.scoped = scoped;
+        this.previous = previous;
+        this.startEpochNanos = System.currentTimeMillis() * 1_000_000L;
+        this.startNanos = System.nanoTime();
+    }
+
+    public boolean isNoop() {
+        return trace == null;
+    }
+
+    public Span rename(String name) {
+        if (!isNoop()) {
+            this.name = name;
+        }
+        return this;
+    }
+
+    public Span attribute(String key, Object value) {
+        if (!isNoop()) {
+            synchronized (this) {
+                if (attributes == null) {
+                    attributes = Maps.newHashMap();
+                }
+                attributes.put(key, String.valueOf(value));
+            }
+        }
+        return this;
+    }
+
+    public Span error(Throwable th) {
+        if (!isNoop()) {
+            error = true;
+            attribute("exception", th.getClass().getSimpleName());
+        }
+        return this;
+    }
+
+    /**
+     * Ends the span. Only the first call has any effect.
+     */
+    @Override
+    public void close() {
+        if (isNoop() || !ended.compareAndSet(false, true)) {
+            return;
+        }
+        durationNanos = System.nanoTime() - startNanos;
+        // Root span always clears the thread, even if a child span was left open
+        if (scoped && (Tracer.CURRENT.get() == this || parentSpanId == null)) {
+            if (previous == null) {
+                Tracer.CURRENT.remove();
+            } else {
+                Tracer.CURRENT.set(previous);
+            }
+        }
+        trace.ended(this);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getDurationNanos() {
+        return durationNanos;
+    }
+
+    boolean isError() {
+        return error;
+    }
+
+    synchronized ImmutableMap<String, String> getAttributes() {
+        return attributes == null ? ImmutableMap.of() : ImmutableMap.copyOf(attributes);
+    }
+}
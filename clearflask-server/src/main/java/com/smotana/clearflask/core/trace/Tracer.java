@@ -0,0 +1,318 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.core.trace;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lightweight in-process request tracing.
+ * <p>
+ * A trace is started per request and its spans are kept in memory until the request finishes. Slow requests, and a
+ * configurable random sample of the rest, are then exported either to the log or as OTLP JSON lines to a file that
+ * an OpenTelemetry collector can tail. Spans ending after their trace was exported, such as from async tasks, are
+ * exported on their own.
+ * <p>
+ * The current span is held in a thread local; use {@link #wrap(String, Runnable)} and friends to carry it over to
+ * another thread. Without a current span all static methods are cheap no-ops.
+ */
+@Slf4j
+@Singleton
+public class Tracer {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        /**
+         * Traces at least this long are always exported.
+         */
+        @DefaultValue("PT1S")
+        Duration slowThreshold();
+
+        /**
+         * Fraction of remaining traces exported.
+         */
+        @DefaultValue("0")
+        double sampleRate();
+
+        @DefaultValue("500")
+        int maxSpansPerTrace();
+
+        /**
+         * If set, spans are appended to this file as OTLP JSON lines instead of being logged.
+         */
+        @DefaultValue("")
+        String otlpJsonFile();
+    }
+
+    static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+    @Inject
+    private Config config;
+
+    private final Object exportLock = new Object();
+
+    /**
+     * Starts a new trace with a root span that becomes current on this thread.
+     */
+    public Span startTrace(String name) {
+        if (!config.enabled()) {
+            return Span.NOOP;
+        }
+        Trace trace = new Trace(this, randomHex(2));
+        Span root = new Span(trace, randomHex(1), null, name, true, null);
+        trace.root = root;
+        CURRENT.set(root);
+        return root;
+    }
+
+    /**
+     * Starts a child of the current span which becomes current until closed.
+     */
+    public static Span span(String name) {
+        return start(CURRENT.get(), name, true);
+    }
+
+    /**
+     * Starts a child of the current span without making it current, for work ending on another thread or containing
+     * no further spans.
+     */
+    public static Span leafSpan(String name) {
+        return start(CURRENT.get(), name, false);
+    }
+
+    /**
+     * Runs the task on this thread in a child of the current span.
+     */
+    public static <T> T trace(String name, Supplier<T> task) {
+        try (Span span = span(name)) {
+            return task.get();
+        }
+    }
+
+    /**
+     * Runs the task in a span that is a child of the current span at the time of wrapping.
+     */
+    public static Runnable wrap(String name, Runnable task) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return task;
+        }
+        return () -> {
+            try (Span span = start(parent, name, true)) {
+                task.run();
+            }
+        };
+    }
+
+    public static <T> Callable<T> wrap(String name, Callable<T> task) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return task;
+        }
+        return () -> {
+            try (Span span = start(parent, name, true)) {
+                return task.call();
+            }
+        };
+    }
+
+    /**
+     * Executor that wraps every submitted task with the span current at submission.
+     */
+    public static Executor propagating(String name, Executor executor) {
+        return task -> executor.execute(wrap(name, task));
+    }
+
+    private static Span start(Span parent, String name, boolean scoped) {
+        if (parent == null || parent.isNoop()) {
+            return Span.NOOP;
+        }
+        Trace trace = parent.trace;
+        if (trace.spanCount.incrementAndGet() > trace.tracer.config.maxSpansPerTrace()) {
+            return Span.NOOP;
+        }
+        Span previous = scoped ? CURRENT.get() : null;
+        Span span = new Span(trace, randomHex(1), parent.spanId, name, scoped, previous);
+        if (scoped) {
+            CURRENT.set(span);
+        }
+        return span;
+    }
+
+    private void export(Trace trace, List<Span> spans) {
+        String otlpJsonFile = config.otlpJsonFile();
+        if (!Strings.isNullOrEmpty(otlpJsonFile)) {
+            String line = toOtlpJson(trace, spans).toString() + "\n";
+            synchronized (exportLock) {
+                try {
+                    Files.write(Paths.get(otlpJsonFile), line.getBytes(StandardCharsets.UTF_8),
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                } catch (IOException ex) {
+                    log.warn("Failed to export trace {} to {}", trace.traceId, otlpJsonFile, ex);
+                }
+            }
+            return;
+        }
+        StringBuilder builder = new StringBuilder();
+        spans.stream()
+                .sorted(Comparator.comparingLong(span -> span.startNanos))
+                .forEach(span -> {
+                    builder.append("\n  ")
+                            .append(span.parentSpanId == null ? "" : "- ")
+                            .append(span.getName())
+                            .append(' ')
+                            .append((span.startNanos - trace.root.startNanos) / 1_000_000L)
+                            .append("ms+")
+                            .append(span.getDurationNanos() / 1_000_000L)
+                            .append("ms");
+                    if (span.isError()) {
+                        builder.append(" ERROR");
+                    }
+                    if (!span.getAttributes().isEmpty()) {
+                        builder.append(' ').append(span.getAttributes());
+                    }
+                });
+        log.info("Trace {} {}{}", trace.traceId, trace.root.getName(), builder);
+    }
+
+    private JsonObject toOtlpJson(Trace trace, List<Span> spans) {
+        JsonArray spansJson = new JsonArray();
+        for (Span span : spans) {
+            JsonObject spanJson = new JsonObject();
+            spanJson.addProperty("traceId", trace.traceId);
+            spanJson.addProperty("spanId", span.spanId);
+            if (span.parentSpanId != null) {
+                spanJson.addProperty("parentSpanId", span.parentSpanId);
+            }
+            spanJson.addProperty("name", span.getName());
+            // SPAN_KIND_SERVER for the root, SPAN_KIND_INTERNAL otherwise
+            spanJson.addProperty("kind", span.parentSpanId == null ? 2 : 1);
+            spanJson.addProperty("startTimeUnixNano", String.valueOf(span.startEpochNanos));
+            spanJson.addProperty("endTimeUnixNano", String.valueOf(span.startEpochNanos + span.getDurationNanos()));
+            JsonArray attributesJson = new JsonArray();
+            for (Map.Entry<String, String> attribute : span.getAttributes().entrySet()) {
+                attributesJson.add(otlpAttribute(attribute.getKey(), attribute.getValue()));
+            }
+            spanJson.add("attributes", attributesJson);
+            JsonObject statusJson = new JsonObject();
+            // STATUS_CODE_ERROR or STATUS_CODE_UNSET
+            statusJson.addProperty("code", span.isError() ? 2 : 0);
+            spanJson.add("status", statusJson);
+            spansJson.add(spanJson);
+        }
+        JsonObject scopeJson = new JsonObject();
+        scopeJson.addProperty("name", "clearflask");
+        JsonObject scopeSpansJson = new JsonObject();
+        scopeSpansJson.add("scope", scopeJson);
+        scopeSpansJson.add("spans", spansJson);
+        JsonArray scopeSpansArray = new JsonArray();
+        scopeSpansArray.add(scopeSpansJson);
+
+        JsonArray resourceAttributes = new JsonArray();
+        resourceAttributes.add(otlpAttribute("service.name", "clearflask-server"));
+        JsonObject resourceJson = new JsonObject();
+        resourceJson.add("attributes", resourceAttributes);
+        JsonObject resourceSpansJson = new JsonObject();
+        resourceSpansJson.add("resource", resourceJson);
+        resourceSpansJson.add("scopeSpans", scopeSpansArray);
+        JsonArray resourceSpansArray = new JsonArray();
+        resourceSpansArray.add(resourceSpansJson);
+
+        JsonObject requestJson = new JsonObject();
+        requestJson.add("resourceSpans", resourceSpansArray);
+        return requestJson;
+    }
+
+    private static JsonObject otlpAttribute(String key, String value) {
+        JsonObject valueJson = new JsonObject();
+        valueJson.addProperty("stringValue", value);
+        JsonObject attributeJson = new JsonObject();
+        attributeJson.addProperty("key", key);
+        attributeJson.add("value", valueJson);
+        return attributeJson;
+    }
+
+    private static String randomHex(int longs) {
+        StringBuilder builder = new StringBuilder(longs * 16);
+        for (int i = 0; i < longs; i++) {
+            String hex = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            for (int j = hex.length(); j < 16; j++) {
+                builder.append('0');
+            }
+            builder.append(hex);
+        }
+        return builder.toString();
+    }
+
+    static class Trace {
+        private static final int IN_PROGRESS = 0;
+        private static final int EXPORTED = 1;
+        private static final int DROPPED = 2;
+
+        private final Tracer tracer;
+        private final String traceId;
+        private final AtomicInteger spanCount = new AtomicInteger(1);
+        private final ConcurrentLinkedQueue<Span> endedSpans = new ConcurrentLinkedQueue<>();
+        private volatile Span root;
+        private volatile int state = IN_PROGRESS;
+
+        private Trace(Tracer tracer, String traceId) {
+            this.tracer = tracer;
+            this.traceId = traceId;
+        }
+
+        void ended(Span span) {
+            if (span == root) {
+                boolean sample = span.getDurationNanos() >= tracer.config.slowThreshold().toNanos()
+                        || ThreadLocalRandom.current().nextDouble() < tracer.config.sampleRate();
+                state = sample ? EXPORTED : DROPPED;
+                if (sample) {
+                    endedSpans.add(span);
+                    tracer.export(this, ImmutableList.copyOf(endedSpans));
+                }
+                endedSpans.clear();
+            } else if (state == IN_PROGRESS) {
+                endedSpans.add(span);
+            } else if (state == EXPORTED) {
+                tracer.export(this, ImmutableList.of(span));
+            }
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(Tracer.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
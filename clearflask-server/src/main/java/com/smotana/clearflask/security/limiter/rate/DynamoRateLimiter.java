@@ -0,0 +1,280 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.security.limiter.rate;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
+import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableSchema;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoTable;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.LogUtil;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableType.Primary;
+
+/**
+ * Token buckets shared by all nodes, stored in DynamoDB.
+ * <p>
+ * To keep most calls in-process, each node leases a batch of permits from the shared bucket and hands them out
+ * locally until used up or expired. Unused leased permits are lost on expiry, so limits are enforced slightly more
+ * strictly than configured. Bucket updates are conditional on a version incremented on every write, retrying on
+ * contention.
+ * <p>
+ * Limits on this node only unless {@link Config#useSharedBuckets()} is set, or if DynamoDB is unavailable.
+ */
+@Slf4j
+@Singleton
+public class DynamoRateLimiter implements RateLimiter {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        /**
+         * Enforce limits across all nodes using buckets in DynamoDB. When disabled, each node limits on its own.
+         */
+        @DefaultValue("false")
+        boolean useSharedBuckets();
+
+        /**
+         * Permits leased from the shared bucket at once, in seconds worth of the bucket's rate.
+         */
+        @DefaultValue("1")
+        double leaseBatchInSeconds();
+
+        @DefaultValue("PT5S")
+        Duration leaseExpiry();
+
+        @DefaultValue("100000")
+        long leaseCacheMaxSize();
+
+        @DefaultValue("3")
+        int conflictRetries();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private DynamoMapper dynamoMapper;
+    @Inject
+    private LocalRateLimiter localRateLimiter;
+
+    private TableSchema<RateLimitBucket> bucketSchema;
+    private Cache<String, Lease> leases;
+
+    @Inject
+    private void setup() {
+        bucketSchema = dynamoMapper.parseTableSchema(RateLimitBucket.class);
+        // Eviction only loses a small local lease, bucket state itself is kept in DynamoDB
+        leases = CacheBuilder.newBuilder()
+                .maximumSize(config.leaseCacheMaxSize())
+                .expireAfterAccess(config.leaseExpiry())
+                .build();
+    }
+
+    @Override
+    public boolean tryAcquire(String target, int permits, double prechargedDurationInSeconds, double permitsPerSecond, double capacityInSeconds) {
+        if (!config.enabled()) {
+            log.debug("Not enabled, skipping");
+            return true;
+        }
+        if (!config.useSharedBuckets()) {
+            return localRateLimiter.tryAcquire(target, permits, prechargedDurationInSeconds, permitsPerSecond, capacityInSeconds);
+        }
+        return tryAcquireLease(target, permits, prechargedDurationInSeconds, permitsPerSecond, capacityInSeconds);
+    }
+
+    @Override
+    public boolean tryAcquire(String target, int permits, double prechargedDurationInSeconds, double... altPermCap) {
+        if (!config.enabled()) {
+            log.debug("Not enabled, skipping");
+            return true;
+        }
+        checkArgument(altPermCap.length % 2 == 0);
+        if (!config.useSharedBuckets()) {
+            return localRateLimiter.tryAcquire(target, permits, prechargedDurationInSeconds, altPermCap);
+        }
+
+        for (int i = 0; i < altPermCap.length; i += 2) {
+            if (!tryAcquireLease(target, permits, prechargedDurationInSeconds, altPermCap[i], altPermCap[i + 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Only clears local leases, shared buckets refill on their own.
+     */
+    @Extern
+    @Override
+    public void clearAll() {
+        leases.invalidateAll();
+        localRateLimiter.clearAll();
+    }
+
+    private boolean tryAcquireLease(String target, int permits, double prechargedDurationInSeconds, double permitsPerSecond, double capacityInSeconds) {
+        String bucketId = target + ":" + permitsPerSecond + ":" + capacityInSeconds;
+        Lease lease;
+        try {
+            lease = leases.get(bucketId, Lease::new);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+        synchronized (lease) {
+            long now = System.currentTimeMillis();
+            if (lease.expiresAt <= now) {
+                lease.permits = 0d;
+            }
+            if (lease.permits >= permits) {
+                lease.permits -= permits;
+                return true;
+            }
+            if (lease.deniedUntil > now) {
+                return false;
+            }
+
+            double requested = Math.max(permits - lease.permits, permitsPerSecond * config.leaseBatchInSeconds());
+            Grant grant;
+            try {
+                grant = leaseFromBucket(bucketId, permits - lease.permits, requested, prechargedDurationInSeconds, permitsPerSecond, capacityInSeconds, now);
+            } catch (Exception ex) {
+                if (LogUtil.rateLimitAllowLog("dynamoratelimiter-fallback")) {
+                    log.warn("Failed to lease permits for {}, falling back to local rate limiter", target, ex);
+                }
+                return localRateLimiter.tryAcquire(target, permits, prechargedDurationInSeconds, permitsPerSecond, capacityInSeconds);
+            }
+            if (grant.getGranted() <= 0d) {
+                // Avoid asking again before the bucket could have refilled enough
+                double deficit = permits - lease.permits - grant.getAvailable();
+                lease.deniedUntil = now + Math.min(
+                        config.leaseExpiry().toMillis(),
+                        (long) (deficit / permitsPerSecond * 1000d));
+                return false;
+            }
+            lease.permits += grant.getGranted() - permits;
+            lease.expiresAt = now + config.leaseExpiry().toMillis();
+            return true;
+        }
+    }
+
+    private Grant leaseFromBucket(String bucketId, double needed, double requested, double prechargedDurationInSeconds, double permitsPerSecond, double capacityInSeconds, long now) {
+        double maxTokens = permitsPerSecond * capacityInSeconds;
+        long ttlInEpochSec = now / 1000L + (long) Math.ceil(capacityInSeconds) + 1L;
+        for (int attempt = 0; attempt <= config.conflictRetries(); attempt++) {
+            Item item = bucketSchema.table().getItem(new GetItemSpec()
+                    .withPrimaryKey(bucketSchema.primaryKey(Map.of("bucketId", bucketId)))
+                    .withConsistentRead(true));
+            RateLimitBucket bucket = item == null ? null : bucketSchema.fromItem(item);
+
+            double available = bucket == null
+                    ? permitsPerSecond * Math.min(capacityInSeconds, prechargedDurationInSeconds)
+                    : Math.min(maxTokens, bucket.getTokens() + Math.max(0L, now - bucket.getLastRefill()) / 1000d * permitsPerSecond);
+            if (available < needed) {
+                return new Grant(0d, available);
+            }
+            double granted = Math.min(available, requested);
+
+            PutItemSpec putItemSpec = new PutItemSpec()
+                    .withItem(bucketSchema.toItem(new RateLimitBucket(
+                            bucketId,
+                            available - granted,
+                            Math.max(now, bucket == null ? now : bucket.getLastRefill()),
+                            bucket == null ? 0L : bucket.getVersion() + 1L,
+                            ttlInEpochSec)));
+            if (bucket == null) {
+                putItemSpec.withConditionExpression("attribute_not_exists(#partitionKey)")
+                        .withNameMap(new NameMap().with("#partitionKey", bucketSchema.partitionKeyName()));
+            } else {
+                // Refill time may not move forward between writes within the same millisecond
+                putItemSpec.withConditionExpression("#version = :version")
+                        .withNameMap(new NameMap().with("#version", "version"))
+                        .withValueMap(new ValueMap().withLong(":version", bucket.getVersion()));
+            }
+            try {
+                bucketSchema.table().putItem(putItemSpec);
+                return new Grant(granted, available);
+            } catch (ConditionalCheckFailedException ex) {
+                log.trace("Rate limit bucket {} updated concurrently, attempt {}", bucketId, attempt);
+            }
+        }
+        // Heavy contention means other nodes are draining the same bucket
+        return new Grant(0d, 0d);
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(RateLimiter.class).to(DynamoRateLimiter.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                bind(LocalRateLimiter.class);
+                install(ConfigSystem.configModule(LocalRateLimiter.Config.class));
+            }
+        };
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = "bucketId", rangePrefix = "rateLimitBucket")
+    public static class RateLimitBucket {
+        @NonNull
+        String bucketId;
+
+        /**
+         * Tokens left as of lastRefill
+         */
+        @NonNull
+        double tokens;
+
+        /**
+         * Epoch millis
+         */
+        @NonNull
+        long lastRefill;
+
+        /**
+         * Incremented on every write, guards against concurrent updates
+         */
+        @NonNull
+        long version;
+
+        @NonNull
+        long ttlInEpochSec;
+    }
+
+    @Value
+    private static class Grant {
+        double granted;
+        double available;
+    }
+
+    private static class Lease {
+        private double permits;
+        private long expiresAt;
+        private long deniedUntil;
+    }
+}
@@ -2,8 +2,6 @@
 // SPDX-License-Identifier: AGPL-3.0-only
 package com.smotana.clearflask.security.limiter.rate;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.util.concurrent.GuavaRateLimiters;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -14,13 +12,21 @@ import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.util.Extern;
 import lombok.extern.slf4j.Slf4j;
 
-import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+/**
+ * Rate limiter local to this node.
+ * <p>
+ * Keeps all tiers of a target in a single lock-free {@link TokenBucket}. Buckets are evicted in approximate LRU order
+ * using a clock sweep once there are too many; an evicted bucket is recreated precharged on next use. A target is
+ * expected to always be limited using the same tiers, otherwise its bucket is replaced.
+ */
 @Slf4j
 @Singleton
 public class LocalRateLimiter implements RateLimiter {
@@ -28,21 +34,31 @@ public class LocalRateLimiter implements RateLimiter {
     public interface Config {
         @DefaultValue("true")
         boolean enabled();
+
+        @DefaultValue("100000")
+        long maxBuckets();
     }
 
-    private final ConcurrentMap<Double, Cache<String, com.google.common.util.concurrent.RateLimiter>> rateLimiters = CacheBuilder.newBuilder()
-            .expireAfterAccess(Duration.ofDays(30))
-            .<Double, Cache<String, com.google.common.util.concurrent.RateLimiter>>build()
-            .asMap();
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    /** Only accessed while holding evicting */
+    private Iterator<TokenBucket> clockHand;
 
     @Inject
     private Config config;
     @Inject
     private GuavaRateLimiters guavaRateLimiters;
 
+    private LongSupplier ticker;
+
+    @Inject
+    private void setup() {
+        ticker = guavaRateLimiters.createTicker();
+    }
+
     @Override
     public boolean tryAcquire(String target, int permits, double prechargedDurationInSeconds, double permitsPerSecond, double capacityInSeconds) {
-        return getRateLimiter(target, permitsPerSecond, prechargedDurationInSeconds, capacityInSeconds).tryAcquire(permits);
+        return tryAcquire(target, permits, prechargedDurationInSeconds, new double[]{permitsPerSecond, capacityInSeconds});
     }
 
     @Override
@@ -53,33 +69,54 @@ public class LocalRateLimiter implements RateLimiter {
         }
         checkArgument(altPermCap.length % 2 == 0);
 
-        for (int i = 0; i < altPermCap.length; i += 2) {
-            if (!getRateLimiter(target, prechargedDurationInSeconds, altPermCap[i], altPermCap[i + 1]).tryAcquire(permits)) {
-                return false;
-            }
+        long nowMicros = ticker.getAsLong();
+        TokenBucket bucket = buckets.get(target);
+        if (bucket == null || !bucket.matches(prechargedDurationInSeconds, altPermCap)) {
+            bucket = buckets.compute(target, (t, existing) -> existing != null && existing.matches(prechargedDurationInSeconds, altPermCap)
+                    ? existing
+                    : new TokenBucket(prechargedDurationInSeconds, altPermCap, nowMicros));
+            evictIfNeeded();
+        } else if (!bucket.referenced) {
+            bucket.referenced = true;
         }
-        return true;
+        return bucket.tryAcquire(permits, nowMicros);
     }
 
     @Extern
     @Override
     public void clearAll() {
-        rateLimiters.clear();
+        buckets.clear();
     }
 
-    private com.google.common.util.concurrent.RateLimiter getRateLimiter(String target, double prechargedDuration, double permitsPerSecond, double capacityInSeconds) {
-        Cache<String, com.google.common.util.concurrent.RateLimiter> rateLimiterCache = rateLimiters.get(capacityInSeconds);
-        if (rateLimiterCache == null) {
-            rateLimiterCache = rateLimiters.computeIfAbsent(capacityInSeconds, capacityInSec -> CacheBuilder.newBuilder()
-                    .expireAfterAccess(capacityInSec.longValue(), TimeUnit.SECONDS)
-                    .maximumSize(100000)
-                    .build());
+    @Extern
+    public long getBucketCount() {
+        return buckets.size();
+    }
+
+    private void evictIfNeeded() {
+        long maxBuckets = config.maxBuckets();
+        if (buckets.size() <= maxBuckets || !evicting.compareAndSet(false, true)) {
+            return;
         }
         try {
-            return rateLimiterCache.get(target, () -> guavaRateLimiters.create(
-                    permitsPerSecond, capacityInSeconds, Math.min(capacityInSeconds, prechargedDuration)));
-        } catch (ExecutionException ex) {
-            throw new RuntimeException(ex);
+            // Each bucket is passed over at most twice, first clearing its reference bit
+            long remainingSteps = 2L * buckets.size();
+            while (buckets.size() > maxBuckets && remainingSteps-- > 0) {
+                if (clockHand == null || !clockHand.hasNext()) {
+                    clockHand = buckets.values().iterator();
+                    if (!clockHand.hasNext()) {
+                        break;
+                    }
+                }
+                TokenBucket bucket = clockHand.next();
+                if (bucket.referenced) {
+                    bucket.referenced = false;
+                } else {
+                    clockHand.remove();
+                }
+            }
+        } finally {
+            evicting.set(false);
         }
     }
 
@@ -0,0 +1,71 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.security.limiter.rate;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * All rate limit tiers of a single target.
+ * <p>
+ * Each tier's stored permits and next free ticket are packed into a single long: the time at which the tier would
+ * have been empty. A tier can be acquired from while that time is not in the future, same as Guava's
+ * {@link com.google.common.util.concurrent.RateLimiter#tryAcquire(int)} with bursty behaviour. Each tier is updated with
+ * a single CAS. As with separate Guava rate limiters, permits taken from earlier tiers are kept even if a later tier
+ * rejects, so that bursts also drain longer tiers.
+ */
+final class TokenBucket {
+
+    private final double prechargedInSeconds;
+    private final double[] altPermCap;
+    private final double[] microsPerPermit;
+    private final long[] capacityInMicros;
+    /** Per tier, ticker micros at which the tier would have been empty */
+    private final AtomicLongArray emptyAt;
+    /** Clock hand reference bit for approximate LRU eviction */
+    volatile boolean referenced = true;
+
+    TokenBucket(double prechargedInSeconds, double[] altPermCap, long nowMicros) {
+        int tiers = altPermCap.length / 2;
+        this.prechargedInSeconds = prechargedInSeconds;
+        this.altPermCap = altPermCap;
+        this.microsPerPermit = new double[tiers];
+        this.capacityInMicros = new long[tiers];
+        this.emptyAt = new AtomicLongArray(tiers);
+        for (int i = 0; i < tiers; i++) {
+            double permitsPerSecond = altPermCap[i * 2];
+            double capacityInSeconds = altPermCap[i * 2 + 1];
+            microsPerPermit[i] = 1_000_000d / permitsPerSecond;
+            capacityInMicros[i] = (long) (capacityInSeconds * 1_000_000d);
+            emptyAt.set(i, nowMicros - (long) (Math.min(capacityInSeconds, prechargedInSeconds) * 1_000_000d));
+        }
+    }
+
+    boolean matches(double prechargedInSeconds, double[] altPermCap) {
+        return this.prechargedInSeconds == prechargedInSeconds
+                && (this.altPermCap == altPermCap || Arrays.equals(this.altPermCap, altPermCap));
+    }
+
+    boolean tryAcquire(int permits, long nowMicros) {
+        for (int i = 0; i < emptyAt.length(); i++) {
+            if (!tryAcquireTier(i, permits, nowMicros)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean tryAcquireTier(int tier, int permits, long nowMicros) {
+        long cost = (long) (permits * microsPerPermit[tier]);
+        long minEmptyAt = nowMicros - capacityInMicros[tier];
+        for (; ; ) {
+            long current = emptyAt.get(tier);
+            if (current > nowMicros) {
+                return false;
+            }
+            if (emptyAt.compareAndSet(tier, current, Math.max(current, minEmptyAt) + cost)) {
+                return true;
+            }
+        }
+    }
+}
@@ -18,6 +18,11 @@ public interface ContentStore {
 
     String uploadAndSign(String projectId, String userId, ContentType contentType, InputStream inputStream, int length);
 
+    /**
+     * Caller must close the returned stream.
+     */
+    InputStream download(ContentUrl contentUrl);
+
     void deleteAsUser(String matchProjectId, String matchUserId, String url);
 
     void deleteAsAdmin(String matchProjectId, String url);
@@ -36,6 +41,7 @@ public interface ContentStore {
 
     enum ContentType {
         JPEG("image/jpeg", "jpeg"),
+        CSV("text/csv", "csv"),
         UNKNOWN("application/octet-stream", "dat");
 
         String mediaType;
@@ -4,6 +4,7 @@ package com.smotana.clearflask.store;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.smotana.clearflask.api.model.IdeaCreateAdmin;
 import com.smotana.clearflask.api.model.IdeaDraftAdmin;
 import com.smotana.clearflask.api.model.IdeaDraftSearch;
@@ -42,7 +43,7 @@ public interface DraftStore {
 
     void deleteDraft(String projectId, String userId, String draftId);
 
-    void deleteAllForProject(String projectId);
+    ListenableFuture<Void> deleteAllForProject(String projectId);
 
     @Value
     class SearchResponse {
@@ -55,6 +55,14 @@ public interface IdeaStore {
         return IdUtil.contentUnique(title);
     }
 
+    /**
+     * Same row of the same import always results in the same id, so a resumed import overwrites rather than
+     * duplicates rows that were already written.
+     */
+    default String genDeterministicIdeaIdForImport(String title, String importJobId, long rowIndex) {
+        return IdUtil.contentUnique(title, importJobId + "-" + Long.toString(rowIndex, 36));
+    }
+
     default String genDeterministicIdeaIdForGithubIssue(long issueNumber, long issueId, long repositoryId) {
         return "github-" + issueNumber + "-" + issueId + "-" + repositoryId;
     }
@@ -270,6 +278,12 @@ public interface IdeaStore {
 
         String linkedGitHubUrl;
 
+        /**
+         * Number of {@link IdeaCounterShard}s that may hold increments not yet folded into this idea. Never decreases
+         * as an increment may be in flight to any of them.
+         */
+        Long counterShardCount;
+
         public String getDescriptionSanitized(Sanitizer sanitizer) {
             return sanitizer.richHtml(getDescription(), "idea", getIdeaId(), getProjectId(), false);
         }
@@ -371,4 +385,50 @@ public interface IdeaStore {
             return getOrder() != null ? getOrder() : getCreated().toEpochMilli();
         }
     }
+
+    /**
+     * Pending counter increments of a frequently written idea, periodically folded back into the idea.
+     * Shard id is part of the partition key to spread writes across DynamoDB partitions.
+     */
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"ideaId", "projectId", "shardId"}, rangePrefix = "ideaCounterShard")
+    class IdeaCounterShard {
+        @NonNull
+        String projectId;
+
+        @NonNull
+        String ideaId;
+
+        @NonNull
+        long shardId;
+
+        @NonNull
+        long voteValue;
+
+        @NonNull
+        long votersCount;
+
+        @NonNull
+        double expressionsValue;
+
+        @NonNull
+        ImmutableMap<String, Long> expressions;
+
+        @NonNull
+        long funded;
+
+        @NonNull
+        long fundersCount;
+
+        public boolean isEmpty() {
+            return voteValue == 0L
+                    && votersCount == 0L
+                    && expressionsValue == 0d
+                    && expressions.values().stream().allMatch(count -> count == 0L)
+                    && funded == 0L
+                    && fundersCount == 0L;
+        }
+    }
 }
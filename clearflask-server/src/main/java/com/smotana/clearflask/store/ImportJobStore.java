@@ -0,0 +1,103 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store;
+
+import com.smotana.clearflask.store.dynamo.mapper.DynamoTable;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableType.Primary;
+
+/**
+ * Status and checkpoint of background imports, shared by all instances.
+ * <p>
+ * Each run of a job has its own run id, only the instance executing that run may update the job.
+ */
+public interface ImportJobStore {
+
+    void createJob(ImportJobModel job);
+
+    Optional<ImportJobModel> getJob(String projectId, String jobId);
+
+    /**
+     * Replaces the job, only if it still belongs to the given run.
+     *
+     * @return false if another run has taken over the job
+     */
+    boolean updateJob(ImportJobModel job, String expectedRunId);
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"projectId", "jobId"}, rangePrefix = "importJob")
+    class ImportJobModel {
+
+        @NonNull
+        String projectId;
+
+        @NonNull
+        String jobId;
+
+        /**
+         * Handler that maps and writes the rows.
+         */
+        @NonNull
+        String type;
+
+        /**
+         * Handler specific parameters as JSON.
+         */
+        @NonNull
+        String params;
+
+        /**
+         * Upload in the {@link ContentStore}.
+         */
+        @NonNull
+        String uploadUrl;
+
+        @NonNull
+        JobState state;
+
+        @NonNull
+        String runId;
+
+        /**
+         * Rows parsed so far.
+         */
+        @NonNull
+        long rowsRead;
+
+        /**
+         * Leading rows that are fully written, a resumed job continues from here.
+         */
+        @NonNull
+        long rowsImported;
+
+        String error;
+
+        @NonNull
+        Instant created;
+
+        /**
+         * Last time the run saved its progress.
+         */
+        @NonNull
+        Instant updated;
+
+        @NonNull
+        long ttlInEpochSec;
+
+        public enum JobState {
+            QUEUED,
+            RUNNING,
+            COMPLETED,
+            FAILED
+        }
+    }
+}
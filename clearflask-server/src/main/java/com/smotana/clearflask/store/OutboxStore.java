@@ -0,0 +1,94 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoTable;
+import com.smotana.clearflask.util.IdUtil;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+
+import static com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableType.Primary;
+
+/**
+ * Durable queue of work to be processed asynchronously, surviving restarts.
+ * <p>
+ * Entries are spread across shards and processed by whichever node holds an unexpired lease. Once processed, an
+ * entry is completed and removed. If the lease expires before completion, the entry is handed out again.
+ */
+public interface OutboxStore {
+
+    default String genEntryId() {
+        // EntryId is a range key and we want them to be sorted by creation time to process oldest first
+        return IdUtil.randomAscId();
+    }
+
+    /**
+     * Enqueues entries for any node to lease, in batches without holding the calling thread.
+     */
+    ListenableFuture<Void> enqueue(String type, Collection<String> payloads);
+
+    /**
+     * Enqueues an entry already leased by this node, for work started right away that others only pick up once the
+     * lease expires without completion.
+     */
+    OutboxModel enqueueLeased(String type, String payload, Duration leaseDuration);
+
+    /**
+     * Leases up to limit entries from a single shard whose lease is missing or expired, oldest first.
+     */
+    ImmutableList<OutboxModel> lease(String type, long shard, int limit, Duration leaseDuration);
+
+    long getShardCount();
+
+    /**
+     * Removes a leased entry. No-op if the lease has since expired and been taken over, even by this same node.
+     */
+    void complete(OutboxModel entry);
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"type", "shard"}, rangePrefix = "outbox", rangeKeys = "entryId")
+    class OutboxModel {
+
+        @NonNull
+        String type;
+
+        @NonNull
+        long shard;
+
+        @NonNull
+        String entryId;
+
+        @NonNull
+        String payload;
+
+        @NonNull
+        Instant created;
+
+        String leaseOwner;
+
+        /**
+         * Epoch millis of lease expiry, zero if never leased.
+         */
+        @NonNull
+        long leaseExpiry;
+
+        /**
+         * Number of times this entry has been leased.
+         */
+        @NonNull
+        long attempt;
+
+        @NonNull
+        long ttlInEpochSec;
+    }
+}
@@ -56,6 +56,16 @@ public interface UserStore {
 
     ImmutableMap<String, UserModel> getUsers(String projectId, ImmutableCollection<String> userIds);
 
+    /**
+     * Same as {@link #getUser} but only fetches fields needed for sending notifications, skipping bloom filters.
+     */
+    Optional<UserNotificationView> getUserForNotification(String projectId, String userId);
+
+    /**
+     * Same as {@link #getUsers} with fields limited as in {@link #getUserForNotification}.
+     */
+    ImmutableMap<String, UserNotificationView> getUsersForNotification(String projectId, ImmutableCollection<String> userIds);
+
     Optional<UserModel> getUserByIdentifier(String projectId, IdentifierType type, String identifier);
 
     HistogramResponse histogram(String projectId, HistogramSearchAdmin searchAdmin);
@@ -256,6 +266,26 @@ public interface UserStore {
         @NonNull
         ImmutableSet<String> subscribedCategoryIds;
 
+        /**
+         * Optimistic lock for compacting pending ids into bloom filters.
+         */
+        Long bloomVersion;
+
+        /**
+         * Append-only log of ids not yet compacted into their respective bloom filter.
+         */
+        @NonNull
+        ImmutableSet<String> voteBloomPending;
+
+        @NonNull
+        ImmutableSet<String> expressBloomPending;
+
+        @NonNull
+        ImmutableSet<String> fundBloomPending;
+
+        @NonNull
+        ImmutableSet<String> commentVoteBloomPending;
+
         public UserMe toUserMe(Function<String, String> intercomEmailToIdentity) {
             return new UserMe(
                     getUserId(),
@@ -328,6 +358,21 @@ public interface UserStore {
             return new Balance(getBalance());
         }
 
+        public UserNotificationView toNotificationView() {
+            return new UserNotificationView(
+                    getProjectId(),
+                    getUserId(),
+                    getIsMod(),
+                    getName(),
+                    getEmail(),
+                    isEmailNotify(),
+                    getBalance(),
+                    getIosPushToken(),
+                    getAndroidPushToken(),
+                    getBrowserPushToken(),
+                    getCreated());
+        }
+
         private String getIntercomIdentity(Function<String, String> intercomEmailToIdentity) {
             if (Strings.isNullOrEmpty(getEmail())) {
                 return null;
@@ -342,6 +387,42 @@ public interface UserStore {
         }
     }
 
+    /**
+     * Read-only subset of {@link UserModel} needed for sending notifications. Field names and types must match.
+     */
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    class UserNotificationView {
+
+        @NonNull
+        String projectId;
+
+        @NonNull
+        String userId;
+
+        Boolean isMod;
+
+        String name;
+
+        String email;
+
+        @NonNull
+        boolean emailNotify;
+
+        @NonNull
+        long balance;
+
+        String iosPushToken;
+
+        String androidPushToken;
+
+        String browserPushToken;
+
+        @NonNull
+        Instant created;
+    }
+
     @Value
     @Builder(toBuilder = true)
     @AllArgsConstructor
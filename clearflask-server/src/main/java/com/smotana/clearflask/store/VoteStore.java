@@ -7,6 +7,7 @@ import com.google.common.base.Enums;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.smotana.clearflask.api.model.Transaction;
 import com.smotana.clearflask.api.model.TransactionType;
 import com.smotana.clearflask.api.model.VoteOption;
@@ -95,7 +96,7 @@ public interface VoteStore {
     ListResponse<TransactionModel> transactionList(String projectId, String userId, Optional<String> cursorOpt);
 
 
-    void deleteAllForProject(String projectId);
+    ListenableFuture<Void> deleteAllForProject(String projectId);
 
     @Value
     @Builder(toBuilder = true)
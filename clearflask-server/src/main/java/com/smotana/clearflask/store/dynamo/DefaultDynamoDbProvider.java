@@ -17,6 +17,7 @@ import com.google.inject.multibindings.Multibinder;
 import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.Metrics;
 import com.smotana.clearflask.util.NetworkUtil;
 import com.smotana.clearflask.web.Application;
 import lombok.extern.slf4j.Slf4j;
@@ -49,6 +50,8 @@ public class DefaultDynamoDbProvider extends ManagedService implements Provider<
     private Application.Config configApp;
     @Inject
     private AWSCredentialsProvider AwsCredentialsProvider;
+    @Inject
+    private Metrics metrics;
 
     private Optional<AmazonDynamoDB> amazonDynamoDBOpt = Optional.empty();
 
@@ -65,7 +68,8 @@ public class DefaultDynamoDbProvider extends ManagedService implements Provider<
         log.info("Opening Dynamo client on {}", config.serviceEndpoint());
         AmazonDynamoDBClientBuilder amazonDynamoDBClientBuilder = AmazonDynamoDBClientBuilder
                 .standard()
-                .withCredentials(AwsCredentialsProvider);
+                .withCredentials(AwsCredentialsProvider)
+                .withRequestHandlers(new DynamoMetricsRequestHandler(metrics));
         String serviceEndpoint = config.serviceEndpoint();
         String signingRegion = config.signingRegion();
         String productionRegion = config.productionRegion();
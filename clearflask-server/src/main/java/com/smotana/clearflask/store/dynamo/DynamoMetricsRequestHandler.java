@@ -0,0 +1,143 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.dynamo;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.google.common.collect.Maps;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.core.trace.Span;
+import com.smotana.clearflask.core.trace.Tracer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.smotana.clearflask.core.metrics.Metrics.PREFIX;
+
+/**
+ * Latency and errors of every DynamoDB call by table (or index) and operation, also traced as a span of the
+ * calling thread's current span.
+ * <p>
+ * Hooked into the client rather than {@link com.smotana.clearflask.store.dynamo.mapper.DynamoMapper} so that
+ * document API, batch and transactional calls are all covered, including retries.
+ */
+@Slf4j
+public class DynamoMetricsRequestHandler extends RequestHandler2 {
+
+    private static final HandlerContextKey<Call> CALL = new HandlerContextKey<>("ClearFlaskCall");
+
+    private final Metrics metrics;
+    private final ConcurrentMap<String, OperationMetrics> operationMetrics = Maps.newConcurrentMap();
+
+    public DynamoMetricsRequestHandler(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        AmazonWebServiceRequest originalRequest = request.getOriginalRequest();
+        String op = originalRequest.getClass().getSimpleName();
+        if (op.endsWith("Request")) {
+            op = op.substring(0, op.length() - "Request".length());
+        }
+        String table = getTableName(originalRequest);
+        String key = table + '/' + op;
+        OperationMetrics metrics = operationMetrics.get(key);
+        if (metrics == null) {
+            String opFinal = op;
+            metrics = operationMetrics.computeIfAbsent(key, k -> new OperationMetrics(table, opFinal));
+        }
+        Span span = Tracer.leafSpan("DynamoDB " + op).attribute("table", table);
+        request.addHandlerContext(CALL, new Call(metrics, span, System.nanoTime()));
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        Call call = request.getHandlerContext(CALL);
+        if (call == null) {
+            return;
+        }
+        call.metrics.latency.recordSince(call.startNanos);
+        call.span.close();
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        Call call = request.getHandlerContext(CALL);
+        if (call == null) {
+            return;
+        }
+        call.metrics.latency.recordSince(call.startNanos);
+        call.metrics.errors.increment();
+        call.span.error(e).close();
+    }
+
+    private String getTableName(AmazonWebServiceRequest request) {
+        if (request instanceof GetItemRequest) {
+            return ((GetItemRequest) request).getTableName();
+        } else if (request instanceof PutItemRequest) {
+            return ((PutItemRequest) request).getTableName();
+        } else if (request instanceof UpdateItemRequest) {
+            return ((UpdateItemRequest) request).getTableName();
+        } else if (request instanceof DeleteItemRequest) {
+            return ((DeleteItemRequest) request).getTableName();
+        } else if (request instanceof QueryRequest) {
+            QueryRequest queryRequest = (QueryRequest) request;
+            return queryRequest.getIndexName() == null
+                    ? queryRequest.getTableName()
+                    : queryRequest.getTableName() + "/" + queryRequest.getIndexName();
+        } else if (request instanceof ScanRequest) {
+            ScanRequest scanRequest = (ScanRequest) request;
+            return scanRequest.getIndexName() == null
+                    ? scanRequest.getTableName()
+                    : scanRequest.getTableName() + "/" + scanRequest.getIndexName();
+        } else if (request instanceof BatchGetItemRequest) {
+            return getTableName(((BatchGetItemRequest) request).getRequestItems());
+        } else if (request instanceof BatchWriteItemRequest) {
+            return getTableName(((BatchWriteItemRequest) request).getRequestItems());
+        }
+        return "other";
+    }
+
+    private String getTableName(Map<String, ?> requestItems) {
+        return requestItems != null && requestItems.size() == 1
+                ? requestItems.keySet().iterator().next()
+                : "multiple";
+    }
+
+    private static class Call {
+        private final OperationMetrics metrics;
+        private final Span span;
+        private final long startNanos;
+
+        private Call(OperationMetrics metrics, Span span, long startNanos) {
+            this.metrics = metrics;
+            this.span = span;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private class OperationMetrics {
+        private final Metrics.Timer latency;
+        private final Metrics.Counter errors;
+
+        private OperationMetrics(String table, String op) {
+            latency = metrics.timer(PREFIX + "dynamo_request_duration_seconds", "DynamoDB call latency",
+                    "table", table, "op", op);
+            errors = metrics.counter(PREFIX + "dynamo_request_errors_total", "DynamoDB call errors",
+                    "table", table, "op", op);
+        }
+    }
+}
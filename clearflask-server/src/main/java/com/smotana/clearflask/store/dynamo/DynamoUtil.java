@@ -6,56 +6,293 @@ import com.amazonaws.services.dynamodbv2.document.BatchGetItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.BatchWriteItemOutcome;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.document.KeyAttribute;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.math.LongMath;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.core.trace.Tracer;
+import com.smotana.clearflask.util.Extern;
 
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_READ_BATCH_MAX_SIZE;
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
+
 @Singleton
 public class DynamoUtil {
 
     private static final long START_MS = 100L;
     private static final long SLEEP_MULTIPLE = 4L;
+    private static final long SLEEP_MAX_MS = 5_000L;
+    private static final int BATCH_GET_CONCURRENCY = 8;
+    private static final int BATCH_WRITE_CONCURRENCY = 4;
 
     @Inject
     private DynamoDB dynamoDoc;
 
-    public Stream<Item> retryUnprocessed(BatchGetItemOutcome outcome) {
-        Stream<Item> items = outcome.getTableItems()
-                .values()
-                .stream()
-                .flatMap(Collection::stream);
-        if (outcome.getUnprocessedKeys().isEmpty()) {
-            return items;
+    private final ListeningExecutorService batchGetExecutor;
+    private final ListeningExecutorService batchWriteExecutor;
+    private final ScheduledExecutorService batchRetryScheduler;
+    private final ConcurrentMap<String, LongAdder> throttledWriteItemsByTable = Maps.newConcurrentMap();
+
+    @Inject
+    public DynamoUtil(Metrics metrics) {
+        ThreadPoolExecutor batchGetThreadPool = new ThreadPoolExecutor(
+                BATCH_GET_CONCURRENCY, BATCH_GET_CONCURRENCY,
+                1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("DynamoUtil-batch-get-%d")
+                        .setDaemon(true)
+                        .build());
+        batchGetThreadPool.allowCoreThreadTimeOut(true);
+        batchGetExecutor = MoreExecutors.listeningDecorator(metrics.monitorExecutor("DynamoUtil-batch-get", batchGetThreadPool));
+        ThreadPoolExecutor batchWriteThreadPool = new ThreadPoolExecutor(
+                BATCH_WRITE_CONCURRENCY, BATCH_WRITE_CONCURRENCY,
+                1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("DynamoUtil-batch-write-%d")
+                        .setDaemon(true)
+                        .build());
+        batchWriteThreadPool.allowCoreThreadTimeOut(true);
+        batchWriteExecutor = MoreExecutors.listeningDecorator(metrics.monitorExecutor("DynamoUtil-batch-write", batchWriteThreadPool));
+        batchRetryScheduler = metrics.monitorExecutor("DynamoUtil-batch-retry", new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("DynamoUtil-batch-retry-%d")
+                .setDaemon(true)
+                .build()));
+    }
+
+    /**
+     * Fetches any number of keys, splitting into batches of at most {@link DefaultDynamoDbProvider#DYNAMO_READ_BATCH_MAX_SIZE}
+     * that are fetched concurrently. Unprocessed keys are retried with jittered backoff without holding a thread.
+     */
+    public Stream<Item> batchGet(TableKeysAndAttributes tableKeysAndAttributes) {
+        List<PrimaryKey> primaryKeys = tableKeysAndAttributes.getPrimaryKeys();
+        if (primaryKeys == null || primaryKeys.isEmpty()) {
+            return Stream.empty();
+        }
+        if (primaryKeys.size() <= DYNAMO_READ_BATCH_MAX_SIZE) {
+            // Single batch, no need to hop threads for the first attempt
+            return getUninterruptibly(retryUnprocessedAsync(dynamoDoc.batchGetItem(tableKeysAndAttributes), ImmutableList.of(), 0))
+                    .stream();
         }
 
-        long sleepNext = START_MS;
-        do {
-            Uninterruptibles.sleepUninterruptibly(sleepNext, TimeUnit.MILLISECONDS);
-            sleepNext *= SLEEP_MULTIPLE;
+        ImmutableList<ListenableFuture<ImmutableList<Item>>> batchFutures = Lists.partition(primaryKeys, DYNAMO_READ_BATCH_MAX_SIZE).stream()
+                .map(primaryKeysBatch -> copyWithPrimaryKeys(tableKeysAndAttributes, primaryKeysBatch))
+                .map(batch -> Futures.transformAsync(
+                        batchGetExecutor.submit(Tracer.wrap("DynamoUtil.batchGet", () -> dynamoDoc.batchGetItem(batch))),
+                        outcome -> retryUnprocessedAsync(outcome, ImmutableList.of(), 0),
+                        MoreExecutors.directExecutor()))
+                .collect(ImmutableList.toImmutableList());
+        return getUninterruptibly(Futures.allAsList(batchFutures)).stream()
+                .flatMap(Collection::stream);
+    }
 
-            outcome = dynamoDoc.batchGetItemUnprocessed(outcome.getUnprocessedKeys());
-            if (!outcome.getTableItems().isEmpty()) {
-                items = Stream.concat(items, outcome.getTableItems()
+    private ListenableFuture<ImmutableList<Item>> retryUnprocessedAsync(BatchGetItemOutcome outcome, ImmutableList<Item> itemsPrev, int retryCount) {
+        ImmutableList<Item> items = ImmutableList.<Item>builder()
+                .addAll(itemsPrev)
+                .addAll(outcome.getTableItems()
                         .values()
                         .stream()
-                        .flatMap(Collection::stream));
-            }
-        } while (!outcome.getUnprocessedKeys().isEmpty());
+                        .flatMap(Collection::stream)
+                        .iterator())
+                .build();
+        if (outcome.getUnprocessedKeys().isEmpty()) {
+            return Futures.immediateFuture(items);
+        }
+
+        long sleepMs = getBackoffMs(retryCount);
+        return Futures.transformAsync(
+                Futures.scheduleAsync(
+                        () -> batchGetExecutor.submit(() -> dynamoDoc.batchGetItemUnprocessed(outcome.getUnprocessedKeys())),
+                        sleepMs, TimeUnit.MILLISECONDS, batchRetryScheduler),
+                outcomeNext -> retryUnprocessedAsync(outcomeNext, items, retryCount + 1),
+                MoreExecutors.directExecutor());
+    }
+
+    private TableKeysAndAttributes copyWithPrimaryKeys(TableKeysAndAttributes tableKeysAndAttributes, List<PrimaryKey> primaryKeys) {
+        TableKeysAndAttributes copy = new TableKeysAndAttributes(tableKeysAndAttributes.getTableName())
+                .withPrimaryKeys(primaryKeys.toArray(PrimaryKey[]::new))
+                .withConsistentRead(tableKeysAndAttributes.isConsistentRead())
+                .withProjectionExpression(tableKeysAndAttributes.getProjectionExpression())
+                .withNameMap(tableKeysAndAttributes.getNameMap());
+        if (tableKeysAndAttributes.getAttributeNames() != null) {
+            copy.withAttributeNames(tableKeysAndAttributes.getAttributeNames().toArray(String[]::new));
+        }
+        return copy;
+    }
 
-        return items;
+    private <T> T getUninterruptibly(ListenableFuture<T> future) {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException ex) {
+            Throwables.throwIfUnchecked(ex.getCause());
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    /**
+     * Converts a Document API primary key for use in low-level requests such as transactions.
+     */
+    public ImmutableMap<String, AttributeValue> toAttrMap(PrimaryKey primaryKey) {
+        return primaryKey.getComponents().stream()
+                .collect(ImmutableMap.toImmutableMap(
+                        KeyAttribute::getName,
+                        keyAttribute -> ItemUtils.toAttributeValue(keyAttribute.getValue())));
     }
 
     public void retryUnprocessed(BatchWriteItemOutcome outcome) {
-        long sleepNext = START_MS;
+        int retryCount = 0;
         while (!outcome.getUnprocessedItems().isEmpty()) {
-            Uninterruptibles.sleepUninterruptibly(sleepNext, TimeUnit.MILLISECONDS);
-            sleepNext *= SLEEP_MULTIPLE;
+            recordThrottled(outcome);
+            Uninterruptibles.sleepUninterruptibly(getBackoffMs(retryCount++), TimeUnit.MILLISECONDS);
 
             outcome = dynamoDoc.batchWriteItemUnprocessed(outcome.getUnprocessedItems());
         }
     }
+
+    /**
+     * Writes a single batch of at most {@link DefaultDynamoDbProvider#DYNAMO_WRITE_BATCH_MAX_SIZE} items.
+     * Unprocessed items are retried with jittered backoff without holding a thread.
+     */
+    public ListenableFuture<Void> batchWriteAsync(TableWriteItems tableWriteItems) {
+        return Futures.transformAsync(
+                batchWriteExecutor.submit(Tracer.wrap("DynamoUtil.batchWrite", () -> dynamoDoc.batchWriteItem(tableWriteItems))),
+                outcome -> retryUnprocessedAsync(outcome, 0),
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Deletes any number of keys in batches with up to {@link #BATCH_WRITE_CONCURRENCY} batches in flight.
+     */
+    public ListenableFuture<Void> batchDeleteAsync(String tableName, Iterable<PrimaryKey> primaryKeys) {
+        return pipelineAsync(Iterables.partition(primaryKeys, DYNAMO_WRITE_BATCH_MAX_SIZE).iterator(),
+                primaryKeysBatch -> batchWriteAsync(new TableWriteItems(tableName)
+                        .withPrimaryKeysToDelete(primaryKeysBatch.toArray(PrimaryKey[]::new))));
+    }
+
+    /**
+     * Same as {@link #batchDeleteAsync} but waits for all keys to be deleted, for callers that must not return
+     * before then.
+     */
+    public void batchDelete(String tableName, Iterable<PrimaryKey> primaryKeys) {
+        getUninterruptibly(batchDeleteAsync(tableName, primaryKeys));
+    }
+
+    /**
+     * Runs a task for each element with up to {@link #BATCH_WRITE_CONCURRENCY} tasks in flight. Iterator is consumed
+     * lazily from background threads, stops on first failure.
+     */
+    public <T> ListenableFuture<Void> pipelineAsync(Iterator<T> iterator, Function<T, ListenableFuture<?>> task) {
+        AtomicBoolean failed = new AtomicBoolean(false);
+        ImmutableList.Builder<ListenableFuture<Void>> lanesBuilder = ImmutableList.builder();
+        for (int i = 0; i < BATCH_WRITE_CONCURRENCY; i++) {
+            lanesBuilder.add(Futures.submitAsync(() -> pipelineNextAsync(iterator, task, failed), batchWriteExecutor));
+        }
+        return Futures.transform(Futures.allAsList(lanesBuilder.build()), lanes -> null, MoreExecutors.directExecutor());
+    }
+
+    private <T> ListenableFuture<Void> pipelineNextAsync(Iterator<T> iterator, Function<T, ListenableFuture<?>> task, AtomicBoolean failed) {
+        T next;
+        try {
+            synchronized (iterator) {
+                if (failed.get() || !iterator.hasNext()) {
+                    return Futures.immediateFuture(null);
+                }
+                next = iterator.next();
+            }
+        } catch (RuntimeException ex) {
+            failed.set(true);
+            throw ex;
+        }
+        ListenableFuture<?> taskFuture = task.apply(next);
+        taskFuture.addListener(() -> {
+            if (!isSuccessful(taskFuture)) {
+                failed.set(true);
+            }
+        }, MoreExecutors.directExecutor());
+        return Futures.transformAsync(taskFuture,
+                result -> pipelineNextAsync(iterator, task, failed),
+                batchWriteExecutor);
+    }
+
+    private ListenableFuture<Void> retryUnprocessedAsync(BatchWriteItemOutcome outcome, int retryCount) {
+        if (outcome.getUnprocessedItems().isEmpty()) {
+            return Futures.immediateFuture(null);
+        }
+        recordThrottled(outcome);
+        return Futures.transformAsync(
+                Futures.scheduleAsync(
+                        () -> batchWriteExecutor.submit(() -> dynamoDoc.batchWriteItemUnprocessed(outcome.getUnprocessedItems())),
+                        getBackoffMs(retryCount), TimeUnit.MILLISECONDS, batchRetryScheduler),
+                outcomeNext -> retryUnprocessedAsync(outcomeNext, retryCount + 1),
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Number of items DynamoDB returned unprocessed from batch writes, by table.
+     */
+    @Extern
+    public ImmutableMap<String, Long> getBatchWriteThrottledCounts() {
+        return throttledWriteItemsByTable.entrySet().stream()
+                .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, e -> e.getValue().sum()));
+    }
+
+    private void recordThrottled(BatchWriteItemOutcome outcome) {
+        outcome.getUnprocessedItems().forEach((tableName, writeRequests) -> throttledWriteItemsByTable
+                .computeIfAbsent(tableName, t -> new LongAdder())
+                .add(writeRequests.size()));
+    }
+
+    /**
+     * Capped exponential backoff with full jitter to spread out retries of batches throttled at the same time.
+     */
+    private long getBackoffMs(int retryCount) {
+        long sleepMaxMs = Math.min(SLEEP_MAX_MS, START_MS * LongMath.saturatedPow(SLEEP_MULTIPLE, retryCount));
+        return ThreadLocalRandom.current().nextLong(sleepMaxMs + 1);
+    }
+
+    private boolean isSuccessful(ListenableFuture<?> future) {
+        try {
+            Futures.getDone(future);
+            return true;
+        } catch (ExecutionException | CancellationException ex) {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,191 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.dynamo.mapper;
+
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.smotana.clearflask.util.StringSerdeUtil;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.smotana.clearflask.util.StringSerdeUtil.DELIMITER;
+import static com.smotana.clearflask.util.StringSerdeUtil.ESCAPER;
+
+/**
+ * Encodes partition and range key values into their stored form.
+ * <p>
+ * The stored form is each value serialized with Gson and then joined using {@link StringSerdeUtil#mergeStrings}.
+ * Strings, integral numbers, booleans and enums, which make up nearly all keys, are written directly into a per
+ * thread buffer with the same JSON and delimiter escaping. Other types fall back to Gson.
+ */
+@Singleton
+public class DynamoKeyCodec {
+
+    private static final int BUFFER_MAX_RETAINED_CAPACITY = 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(128));
+
+    @Inject
+    private Gson gson;
+
+    /** Enum serialization honors @SerializedName, so it is looked up from Gson once per constant */
+    private final ConcurrentMap<Enum<?>, String> enumJsonCache = Maps.newConcurrentMap();
+
+    /**
+     * Encodes the prefix, if any, followed by the values of the object's key fields.
+     */
+    public <T> String encode(@Nullable String prefix, Function<T, Object>[] keyGetters, T obj) {
+        StringBuilder buffer = buffer();
+        boolean empty = true;
+        if (prefix != null) {
+            appendEscaped(buffer, prefix);
+            empty = false;
+        }
+        for (Function<T, Object> keyGetter : keyGetters) {
+            if (!empty) {
+                buffer.append(DELIMITER);
+            }
+            appendValue(buffer, checkNotNull(keyGetter.apply(obj),
+                    "Key value null, should add @NonNull on all keys for class %s", obj));
+            empty = false;
+        }
+        return empty ? null : buffer.toString();
+    }
+
+    /**
+     * Encodes the prefix, if any, followed by the given key values.
+     *
+     * @param partial If true, stops at the first missing value, otherwise a missing value is an error
+     */
+    public String encode(@Nullable String prefix, String[] keyNames, Map<String, Object> values, boolean partial) {
+        StringBuilder buffer = buffer();
+        boolean empty = true;
+        if (prefix != null) {
+            appendEscaped(buffer, prefix);
+            empty = false;
+        }
+        for (String keyName : keyNames) {
+            Object value = values.get(keyName);
+            if (value == null) {
+                if (partial) {
+                    break;
+                }
+                throw new NullPointerException("Key missing value for " + keyName);
+            }
+            if (!empty) {
+                buffer.append(DELIMITER);
+            }
+            appendValue(buffer, value);
+            empty = false;
+        }
+        return empty ? null : buffer.toString();
+    }
+
+    private StringBuilder buffer() {
+        StringBuilder buffer = BUFFER.get();
+        if (buffer.capacity() > BUFFER_MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(128);
+            BUFFER.set(buffer);
+        }
+        buffer.setLength(0);
+        return buffer;
+    }
+
+    private void appendValue(StringBuilder buffer, Object value) {
+        if (value instanceof String) {
+            appendJsonString(buffer, (String) value);
+        } else if (value instanceof Long
+                || value instanceof Integer
+                || value instanceof Short
+                || value instanceof Byte) {
+            // Digits and minus sign need no escaping
+            buffer.append(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            buffer.append(((Boolean) value).booleanValue());
+        } else if (value instanceof Enum) {
+            appendEscaped(buffer, enumJsonCache.computeIfAbsent((Enum<?>) value, gson::toJson));
+        } else {
+            appendEscaped(buffer, gson.toJson(value));
+        }
+    }
+
+    /**
+     * Same output as Gson's JsonWriter with HTML escaping disabled.
+     */
+    private void appendJsonString(StringBuilder buffer, String value) {
+        appendEscaped(buffer, '"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    appendEscaped(buffer, '\\');
+                    appendEscaped(buffer, c);
+                    break;
+                case '\t':
+                    appendEscaped(buffer, '\\');
+                    buffer.append('t');
+                    break;
+                case '\b':
+                    appendEscaped(buffer, '\\');
+                    buffer.append('b');
+                    break;
+                case '\n':
+                    appendEscaped(buffer, '\\');
+                    buffer.append('n');
+                    break;
+                case '\r':
+                    appendEscaped(buffer, '\\');
+                    buffer.append('r');
+                    break;
+                case '\f':
+                    appendEscaped(buffer, '\\');
+                    buffer.append('f');
+                    break;
+                case '\u2028':
+                case '\u2029':
+                    appendUnicodeEscape(buffer, c);
+                    break;
+                default:
+                    if (c < 0x20) {
+                        appendUnicodeEscape(buffer, c);
+                    } else {
+                        appendEscaped(buffer, c);
+                    }
+                    break;
+            }
+        }
+        appendEscaped(buffer, '"');
+    }
+
+    private void appendUnicodeEscape(StringBuilder buffer, char c) {
+        appendEscaped(buffer, '\\');
+        buffer.append('u')
+                .append(HEX_DIGITS[(c >> 12) & 0xF])
+                .append(HEX_DIGITS[(c >> 8) & 0xF])
+                .append(HEX_DIGITS[(c >> 4) & 0xF])
+                .append(HEX_DIGITS[c & 0xF]);
+    }
+
+    private void appendEscaped(StringBuilder buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            appendEscaped(buffer, value.charAt(i));
+        }
+    }
+
+    /**
+     * Same escaping as {@link StringSerdeUtil#mergeStrings}.
+     */
+    private void appendEscaped(StringBuilder buffer, char c) {
+        if (c == ESCAPER || c == DELIMITER) {
+            buffer.append(ESCAPER);
+        }
+        buffer.append(c);
+    }
+}
@@ -82,6 +82,29 @@ public interface DynamoMapper {
         String serializeLastEvaluatedKey(Map<String, AttributeValue> lastEvaluatedKey);
 
         PrimaryKey toExclusiveStartKey(String serializedlastEvaluatedKey);
+
+        /**
+         * Read only the fields declared in the given view class instead of the whole item.
+         * <p>
+         * Each view field must match a field of this schema by name and type, constructed through the view's
+         * all-args constructor. Being a distinct type, a view cannot be written back in place of a full object.
+         */
+        <V> FieldProjection<V> projection(Class<V> viewClazz);
+    }
+
+    /**
+     * Subset of a schema's fields, apply {@link #projectionExpression()} and {@link #nameMap()} to a read request.
+     */
+    interface FieldProjection<T> {
+        ImmutableSet<String> fieldNames();
+
+        String projectionExpression();
+
+        ImmutableMap<String, String> nameMap();
+
+        T fromItem(Item item);
+
+        T fromAttrMap(Map<String, AttributeValue> attrMap);
     }
 
     interface TableSchema<T> extends Schema<T> {
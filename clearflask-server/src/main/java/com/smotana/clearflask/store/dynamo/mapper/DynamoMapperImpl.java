@@ -23,6 +23,7 @@ import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
 import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -47,12 +48,13 @@ import com.smotana.clearflask.store.dynamo.mapper.DynamoConvertersProxy.Marshall
 import com.smotana.clearflask.store.dynamo.mapper.DynamoConvertersProxy.UnMarshallerAttrVal;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoConvertersProxy.UnMarshallerItem;
 import com.smotana.clearflask.util.LogUtil;
-import com.smotana.clearflask.util.StringSerdeUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
 import java.lang.reflect.ParameterizedType;
@@ -61,7 +63,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.BiConsumer;
@@ -69,7 +70,6 @@ import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.LongStream;
-import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.*;
 import static com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableType.*;
@@ -99,6 +99,8 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
     @Inject
     private Gson gson;
     @Inject
+    private DynamoKeyCodec keyCodec;
+    @Inject
     private DynamoDB dynamoDoc;
 
     private final DynamoConvertersProxy.Converters converters = DynamoConvertersProxy.proxy();
@@ -227,8 +229,8 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
         ImmutableList.Builder<Function<Item, Object>> fromItemToCtorArgsListBuilder = ImmutableList.builder();
         ImmutableList.Builder<Function<Map<String, AttributeValue>, Object>> fromAttrMapToCtorArgsListBuilder = ImmutableList.builder();
         ImmutableMap.Builder<String, Function<T, Object>> objToFieldValsBuilder = ImmutableMap.builder();
-        Field[] partitionKeyFields = new Field[partitionKeys.length];
-        Field[] rangeKeyFields = new Field[rangeKeys.length];
+        Function<T, Object>[] partitionKeyGetters = new Function[partitionKeys.length];
+        Function<T, Object>[] rangeKeyGetters = new Function[rangeKeys.length];
         ImmutableList.Builder<BiConsumer<Item, T>> toItemArgsBuilder = ImmutableList.builder();
         ImmutableList.Builder<BiConsumer<ImmutableMap.Builder<String, AttributeValue>, T>> toAttrMapArgsBuilder = ImmutableList.builder();
 
@@ -246,13 +248,7 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
             Optional<Class> collectionClazz = getCollectionClazz(field.getType());
             Class fieldClazz = collectionClazz.isPresent() ? getCollectionGeneric(field) : field.getType();
 
-            Function<T, Object> objToFieldVal = obj -> {
-                try {
-                    return field.get(obj);
-                } catch (IllegalAccessException ex) {
-                    throw new RuntimeException(ex);
-                }
-            };
+            Function<T, Object> objToFieldVal = fieldGetter(field);
             objToFieldValsBuilder.put(fieldName, objToFieldVal);
 
             // fromItem
@@ -276,12 +272,12 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
             // toItem toAttrVal
             for (int i = 0; i < partitionKeys.length; i++) {
                 if (fieldName.equals(partitionKeys[i])) {
-                    partitionKeyFields[i] = field;
+                    partitionKeyGetters[i] = objToFieldVal;
                 }
             }
             for (int i = 0; i < rangeKeys.length; i++) {
                 if (fieldName.equals(rangeKeys[i])) {
-                    rangeKeyFields[i] = field;
+                    rangeKeyGetters[i] = objToFieldVal;
                 }
             }
 
@@ -331,18 +327,27 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
         // fromItem fromAttrVal ctor
         Constructor<T> objCtor = findConstructor(objClazz, fieldsCount);
         objCtor.setAccessible(true);
+        Function<Object[], T> objCtorInvoker = constructorInvoker(objCtor);
 
         // fromItem
-        ImmutableList<Function<Item, Object>> fromItemToCtorArgsList = fromItemToCtorArgsListBuilder.build();
-        Function<Item, Object[]> fromItemToCtorArgs = item -> fromItemToCtorArgsList.stream()
-                .map(u -> u.apply(item))
-                .toArray();
+        Function<Item, Object>[] fromItemToCtorArgsArr = fromItemToCtorArgsListBuilder.build().toArray(new Function[0]);
+        Function<Item, Object[]> fromItemToCtorArgs = item -> {
+            Object[] args = new Object[fromItemToCtorArgsArr.length];
+            for (int i = 0; i < fromItemToCtorArgsArr.length; i++) {
+                args[i] = fromItemToCtorArgsArr[i].apply(item);
+            }
+            return args;
+        };
 
         // fromAttrMap
-        ImmutableList<Function<Map<String, AttributeValue>, Object>> fromAttrMapToCtorArgsList = fromAttrMapToCtorArgsListBuilder.build();
-        Function<Map<String, AttributeValue>, Object[]> fromAttrMapToCtorArgs = attrMap -> fromAttrMapToCtorArgsList.stream()
-                .map(u -> u.apply(attrMap))
-                .toArray();
+        Function<Map<String, AttributeValue>, Object>[] fromAttrMapToCtorArgsArr = fromAttrMapToCtorArgsListBuilder.build().toArray(new Function[0]);
+        Function<Map<String, AttributeValue>, Object[]> fromAttrMapToCtorArgs = attrMap -> {
+            Object[] args = new Object[fromAttrMapToCtorArgsArr.length];
+            for (int i = 0; i < fromAttrMapToCtorArgsArr.length; i++) {
+                args[i] = fromAttrMapToCtorArgsArr[i].apply(attrMap);
+            }
+            return args;
+        };
 
         // toItem toAttrVal keys
         ImmutableMap<String, Function<T, Object>> objToFieldVals = objToFieldValsBuilder.build();
@@ -354,70 +359,58 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
             checkState(!Strings.isNullOrEmpty(dt.rangePrefix()) || rangeKeys.length > 0,
                     "Must supply either list of range keys and/or a prefix for class %s", objClazz);
             if (dt.type() != Lsi) {
-                ImmutableList<Function<T, Object>> dtPartitionKeyMappers = Arrays.stream(dt.partitionKeys())
+                Function<T, Object>[] dtPartitionKeyMappers = Arrays.stream(dt.partitionKeys())
                         .map(objToFieldVals::get)
                         .map(Preconditions::checkNotNull)
-                        .collect(ImmutableList.toImmutableList());
+                        .toArray(Function[]::new);
                 toItemOtherKeysMapperBuilder.put(
                         getPartitionKeyName(dt.type(), dt.indexNumber()),
-                        obj -> StringSerdeUtil.mergeStrings(dtPartitionKeyMappers.stream()
-                                .map(m -> m.apply(obj))
-                                .map(gson::toJson)
-                                .toArray(String[]::new)));
+                        obj -> keyCodec.encode(null, dtPartitionKeyMappers, obj));
             }
             String dtRangePrefix = dt.rangePrefix();
-            ImmutableList<Function<T, Object>> dtRangeKeyMappers = Arrays.stream(dt.rangeKeys())
+            Function<T, Object>[] dtRangeKeyMappers = Arrays.stream(dt.rangeKeys())
                     .map(objToFieldVals::get)
                     .map(Preconditions::checkNotNull)
-                    .collect(ImmutableList.toImmutableList());
+                    .toArray(Function[]::new);
             toItemOtherKeysMapperBuilder.put(
                     getRangeKeyName(dt.type(), dt.indexNumber()),
-                    obj -> StringSerdeUtil.mergeStrings(Stream.concat(Stream.of(dtRangePrefix), dtRangeKeyMappers.stream()
-                            .map(m -> m.apply(obj))
-                            .map(gson::toJson))
-                            .toArray(String[]::new)));
+                    obj -> keyCodec.encode(dtRangePrefix, dtRangeKeyMappers, obj));
         }
         ImmutableMap<String, Function<T, String>> toItemOtherKeysMapper = toItemOtherKeysMapperBuilder.build();
-        Function<T, String> getPartitionKeyVal = obj -> StringSerdeUtil.mergeStrings(Arrays.stream(partitionKeyFields)
-                .map(f -> {
-                    try {
-                        return gson.toJson(checkNotNull(f.get(obj)));
-                    } catch (IllegalAccessException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                })
-                .toArray(String[]::new));
-        Function<T, String> getRangeKeyVal = obj -> StringSerdeUtil.mergeStrings(Stream.concat(Stream.of(rangePrefix), Arrays.stream(rangeKeyFields)
-                .map(f -> {
-                    try {
-                        return gson.toJson(checkNotNull(f.get(obj)));
-                    } catch (IllegalAccessException ex) {
-                        throw new RuntimeException(ex);
-                    }
-                }))
-                .toArray(String[]::new));
+        Function<T, String> getPartitionKeyVal = obj -> keyCodec.encode(null, partitionKeyGetters, obj);
+        Function<T, String> getRangeKeyVal = obj -> keyCodec.encode(rangePrefix, rangeKeyGetters, obj);
+
+        String[] toItemOtherKeyNames = toItemOtherKeysMapper.keySet().toArray(new String[0]);
+        Function<T, String>[] toItemOtherKeyMappers = toItemOtherKeysMapper.values().toArray(new Function[0]);
 
         // toItem
-        ImmutableList<BiConsumer<Item, T>> toItemArgs = toItemArgsBuilder.build();
+        BiConsumer<Item, T>[] toItemArgs = toItemArgsBuilder.build().toArray(new BiConsumer[0]);
         Function<T, Item> toItemMapper = obj -> {
             Item item = new Item();
             item.withPrimaryKey(partitionKeyName, getPartitionKeyVal.apply(obj),
                     rangeKeyName, getRangeKeyVal.apply(obj));
-            toItemOtherKeysMapper.forEach(((keyName, objToKeyMapper) ->
-                    item.withString(keyName, objToKeyMapper.apply(obj))));
-            toItemArgs.forEach(m -> m.accept(item, obj));
+            for (int i = 0; i < toItemOtherKeyNames.length; i++) {
+                item.withString(toItemOtherKeyNames[i], toItemOtherKeyMappers[i].apply(obj));
+            }
+            for (BiConsumer<Item, T> toItemArg : toItemArgs) {
+                toItemArg.accept(item, obj);
+            }
             return item;
         };
 
         // toAttrMap
-        ImmutableList<BiConsumer<ImmutableMap.Builder<String, AttributeValue>, T>> toAttrMapArgs = toAttrMapArgsBuilder.build();
+        BiConsumer<ImmutableMap.Builder<String, AttributeValue>, T>[] toAttrMapArgs = toAttrMapArgsBuilder.build().toArray(new BiConsumer[0]);
+        int toAttrMapExpectedSize = 2 + toItemOtherKeyNames.length + toAttrMapArgs.length;
         Function<T, ImmutableMap<String, AttributeValue>> toAttrMapMapper = obj -> {
-            ImmutableMap.Builder<String, AttributeValue> attrMapBuilder = ImmutableMap.builder();
+            ImmutableMap.Builder<String, AttributeValue> attrMapBuilder = ImmutableMap.builderWithExpectedSize(toAttrMapExpectedSize);
             attrMapBuilder.put(partitionKeyName, new AttributeValue(getPartitionKeyVal.apply(obj)));
             attrMapBuilder.put(rangeKeyName, new AttributeValue(getRangeKeyVal.apply(obj)));
-            toItemOtherKeysMapper.forEach(((keyName, objToKeyMapper) ->
-                    attrMapBuilder.put(keyName, new AttributeValue(objToKeyMapper.apply(obj)))));
-            toAttrMapArgs.forEach(m -> m.accept(attrMapBuilder, obj));
+            for (int i = 0; i < toItemOtherKeyNames.length; i++) {
+                attrMapBuilder.put(toItemOtherKeyNames[i], new AttributeValue(toItemOtherKeyMappers[i].apply(obj)));
+            }
+            for (BiConsumer<ImmutableMap.Builder<String, AttributeValue>, T> toAttrMapArg : toAttrMapArgs) {
+                toAttrMapArg.accept(attrMapBuilder, obj);
+            }
             return attrMapBuilder.build();
         };
 
@@ -684,8 +677,8 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
         return new SchemaImpl<T>(
                 partitionKeys,
                 rangeKeys,
-                partitionKeyFields,
-                rangeKeyFields,
+                partitionKeyGetters,
+                rangeKeyGetters,
                 rangePrefix,
                 tableName,
                 partitionKeyName,
@@ -699,6 +692,7 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
                 fromItemToCtorArgs,
                 fromAttrMapToCtorArgs,
                 objCtor,
+                objCtorInvoker,
                 toItemMapper,
                 toAttrMapMapper,
                 expressionBuilderSupplier);
@@ -716,6 +710,50 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
         throw new IllegalStateException("Cannot find constructor for class " + objectClazz.getSimpleName());
     }
 
+    /**
+     * Field reader backed by a method handle, resolved once at schema parse time.
+     */
+    private <T> Function<T, Object> fieldGetter(Field field) {
+        MethodHandle getter;
+        try {
+            getter = MethodHandles.lookup().unreflectGetter(field)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Cannot access field " + field, ex);
+        }
+        return obj -> {
+            try {
+                return (Object) getter.invokeExact((Object) obj);
+            } catch (Throwable th) {
+                Throwables.throwIfUnchecked(th);
+                throw new RuntimeException(th);
+            }
+        };
+    }
+
+    /**
+     * Constructor invoker backed by a method handle spreading the arguments array, avoiding the per call access
+     * checks and argument array copy of {@link Constructor#newInstance}.
+     */
+    private <T> Function<Object[], T> constructorInvoker(Constructor<T> constructor) {
+        MethodHandle invoker;
+        try {
+            invoker = MethodHandles.lookup().unreflectConstructor(constructor)
+                    .asSpreader(Object[].class, constructor.getParameterCount())
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Cannot access constructor " + constructor, ex);
+        }
+        return args -> {
+            try {
+                return (T) (Object) invoker.invokeExact(args);
+            } catch (Throwable th) {
+                Throwables.throwIfUnchecked(th);
+                throw new RuntimeException(th);
+            }
+        };
+    }
+
     private boolean isSetClazz(Class<?> clazz) {
         return Set.class.isAssignableFrom(clazz);
     }
@@ -798,8 +836,8 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
     public class SchemaImpl<T> implements TableSchema<T>, IndexSchema<T> {
         private final String[] partitionKeys;
         private final String[] rangeKeys;
-        private final Field[] partitionKeyFields;
-        private final Field[] rangeKeyFields;
+        private final Function<T, Object>[] partitionKeyGetters;
+        private final Function<T, Object>[] rangeKeyGetters;
         private final String rangePrefix;
         private final String tableName;
         private final String partitionKeyName;
@@ -813,6 +851,7 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
         private final Function<Item, Object[]> fromItemToCtorArgs;
         private final Function<Map<String, AttributeValue>, Object[]> fromAttrMapToCtorArgs;
         private final Constructor<T> objCtor;
+        private final Function<Object[], T> objCtorInvoker;
         private final Function<T, Item> toItemMapper;
         private final Function<T, ImmutableMap<String, AttributeValue>> toAttrMapMapper;
         private final Supplier<ExpressionBuilder> expressionBuilderSupplier;
@@ -820,8 +859,8 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
         public SchemaImpl(
                 String[] partitionKeys,
                 String[] rangeKeys,
-                Field[] partitionKeyFields,
-                Field[] rangeKeyFields,
+                Function<T, Object>[] partitionKeyGetters,
+                Function<T, Object>[] rangeKeyGetters,
                 String rangePrefix,
                 String tableName,
                 String partitionKeyName,
@@ -834,13 +873,15 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
                 ImmutableMap<String, UnMarshallerAttrVal> fieldAttrUnMarshallers,
                 Function<Item, Object[]> fromItemToCtorArgs,
                 Function<Map<String, AttributeValue>, Object[]> fromAttrMapToCtorArgs,
-                Constructor<T> objCtor, Function<T, Item> toItemMapper,
+                Constructor<T> objCtor,
+                Function<Object[], T> objCtorInvoker,
+                Function<T, Item> toItemMapper,
                 Function<T, ImmutableMap<String, AttributeValue>> toAttrMapMapper,
                 Supplier<ExpressionBuilder> expressionBuilderSupplier) {
             this.partitionKeys = partitionKeys;
             this.rangeKeys = rangeKeys;
-            this.partitionKeyFields = partitionKeyFields;
-            this.rangeKeyFields = rangeKeyFields;
+            this.partitionKeyGetters = partitionKeyGetters;
+            this.rangeKeyGetters = rangeKeyGetters;
             this.rangePrefix = rangePrefix;
             this.tableName = tableName;
             this.partitionKeyName = partitionKeyName;
@@ -854,6 +895,7 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
             this.fromItemToCtorArgs = fromItemToCtorArgs;
             this.fromAttrMapToCtorArgs = fromAttrMapToCtorArgs;
             this.objCtor = objCtor;
+            this.objCtorInvoker = objCtorInvoker;
             this.toItemMapper = toItemMapper;
             this.toAttrMapMapper = toAttrMapMapper;
             this.expressionBuilderSupplier = expressionBuilderSupplier;
@@ -895,14 +937,10 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
             return new PrimaryKey(
                     new KeyAttribute(
                             partitionKeyName,
-                            StringSerdeUtil.mergeStrings(Arrays.stream(partitionKeys)
-                                    .map(partitionKey -> gson.toJson(checkNotNull(values.get(partitionKey), "Partition key missing value for %s", partitionKey)))
-                                    .toArray(String[]::new))),
+                            keyCodec.encode(null, partitionKeys, values, false)),
                     new KeyAttribute(
                             rangeKeyName,
-                            StringSerdeUtil.mergeStrings(Stream.concat(Stream.of(rangePrefix), Arrays.stream(rangeKeys)
-                                    .map(rangeKey -> gson.toJson(checkNotNull(values.get(rangeKey), "Range key missing value for %s", rangeKey))))
-                                    .toArray(String[]::new))));
+                            keyCodec.encode(rangePrefix, rangeKeys, values, false)));
         }
 
         @Override
@@ -914,27 +952,16 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
         public KeyAttribute partitionKey(T obj) {
             return new KeyAttribute(
                     partitionKeyName,
-                    StringSerdeUtil.mergeStrings(Arrays.stream(partitionKeyFields)
-                            .map(partitionKeyField -> {
-                                try {
-                                    return gson.toJson(checkNotNull(partitionKeyField.get(obj),
-                                            "Partition key value null, should add @NonNull on all keys for class %s", obj));
-                                } catch (IllegalAccessException ex) {
-                                    throw new RuntimeException(ex);
-                                }
-                            })
-                            .toArray(String[]::new)));
+                    keyCodec.encode(null, partitionKeyGetters, obj));
         }
 
         @Override
         public KeyAttribute partitionKey(Map<String, Object> values) {
-            String[] partitionValues = Arrays.stream(partitionKeys)
-                    .map(partitionKey -> gson.toJson(checkNotNull(values.get(partitionKey), "Partition key missing value for %s", partitionKey)))
-                    .toArray(String[]::new);
-            checkState(partitionValues.length == values.size(), "Unexpected extra values, partition keys %s values %s", rangeKeys, values);
+            String partitionValue = keyCodec.encode(null, partitionKeys, values, false);
+            checkState(partitionKeys.length == values.size(), "Unexpected extra values, partition keys %s values %s", rangeKeys, values);
             return new KeyAttribute(
                     partitionKeyName,
-                    StringSerdeUtil.mergeStrings(partitionValues));
+                    partitionValue);
         }
 
         @Override
@@ -946,16 +973,7 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
         public KeyAttribute rangeKey(T obj) {
             return new KeyAttribute(
                     rangeKeyName,
-                    StringSerdeUtil.mergeStrings(Stream.concat(Stream.of(rangePrefix), Arrays.stream(rangeKeyFields)
-                            .map(rangeKeyField -> {
-                                try {
-                                    return gson.toJson(checkNotNull(rangeKeyField.get(obj),
-                                            "Range key value null, should add @NonNull on all keys for class %s", obj));
-                                } catch (IllegalAccessException ex) {
-                                    throw new RuntimeException(ex);
-                                }
-                            }))
-                            .toArray(String[]::new)));
+                    keyCodec.encode(rangePrefix, rangeKeyGetters, obj));
         }
 
         @Override
@@ -963,29 +981,19 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
             checkState(rangeKeys.length == values.size(), "Unexpected extra values, range keys %s values %s", rangeKeys, values);
             return new KeyAttribute(
                     rangeKeyName,
-                    StringSerdeUtil.mergeStrings(Stream.concat(Stream.of(rangePrefix), Arrays.stream(rangeKeys)
-                            .map(rangeKey -> gson.toJson(checkNotNull(values.get(rangeKey), "Range key missing value for %s", rangeKey))))
-                            .toArray(String[]::new)));
+                    keyCodec.encode(rangePrefix, rangeKeys, values, false));
         }
 
         @Override
         public KeyAttribute rangeKeyPartial(Map<String, Object> values) {
             return new KeyAttribute(
                     rangeKeyName,
-                    StringSerdeUtil.mergeStrings(Stream.concat(Stream.of(rangePrefix), Arrays.stream(rangeKeys)
-                            .map(values::get)
-                            .takeWhile(Objects::nonNull)
-                            .map(gson::toJson))
-                            .toArray(String[]::new)));
+                    keyCodec.encode(rangePrefix, rangeKeys, values, true));
         }
 
         @Override
         public String rangeValuePartial(Map<String, Object> values) {
-            return StringSerdeUtil.mergeStrings(Stream.concat(Stream.of(rangePrefix), Arrays.stream(rangeKeys)
-                    .map(values::get)
-                    .takeWhile(Objects::nonNull)
-                    .map(gson::toJson))
-                    .toArray(String[]::new));
+            return keyCodec.encode(rangePrefix, rangeKeys, values, true);
         }
 
         @Override
@@ -1034,9 +1042,10 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
             if (item == null) {
                 return null;
             }
+            Object[] args = fromItemToCtorArgs.apply(item);
             try {
-                return objCtor.newInstance(fromItemToCtorArgs.apply(item));
-            } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+                return objCtorInvoker.apply(args);
+            } catch (RuntimeException ex) {
                 throw new RuntimeException("Failed to construct, item: " + item.toJSON() + " objCtor: " + objCtor.toString(), ex);
             }
         }
@@ -1054,9 +1063,10 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
             if (attrMap == null) {
                 return null;
             }
+            Object[] args = fromAttrMapToCtorArgs.apply(attrMap);
             try {
-                return objCtor.newInstance(fromAttrMapToCtorArgs.apply(attrMap));
-            } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+                return objCtorInvoker.apply(args);
+            } catch (RuntimeException ex) {
                 throw new RuntimeException(ex);
             }
         }
@@ -1110,6 +1120,97 @@ public class DynamoMapperImpl extends ManagedService implements DynamoMapper {
                     .map(e -> new KeyAttribute(e.getKey(), e.getValue()))
                     .toArray(KeyAttribute[]::new));
         }
+
+        @Override
+        public <V> FieldProjection<V> projection(Class<V> viewClazz) {
+            Class<T> objClazz = objCtor.getDeclaringClass();
+            ImmutableSet.Builder<String> fieldNamesBuilder = ImmutableSet.builder();
+            ImmutableList.Builder<Function<Item, Object>> fromItemToCtorArgsListBuilder = ImmutableList.builder();
+            ImmutableList.Builder<Function<Map<String, AttributeValue>, Object>> fromAttrMapToCtorArgsListBuilder = ImmutableList.builder();
+            for (Field field : viewClazz.getDeclaredFields()) {
+                if (field.isSynthetic()) {
+                    continue; // Skips fields such as "$jacocodata" during tests
+                }
+                String fieldName = field.getName();
+                Field objField;
+                try {
+                    objField = objClazz.getDeclaredField(fieldName);
+                } catch (NoSuchFieldException ex) {
+                    throw new IllegalArgumentException("View " + viewClazz.getSimpleName() + " field " + fieldName + " not found in " + objClazz.getSimpleName(), ex);
+                }
+                checkArgument(objField.getGenericType().equals(field.getGenericType()),
+                        "View %s field %s type differs from %s", viewClazz.getSimpleName(), fieldName, objClazz.getSimpleName());
+                fieldNamesBuilder.add(fieldName);
+
+                boolean isCollection = getCollectionClazz(field.getType()).isPresent();
+                UnMarshallerItem unMarshallerItem = fieldUnMarshallers.get(fieldName);
+                fromItemToCtorArgsListBuilder.add(item ->
+                        (!isCollection && (!item.isPresent(fieldName) || item.isNull(fieldName)))
+                                ? null
+                                : unMarshallerItem.unmarshall(fieldName, item));
+                UnMarshallerAttrVal unMarshallerAttrVal = fieldAttrUnMarshallers.get(fieldName);
+                fromAttrMapToCtorArgsListBuilder.add(attrMap -> {
+                    AttributeValue attrVal = attrMap.get(fieldName);
+                    return (!isCollection && (attrVal == null || attrVal.getNULL() == Boolean.TRUE))
+                            ? null
+                            : unMarshallerAttrVal.unmarshall(attrVal);
+                });
+            }
+            ImmutableSet<String> fieldNamesSet = fieldNamesBuilder.build();
+            ImmutableList<Function<Item, Object>> fromItemToCtorArgsList = fromItemToCtorArgsListBuilder.build();
+            ImmutableList<Function<Map<String, AttributeValue>, Object>> fromAttrMapToCtorArgsList = fromAttrMapToCtorArgsListBuilder.build();
+            Constructor<V> viewCtor = findConstructor(viewClazz, fieldNamesSet.size());
+            viewCtor.setAccessible(true);
+            Function<Object[], V> viewCtorInvoker = constructorInvoker(viewCtor);
+
+            // Placeholders since field names may be reserved words such as "name"
+            ImmutableMap.Builder<String, String> nameMapBuilder = ImmutableMap.builder();
+            List<String> placeholders = Lists.newArrayListWithCapacity(fieldNamesSet.size());
+            for (String fieldName : fieldNamesSet) {
+                String placeholder = "#p" + placeholders.size();
+                nameMapBuilder.put(placeholder, fieldName);
+                placeholders.add(placeholder);
+            }
+            String projectionExpression = String.join(", ", placeholders);
+            ImmutableMap<String, String> nameMap = nameMapBuilder.build();
+
+            return new FieldProjection<>() {
+                @Override
+                public ImmutableSet<String> fieldNames() {
+                    return fieldNamesSet;
+                }
+
+                @Override
+                public String projectionExpression() {
+                    return projectionExpression;
+                }
+
+                @Override
+                public ImmutableMap<String, String> nameMap() {
+                    return nameMap;
+                }
+
+                @Override
+                public V fromItem(Item item) {
+                    if (item == null) {
+                        return null;
+                    }
+                    return viewCtorInvoker.apply(fromItemToCtorArgsList.stream()
+                            .map(fromItemToCtorArg -> fromItemToCtorArg.apply(item))
+                            .toArray());
+                }
+
+                @Override
+                public V fromAttrMap(Map<String, AttributeValue> attrMap) {
+                    if (attrMap == null) {
+                        return null;
+                    }
+                    return viewCtorInvoker.apply(fromAttrMapToCtorArgsList.stream()
+                            .map(fromAttrMapToCtorArg -> fromAttrMapToCtorArg.apply(attrMap))
+                            .toArray());
+                }
+            };
+        }
     }
 
     public static Module module() {
@@ -4,6 +4,8 @@ package com.smotana.clearflask.store.elastic;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.SettableFuture;
+import com.smotana.clearflask.core.trace.Span;
+import com.smotana.clearflask.core.trace.Tracer;
 import com.smotana.clearflask.util.LogUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.elasticsearch.action.ActionListener;
@@ -23,19 +25,25 @@ import static com.smotana.clearflask.util.ExplicitNull.orNull;
 @Slf4j
 public class ActionListeners {
 
+    /** Listeners are created right before their async call, so the span covers the call's duration */
+    private static final String SPAN_NAME = "ElasticSearch async";
+
     private ActionListeners() {
         // disable ctor
     }
 
     public static <T extends I, I> ActionListener<T> fromFuture(SettableFuture<I> settableFuture) {
+        Span span = Tracer.leafSpan(SPAN_NAME);
         return new ActionListener<>() {
             @Override
             public void onResponse(T o) {
+                span.close();
                 settableFuture.set(o);
             }
 
             @Override
             public void onFailure(Exception ex) {
+                span.error(ex).close();
                 if (LogUtil.rateLimitAllowLog("actionListeners-failure")) {
                     log.warn("Unknown Elasticsearch failure", ex);
                 }
@@ -45,14 +53,16 @@ public class ActionListeners {
     }
 
     public static <T> ActionListener<T> onFailure(Consumer<Exception> onFailure) {
+        Span span = Tracer.leafSpan(SPAN_NAME);
         return new ActionListener<>() {
             @Override
             public void onResponse(Object o) {
-                // Ignore
+                span.close();
             }
 
             @Override
             public void onFailure(Exception ex) {
+                span.error(ex).close();
                 onFailure.accept(ex);
             }
         };
@@ -61,14 +71,17 @@ public class ActionListeners {
     public static <T extends I, I> ActionListener<T> onFailureRetry(
             SettableFuture<I> settableFuture,
             Consumer<SettableFuture<I>> retryRequest) {
+        Span span = Tracer.leafSpan(SPAN_NAME);
         return new ActionListener<>() {
             @Override
             public void onResponse(T o) {
+                span.close();
                 settableFuture.set(o);
             }
 
             @Override
             public void onFailure(Exception ex) {
+                span.error(ex).close();
                 if (LogUtil.rateLimitAllowLog("actionListeners-failure-retry")) {
                     log.info("Retrying an unknown Elasticsearch failure", ex);
                 }
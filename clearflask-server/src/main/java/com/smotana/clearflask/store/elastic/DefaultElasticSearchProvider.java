@@ -18,10 +18,13 @@ import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.NoDefaultValue;
 import com.smotana.clearflask.core.ManagedService;
 import com.smotana.clearflask.core.ServiceInjector.Environment;
+import com.smotana.clearflask.core.metrics.Metrics;
 import com.smotana.clearflask.util.NetworkUtil;
 import com.smotana.clearflask.web.Application;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
@@ -51,6 +54,8 @@ public class DefaultElasticSearchProvider extends ManagedService implements Prov
     private Gson gson;
     @Inject
     private Environment env;
+    @Inject
+    private Metrics metrics;
 
     private Optional<RestHighLevelClient> restClientOpt = Optional.empty();
 
@@ -66,8 +71,12 @@ public class DefaultElasticSearchProvider extends ManagedService implements Prov
         }
         log.info("Opening ElasticSearch client on {}", config.serviceEndpoint());
         if (restClientOpt.isPresent()) return restClientOpt.get();
+        ElasticMetricsInterceptor metricsInterceptor = new ElasticMetricsInterceptor(metrics);
         restClientOpt = Optional.of(new RestHighLevelClient(RestClient
-                .builder(HttpHost.create(config.serviceEndpoint()))));
+                .builder(HttpHost.create(config.serviceEndpoint()))
+                .setHttpClientConfigCallback(httpClientBuilder -> httpClientBuilder
+                        .addInterceptorLast((HttpRequestInterceptor) metricsInterceptor)
+                        .addInterceptorLast((HttpResponseInterceptor) metricsInterceptor))));
         return restClientOpt.get();
     }
 
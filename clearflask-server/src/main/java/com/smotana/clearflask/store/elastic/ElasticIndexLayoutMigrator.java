@@ -0,0 +1,165 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.elastic;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
+import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
+import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.util.ElasticUtil;
+import com.smotana.clearflask.util.ElasticUtil.IndexLayout;
+import com.smotana.clearflask.util.Extern;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Moves per-project indices into the shared indices.
+ * <p>
+ * Intended sequence: switch {@link ElasticUtil.Config#indexLayout()} to SHARED so all new writes land in the shared
+ * indices, then migrate. Documents are copied with op_type create so anything written since the switch is never
+ * overwritten by its stale copy. Once copied, the per-project index is atomically replaced by a filtered and routed
+ * alias of the same name pointing into the shared index.
+ */
+@Slf4j
+@Singleton
+public class ElasticIndexLayoutMigrator {
+
+    private static final ImmutableList<String> INDEX_NAMES = ImmutableList.of(
+            DynamoElasticIdeaStore.IDEA_INDEX,
+            DynamoElasticCommentStore.COMMENT_INDEX,
+            DynamoElasticUserStore.USER_INDEX);
+    private static final String MIGRATE_SCRIPT = "ctx._routing = params.projectId;"
+            + " ctx._id = params.projectId + ':' + ctx._id;"
+            + " ctx._source." + ElasticUtil.PROJECT_ID_FIELD + " = params.projectId;";
+
+    @Inject
+    private RestHighLevelClient elastic;
+    @Inject
+    private ElasticUtil elasticUtil;
+    @Inject
+    private IdeaStore ideaStore;
+    @Inject
+    private CommentStore commentStore;
+    @Inject
+    private UserStore userStore;
+
+    @Extern
+    public ImmutableSet<String> listPerProjectIndexProjectIds() throws IOException {
+        ImmutableSet.Builder<String> projectIdsBuilder = ImmutableSet.builder();
+        for (String indexName : INDEX_NAMES) {
+            String prefix = elasticUtil.getPerProjectIndexName(indexName, "");
+            Arrays.stream(elastic.indices().get(new GetIndexRequest(prefix + "*"), RequestOptions.DEFAULT).getIndices())
+                    .filter(index -> index.startsWith(prefix))
+                    .map(index -> index.substring(prefix.length()))
+                    .forEach(projectIdsBuilder::add);
+        }
+        return projectIdsBuilder.build();
+    }
+
+    @Extern
+    public long migrateAll(boolean replaceWithAlias) throws IOException {
+        long migratedCount = 0;
+        for (String projectId : listPerProjectIndexProjectIds()) {
+            try {
+                migratedCount += migrateProject(projectId, replaceWithAlias);
+            } catch (Exception ex) {
+                log.warn("Failed to migrate project {} to shared indices, continuing with others", projectId, ex);
+            }
+        }
+        return migratedCount;
+    }
+
+    @Extern
+    public long migrateProject(String projectId, boolean replaceWithAlias) throws IOException, ExecutionException, InterruptedException {
+        checkState(elasticUtil.getIndexLayout() == IndexLayout.SHARED, "Switch index layout to SHARED before migrating");
+
+        // Ensure shared indices exist
+        ideaStore.createIndex(projectId).get();
+        commentStore.createIndex(projectId).get();
+        userStore.createIndex(projectId).get();
+
+        long migratedCount = 0;
+        for (String indexName : INDEX_NAMES) {
+            Optional<Long> countOpt = migrateIndex(indexName, projectId, replaceWithAlias);
+            if (countOpt.isPresent()) {
+                migratedCount += countOpt.get();
+            }
+        }
+        return migratedCount;
+    }
+
+    private Optional<Long> migrateIndex(String indexName, String projectId, boolean replaceWithAlias) throws IOException {
+        String sourceIndex = elasticUtil.getPerProjectIndexName(indexName, projectId);
+        if (!elastic.indices().exists(new GetIndexRequest(sourceIndex), RequestOptions.DEFAULT)
+                || elastic.indices().existsAlias(new GetAliasesRequest(sourceIndex), RequestOptions.DEFAULT)) {
+            log.debug("Index {} already migrated, skipping", sourceIndex);
+            return Optional.empty();
+        }
+
+        ReindexRequest reindexRequest = new ReindexRequest()
+                .setSourceIndices(sourceIndex)
+                .setDestIndex(elasticUtil.getSharedIndexName(indexName))
+                .setDestOpType("create")
+                .setScript(new Script(ScriptType.INLINE, "painless", MIGRATE_SCRIPT, ImmutableMap.of(
+                        "projectId", projectId)));
+        reindexRequest.setConflicts("proceed");
+        reindexRequest.setRefresh(true);
+        BulkByScrollResponse response = elastic.reindex(reindexRequest, RequestOptions.DEFAULT);
+        if (!response.getBulkFailures().isEmpty() || !response.getSearchFailures().isEmpty()) {
+            throw new IllegalStateException("Failed to migrate index " + sourceIndex + " bulkFailures " + response.getBulkFailures() + " searchFailures " + response.getSearchFailures());
+        }
+        log.info("Migrated index {} created {} skipped {}", sourceIndex, response.getCreated(), response.getVersionConflicts());
+
+        if (replaceWithAlias) {
+            String sharedIndex = Arrays.stream(elastic.indices().get(new GetIndexRequest(elasticUtil.getSharedIndexName(indexName)), RequestOptions.DEFAULT).getIndices())
+                    .findAny()
+                    .orElseThrow();
+            elastic.indices().updateAliases(new IndicesAliasesRequest()
+                            .addAliasAction(AliasActions.removeIndex()
+                                    .index(sourceIndex))
+                            .addAliasAction(AliasActions.add()
+                                    .index(sharedIndex)
+                                    .alias(sourceIndex)
+                                    .filter(QueryBuilders.termQuery(ElasticUtil.PROJECT_ID_FIELD, projectId))
+                                    .routing(projectId)),
+                    RequestOptions.DEFAULT);
+        }
+
+        return Optional.of(response.getCreated());
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ElasticIndexLayoutMigrator.class).asEagerSingleton();
+            }
+        };
+    }
+}
@@ -0,0 +1,377 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.elastic;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.util.ExpDecayScore;
+import com.smotana.clearflask.util.LogUtil;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.seqno.SequenceNumbers;
+import org.elasticsearch.script.Script;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces single-document Elasticsearch updates into bulk requests.
+ * <p>
+ * Updates are buffered per document for a short window. Consecutive updates to the same document are merged when
+ * the result is equivalent to applying them in order: partial documents are deep merged with later values winning,
+ * {@link ElasticScript#EXP_DECAY} updates fold their trend times and extra updates, and {@link ElasticScript#WILSON}
+ * vote diffs are summed. Anything else is sent as a separate bulk item in arrival order.
+ * <p>
+ * Each caller's listener is completed with the response of the bulk item its update ended up in.
+ */
+@Slf4j
+@Singleton
+public class ElasticIndexingBatcher extends ManagedService {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        /**
+         * How long to buffer updates before flushing. Bounds the added indexing latency.
+         */
+        @DefaultValue("PT0.01S")
+        Duration flushDelay();
+
+        /**
+         * Flush early once this many updates are buffered.
+         */
+        @DefaultValue("500")
+        int maxBatchSize();
+    }
+
+    @Value
+    private static class DocKey {
+        String index;
+        String id;
+        String routing;
+    }
+
+    @AllArgsConstructor
+    private static class PendingUpdate {
+        private UpdateRequest request;
+        private final List<ActionListener<UpdateResponse>> listeners;
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private Metrics metrics;
+    @Inject
+    private RestHighLevelClient elastic;
+
+    private final Object lock = new Object();
+    private LinkedHashMap<DocKey, List<PendingUpdate>> buffer = Maps.newLinkedHashMap();
+    private int bufferedCount = 0;
+    private boolean flushScheduled = false;
+    private ScheduledExecutorService executor;
+
+    @Override
+    protected void serviceStart() throws Exception {
+        executor = metrics.monitorExecutor("ElasticIndexingBatcher", new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("ElasticIndexingBatcher-%d").build()));
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        flush();
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Drop-in replacement for {@link RestHighLevelClient#updateAsync(UpdateRequest, RequestOptions, ActionListener)}.
+     */
+    public void updateAsync(UpdateRequest request, ActionListener<UpdateResponse> listener) {
+        if (!config.enabled() || executor == null || executor.isShutdown()) {
+            elastic.updateAsync(request, RequestOptions.DEFAULT, listener);
+            return;
+        }
+        boolean flushNow;
+        synchronized (lock) {
+            List<PendingUpdate> pendingUpdates = buffer.computeIfAbsent(
+                    new DocKey(request.index(), request.id(), request.routing()),
+                    k -> Lists.newArrayListWithExpectedSize(1));
+            PendingUpdate last = pendingUpdates.isEmpty() ? null : pendingUpdates.get(pendingUpdates.size() - 1);
+            Optional<UpdateRequest> mergedOpt = last == null ? Optional.empty() : merge(last.request, request);
+            if (mergedOpt.isPresent()) {
+                last.request = mergedOpt.get();
+                last.listeners.add(listener);
+            } else {
+                pendingUpdates.add(new PendingUpdate(request, Lists.newArrayList(listener)));
+            }
+            bufferedCount++;
+            flushNow = bufferedCount >= config.maxBatchSize();
+            if (!flushNow && !flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(this::flush, config.flushDelay().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            executor.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        LinkedHashMap<DocKey, List<PendingUpdate>> toFlush;
+        synchronized (lock) {
+            toFlush = buffer;
+            buffer = Maps.newLinkedHashMap();
+            bufferedCount = 0;
+            flushScheduled = false;
+        }
+        if (toFlush.isEmpty()) {
+            return;
+        }
+
+        ImmutableList<PendingUpdate> pendingUpdates = toFlush.values().stream()
+                .flatMap(List::stream)
+                .collect(ImmutableList.toImmutableList());
+        BulkRequest bulkRequest = new BulkRequest();
+        WriteRequest.RefreshPolicy refreshPolicy = WriteRequest.RefreshPolicy.NONE;
+        for (PendingUpdate pendingUpdate : pendingUpdates) {
+            refreshPolicy = strongest(refreshPolicy, pendingUpdate.request.getRefreshPolicy());
+            // Refresh is applied once to the whole bulk request
+            bulkRequest.add(pendingUpdate.request.setRefreshPolicy(WriteRequest.RefreshPolicy.NONE));
+        }
+        bulkRequest.setRefreshPolicy(refreshPolicy);
+
+        try {
+            elastic.bulkAsync(bulkRequest, RequestOptions.DEFAULT, new ActionListener<>() {
+                @Override
+                public void onResponse(BulkResponse bulkResponse) {
+                    BulkItemResponse[] items = bulkResponse.getItems();
+                    for (int i = 0; i < pendingUpdates.size(); i++) {
+                        BulkItemResponse item = items[i];
+                        if (item.isFailed()) {
+                            notifyFailure(pendingUpdates.get(i), item.getFailure().getCause());
+                        } else {
+                            UpdateResponse updateResponse = item.getResponse();
+                            pendingUpdates.get(i).listeners.forEach(l -> l.onResponse(updateResponse));
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception ex) {
+                    pendingUpdates.forEach(pendingUpdate -> notifyFailure(pendingUpdate, ex));
+                }
+            });
+        } catch (Exception ex) {
+            pendingUpdates.forEach(pendingUpdate -> notifyFailure(pendingUpdate, ex));
+        }
+    }
+
+    private void notifyFailure(PendingUpdate pendingUpdate, Exception ex) {
+        for (ActionListener<UpdateResponse> listener : pendingUpdate.listeners) {
+            try {
+                listener.onFailure(ex);
+            } catch (Exception ex2) {
+                if (LogUtil.rateLimitAllowLog("elasticIndexingBatcher-listenerFailure")) {
+                    log.warn("Failed to notify listener of failed update, index {} id {}",
+                            pendingUpdate.request.index(), pendingUpdate.request.id(), ex2);
+                }
+            }
+        }
+    }
+
+    private static WriteRequest.RefreshPolicy strongest(WriteRequest.RefreshPolicy a, WriteRequest.RefreshPolicy b) {
+        if (a == WriteRequest.RefreshPolicy.IMMEDIATE || b == WriteRequest.RefreshPolicy.IMMEDIATE) {
+            return WriteRequest.RefreshPolicy.IMMEDIATE;
+        } else if (a == WriteRequest.RefreshPolicy.WAIT_UNTIL || b == WriteRequest.RefreshPolicy.WAIT_UNTIL) {
+            return WriteRequest.RefreshPolicy.WAIT_UNTIL;
+        } else {
+            return WriteRequest.RefreshPolicy.NONE;
+        }
+    }
+
+    /**
+     * Merges two updates to the same document into one that has the same effect as applying prev then next.
+     *
+     * @return merged request, or empty if the updates cannot be merged
+     */
+    @VisibleForTesting
+    static Optional<UpdateRequest> merge(UpdateRequest prev, UpdateRequest next) {
+        if (!isMergeable(prev) || !isMergeable(next)) {
+            return Optional.empty();
+        }
+        WriteRequest.RefreshPolicy refreshPolicy = strongest(prev.getRefreshPolicy(), next.getRefreshPolicy());
+        Script prevScript = prev.script();
+        Script nextScript = next.script();
+        if (prevScript == null && nextScript == null) {
+            return Optional.of(copyTarget(prev)
+                    .doc(mergeDocs(prev.doc().sourceAsMap(), next.doc().sourceAsMap()), XContentType.JSON)
+                    .setRefreshPolicy(refreshPolicy));
+        }
+        if (ElasticScript.EXP_DECAY.matches(prevScript) && ElasticScript.EXP_DECAY.matches(nextScript)) {
+            return mergeExpDecay(prevScript.getParams(), nextScript.getParams())
+                    .map(params -> copyTarget(prev)
+                            .script(ElasticScript.EXP_DECAY.toScript(params))
+                            .setRefreshPolicy(refreshPolicy));
+        }
+        if (ElasticScript.EXP_DECAY.matches(prevScript) && nextScript == null) {
+            return mergeDocIntoExpDecay(prevScript.getParams(), next.doc().sourceAsMap(), false)
+                    .map(params -> copyTarget(prev)
+                            .script(ElasticScript.EXP_DECAY.toScript(params))
+                            .setRefreshPolicy(refreshPolicy));
+        }
+        if (prevScript == null && ElasticScript.EXP_DECAY.matches(nextScript)) {
+            return mergeDocIntoExpDecay(nextScript.getParams(), prev.doc().sourceAsMap(), true)
+                    .map(params -> copyTarget(prev)
+                            .script(ElasticScript.EXP_DECAY.toScript(params))
+                            .setRefreshPolicy(refreshPolicy));
+        }
+        if (ElasticScript.WILSON.matches(prevScript) && ElasticScript.WILSON.matches(nextScript)) {
+            return mergeWilson(prevScript.getParams(), nextScript.getParams())
+                    .map(params -> copyTarget(prev)
+                            .script(ElasticScript.WILSON.toScript(params))
+                            .setRefreshPolicy(refreshPolicy));
+        }
+        return Optional.empty();
+    }
+
+    private static boolean isMergeable(UpdateRequest request) {
+        return request.upsertRequest() == null
+                && !request.docAsUpsert()
+                && !request.scriptedUpsert()
+                && request.fetchSource() == null
+                && request.ifSeqNo() == SequenceNumbers.UNASSIGNED_SEQ_NO
+                && (request.script() == null) != (request.doc() == null);
+    }
+
+    private static UpdateRequest copyTarget(UpdateRequest request) {
+        return new UpdateRequest(request.index(), request.id())
+                .routing(request.routing())
+                .retryOnConflict(request.retryOnConflict())
+                .timeout(request.timeout())
+                .waitForActiveShards(request.waitForActiveShards());
+    }
+
+    /**
+     * Merges partial documents the same way Elasticsearch applies them: objects are merged recursively while any
+     * other value, including arrays and nulls, replaces the previous one.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> mergeDocs(Map<String, Object> prevDoc, Map<String, Object> nextDoc) {
+        Map<String, Object> doc = Maps.newHashMap(prevDoc);
+        nextDoc.forEach((key, nextValue) -> {
+            Object prevValue = doc.get(key);
+            doc.put(key, prevValue instanceof Map && nextValue instanceof Map
+                    ? mergeDocs((Map<String, Object>) prevValue, (Map<String, Object>) nextValue)
+                    : nextValue);
+        });
+        return doc;
+    }
+
+    private static Optional<Map<String, Object>> mergeExpDecay(Map<String, Object> prevParams, Map<String, Object> nextParams) {
+        if (hasArrayUpdates(prevParams) || hasArrayUpdates(nextParams)) {
+            return Optional.empty();
+        }
+        Object decayPeriodInMillis = prevParams.get("decayPeriodInMillis");
+        if (!(decayPeriodInMillis instanceof Number)
+                || !Objects.equals(decayPeriodInMillis, nextParams.get("decayPeriodInMillis"))) {
+            return Optional.empty();
+        }
+        ExpDecayScore expDecayScore = new ExpDecayScore(((Number) decayPeriodInMillis).longValue());
+        double timeInMillis = expDecayScore.mergeTimes(
+                ((Number) prevParams.get("timeInMillis")).doubleValue(),
+                ((Number) nextParams.get("timeInMillis")).doubleValue());
+        Map<String, Object> extraUpdates = Maps.newHashMap();
+        extraUpdates.putAll(getExtraUpdates(prevParams));
+        extraUpdates.putAll(getExtraUpdates(nextParams));
+        return Optional.of(ImmutableMap.of(
+                "decayPeriodInMillis", decayPeriodInMillis,
+                "timeInMillis", timeInMillis,
+                "extraUpdates", extraUpdates));
+    }
+
+    private static Optional<Map<String, Object>> mergeDocIntoExpDecay(Map<String, Object> scriptParams, Map<String, Object> doc, boolean docFirst) {
+        // Partial documents deep-merge objects while the script replaces them
+        if (hasArrayUpdates(scriptParams) || doc.values().stream().anyMatch(v -> v instanceof Map)) {
+            return Optional.empty();
+        }
+        Map<String, Object> extraUpdates = Maps.newHashMap();
+        if (docFirst) {
+            extraUpdates.putAll(doc);
+            extraUpdates.putAll(getExtraUpdates(scriptParams));
+        } else {
+            extraUpdates.putAll(getExtraUpdates(scriptParams));
+            extraUpdates.putAll(doc);
+        }
+        Map<String, Object> params = Maps.newHashMap(scriptParams);
+        params.put("extraUpdates", extraUpdates);
+        return Optional.of(params);
+    }
+
+    private static Optional<Map<String, Object>> mergeWilson(Map<String, Object> prevParams, Map<String, Object> nextParams) {
+        if (!Objects.equals(prevParams.get("z"), nextParams.get("z"))) {
+            return Optional.empty();
+        }
+        return Optional.of(ImmutableMap.of(
+                "upvoteDiff", getInt(prevParams, "upvoteDiff") + getInt(nextParams, "upvoteDiff"),
+                "downvoteDiff", getInt(prevParams, "downvoteDiff") + getInt(nextParams, "downvoteDiff"),
+                "z", prevParams.get("z")));
+    }
+
+    private static boolean hasArrayUpdates(Map<String, Object> params) {
+        return params.get("extraArrayAdditions") != null || params.get("extraArrayDeletions") != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getExtraUpdates(Map<String, Object> params) {
+        Object extraUpdates = params.get("extraUpdates");
+        return extraUpdates == null ? ImmutableMap.of() : (Map<String, Object>) extraUpdates;
+    }
+
+    private static int getInt(Map<String, Object> params, String key) {
+        Object value = params.get(key);
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ElasticIndexingBatcher.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(ElasticIndexingBatcher.class);
+            }
+        };
+    }
+}
@@ -0,0 +1,123 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.elastic;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.smotana.clearflask.core.metrics.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.concurrent.ConcurrentMap;
+
+import static com.smotana.clearflask.core.metrics.Metrics.PREFIX;
+
+/**
+ * Latency and errors of every ElasticSearch call by index type and operation.
+ * <p>
+ * Index type is the index name up to the project id or shared suffix, e.g. both "idea-myproject" and "idea_shared"
+ * are "idea". Operation is the first underscore path segment (e.g. "_search", "_bulk") or the HTTP method for document
+ * and index calls. Calls failing without a response (e.g. timeouts) are not seen here.
+ */
+@Slf4j
+public class ElasticMetricsInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private static final String CONTEXT_ATTRIBUTE = "clearflask.metrics";
+
+    private final Metrics metrics;
+    private final ConcurrentMap<String, OperationMetrics> operationMetrics = Maps.newConcurrentMap();
+
+    public ElasticMetricsInterceptor(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        context.setAttribute(CONTEXT_ATTRIBUTE, new Call(
+                getOperationMetrics(request.getRequestLine().getMethod(), request.getRequestLine().getUri()),
+                System.nanoTime()));
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        Object call = context.getAttribute(CONTEXT_ATTRIBUTE);
+        if (!(call instanceof Call)) {
+            return;
+        }
+        context.removeAttribute(CONTEXT_ATTRIBUTE);
+        OperationMetrics metrics = ((Call) call).metrics;
+        metrics.latency.recordSince(((Call) call).startNanos);
+        if (response.getStatusLine().getStatusCode() >= 400) {
+            metrics.errors.increment();
+        }
+    }
+
+    private OperationMetrics getOperationMetrics(String method, String uri) {
+        String[] labels = parseIndexTypeAndOp(method, uri);
+        String key = labels[0] + '/' + labels[1];
+        OperationMetrics metrics = operationMetrics.get(key);
+        if (metrics == null) {
+            metrics = operationMetrics.computeIfAbsent(key, k -> new OperationMetrics(labels[0], labels[1]));
+        }
+        return metrics;
+    }
+
+    @VisibleForTesting
+    static String[] parseIndexTypeAndOp(String method, String uri) {
+        int queryStart = uri.indexOf('?');
+        String path = queryStart >= 0 ? uri.substring(0, queryStart) : uri;
+        String indexType = "none";
+        String op = null;
+        int segmentStart = 0;
+        while (segmentStart < path.length()) {
+            int segmentEnd = path.indexOf('/', segmentStart);
+            if (segmentEnd < 0) {
+                segmentEnd = path.length();
+            }
+            if (segmentEnd > segmentStart) {
+                if (path.charAt(segmentStart) == '_') {
+                    op = path.substring(segmentStart, segmentEnd);
+                    break;
+                } else if (segmentStart <= 1) {
+                    indexType = path.substring(segmentStart, segmentEnd);
+                }
+            }
+            segmentStart = segmentEnd + 1;
+        }
+        // Strip project id, shared suffix and any additional indices
+        for (int i = 0; i < indexType.length(); i++) {
+            char c = indexType.charAt(i);
+            if (c == '-' || c == '_' || c == ',') {
+                indexType = indexType.substring(0, i);
+                break;
+            }
+        }
+        return new String[]{indexType, op != null ? op : method};
+    }
+
+    private static class Call {
+        private final OperationMetrics metrics;
+        private final long startNanos;
+
+        private Call(OperationMetrics metrics, long startNanos) {
+            this.metrics = metrics;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private class OperationMetrics {
+        private final Metrics.Timer latency;
+        private final Metrics.Counter errors;
+
+        private OperationMetrics(String indexType, String op) {
+            latency = metrics.timer(PREFIX + "elastic_request_duration_seconds", "ElasticSearch call latency",
+                    "index", indexType, "op", op);
+            errors = metrics.counter(PREFIX + "elastic_request_errors_total", "ElasticSearch call errors",
+                    "index", indexType, "op", op);
+        }
+    }
+}
@@ -68,6 +68,12 @@ public enum ElasticScript {
                 params);
     }
 
+    public boolean matches(Script script) {
+        return script != null
+                && script.getType() == ScriptType.STORED
+                && getScriptName().equals(script.getIdOrCode());
+    }
+
     private String getScriptName() {
         return this.name + "-" + this.version;
     }
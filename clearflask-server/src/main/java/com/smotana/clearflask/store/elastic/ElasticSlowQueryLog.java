@@ -0,0 +1,278 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.elastic;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.util.Extern;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps search statistics per project, and per query fingerprint of slow searches, and logs the full query of slow
+ * searches.
+ * <p>
+ * A fingerprint is the search source with all values replaced by a placeholder, keeping the query shape: which
+ * filters and sorts are present, on which fields, and settings such as fuzziness. Pagination is ignored so that
+ * every page of the same search shares a fingerprint. Fingerprinting serializes and re-parses the query, so it is
+ * only done for slow searches to keep it off the common path.
+ */
+@Slf4j
+@Singleton
+public class ElasticSlowQueryLog {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        /**
+         * Searches taking at least this long, as reported by ElasticSearch, are logged with their full query.
+         */
+        @DefaultValue("PT1S")
+        Duration slowThreshold();
+
+        /**
+         * Maximum fingerprints and projects tracked each, the rest are counted under "other".
+         */
+        @DefaultValue("2000")
+        int maxTracked();
+    }
+
+    public static final String OTHER_KEY = "other";
+    private static final JsonPrimitive PLACEHOLDER = new JsonPrimitive("?");
+    /** Pagination and source filtering, not part of the query shape */
+    private static final ImmutableSet<String> IGNORED_KEYS = ImmutableSet.of(
+            "from", "size", "search_after", "_source", "boost");
+    /** Keys whose values describe the query shape rather than user input */
+    private static final ImmutableSet<String> SHAPE_KEYS = ImmutableSet.of(
+            "field", "fields", "fuzziness", "order", "operator", "type", "mode", "unmapped_type",
+            "calendar_interval", "minimum_should_match", "max_query_terms", "min_term_freq", "min_doc_freq");
+
+    @Inject
+    private Config config;
+
+    private final ConcurrentMap<String, Stats> byFingerprint = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, Stats> byProject = Maps.newConcurrentMap();
+
+    public void record(SearchRequest request, SearchResponse response) {
+        if (!config.enabled()) {
+            return;
+        }
+        try {
+            String index = request.indices().length == 0 ? "" : request.indices()[0];
+            String type = getIndexType(index);
+            String projectId = getProjectId(index, request.routing());
+
+            long tookMillis = response.getTook().millis();
+            TotalHits totalHits = response.getHits().getTotalHits();
+            long hits = totalHits != null ? totalHits.value : response.getHits().getHits().length;
+            boolean slow = tookMillis >= config.slowThreshold().toMillis();
+
+            getStats(byProject, projectId, type, projectId)
+                    .add(tookMillis, response.getTotalShards(), response.getFailedShards(), hits, slow);
+
+            if (slow) {
+                String fingerprint = fingerprint(request.source());
+                String fingerprintId = Hashing.murmur3_32().hashString(type + fingerprint, StandardCharsets.UTF_8).toString();
+                getStats(byFingerprint, fingerprintId, type, fingerprint)
+                        .add(tookMillis, response.getTotalShards(), response.getFailedShards(), hits, true);
+                log.warn("Slow {} search took {}ms project {} fingerprint {} shards {}/{} hits {} query {}",
+                        type, tookMillis, projectId, fingerprintId,
+                        response.getSuccessfulShards(), response.getTotalShards(), hits, request.source());
+            }
+        } catch (Exception ex) {
+            log.warn("Failed to record search stats", ex);
+        }
+    }
+
+    /**
+     * Fingerprints of slow searches ordered by total time spent, most expensive first.
+     */
+    @Extern
+    public ImmutableList<QueryStats> getTopFingerprints(int limit) {
+        return getTop(byFingerprint, limit);
+    }
+
+    /**
+     * Projects ordered by total time spent, most expensive first.
+     */
+    @Extern
+    public ImmutableList<QueryStats> getTopProjects(int limit) {
+        return getTop(byProject, limit);
+    }
+
+    @Extern
+    public void reset() {
+        byFingerprint.clear();
+        byProject.clear();
+    }
+
+    @VisibleForTesting
+    static String fingerprint(SearchSourceBuilder source) {
+        if (source == null) {
+            return "{}";
+        }
+        return normalize(null, new JsonParser().parse(source.toString())).toString();
+    }
+
+    private static JsonElement normalize(String key, JsonElement element) {
+        if (element.isJsonObject()) {
+            JsonObject normalized = new JsonObject();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                if (!IGNORED_KEYS.contains(entry.getKey())) {
+                    normalized.add(entry.getKey(), normalize(entry.getKey(), entry.getValue()));
+                }
+            }
+            return normalized;
+        } else if (element.isJsonArray()) {
+            // Collapse repeated elements, a filter on five tags has the same shape as a filter on one
+            JsonArray normalized = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                JsonElement normalizedItem = normalize(key, item);
+                if (!normalized.contains(normalizedItem)) {
+                    normalized.add(normalizedItem);
+                }
+            }
+            return normalized;
+        } else if (element.isJsonPrimitive() && !SHAPE_KEYS.contains(key)) {
+            return PLACEHOLDER;
+        }
+        return element;
+    }
+
+    private static String getIndexType(String index) {
+        int projectSeparatorIndex = index.indexOf('-');
+        if (projectSeparatorIndex != -1) {
+            return index.substring(0, projectSeparatorIndex);
+        }
+        int sharedIndex = index.indexOf("_shared");
+        return sharedIndex != -1 ? index.substring(0, sharedIndex) : index;
+    }
+
+    private static String getProjectId(String index, String routing) {
+        if (routing != null) {
+            return routing;
+        }
+        int projectSeparatorIndex = index.indexOf('-');
+        return projectSeparatorIndex != -1 ? index.substring(projectSeparatorIndex + 1) : "";
+    }
+
+    private Stats getStats(ConcurrentMap<String, Stats> statsMap, String key, String type, String description) {
+        Stats stats = statsMap.get(key);
+        if (stats != null) {
+            return stats;
+        }
+        if (statsMap.size() >= config.maxTracked()) {
+            return statsMap.computeIfAbsent(OTHER_KEY, k -> new Stats(OTHER_KEY, "", ""));
+        }
+        return statsMap.computeIfAbsent(key, k -> new Stats(key, type, description));
+    }
+
+    private ImmutableList<QueryStats> getTop(ConcurrentMap<String, Stats> statsMap, int limit) {
+        return statsMap.values().stream()
+                .map(Stats::toQueryStats)
+                .sorted(Comparator.comparingLong(QueryStats::getTotalTookMillis).reversed())
+                .limit(limit)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    @Value
+    public static class QueryStats {
+        String key;
+        String type;
+        /** Normalized query for fingerprints, project id for projects */
+        String description;
+        long count;
+        long slowCount;
+        long totalTookMillis;
+        long maxTookMillis;
+        long avgTookMillis;
+        long totalShards;
+        long failedShards;
+        long totalHits;
+    }
+
+    private static class Stats {
+        private final String key;
+        private final String type;
+        private final String description;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder slowCount = new LongAdder();
+        private final LongAdder totalTookMillis = new LongAdder();
+        private final LongAccumulator maxTookMillis = new LongAccumulator(Math::max, 0L);
+        private final LongAdder totalShards = new LongAdder();
+        private final LongAdder failedShards = new LongAdder();
+        private final LongAdder totalHits = new LongAdder();
+
+        private Stats(String key, String type, String description) {
+            this.key = key;
+            this.type = type;
+            this.description = description;
+        }
+
+        private void add(long tookMillis, int shards, int failedShards, long hits, boolean slow) {
+            count.increment();
+            if (slow) {
+                slowCount.increment();
+            }
+            totalTookMillis.add(tookMillis);
+            maxTookMillis.accumulate(tookMillis);
+            totalShards.add(shards);
+            this.failedShards.add(failedShards);
+            totalHits.add(hits);
+        }
+
+        private QueryStats toQueryStats() {
+            long count = this.count.sum();
+            long totalTookMillis = this.totalTookMillis.sum();
+            return new QueryStats(
+                    key,
+                    type,
+                    description,
+                    count,
+                    slowCount.sum(),
+                    totalTookMillis,
+                    maxTookMillis.get(),
+                    count == 0 ? 0 : totalTookMillis / count,
+                    totalShards.sum(),
+                    failedShards.sum(),
+                    totalHits.sum());
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ElasticSlowQueryLog.class);
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
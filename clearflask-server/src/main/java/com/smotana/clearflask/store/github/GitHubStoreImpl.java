@@ -36,6 +36,7 @@ import com.smotana.clearflask.api.model.GitHubStatusSync;
 import com.smotana.clearflask.api.model.IdeaStatus;
 import com.smotana.clearflask.api.model.IdeaUpdateAdmin;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.Metrics;
 import com.smotana.clearflask.store.CommentStore;
 import com.smotana.clearflask.store.CommentStore.CommentAndIndexingFuture;
 import com.smotana.clearflask.store.CommentStore.CommentModel;
@@ -124,6 +125,8 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
     @Inject
     private Config config;
     @Inject
+    private Metrics metrics;
+    @Inject
     private GitHubResource.Config configGitHubResource;
     @Inject
     private Application.Config configApp;
@@ -162,9 +165,9 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
     protected void serviceStart() throws Exception {
         gitHubAuthorizationSchema = dynamoMapper.parseTableSchema(GitHubAuthorization.class);
 
-        executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
+        executor = MoreExecutors.listeningDecorator(metrics.monitorExecutor("GitHubStoreImpl-worker", new ThreadPoolExecutor(
                 2, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
-                new ThreadFactoryBuilder().setNameFormat("GitHubStoreImpl-worker-%d").build()));
+                new ThreadFactoryBuilder().setNameFormat("GitHubStoreImpl-worker-%d").build())));
     }
 
     @Override
@@ -435,7 +438,8 @@ public class GitHubStoreImpl extends ManagedService implements GitHubStore {
                         null,
                         ImmutableSet.of(),
                         null,
-                        ghIssue.getIssue().getHtmlUrl().toExternalForm())));
+                        ghIssue.getIssue().getHtmlUrl().toExternalForm(),
+                        null)));
             case "reopened":
             case "closed":
                 Optional<String> switchToStatusOpt = Optional.ofNullable(integration.getStatusSync())
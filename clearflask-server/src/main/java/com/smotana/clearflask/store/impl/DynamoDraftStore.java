@@ -10,7 +10,6 @@ import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
-import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
@@ -20,7 +19,10 @@ import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -43,12 +45,12 @@ import lombok.extern.slf4j.Slf4j;
 import javax.ws.rs.core.Response;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.StreamSupport;
 
-import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 
 @Slf4j
 @Singleton
@@ -183,9 +185,11 @@ public class DynamoDraftStore implements DraftStore {
 
     @Extern
     @Override
-    public void deleteAllForProject(String projectId) {
+    public ListenableFuture<Void> deleteAllForProject(String projectId) {
+        List<ListenableFuture<Void>> deleteFutures = Lists.newArrayList();
+
         // Delete drafts
-        Iterables.partition(StreamSupport.stream(draftByProjectIdSchema.index().query(new QuerySpec()
+        deleteFutures.add(dynamoUtil.batchDeleteAsync(draftSchema.tableName(), StreamSupport.stream(draftByProjectIdSchema.index().query(new QuerySpec()
                 .withHashKey(draftByProjectIdSchema.partitionKey(Map.of(
                         "projectId", projectId)))
                 .withRangeKeyCondition(new RangeKeyCondition(draftByProjectIdSchema.rangeKeyName())
@@ -195,17 +199,15 @@ public class DynamoDraftStore implements DraftStore {
                 .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
                 .map(draftByProjectIdSchema::fromItem)
                 .filter(draft -> projectId.equals(draft.getProjectId()))
-                .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(draftsBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(draftSchema.tableName());
-                    draftsBatch.stream()
-                            .map(draft -> draftSchema.primaryKey(Map.of(
-                                    "draftId", draft.getDraftId(),
-                                    "userId", draft.getUserId(),
-                                    "projectId", projectId)))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(draft -> draftSchema.primaryKey(Map.of(
+                        "draftId", draft.getDraftId(),
+                        "userId", draft.getUserId(),
+                        "projectId", projectId)))
+                .collect(ImmutableList.toImmutableList())));
+
+        return Futures.transform(Futures.allAsList(deleteFutures), v -> null, MoreExecutors.directExecutor());
     }
 
     public static Module module() {
@@ -8,7 +8,6 @@ import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
-import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
@@ -29,7 +28,6 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.gson.Gson;
@@ -86,7 +84,6 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
-import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.util.ExplicitNull.orNull;
 
 
@@ -121,8 +118,6 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
     @Inject
     private AmazonDynamoDB dynamo;
     @Inject
-    private DynamoDB dynamoDoc;
-    @Inject
     private DynamoMapper dynamoMapper;
     @Inject
     private DynamoUtil dynamoUtil;
@@ -315,11 +310,11 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
             return new SearchAccountsResponse(ImmutableList.of(), ImmutableList.of(), Optional.empty());
         }
 
-        ImmutableList<Account> accounts = dynamoUtil.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(accountSchema.tableName())
+        ImmutableList<Account> accounts = dynamoUtil.batchGet(new TableKeysAndAttributes(accountSchema.tableName())
                 .withPrimaryKeys(Arrays.stream(hits)
                         .map(hit -> accountSchema.primaryKey(ImmutableMap.of(
                                 "accountId", hit.getId())))
-                        .toArray(PrimaryKey[]::new))))
+                        .toArray(PrimaryKey[]::new)))
                 .map(i -> accountSchema.fromItem(i))
                 .collect(ImmutableList.toImmutableList());
         accounts.forEach(account -> accountCache.put(account.getAccountId(), Optional.of(account)));
@@ -746,7 +741,8 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
     }
 
     private void revokeSessions(String accountId, Optional<String> sessionToLeaveOpt) {
-        Iterables.partition(StreamSupport.stream(sessionByAccountIdSchema.index().query(new QuerySpec()
+        // Waits as sessions must no longer be usable once this returns
+        dynamoUtil.batchDelete(sessionBySessionIdSchema.tableName(), StreamSupport.stream(sessionByAccountIdSchema.index().query(new QuerySpec()
                 .withHashKey(sessionByAccountIdSchema.partitionKey(Map.of(
                         "accountId", accountId)))
                 .withRangeKeyCondition(new RangeKeyCondition(sessionByAccountIdSchema.rangeKeyName())
@@ -757,15 +753,11 @@ public class DynamoElasticAccountStore extends ManagedService implements Account
                 .map(sessionByAccountIdSchema::fromItem)
                 .map(AccountSession::getSessionId)
                 .filter(sessionId -> !sessionToLeaveOpt.isPresent() || !sessionToLeaveOpt.get().equals(sessionId))
-                .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(sessionIdsBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(sessionBySessionIdSchema.tableName());
-                    sessionIdsBatch.stream()
-                            .map(sessionId -> sessionBySessionIdSchema.primaryKey(Map.of(
-                                    "sessionId", sessionId)))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(sessionId -> sessionBySessionIdSchema.primaryKey(Map.of(
+                        "sessionId", sessionId)))
+                .collect(ImmutableList.toImmutableList()));
     }
 
     private void indexAccount(SettableFuture<WriteResponse> indexingFuture, String accountId) {
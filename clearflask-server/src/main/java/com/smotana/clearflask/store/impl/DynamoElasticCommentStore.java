@@ -4,14 +4,12 @@ package com.smotana.clearflask.store.impl;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.document.AttributeUpdate;
-import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Page;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
-import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
@@ -21,11 +19,12 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
@@ -53,7 +52,9 @@ import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.Expression;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.IndexSchema;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableSchema;
 import com.smotana.clearflask.store.elastic.ActionListeners;
+import com.smotana.clearflask.store.elastic.ElasticIndexingBatcher;
 import com.smotana.clearflask.store.elastic.ElasticScript;
+import com.smotana.clearflask.store.elastic.ElasticSlowQueryLog;
 import com.smotana.clearflask.util.ElasticUtil;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.ServerSecret;
@@ -103,7 +104,6 @@ import java.util.stream.StreamSupport;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_READ_BATCH_MAX_SIZE;
-import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.util.ExplicitNull.orNull;
 
 @Slf4j
@@ -135,7 +135,7 @@ public class DynamoElasticCommentStore implements CommentStore {
         boolean enableHistograms();
     }
 
-    private static final String COMMENT_INDEX = "comment";
+    public static final String COMMENT_INDEX = "comment";
 
     @Inject
     private Config config;
@@ -145,14 +145,16 @@ public class DynamoElasticCommentStore implements CommentStore {
     @Inject
     private AmazonDynamoDB dynamo;
     @Inject
-    private DynamoDB dynamoDoc;
-    @Inject
     private DynamoMapper dynamoMapper;
     @Inject
     private DynamoUtil dynamoUtil;
     @Inject
     private RestHighLevelClient elastic;
     @Inject
+    private ElasticIndexingBatcher elasticIndexingBatcher;
+    @Inject
+    private ElasticSlowQueryLog slowQueryLog;
+    @Inject
     private ElasticUtil elasticUtil;
     @Inject
     @Named("cursor")
@@ -186,7 +188,7 @@ public class DynamoElasticCommentStore implements CommentStore {
     @Override
     public ListenableFuture<CreateIndexResponse> createIndex(String projectId) {
         SettableFuture<CreateIndexResponse> indexingFuture = SettableFuture.create();
-        elastic.indices().createAsync(new CreateIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)).mapping(gson.toJson(ImmutableMap.of(
+        elasticUtil.createIndexAsync(COMMENT_INDEX, projectId, new CreateIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)).mapping(gson.toJson(ImmutableMap.of(
                         "dynamic", "false",
                         "properties", ImmutableMap.builder()
                                 .put("ideaId", ImmutableMap.of(
@@ -219,7 +221,6 @@ public class DynamoElasticCommentStore implements CommentStore {
                                 .put("score", ImmutableMap.of(
                                         "type", "double"))
                                 .build())), XContentType.JSON),
-                RequestOptions.DEFAULT,
                 ActionListeners.fromFuture(indexingFuture));
         return indexingFuture;
     }
@@ -257,12 +258,11 @@ public class DynamoElasticCommentStore implements CommentStore {
                     .getLong("childCommentCount");
 
             SettableFuture<WriteResponse> parentIndexingFuture = SettableFuture.create();
-            elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, commentWithVote.getProjectId()), parentCommentId)
+            elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(COMMENT_INDEX, commentWithVote.getProjectId(), parentCommentId)
                             .doc(gson.toJson(ImmutableMap.of(
                                     "childCommentCount", parentChildCommentCount
                             )), XContentType.JSON)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
                     ActionListeners.onFailureRetry(parentIndexingFuture, f -> indexComment(f, commentWithVote.getProjectId(), commentWithVote.getIdeaId(), commentWithVote.getCommentId())));
 
             parentIndexingFutureOpt = Optional.of(parentIndexingFuture);
@@ -295,13 +295,13 @@ public class DynamoElasticCommentStore implements CommentStore {
         if (commentIds.isEmpty()) {
             return ImmutableMap.of();
         }
-        return dynamoUtil.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(commentSchema.tableName())
+        return dynamoUtil.batchGet(new TableKeysAndAttributes(commentSchema.tableName())
                         .withPrimaryKeys(commentIds.stream()
                                 .map(commentId -> commentSchema.primaryKey(ImmutableMap.of(
                                         "projectId", projectId,
                                         "ideaId", ideaId,
                                         "commentId", commentId)))
-                                .toArray(PrimaryKey[]::new))))
+                                .toArray(PrimaryKey[]::new)))
                 .map(i -> commentSchema.fromItem(i))
                 .collect(ImmutableMap.toImmutableMap(
                         CommentModel::getCommentId,
@@ -315,7 +315,8 @@ public class DynamoElasticCommentStore implements CommentStore {
         }
 
         return elasticUtil.histogram(
-                elasticUtil.getIndexName(COMMENT_INDEX, projectId),
+                COMMENT_INDEX,
+                projectId,
                 "created",
                 Optional.ofNullable(searchAdmin.getFilterCreatedStart()),
                 Optional.ofNullable(searchAdmin.getFilterCreatedEnd()),
@@ -403,10 +404,9 @@ public class DynamoElasticCommentStore implements CommentStore {
             }
             log.trace("Comment search query: {}", queryBuilder);
             ElasticUtil.SearchResponseWithCursor searchResponseWithCursor = elasticUtil.searchWithCursor(
-                    new SearchRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId))
-                            .source(new SearchSourceBuilder()
-                                    .fetchSource(true)
-                                    .query(queryBuilder)),
+                    elasticUtil.searchRequest(COMMENT_INDEX, projectId, new SearchSourceBuilder()
+                            .fetchSource(true)
+                            .query(queryBuilder)),
                     cursorOpt, sortFields, sortOrderOpt, useAccurateCursor, Optional.of(pageSize), configSearch, ImmutableSet.of("ideaId"));
 
             SearchHit[] hits = searchResponseWithCursor.getSearchResponse().getHits().getHits();
@@ -414,13 +414,13 @@ public class DynamoElasticCommentStore implements CommentStore {
                 return new SearchCommentsResponse(ImmutableList.of(), Optional.empty());
             }
 
-            ImmutableList<CommentModel> comments = dynamoUtil.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(commentSchema.tableName())
+            ImmutableList<CommentModel> comments = dynamoUtil.batchGet(new TableKeysAndAttributes(commentSchema.tableName())
                             .withPrimaryKeys(Arrays.stream(hits)
                                     .map(hit -> commentSchema.primaryKey(ImmutableMap.of(
                                             "projectId", projectId,
                                             "ideaId", hit.getSourceAsMap().get("ideaId"),
-                                            "commentId", hit.getId())))
-                                    .toArray(PrimaryKey[]::new))))
+                                            "commentId", elasticUtil.parseDocId(projectId, hit.getId()))))
+                                    .toArray(PrimaryKey[]::new)))
                     .map(i -> commentSchema.fromItem(i))
                     .collect(ImmutableList.toImmutableList());
 
@@ -460,20 +460,20 @@ public class DynamoElasticCommentStore implements CommentStore {
                     .rangeQuery("level").lt(searchInitialDepthLimit));
         }
         log.trace("Comment search query: {}", queryBuilder);
-        SearchRequest searchRequest = new SearchRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId))
-                .source(new SearchSourceBuilder()
-                        .fetchSource(false)
-                        .fetchField("parentCommentIds")
-                        .fetchField("ideaId")
-                        .size(fetchMax)
-                        .sort("score", SortOrder.DESC)
-                        .sort("upvotes", SortOrder.DESC)
-                        .sort("created", SortOrder.ASC)
-                        .query(queryBuilder));
+        SearchRequest searchRequest = elasticUtil.searchRequest(COMMENT_INDEX, projectId, new SearchSourceBuilder()
+                .fetchSource(false)
+                .fetchField("parentCommentIds")
+                .fetchField("ideaId")
+                .size(fetchMax)
+                .sort("score", SortOrder.DESC)
+                .sort("upvotes", SortOrder.DESC)
+                .sort("created", SortOrder.ASC)
+                .query(queryBuilder));
 
         SearchResponse searchResponse;
         try {
             searchResponse = elastic.search(searchRequest, RequestOptions.DEFAULT);
+            slowQueryLog.record(searchRequest, searchResponse);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
@@ -487,7 +487,7 @@ public class DynamoElasticCommentStore implements CommentStore {
             Set<String> commentIds = postIdToCommentIds.computeIfAbsent(postId, k -> Sets.newHashSet());
 
             // Add our comment to the corresponding post
-            commentIds.add(hit.getId());
+            commentIds.add(elasticUtil.parseDocId(projectId, hit.getId()));
 
             // Include all parent comments as well
             DocumentField parentCommentIds = hit.field("parentCommentIds");
@@ -533,13 +533,12 @@ public class DynamoElasticCommentStore implements CommentStore {
                 .getItem());
 
         SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-        elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(COMMENT_INDEX, projectId, commentId)
                         .doc(gson.toJson(ImmutableMap.of(
                                 "edited", comment.getEdited().getEpochSecond(),
                                 "content", sanitizer.richHtmlToPlaintext(comment.getContentAsText(sanitizer))
                         )), XContentType.JSON)
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                RequestOptions.DEFAULT,
                 ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, comment.getProjectId(), comment.getIdeaId(), comment.getCommentId())));
 
         return new CommentAndIndexingFuture<>(comment, indexingFuture);
@@ -598,13 +597,12 @@ public class DynamoElasticCommentStore implements CommentStore {
         }
 
         SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-        elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(COMMENT_INDEX, projectId, commentId)
                         .script(ElasticScript.WILSON.toScript(ImmutableMap.of(
                                 "upvoteDiff", upvoteDiff,
                                 "downvoteDiff", downvoteDiff,
                                 "z", wilsonScoreInterval.getZ())))
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                RequestOptions.DEFAULT,
                 ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, comment.getProjectId(), comment.getIdeaId(), comment.getCommentId())));
 
         return new CommentAndIndexingFuture<>(comment, indexingFuture);
@@ -638,10 +636,9 @@ public class DynamoElasticCommentStore implements CommentStore {
         updates.put("content", null);
         updates.put("edited", comment.getEdited().getEpochSecond());
         SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-        elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(COMMENT_INDEX, projectId, commentId)
                         .doc(gson.toJson(updates), XContentType.JSON)
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                RequestOptions.DEFAULT,
                 ActionListeners.onFailureRetry(indexingFuture, f -> indexComment(f, comment.getProjectId(), comment.getIdeaId(), comment.getCommentId())));
 
         return new CommentAndIndexingFuture<>(comment, indexingFuture);
@@ -658,7 +655,7 @@ public class DynamoElasticCommentStore implements CommentStore {
                         "commentId", commentId))));
 
         SettableFuture<DeleteResponse> indexingFuture = SettableFuture.create();
-        elastic.deleteAsync(new DeleteRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId)
+        elastic.deleteAsync(elasticUtil.deleteRequest(COMMENT_INDEX, projectId, commentId)
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
                 RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
 
@@ -668,75 +665,67 @@ public class DynamoElasticCommentStore implements CommentStore {
     @Extern
     @Override
     public ListenableFuture<BulkByScrollResponse> deleteCommentsForIdea(String projectId, String ideaId) {
-        Iterables.partition(StreamSupport.stream(commentSchema.table().query(new QuerySpec()
-                                        .withHashKey(commentSchema.partitionKey(Map.of(
-                                                "ideaId", ideaId,
-                                                "projectId", projectId)))
-                                        .withRangeKeyCondition(new RangeKeyCondition(commentSchema.rangeKeyName())
-                                                .beginsWith(commentSchema.rangeValuePartial(Map.of()))))
-                                .pages()
-                                .spliterator(), false)
-                        .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                        .map(commentSchema::fromItem)
-                        .map(CommentModel::getCommentId)
-                        .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(commentIdsBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(commentSchema.tableName());
-                    commentIdsBatch.stream()
-                            .map(commentId -> commentSchema.primaryKey(Map.of(
-                                    "ideaId", ideaId,
-                                    "projectId", projectId,
-                                    "commentId", commentId)))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
-
-        SettableFuture<BulkByScrollResponse> indexingFuture = SettableFuture.create();
-        elastic.deleteByQueryAsync(new DeleteByQueryRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId))
-                        .setQuery(QueryBuilders.termQuery("ideaId", ideaId)),
-                RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
-        return indexingFuture;
+        return Futures.transformAsync(dynamoUtil.batchDeleteAsync(commentSchema.tableName(), StreamSupport.stream(commentSchema.table().query(new QuerySpec()
+                                .withHashKey(commentSchema.partitionKey(Map.of(
+                                        "ideaId", ideaId,
+                                        "projectId", projectId)))
+                                .withRangeKeyCondition(new RangeKeyCondition(commentSchema.rangeKeyName())
+                                        .beginsWith(commentSchema.rangeValuePartial(Map.of()))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(commentSchema::fromItem)
+                .map(CommentModel::getCommentId)
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(commentId -> commentSchema.primaryKey(Map.of(
+                        "ideaId", ideaId,
+                        "projectId", projectId,
+                        "commentId", commentId)))
+                .collect(ImmutableList.toImmutableList())), v -> {
+            SettableFuture<BulkByScrollResponse> indexingFuture = SettableFuture.create();
+            elastic.deleteByQueryAsync(elasticUtil.deleteByQueryRequest(COMMENT_INDEX, projectId, QueryBuilders.termQuery("ideaId", ideaId)),
+                    RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
+            return indexingFuture;
+        }, MoreExecutors.directExecutor());
     }
 
     @Extern
     @Override
     public ListenableFuture<AcknowledgedResponse> deleteAllForProject(String projectId) {
+        List<ListenableFuture<Void>> deleteFutures = Lists.newArrayList();
+
         // Delete comments
-        Iterables.partition(StreamSupport.stream(commentByProjectIdSchema.index().query(new QuerySpec()
-                                        .withHashKey(commentByProjectIdSchema.partitionKey(Map.of(
-                                                "projectId", projectId)))
-                                        .withRangeKeyCondition(new RangeKeyCondition(commentByProjectIdSchema.rangeKeyName())
-                                                .beginsWith(commentByProjectIdSchema.rangeValuePartial(Map.of()))))
-                                .pages()
-                                .spliterator(), false)
-                        .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                        .map(commentByProjectIdSchema::fromItem)
-                        .filter(comment -> projectId.equals(comment.getProjectId()))
-                        .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(commentsBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(commentSchema.tableName());
-                    commentsBatch.stream()
-                            .map(comment -> commentSchema.primaryKey(Map.of(
-                                    "ideaId", comment.getIdeaId(),
-                                    "projectId", projectId,
-                                    "commentId", comment.getCommentId())))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+        deleteFutures.add(dynamoUtil.batchDeleteAsync(commentSchema.tableName(), StreamSupport.stream(commentByProjectIdSchema.index().query(new QuerySpec()
+                                .withHashKey(commentByProjectIdSchema.partitionKey(Map.of(
+                                        "projectId", projectId)))
+                                .withRangeKeyCondition(new RangeKeyCondition(commentByProjectIdSchema.rangeKeyName())
+                                        .beginsWith(commentByProjectIdSchema.rangeValuePartial(Map.of()))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(commentByProjectIdSchema::fromItem)
+                .filter(comment -> projectId.equals(comment.getProjectId()))
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(comment -> commentSchema.primaryKey(Map.of(
+                        "ideaId", comment.getIdeaId(),
+                        "projectId", projectId,
+                        "commentId", comment.getCommentId())))
+                .collect(ImmutableList.toImmutableList())));
 
         // Delete idea index
         SettableFuture<AcknowledgedResponse> deleteFuture = SettableFuture.create();
-        elastic.indices().deleteAsync(new DeleteIndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId)),
-                RequestOptions.DEFAULT, ActionListeners.fromFuture(deleteFuture));
+        elasticUtil.deleteIndexAsync(COMMENT_INDEX, projectId, ActionListeners.fromFuture(deleteFuture));
 
-        return deleteFuture;
+        return Futures.transformAsync(Futures.allAsList(deleteFutures), v -> deleteFuture, MoreExecutors.directExecutor());
     }
 
 
     private void indexComment(SettableFuture<WriteResponse> indexingFuture, String projectId, String ideaId, String commentId) {
         Optional<CommentModel> commentOpt = getComment(projectId, ideaId, commentId);
         if (!commentOpt.isPresent()) {
-            elastic.deleteAsync(new DeleteRequest(elasticUtil.getIndexName(COMMENT_INDEX, projectId), commentId),
+            elastic.deleteAsync(elasticUtil.deleteRequest(COMMENT_INDEX, projectId, commentId),
                     RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
         } else {
             indexComment(indexingFuture, commentOpt.get());
@@ -744,10 +733,10 @@ public class DynamoElasticCommentStore implements CommentStore {
     }
 
     private void indexComment(SettableFuture<WriteResponse> indexingFuture, CommentModel comment) {
-        elastic.indexAsync(new IndexRequest(elasticUtil.getIndexName(COMMENT_INDEX, comment.getProjectId()))
+        elastic.indexAsync(elasticUtil.indexRequest(COMMENT_INDEX, comment.getProjectId(), comment.getCommentId())
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
-                        .id(comment.getCommentId())
                         .source(gson.toJson(ImmutableMap.builder()
+                                .put(ElasticUtil.PROJECT_ID_FIELD, comment.getProjectId())
                                 .put("ideaId", comment.getIdeaId())
                                 .put("parentCommentIds", comment.getParentCommentIds())
                                 .put("level", comment.getLevel())
@@ -4,7 +4,7 @@ package com.smotana.clearflask.store.impl;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.document.AttributeUpdate;
-import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
@@ -14,9 +14,24 @@ import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
 import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionCheck;
 import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.Delete;
+import com.amazonaws.services.dynamodbv2.model.Get;
+import com.amazonaws.services.dynamodbv2.model.ItemResponse;
 import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.TransactGetItem;
+import com.amazonaws.services.dynamodbv2.model.TransactGetItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.TransactionConflictException;
+import com.amazonaws.services.dynamodbv2.model.Update;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -26,14 +41,18 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 import com.kik.config.ice.ConfigSystem;
@@ -46,6 +65,9 @@ import com.smotana.clearflask.api.model.IdeaSearch;
 import com.smotana.clearflask.api.model.IdeaSearchAdmin;
 import com.smotana.clearflask.api.model.IdeaUpdate;
 import com.smotana.clearflask.api.model.IdeaUpdateAdmin;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.core.trace.Tracer;
 import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.UserStore.UserModel;
@@ -59,6 +81,7 @@ import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.ExpressionBuilder
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.IndexSchema;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableSchema;
 import com.smotana.clearflask.store.elastic.ActionListeners;
+import com.smotana.clearflask.store.elastic.ElasticIndexingBatcher;
 import com.smotana.clearflask.store.elastic.ElasticScript;
 import com.smotana.clearflask.util.ElasticUtil;
 import com.smotana.clearflask.util.ElasticUtil.ConfigSearch;
@@ -66,6 +89,7 @@ import com.smotana.clearflask.util.ExpDecayScore;
 import com.smotana.clearflask.util.ExplicitNull;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.IdUtil;
+import com.smotana.clearflask.util.WriteRateEstimator;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.security.Sanitizer;
 import lombok.Value;
@@ -103,21 +127,29 @@ import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.LongStream;
 import java.util.stream.StreamSupport;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -126,7 +158,7 @@ import static com.smotana.clearflask.util.ExplicitNull.orNull;
 
 @Slf4j
 @Singleton
-public class DynamoElasticIdeaStore implements IdeaStore {
+public class DynamoElasticIdeaStore extends ManagedService implements IdeaStore {
 
     public interface Config {
         /**
@@ -140,6 +172,52 @@ public class DynamoElasticIdeaStore implements IdeaStore {
 
         @DefaultValue("true")
         boolean enableHistograms();
+
+        /**
+         * Writes per second to a single idea, as seen by this node, above which vote, expression and funding
+         * counters are incremented on separate write shards instead of the idea itself.
+         */
+        @DefaultValue("10")
+        double counterShardingWritesPerSecond();
+
+        /**
+         * Target writes per second per shard, shard count grows with write rate.
+         */
+        @DefaultValue("50")
+        double counterShardWritesPerSecond();
+
+        /**
+         * This value can never be decreased.
+         * Cannot exceed 24 as all shards are folded within a single transaction.
+         */
+        @DefaultValue("8")
+        long counterShardCountMax();
+
+        @DefaultValue("PT5S")
+        Duration counterShardFoldInterval();
+
+        /**
+         * Serve idea reads from a node-local cache, which is only filled while enabled. Writes on other nodes,
+         * including vote, expression and comment counts, are not seen until the entry expires, so reads may be up to
+         * {@link #ideaCacheExpireAfterWrite()} stale in a multi-node deployment.
+         */
+        @DefaultValue("false")
+        boolean enableIdeaCacheRead();
+
+        /**
+         * Bounds how stale a cached idea may be, as writes on other nodes are not seen until expiry.
+         */
+        @DefaultValue("PT10S")
+        Duration ideaCacheExpireAfterWrite();
+
+        @DefaultValue("10000")
+        long ideaCacheMaximumSize();
+    }
+
+    @Value
+    private static class IdeaKey {
+        String projectId;
+        String ideaId;
     }
 
     public static final String IDEA_INDEX = "idea";
@@ -149,19 +227,21 @@ public class DynamoElasticIdeaStore implements IdeaStore {
     @Inject
     private Config config;
     @Inject
+    private Metrics metrics;
+    @Inject
     @Named("idea")
     private ConfigSearch configSearch;
     @Inject
     private AmazonDynamoDB dynamo;
     @Inject
-    private DynamoDB dynamoDoc;
-    @Inject
     private DynamoMapper dynamoMapper;
     @Inject
     private DynamoUtil dynamoUtil;
     @Inject
     private RestHighLevelClient elastic;
     @Inject
+    private ElasticIndexingBatcher elasticIndexingBatcher;
+    @Inject
     private ElasticUtil elasticUtil;
     @Inject
     private Gson gson;
@@ -174,16 +254,50 @@ public class DynamoElasticIdeaStore implements IdeaStore {
 
     private TableSchema<IdeaModel> ideaSchema;
     private IndexSchema<IdeaModel> ideaByProjectIdSchema;
+    private TableSchema<IdeaCounterShard> ideaCounterShardSchema;
     private ExpDecayScore expDecayScoreWeek;
+    private final WriteRateEstimator ideaWriteRate = new WriteRateEstimator(Duration.ofSeconds(5), 10_000L);
+    private final Set<IdeaKey> ideasWithCounterShards = Sets.newConcurrentHashSet();
+    /** Shard count this node last marked each idea with, re-marked after a fold interval in case it was cleared */
+    private Cache<IdeaKey, Long> counterShardsMarked;
+    private ScheduledExecutorService counterShardFoldExecutor;
+    private Cache<IdeaKey, Optional<IdeaModel>> ideaCache;
 
     @Inject
     private void setup() {
         ideaSchema = dynamoMapper.parseTableSchema(IdeaModel.class);
         ideaByProjectIdSchema = dynamoMapper.parseGlobalSecondaryIndexSchema(2, IdeaModel.class);
+        ideaCounterShardSchema = dynamoMapper.parseTableSchema(IdeaCounterShard.class);
+        ideaCache = metrics.monitorCache("DynamoElasticIdeaStore-idea", CacheBuilder.newBuilder()
+                .expireAfterWrite(config.ideaCacheExpireAfterWrite())
+                .maximumSize(config.ideaCacheMaximumSize())
+                .recordStats()
+                .build());
+        counterShardsMarked = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.counterShardFoldInterval())
+                .maximumSize(10_000L)
+                .build();
 
         expDecayScoreWeek = new ExpDecayScore(EXP_DECAY_PERIOD_MILLIS);
     }
 
+    @Override
+    protected void serviceStart() throws Exception {
+        counterShardFoldExecutor = metrics.monitorExecutor("DynamoElasticIdeaStore-counter-fold", new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("DynamoElasticIdeaStore-counter-fold-%d").build()));
+        long foldIntervalMillis = config.counterShardFoldInterval().toMillis();
+        counterShardFoldExecutor.scheduleWithFixedDelay(this::foldAllCounterShards, foldIntervalMillis, foldIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        if (counterShardFoldExecutor != null) {
+            counterShardFoldExecutor.shutdownNow();
+            counterShardFoldExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        foldAllCounterShards();
+    }
+
     @Extern
     @Override
     public Optional<GitHubIssueMetadata> extractGitHubIssueFromIdeaId(String ideaId) {
@@ -201,7 +315,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
     @Override
     public ListenableFuture<CreateIndexResponse> createIndex(String projectId) {
         SettableFuture<CreateIndexResponse> indexingFuture = SettableFuture.create();
-        elastic.indices().createAsync(new CreateIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)).mapping(gson.toJson(ImmutableMap.of(
+        elasticUtil.createIndexAsync(IDEA_INDEX, projectId, new CreateIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)).mapping(gson.toJson(ImmutableMap.of(
                         "dynamic", "false",
                         "properties", ImmutableMap.builder()
                                 .put("authorUserId", ImmutableMap.of(
@@ -262,7 +376,6 @@ public class DynamoElasticIdeaStore implements IdeaStore {
                                 .put("order", ImmutableMap.of(
                                         "type", "double"))
                                 .build())), XContentType.JSON),
-                RequestOptions.DEFAULT,
                 ActionListeners.fromFuture(indexingFuture));
         return indexingFuture;
     }
@@ -296,6 +409,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
         } catch (ConditionalCheckFailedException ex) {
             throw new ApiException(Response.Status.CONFLICT, "Similar title already exists, please choose another.", ex);
         }
+        cacheIdeaWrite(idea);
 
         SettableFuture<IndexResponse> indexingFuture = SettableFuture.create();
         elastic.indexAsync(
@@ -307,9 +421,9 @@ public class DynamoElasticIdeaStore implements IdeaStore {
     }
 
     private IndexRequest ideaToEsIndexRequest(IdeaModel idea, boolean setRefreshPolicy) {
-        IndexRequest req = new IndexRequest(elasticUtil.getIndexName(IDEA_INDEX, idea.getProjectId()))
-                .id(idea.getIdeaId())
+        IndexRequest req = elasticUtil.indexRequest(IDEA_INDEX, idea.getProjectId(), idea.getIdeaId())
                 .source(gson.toJson(ImmutableMap.builder()
+                        .put(ElasticUtil.PROJECT_ID_FIELD, idea.getProjectId())
                         .put("authorUserId", idea.getAuthorUserId())
                         .put("authorName", orNull(idea.getAuthorName()))
                         .put("authorIsMod", orNull(idea.getAuthorIsMod()))
@@ -348,48 +462,112 @@ public class DynamoElasticIdeaStore implements IdeaStore {
 
     @Override
     public ListenableFuture<List<BulkResponse>> createIdeas(Iterable<IdeaModel> ideas) {
-        ArrayList<ListenableFuture<BulkResponse>> indexingFutures = Lists.newArrayList();
-        Iterables.partition(ideas, DYNAMO_WRITE_BATCH_MAX_SIZE).forEach(ideasBatch -> {
-            dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(ideaSchema.tableName())
-                    .withItemsToPut(ideasBatch.stream()
-                            .map(ideaSchema::toItem)
-                            .collect(ImmutableList.toImmutableList()))));
-
-            SettableFuture<BulkResponse> indexingFuture = SettableFuture.create();
-            indexingFutures.add(indexingFuture);
-            elastic.bulkAsync(new BulkRequest()
-                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
-                            .add(ideasBatch.stream()
-                                    .map(idea -> ideaToEsIndexRequest(idea, false))
-                                    .collect(ImmutableList.toImmutableList())),
-                    RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
-        });
-        return Futures.allAsList(indexingFutures);
+        List<BulkResponse> bulkResponses = Collections.synchronizedList(Lists.newArrayList());
+        ListenableFuture<Void> future = dynamoUtil.pipelineAsync(Iterables.partition(ideas, DYNAMO_WRITE_BATCH_MAX_SIZE).iterator(), ideasBatch -> Futures.transformAsync(
+                dynamoUtil.batchWriteAsync(new TableWriteItems(ideaSchema.tableName())
+                        .withItemsToPut(ideasBatch.stream()
+                                .map(ideaSchema::toItem)
+                                .collect(ImmutableList.toImmutableList()))),
+                v -> {
+                    ideasBatch.forEach(this::cacheIdeaWrite);
+                    SettableFuture<BulkResponse> indexingFuture = SettableFuture.create();
+                    elastic.bulkAsync(new BulkRequest()
+                                    .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                                    .add(ideasBatch.stream()
+                                            .map(idea -> ideaToEsIndexRequest(idea, false))
+                                            .collect(ImmutableList.toImmutableList())),
+                            RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
+                    return Futures.transform(indexingFuture, bulkResponses::add, MoreExecutors.directExecutor());
+                },
+                MoreExecutors.directExecutor()));
+        return Futures.transform(future, v -> ImmutableList.copyOf(bulkResponses), MoreExecutors.directExecutor());
     }
 
     @Extern
     @Override
     public Optional<IdeaModel> getIdea(String projectId, String ideaId) {
-        return Optional.ofNullable(ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
-                .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                        "projectId", projectId,
-                        "ideaId", ideaId))))));
+        IdeaKey ideaKey = new IdeaKey(projectId, ideaId);
+        if (config.enableIdeaCacheRead()) {
+            final Optional<IdeaModel> ideaCachedOpt = ideaCache.getIfPresent(ideaKey);
+            //noinspection OptionalAssignedToNull
+            if (ideaCachedOpt != null) {
+                return ideaCachedOpt;
+            }
+        }
+        Optional<IdeaModel> ideaOpt = Optional.ofNullable(ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
+                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                                "projectId", projectId,
+                                "ideaId", ideaId))))))
+                .flatMap(this::applyPendingCounterShards);
+        ideaOpt.ifPresent(idea -> cacheIdeaRead(ideaKey, idea));
+        return ideaOpt;
     }
 
     @Override
     public ImmutableMap<String, IdeaModel> getIdeas(String projectId, ImmutableCollection<String> ideaIds) {
+        return Tracer.trace("IdeaStore.getIdeas", () -> doGetIdeas(projectId, ideaIds));
+    }
+
+    private ImmutableMap<String, IdeaModel> doGetIdeas(String projectId, ImmutableCollection<String> ideaIds) {
         if (ideaIds.isEmpty()) {
             return ImmutableMap.of();
         }
-        return dynamoUtil.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(ideaSchema.tableName()).withPrimaryKeys(ideaIds.stream()
-                        .map(ideaId -> ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .toArray(PrimaryKey[]::new))))
-                .map(ideaSchema::fromItem)
-                .collect(ImmutableMap.toImmutableMap(
-                        IdeaModel::getIdeaId,
-                        i -> i));
+        Map<String, IdeaModel> ideas = Maps.newHashMap();
+        Set<String> ideaIdsToFetch = Sets.newHashSet();
+        for (String ideaId : ideaIds) {
+            //noinspection OptionalAssignedToNull
+            Optional<IdeaModel> ideaCachedOpt = config.enableIdeaCacheRead() ? ideaCache.getIfPresent(new IdeaKey(projectId, ideaId)) : null;
+            //noinspection OptionalAssignedToNull
+            if (ideaCachedOpt == null) {
+                ideaIdsToFetch.add(ideaId);
+            } else {
+                ideaCachedOpt.ifPresent(idea -> ideas.put(ideaId, idea));
+            }
+        }
+        if (!ideaIdsToFetch.isEmpty()) {
+            dynamoUtil.batchGet(new TableKeysAndAttributes(ideaSchema.tableName()).withPrimaryKeys(ideaIdsToFetch.stream()
+                            .map(ideaId -> ideaSchema.primaryKey(Map.of(
+                                    "projectId", projectId,
+                                    "ideaId", ideaId)))
+                            .toArray(PrimaryKey[]::new)))
+                    .map(ideaSchema::fromItem)
+                    .map(this::applyPendingCounterShards)
+                    .flatMap(Optional::stream)
+                    .forEach(idea -> ideas.put(idea.getIdeaId(), idea));
+            ideaIdsToFetch.stream()
+                    .filter(ideas::containsKey)
+                    .forEach(ideaId -> cacheIdeaRead(new IdeaKey(projectId, ideaId), ideas.get(ideaId)));
+        }
+        return ImmutableMap.copyOf(ideas);
+    }
+
+    /**
+     * Caches an idea that was read without overwriting an entry put by a concurrent write, which is at least as
+     * recent. Ideas not found are not cached as they may be created on another node at any time.
+     */
+    private void cacheIdeaRead(IdeaKey ideaKey, IdeaModel idea) {
+        if (!config.enableIdeaCacheRead()) {
+            return;
+        }
+        ideaCache.asMap().putIfAbsent(ideaKey, Optional.of(idea));
+    }
+
+    /**
+     * Caches an idea as written by this node. While reads are not served from the cache, only drops any entry left
+     * from when they were, so it is not stale once they are again.
+     */
+    private void cacheIdeaWrite(IdeaModel idea) {
+        IdeaKey ideaKey = new IdeaKey(idea.getProjectId(), idea.getIdeaId());
+        if (config.enableIdeaCacheRead()) {
+            ideaCache.put(ideaKey, Optional.of(idea));
+        } else {
+            ideaCache.invalidate(ideaKey);
+        }
+    }
+
+    @Extern
+    public CacheStats getIdeaCacheStats() {
+        return ideaCache.stats();
     }
 
     @Override
@@ -405,10 +583,9 @@ public class DynamoElasticIdeaStore implements IdeaStore {
         ImmutableMap.Builder<Object, Object> updates = ImmutableMap.builder();
         updates.put("mergedToPostId", orNull(connectResponse.getIdea().getMergedToPostId()));
         SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-        elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId)
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(IDEA_INDEX, projectId, ideaId)
                         .doc(gson.toJson(updates.build()), XContentType.JSON)
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                RequestOptions.DEFAULT,
                 ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId)));
 
         return new MergeResponse(connectResponse.idea, connectResponse.parentIdea, indexingFuture);
@@ -645,6 +822,8 @@ public class DynamoElasticIdeaStore implements IdeaStore {
                         .withValueMap(parentIdeaExpression.valMap().orElse(null))
                         .withReturnValues(ReturnValue.ALL_NEW))
                 .getItem());
+        cacheIdeaWrite(idea);
+        cacheIdeaWrite(parentIdea);
 
         return new ConnectResponse(idea, parentIdea);
     }
@@ -661,6 +840,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
             return new HistogramResponse(ImmutableList.of(), new Hits(0L, null));
         }
         QueryBuilder query = searchIdeasQuery(
+                projectId,
                 new IdeaSearchAdmin(
                         null,
                         ideaSearchAdmin.getFilterCategoryIds(),
@@ -682,7 +862,8 @@ public class DynamoElasticIdeaStore implements IdeaStore {
 
 
         return elasticUtil.histogram(
-                elasticUtil.getIndexName(IDEA_INDEX, projectId),
+                IDEA_INDEX,
+                projectId,
                 "created",
                 Optional.ofNullable(ideaSearchAdmin.getFilterCreatedStart()),
                 Optional.ofNullable(ideaSearchAdmin.getFilterCreatedEnd()),
@@ -692,7 +873,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
 
     @Override
     public SearchResponse searchIdeas(String projectId, IdeaSearch ideaSearch, Optional<String> requestorUserIdOpt, Optional<String> cursorOpt) {
-        return searchIdeas(
+        return Tracer.trace("IdeaStore.searchIdeas", () -> searchIdeas(
                 projectId,
                 new IdeaSearchAdmin(
                         ideaSearch.getSortBy() == null ? null : IdeaSearchAdmin.SortByEnum.valueOf(ideaSearch.getSortBy().name()),
@@ -713,15 +894,16 @@ public class DynamoElasticIdeaStore implements IdeaStore {
                         null),
                 requestorUserIdOpt,
                 false,
-                cursorOpt);
+                cursorOpt));
     }
 
     @Override
     public SearchResponse searchIdeas(String projectId, IdeaSearchAdmin ideaSearchAdmin, boolean useAccurateCursor, Optional<String> cursorOpt) {
-        return searchIdeas(projectId, ideaSearchAdmin, Optional.empty(), useAccurateCursor, cursorOpt);
+        return Tracer.trace("IdeaStore.searchIdeasAdmin", () -> searchIdeas(projectId, ideaSearchAdmin, Optional.empty(), useAccurateCursor, cursorOpt));
     }
 
     private QueryBuilder searchIdeasQuery(
+            String projectId,
             IdeaSearchAdmin ideaSearchAdmin,
             Optional<String> requestorUserIdOpt) {
         BoolQueryBuilder query = QueryBuilders.boolQuery();
@@ -741,7 +923,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
             query.must(QueryBuilders.moreLikeThisQuery(
                             new String[]{"title", "description"},
                             null,
-                            new Item[]{new Item(null, ideaSearchAdmin.getSimilarToIdeaId())})
+                            new Item[]{elasticUtil.moreLikeThisItem(IDEA_INDEX, projectId, ideaSearchAdmin.getSimilarToIdeaId())})
                     .minTermFreq(1)
                     .minDocFreq(1)
                     .maxQueryTerms(10));
@@ -828,7 +1010,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
                     false);
         }
 
-        QueryBuilder query = searchIdeasQuery(ideaSearchAdmin, requestorUserIdOpt);
+        QueryBuilder query = searchIdeasQuery(projectId, ideaSearchAdmin, requestorUserIdOpt);
 
         Optional<SortOrder> sortOrderOpt;
         ImmutableList<String> sortFields;
@@ -871,7 +1053,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
 
         log.trace("Idea search query: {}", query);
         ElasticUtil.SearchResponseWithCursor searchResponseWithCursor = elasticUtil.searchWithCursor(
-                new SearchRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)).source(new SearchSourceBuilder()
+                elasticUtil.searchRequest(IDEA_INDEX, projectId, new SearchSourceBuilder()
                         .fetchSource(false)
                         .query(query)),
                 cursorOpt, sortFields, sortOrderOpt, useAccurateCursor, Optional.ofNullable(ideaSearchAdmin.getLimit()).map(Long::intValue), configSearch, ImmutableSet.of());
@@ -887,7 +1069,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
         }
 
         ImmutableList<String> ideaIds = Arrays.stream(hits)
-                .map(SearchHit::getId)
+                .map(hit -> elasticUtil.parseDocId(projectId, hit.getId()))
                 .collect(ImmutableList.toImmutableList());
 
         return new SearchResponse(
@@ -901,16 +1083,15 @@ public class DynamoElasticIdeaStore implements IdeaStore {
     public IdeaAggregateResponse countIdeas(String projectId, String categoryId) {
         org.elasticsearch.action.search.SearchResponse response;
         try {
-            response = elastic.search(new SearchRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId))
-                    .source(new SearchSourceBuilder()
-                            .fetchSource(false)
-                            .query(QueryBuilders.termQuery("categoryId", categoryId))
-                            .aggregation(AggregationBuilders
-                                    .terms("statuses")
-                                    .field("statusId"))
-                            .aggregation(AggregationBuilders
-                                    .terms("tags")
-                                    .field("tagIds"))), RequestOptions.DEFAULT);
+            response = elastic.search(elasticUtil.searchRequest(IDEA_INDEX, projectId, new SearchSourceBuilder()
+                        .fetchSource(false)
+                        .query(QueryBuilders.termQuery("categoryId", categoryId))
+                        .aggregation(AggregationBuilders
+                                .terms("statuses")
+                                .field("statusId"))
+                        .aggregation(AggregationBuilders
+                                .terms("tags")
+                                .field("tagIds"))), RequestOptions.DEFAULT);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
@@ -1036,13 +1217,13 @@ public class DynamoElasticIdeaStore implements IdeaStore {
         }
 
         IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(updateItemSpec).getItem());
+        cacheIdeaWrite(idea);
 
         if (!indexUpdates.isEmpty()) {
             SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-            elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
+            elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(IDEA_INDEX, projectId, idea.getIdeaId())
                             .doc(gson.toJson(indexUpdates), XContentType.JSON)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
                     ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId)));
             return new IdeaAndIndexingFuture(idea, indexingFuture);
         } else {
@@ -1052,59 +1233,77 @@ public class DynamoElasticIdeaStore implements IdeaStore {
 
     @Override
     public IdeaAndIndexingFuture voteIdea(String projectId, String ideaId, String userId, VoteValue vote) {
+        return Tracer.trace("IdeaStore.voteIdea", () -> doVoteIdea(projectId, ideaId, userId, vote));
+    }
+
+    private IdeaAndIndexingFuture doVoteIdea(String projectId, String ideaId, String userId, VoteValue vote) {
         VoteValue votePrev = voteStore.vote(projectId, userId, ideaId, vote);
         if (vote == votePrev) {
             return new IdeaAndIndexingFuture(getIdea(projectId, ideaId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "Idea not found")), Futures.immediateFuture(null));
         }
 
-        HashMap<String, String> nameMap = Maps.newHashMap();
-        HashMap<String, Object> valMap = Maps.newHashMap();
-        valMap.put(":zero", 0);
-        List<String> setUpdates = Lists.newArrayList();
-
         int voteDiff = vote.getValue() - votePrev.getValue();
-        if (voteDiff != 0) {
-            nameMap.put("#voteValue", "voteValue");
-            valMap.put(":voteDiff", voteDiff);
-            setUpdates.add("#voteValue = if_not_exists(#voteValue, :zero) + :voteDiff");
-        }
-
         int votersCountDiff = Math.abs(vote.getValue()) - Math.abs((votePrev.getValue()));
-        if (votersCountDiff != 0) {
-            nameMap.put("#votersCount", "votersCount");
-            valMap.put(":votersCountDiff", votersCountDiff);
-            setUpdates.add("#votersCount = if_not_exists(#votersCount, :zero) + :votersCountDiff");
-        }
 
-        String updateExpression = "SET " + String.join(", ", setUpdates);
-        log.trace("VoteIdea expression: {}", updateExpression);
+        Optional<IdeaModel> ideaShardedOpt = incrementCounterShardIfHot(counterIncrements(projectId, ideaId)
+                .voteValue(voteDiff)
+                .votersCount(votersCountDiff)
+                .build());
+        IdeaModel idea;
+        if (ideaShardedOpt.isPresent()) {
+            idea = ideaShardedOpt.get();
+        } else {
+            HashMap<String, String> nameMap = Maps.newHashMap();
+            HashMap<String, Object> valMap = Maps.newHashMap();
+            valMap.put(":zero", 0);
+            List<String> setUpdates = Lists.newArrayList();
+
+            if (voteDiff != 0) {
+                nameMap.put("#voteValue", "voteValue");
+                valMap.put(":voteDiff", voteDiff);
+                setUpdates.add("#voteValue = if_not_exists(#voteValue, :zero) + :voteDiff");
+            }
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .withReturnValues(ReturnValue.ALL_NEW)
-                        .withNameMap(nameMap)
-                        .withValueMap(valMap)
-                        .withUpdateExpression(updateExpression))
-                .getItem());
+            if (votersCountDiff != 0) {
+                nameMap.put("#votersCount", "votersCount");
+                valMap.put(":votersCountDiff", votersCountDiff);
+                setUpdates.add("#votersCount = if_not_exists(#votersCount, :zero) + :votersCountDiff");
+            }
+
+            String updateExpression = "SET " + String.join(", ", setUpdates);
+            log.trace("VoteIdea expression: {}", updateExpression);
+
+            idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+                            .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                                    "projectId", projectId,
+                                    "ideaId", ideaId)))
+                            .withReturnValues(ReturnValue.ALL_NEW)
+                            .withNameMap(nameMap)
+                            .withValueMap(valMap)
+                            .withUpdateExpression(updateExpression))
+                    .getItem());
+            cacheIdeaWrite(idea);
+        }
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userVoteUpdateBloom(projectId, userId, ideaId);
         }
 
+        // Sharded counters are indexed when folded, only trend is updated per vote
         boolean updateTrend = false;
         Map<String, Object> indexUpdates = Maps.newHashMap();
         if (voteDiff != 0) {
             updateTrend = true;
-            indexUpdates.put("voteValue", orNull(idea.getVoteValue()));
+            if (!ideaShardedOpt.isPresent()) {
+                indexUpdates.put("voteValue", orNull(idea.getVoteValue()));
+            }
         }
-        if (votersCountDiff != 0) {
+        if (votersCountDiff != 0 && !ideaShardedOpt.isPresent()) {
             indexUpdates.put("votersCount", orNull(idea.getVotersCount()));
         }
         if (!indexUpdates.isEmpty() || updateTrend) {
             SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-            UpdateRequest updateRequest = new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId());
+            UpdateRequest updateRequest = elasticUtil.updateRequest(IDEA_INDEX, projectId, idea.getIdeaId());
             if (updateTrend) {
                 updateRequest.script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
                         "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
@@ -1113,8 +1312,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
             } else {
                 updateRequest.doc(gson.toJson(indexUpdates), XContentType.JSON);
             }
-            elastic.updateAsync(updateRequest.setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
+            elasticIndexingBatcher.updateAsync(updateRequest.setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
                     ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, userId)));
             return new IdeaAndIndexingFuture(idea, indexingFuture);
         } else {
@@ -1134,66 +1332,84 @@ public class DynamoElasticIdeaStore implements IdeaStore {
         SetView<String> expressionsAdded = Sets.difference(expressions, expressionsPrev);
         SetView<String> expressionsRemoved = Sets.difference(expressionsPrev, expressions);
 
-        HashMap<String, String> nameMap = Maps.newHashMap();
-        HashMap<String, Object> valMap = Maps.newHashMap();
-        valMap.put(":one", 1);
-        valMap.put(":zero", 0);
-
         double expressionsValueDiff = 0;
-        List<String> setUpdates = Lists.newArrayList();
-
-        int expressionAddedCounter = 0;
+        ImmutableMap.Builder<String, Long> expressionIncrementsBuilder = ImmutableMap.builder();
         for (String expressionAdded : expressionsAdded) {
-            String nameValue = "#exprAdd" + expressionAddedCounter++;
-            nameMap.put(nameValue, expressionAdded);
-            setUpdates.add("expressions." + nameValue + " = if_not_exists(expressions." + nameValue + ", :zero) + :one");
+            expressionIncrementsBuilder.put(expressionAdded, 1L);
             expressionsValueDiff += expressionToWeightMapper.apply(expressionAdded);
         }
-
-        int expressionRemovedCounter = 0;
         for (String expressionRemoved : expressionsRemoved) {
-            String nameValue = "#exprRem" + expressionRemovedCounter++;
-            nameMap.put(nameValue, expressionRemoved);
-            setUpdates.add("expressions." + nameValue + " = if_not_exists(expressions." + nameValue + ", :zero) - :one");
+            expressionIncrementsBuilder.put(expressionRemoved, -1L);
             expressionsValueDiff -= expressionToWeightMapper.apply(expressionRemoved);
         }
 
-        if (expressionsValueDiff != 0d) {
-            nameMap.put("#expressionsValue", "expressionsValue");
-            valMap.put(":expValDiff", Math.abs(expressionsValueDiff));
-            setUpdates.add("#expressionsValue = if_not_exists(#expressionsValue, :zero) " + (expressionsValueDiff > 0 ? "+" : "-") + " :expValDiff");
-        }
+        Optional<IdeaModel> ideaShardedOpt = incrementCounterShardIfHot(counterIncrements(projectId, ideaId)
+                .expressionsValue(expressionsValueDiff)
+                .expressions(expressionIncrementsBuilder.build())
+                .build());
+        IdeaModel idea;
+        if (ideaShardedOpt.isPresent()) {
+            idea = ideaShardedOpt.get();
+        } else {
+            HashMap<String, String> nameMap = Maps.newHashMap();
+            HashMap<String, Object> valMap = Maps.newHashMap();
+            valMap.put(":one", 1);
+            valMap.put(":zero", 0);
+            List<String> setUpdates = Lists.newArrayList();
+
+            int expressionAddedCounter = 0;
+            for (String expressionAdded : expressionsAdded) {
+                String nameValue = "#exprAdd" + expressionAddedCounter++;
+                nameMap.put(nameValue, expressionAdded);
+                setUpdates.add("expressions." + nameValue + " = if_not_exists(expressions." + nameValue + ", :zero) + :one");
+            }
 
-        String updateExpression = "SET " + String.join(", ", setUpdates);
-        log.trace("ExpressIdeaSet expression: {}", updateExpression);
+            int expressionRemovedCounter = 0;
+            for (String expressionRemoved : expressionsRemoved) {
+                String nameValue = "#exprRem" + expressionRemovedCounter++;
+                nameMap.put(nameValue, expressionRemoved);
+                setUpdates.add("expressions." + nameValue + " = if_not_exists(expressions." + nameValue + ", :zero) - :one");
+            }
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .withReturnValues(ReturnValue.ALL_NEW)
-                        .withNameMap(nameMap)
-                        .withValueMap(valMap)
-                        .withUpdateExpression(updateExpression))
-                .getItem());
+            if (expressionsValueDiff != 0d) {
+                nameMap.put("#expressionsValue", "expressionsValue");
+                valMap.put(":expValDiff", Math.abs(expressionsValueDiff));
+                setUpdates.add("#expressionsValue = if_not_exists(#expressionsValue, :zero) " + (expressionsValueDiff > 0 ? "+" : "-") + " :expValDiff");
+            }
+
+            String updateExpression = "SET " + String.join(", ", setUpdates);
+            log.trace("ExpressIdeaSet expression: {}", updateExpression);
+
+            idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+                            .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                                    "projectId", projectId,
+                                    "ideaId", ideaId)))
+                            .withReturnValues(ReturnValue.ALL_NEW)
+                            .withNameMap(nameMap)
+                            .withValueMap(valMap)
+                            .withUpdateExpression(updateExpression))
+                    .getItem());
+            cacheIdeaWrite(idea);
+        }
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
 
         Map<String, Object> indexUpdates = Maps.newHashMap();
-        indexUpdates.put("expressions", idea.getExpressions().keySet());
-        if (expressionsValueDiff != 0d) {
-            indexUpdates.put("expressionsValue", idea.getExpressionsValue());
+        if (!ideaShardedOpt.isPresent()) {
+            indexUpdates.put("expressions", idea.getExpressions().keySet());
+            if (expressionsValueDiff != 0d) {
+                indexUpdates.put("expressionsValue", idea.getExpressionsValue());
+            }
         }
         SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-        elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(IDEA_INDEX, projectId, idea.getIdeaId())
                         .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
                                 "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
                                 "timeInMillis", System.currentTimeMillis(),
                                 "extraUpdates", indexUpdates)))
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                RequestOptions.DEFAULT,
                 ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, userId)));
         return new IdeaAndExpressionsAndIndexingFuture(expressions, idea, indexingFuture);
     }
@@ -1207,7 +1423,11 @@ public class DynamoElasticIdeaStore implements IdeaStore {
         }
 
         double expressionValueDiff = expressionToWeightMapper.apply(expression);
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+        Optional<IdeaModel> ideaShardedOpt = incrementCounterShardIfHot(counterIncrements(projectId, ideaId)
+                .expressionsValue(expressionValueDiff)
+                .expressions(ImmutableMap.of(expression, 1L))
+                .build());
+        IdeaModel idea = ideaShardedOpt.isPresent() ? ideaShardedOpt.get() : ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
@@ -1216,22 +1436,26 @@ public class DynamoElasticIdeaStore implements IdeaStore {
                         .withValueMap(Map.of(":val", Math.abs(expressionValueDiff), ":one", 1, ":zero", 0))
                         .withUpdateExpression("SET expressions.#exprAdd = if_not_exists(expressions.#exprAdd, :zero) + :one, expressionsValue = if_not_exists(expressionsValue, :zero) " + (expressionValueDiff > 0 ? "+" : "-") + " :val"))
                 .getItem());
+        if (!ideaShardedOpt.isPresent()) {
+            cacheIdeaWrite(idea);
+        }
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
 
         Map<String, Object> indexUpdates = Maps.newHashMap();
-        indexUpdates.put("expressions", idea.getExpressions().keySet());
-        indexUpdates.put("expressionsValue", idea.getExpressionsValue());
+        if (!ideaShardedOpt.isPresent()) {
+            indexUpdates.put("expressions", idea.getExpressions().keySet());
+            indexUpdates.put("expressionsValue", idea.getExpressionsValue());
+        }
         SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-        elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(IDEA_INDEX, projectId, idea.getIdeaId())
                         .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
                                 "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
                                 "timeInMillis", System.currentTimeMillis(),
                                 "extraUpdates", indexUpdates)))
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                RequestOptions.DEFAULT,
                 ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, userId)));
         return new IdeaAndExpressionsAndIndexingFuture(
                 ImmutableSet.<String>builder()
@@ -1250,7 +1474,11 @@ public class DynamoElasticIdeaStore implements IdeaStore {
         }
 
         double expressionValueDiff = -expressionToWeightMapper.apply(expression);
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+        Optional<IdeaModel> ideaShardedOpt = incrementCounterShardIfHot(counterIncrements(projectId, ideaId)
+                .expressionsValue(expressionValueDiff)
+                .expressions(ImmutableMap.of(expression, -1L))
+                .build());
+        IdeaModel idea = ideaShardedOpt.isPresent() ? ideaShardedOpt.get() : ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
                         .withPrimaryKey(ideaSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "ideaId", ideaId)))
@@ -1259,22 +1487,26 @@ public class DynamoElasticIdeaStore implements IdeaStore {
                         .withValueMap(Map.of(":val", Math.abs(expressionValueDiff), ":one", 1, ":zero", 0))
                         .withUpdateExpression("SET expressions.#exprRem = if_not_exists(expressions.#exprRem, :zero) - :one, expressionsValue = if_not_exists(expressionsValue, :zero) " + (expressionValueDiff > 0 ? "+" : "-") + " :val"))
                 .getItem());
+        if (!ideaShardedOpt.isPresent()) {
+            cacheIdeaWrite(idea);
+        }
 
         if (!userId.equals(idea.getAuthorUserId())) {
             userStore.userExpressUpdateBloom(projectId, userId, ideaId);
         }
 
         Map<String, Object> indexUpdates = Maps.newHashMap();
-        indexUpdates.put("expressions", idea.getExpressions().keySet());
-        indexUpdates.put("expressionsValue", idea.getExpressionsValue());
+        if (!ideaShardedOpt.isPresent()) {
+            indexUpdates.put("expressions", idea.getExpressions().keySet());
+            indexUpdates.put("expressionsValue", idea.getExpressionsValue());
+        }
         SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-        elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(IDEA_INDEX, projectId, idea.getIdeaId())
                         .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
                                 "decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS,
                                 "timeInMillis", System.currentTimeMillis(),
                                 "extraUpdates", indexUpdates)))
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                RequestOptions.DEFAULT,
                 ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, userId)));
         return new IdeaAndExpressionsAndIndexingFuture(
                 ImmutableSet.copyOf(Sets.difference(expressionsPrev, ImmutableSet.of(expression))),
@@ -1290,60 +1522,74 @@ public class DynamoElasticIdeaStore implements IdeaStore {
         TransactionAndFundPrevious transactionAndFundPrevious = voteStore.fund(projectId, userId, ideaId, fundDiff, transactionType, summary);
         boolean hasFundedBefore = transactionAndFundPrevious.getFundAmountPrevious() > 0L;
         long resultingFundAmount = transactionAndFundPrevious.getFundAmountPrevious() + fundDiff;
-
-        HashMap<String, String> nameMap = Maps.newHashMap();
-        HashMap<String, Object> valMap = Maps.newHashMap();
-        valMap.put(":zero", 0);
-        List<String> setUpdates = Lists.newArrayList();
-
-        nameMap.put("#funded", "funded");
-        valMap.put(":fundDiff", fundDiff);
-        setUpdates.add("#funded = if_not_exists(#funded, :zero) + :fundDiff");
-
+        long fundersCountDiff = 0L;
         if (!hasFundedBefore && resultingFundAmount != 0L) {
-            nameMap.put("#fundersCount", "fundersCount");
-            valMap.put(":one", 1);
-            setUpdates.add("#fundersCount = if_not_exists(#fundersCount, :zero) + :one");
+            fundersCountDiff = 1L;
         } else if (hasFundedBefore && resultingFundAmount == 0L) {
-            nameMap.put("#fundersCount", "fundersCount");
-            valMap.put(":one", 1);
-            setUpdates.add("#fundersCount = if_not_exists(#fundersCount, :zero) - :one");
+            fundersCountDiff = -1L;
         }
 
-        String updateExpression = "SET " + String.join(", ", setUpdates);
-        log.trace("FundIdea expression: {}", updateExpression);
+        Optional<IdeaModel> ideaShardedOpt = incrementCounterShardIfHot(counterIncrements(projectId, ideaId)
+                .funded(fundDiff)
+                .fundersCount(fundersCountDiff)
+                .build());
+        IdeaModel idea;
+        if (ideaShardedOpt.isPresent()) {
+            idea = ideaShardedOpt.get();
+        } else {
+            HashMap<String, String> nameMap = Maps.newHashMap();
+            HashMap<String, Object> valMap = Maps.newHashMap();
+            valMap.put(":zero", 0);
+            List<String> setUpdates = Lists.newArrayList();
+
+            nameMap.put("#funded", "funded");
+            valMap.put(":fundDiff", fundDiff);
+            setUpdates.add("#funded = if_not_exists(#funded, :zero) + :fundDiff");
+
+            if (fundersCountDiff != 0L) {
+                nameMap.put("#fundersCount", "fundersCount");
+                valMap.put(":one", 1);
+                setUpdates.add("#fundersCount = if_not_exists(#fundersCount, :zero) " + (fundersCountDiff > 0 ? "+" : "-") + " :one");
+            }
 
-        IdeaModel idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .withReturnValues(ReturnValue.ALL_NEW)
-                        .withNameMap(nameMap)
-                        .withValueMap(valMap)
-                        .withUpdateExpression(updateExpression))
-                .getItem());
+            String updateExpression = "SET " + String.join(", ", setUpdates);
+            log.trace("FundIdea expression: {}", updateExpression);
+
+            idea = ideaSchema.fromItem(ideaSchema.table().updateItem(new UpdateItemSpec()
+                            .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                                    "projectId", projectId,
+                                    "ideaId", ideaId)))
+                            .withReturnValues(ReturnValue.ALL_NEW)
+                            .withNameMap(nameMap)
+                            .withValueMap(valMap)
+                            .withUpdateExpression(updateExpression))
+                    .getItem());
+            cacheIdeaWrite(idea);
+        }
 
         ImmutableMap.Builder<String, Object> scriptParamsBuilder = ImmutableMap.builder();
         scriptParamsBuilder.put("decayPeriodInMillis", EXP_DECAY_PERIOD_MILLIS);
         scriptParamsBuilder.put("timeInMillis", System.currentTimeMillis());
         Map<String, Object> indexUpdates = Maps.newHashMap();
-        indexUpdates.put("funded", orNull(idea.getFunded()));
-        if (!hasFundedBefore && resultingFundAmount != 0L) {
-            indexUpdates.put("fundersCount", idea.getFundersCount());
+        if (!ideaShardedOpt.isPresent()) {
+            indexUpdates.put("funded", orNull(idea.getFunded()));
+            if (fundersCountDiff != 0L) {
+                indexUpdates.put("fundersCount", idea.getFundersCount());
+            }
+        }
+        if (fundersCountDiff > 0L) {
             scriptParamsBuilder.put("extraArrayAdditions",
                     ImmutableMap.of("funderUserIds", userId));
-        } else if (hasFundedBefore && resultingFundAmount == 0L) {
-            indexUpdates.put("fundersCount", idea.getFundersCount());
+        } else if (fundersCountDiff < 0L) {
             scriptParamsBuilder.put("extraArrayDeletions",
                     ImmutableMap.of("funderUserIds", userId));
         }
         scriptParamsBuilder.put("extraUpdates", indexUpdates);
 
         SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-        elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(IDEA_INDEX, projectId, idea.getIdeaId())
                         .script(ElasticScript.EXP_DECAY.toScript(scriptParamsBuilder.build()))
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                RequestOptions.DEFAULT,
                 ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, userId)));
         return new IdeaTransactionAndIndexingFuture(
                 resultingFundAmount,
@@ -1352,6 +1598,411 @@ public class DynamoElasticIdeaStore implements IdeaStore {
                 indexingFuture);
     }
 
+    /**
+     * Folds pending counter shard increments back into the idea and re-indexes the resulting counters.
+     */
+    @Extern
+    public void foldCounterShards(String projectId, String ideaId) {
+        ImmutableList<IdeaCounterShard> shards = dynamoUtil.batchGet(new TableKeysAndAttributes(ideaCounterShardSchema.tableName())
+                        .withConsistentRead(true)
+                        .withPrimaryKeys(LongStream.range(0, config.counterShardCountMax())
+                                .mapToObj(shardId -> ideaCounterShardSchema.primaryKey(Map.of(
+                                        "projectId", projectId,
+                                        "ideaId", ideaId,
+                                        "shardId", shardId)))
+                                .toArray(PrimaryKey[]::new)))
+                .map(ideaCounterShardSchema::fromItem)
+                .collect(ImmutableList.toImmutableList());
+        ImmutableList<IdeaCounterShard> pendingShards = shards.stream()
+                .filter(shard -> !shard.isEmpty())
+                .collect(ImmutableList.toImmutableList());
+        if (pendingShards.isEmpty()) {
+            clearCounterShards(projectId, ideaId, shards);
+            return;
+        }
+        IdeaCounterShard sum = pendingShards.stream()
+                .reduce(this::sumCounterShards)
+                .get();
+
+        // Subtract exactly what was observed from each shard so concurrent increments are not lost
+        ImmutableList.Builder<TransactWriteItem> transactItemsBuilder = ImmutableList.builder();
+        transactItemsBuilder.add(new TransactWriteItem().withUpdate(toTransactUpdate(
+                ideaSchema.tableName(),
+                ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)),
+                incrementCounters(ideaSchema.expressionBuilder().conditionExists(), sum, 1L).build())));
+        for (IdeaCounterShard shard : pendingShards) {
+            transactItemsBuilder.add(new TransactWriteItem().withUpdate(toTransactUpdate(
+                    ideaCounterShardSchema.tableName(),
+                    ideaCounterShardSchema.primaryKey(shard),
+                    incrementCounters(ideaCounterShardSchema.expressionBuilder(), shard, -1L).build())));
+        }
+        try {
+            dynamo.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(transactItemsBuilder.build()));
+        } catch (TransactionCanceledException ex) {
+            if ("ConditionalCheckFailed".equals(ex.getCancellationReasons().get(0).getCode())) {
+                log.debug("Idea {} in project {} no longer exists, deleting its counter shards", ideaId, projectId);
+                Futures.addCallback(deleteCounterShards(projectId, ideaId), new FutureCallback<Void>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                    }
+
+                    @Override
+                    public void onFailure(Throwable th) {
+                        log.warn("Failed to delete counter shards of idea {} in project {}", ideaId, projectId, th);
+                    }
+                }, MoreExecutors.directExecutor());
+                return;
+            }
+            throw ex;
+        }
+        // Cleared on the next fold unless written to in the meantime
+        ideasWithCounterShards.add(new IdeaKey(projectId, ideaId));
+
+        Optional<IdeaModel> ideaOpt = Optional.ofNullable(ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
+                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                                "projectId", projectId,
+                                "ideaId", ideaId)))
+                        .withConsistentRead(true))))
+                .flatMap(this::applyPendingCounterShards);
+        ideaCache.invalidate(new IdeaKey(projectId, ideaId));
+        if (!ideaOpt.isPresent()) {
+            return;
+        }
+        IdeaModel idea = ideaOpt.get();
+        Map<String, Object> indexUpdates = Maps.newHashMap();
+        indexUpdates.put("voteValue", orNull(idea.getVoteValue()));
+        indexUpdates.put("votersCount", orNull(idea.getVotersCount()));
+        indexUpdates.put("expressionsValue", orNull(idea.getExpressionsValue()));
+        indexUpdates.put("expressions", idea.getExpressions().keySet());
+        indexUpdates.put("funded", orNull(idea.getFunded()));
+        indexUpdates.put("fundersCount", orNull(idea.getFundersCount()));
+        SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(IDEA_INDEX, projectId, ideaId)
+                        .doc(gson.toJson(indexUpdates), XContentType.JSON)
+                        .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
+                ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId)));
+    }
+
+    /**
+     * Folds ideas this node incremented shards of. Shards left behind by other nodes, such as one that crashed before
+     * folding, are discovered through {@link IdeaModel#getCounterShardCount()} the next time the idea is read.
+     */
+    @Extern
+    public void foldAllCounterShards() {
+        for (IdeaKey ideaKey : ImmutableList.copyOf(ideasWithCounterShards)) {
+            ideasWithCounterShards.remove(ideaKey);
+            try {
+                foldCounterShards(ideaKey.getProjectId(), ideaKey.getIdeaId());
+            } catch (Exception ex) {
+                log.warn("Failed to fold counter shards for idea {} in project {}, will retry",
+                        ideaKey.getIdeaId(), ideaKey.getProjectId(), ex);
+                ideasWithCounterShards.add(ideaKey);
+            }
+        }
+    }
+
+    private IdeaCounterShard.IdeaCounterShardBuilder counterIncrements(String projectId, String ideaId) {
+        return IdeaCounterShard.builder()
+                .projectId(projectId)
+                .ideaId(ideaId)
+                .expressions(ImmutableMap.of());
+    }
+
+    /**
+     * If the idea is written to frequently, increments a random counter shard instead of the idea itself.
+     *
+     * @return Idea with increments applied if a shard was incremented, otherwise empty and the caller should update
+     * the idea directly
+     */
+    private Optional<IdeaModel> incrementCounterShardIfHot(IdeaCounterShard increments) {
+        if (increments.isEmpty()) {
+            return Optional.empty();
+        }
+        String projectId = increments.getProjectId();
+        String ideaId = increments.getIdeaId();
+        long shardCount = getCounterShardCount(projectId, ideaId);
+        if (shardCount <= 0L) {
+            return Optional.empty();
+        }
+
+        IdeaKey ideaKey = new IdeaKey(projectId, ideaId);
+        Long shardCountMarked = counterShardsMarked.getIfPresent(ideaKey);
+        if (shardCountMarked == null || shardCountMarked < shardCount) {
+            markCounterShards(projectId, ideaId, shardCount);
+            counterShardsMarked.put(ideaKey, shardCount);
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                incrementCounterShard(increments.toBuilder()
+                        .shardId(ThreadLocalRandom.current().nextLong(shardCount))
+                        .build());
+                break;
+            } catch (TransactionConflictException ex) {
+                // Shard is being folded, try another
+                if (attempt >= 3) {
+                    throw ex;
+                }
+            }
+        }
+        ideasWithCounterShards.add(ideaKey);
+
+        // Plain read without the shards, counters only reflect this increment on top of the last fold
+        IdeaModel idea = Optional.ofNullable(ideaSchema.fromItem(ideaSchema.table().getItem(new GetItemSpec()
+                        .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                                "projectId", projectId,
+                                "ideaId", ideaId))))))
+                .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "Idea not found"));
+        return Optional.of(applyCounterIncrements(idea, increments));
+    }
+
+    /**
+     * Records on the idea itself that shards may hold pending increments, before any shard is incremented, so that
+     * readers on any node know to include them. Driven by this node's write rate alone, the condition keeps it from
+     * lowering a count marked by another node.
+     */
+    private void markCounterShards(String projectId, String ideaId, long shardCount) {
+        try {
+            ideaSchema.table().updateItem(new UpdateItemSpec()
+                    .withPrimaryKey(ideaSchema.primaryKey(Map.of(
+                            "projectId", projectId,
+                            "ideaId", ideaId)))
+                    .withConditionExpression("attribute_exists(#partitionKey) AND (attribute_not_exists(#counterShardCount) OR #counterShardCount < :counterShardCount)")
+                    .withUpdateExpression("SET #counterShardCount = :counterShardCount")
+                    .withNameMap(Map.of(
+                            "#partitionKey", ideaSchema.partitionKeyName(),
+                            "#counterShardCount", "counterShardCount"))
+                    .withValueMap(Map.of(":counterShardCount", shardCount)));
+        } catch (ConditionalCheckFailedException ex) {
+            log.trace("Counter shards already marked or idea deleted, projectId {} ideaId {}", projectId, ideaId, ex);
+        }
+        ideaCache.invalidate(new IdeaKey(projectId, ideaId));
+    }
+
+    /**
+     * Applies increments still pending in counter shards to an idea read from the table. The idea is re-read along
+     * with its shards in a single transaction so a concurrent fold is never counted twice or missed.
+     *
+     * @return Idea with pending increments, empty if it was deleted in the meantime
+     */
+    private Optional<IdeaModel> applyPendingCounterShards(IdeaModel idea) {
+        if (idea.getCounterShardCount() == null || idea.getCounterShardCount() <= 0L) {
+            return Optional.of(idea);
+        }
+        ImmutableList.Builder<TransactGetItem> transactItemsBuilder = ImmutableList.builder();
+        transactItemsBuilder.add(new TransactGetItem().withGet(new Get()
+                .withTableName(ideaSchema.tableName())
+                .withKey(dynamoUtil.toAttrMap(ideaSchema.primaryKey(idea)))));
+        LongStream.range(0, Math.min(idea.getCounterShardCount(), config.counterShardCountMax()))
+                .mapToObj(shardId -> ideaCounterShardSchema.primaryKey(Map.of(
+                        "projectId", idea.getProjectId(),
+                        "ideaId", idea.getIdeaId(),
+                        "shardId", shardId)))
+                .forEach(primaryKey -> transactItemsBuilder.add(new TransactGetItem().withGet(new Get()
+                        .withTableName(ideaCounterShardSchema.tableName())
+                        .withKey(dynamoUtil.toAttrMap(primaryKey)))));
+        List<ItemResponse> responses = dynamo.transactGetItems(new TransactGetItemsRequest()
+                        .withTransactItems(transactItemsBuilder.build()))
+                .getResponses();
+
+        IdeaModel ideaCurrent = ideaSchema.fromAttrMap(responses.get(0).getItem());
+        if (ideaCurrent == null) {
+            return Optional.empty();
+        }
+        Optional<IdeaCounterShard> pendingOpt = responses.stream()
+                .skip(1)
+                .map(ItemResponse::getItem)
+                .filter(Objects::nonNull)
+                .map(ideaCounterShardSchema::fromAttrMap)
+                .filter(shard -> !shard.isEmpty())
+                .reduce(this::sumCounterShards);
+        // Left behind or still being written to, make sure they get folded and eventually cleared
+        ideasWithCounterShards.add(new IdeaKey(idea.getProjectId(), idea.getIdeaId()));
+        return Optional.of(pendingOpt
+                .map(pending -> applyCounterIncrements(ideaCurrent, pending))
+                .orElse(ideaCurrent));
+    }
+
+    /**
+     * Removes the shard count from an idea once all of its shards are drained, so reads go back to a single GetItem.
+     * Drained shards are deleted in the same transaction, which is cancelled if any shard was written to since it
+     * was read. A node still writing to the shards marks the idea again within a fold interval.
+     */
+    private void clearCounterShards(String projectId, String ideaId, ImmutableList<IdeaCounterShard> drainedShards) {
+        ImmutableMap<Long, IdeaCounterShard> drainedShardsById = Maps.uniqueIndex(drainedShards, IdeaCounterShard::getShardId);
+        ImmutableList.Builder<TransactWriteItem> transactItemsBuilder = ImmutableList.builder();
+        transactItemsBuilder.add(new TransactWriteItem().withUpdate(new Update()
+                .withTableName(ideaSchema.tableName())
+                .withKey(dynamoUtil.toAttrMap(ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId))))
+                .withConditionExpression("attribute_exists(#counterShardCount)")
+                .withUpdateExpression("REMOVE #counterShardCount")
+                .withExpressionAttributeNames(Map.of("#counterShardCount", "counterShardCount"))));
+        for (long shardId = 0; shardId < config.counterShardCountMax(); shardId++) {
+            ImmutableMap<String, AttributeValue> key = dynamoUtil.toAttrMap(ideaCounterShardSchema.primaryKey(Map.of(
+                    "projectId", projectId,
+                    "ideaId", ideaId,
+                    "shardId", shardId)));
+            IdeaCounterShard drainedShard = drainedShardsById.get(shardId);
+            if (drainedShard == null) {
+                transactItemsBuilder.add(new TransactWriteItem().withConditionCheck(new ConditionCheck()
+                        .withTableName(ideaCounterShardSchema.tableName())
+                        .withKey(key)
+                        .withConditionExpression("attribute_not_exists(#partitionKey)")
+                        .withExpressionAttributeNames(Map.of("#partitionKey", ideaCounterShardSchema.partitionKeyName()))));
+                continue;
+            }
+            Map<String, String> nameMap = Maps.newHashMap();
+            Map<String, AttributeValue> valMap = Maps.newHashMap();
+            valMap.put(":zero", new AttributeValue().withN("0"));
+            valMap.put(":expressionsCount", new AttributeValue().withN(String.valueOf(drainedShard.getExpressions().size())));
+            List<String> conditions = Lists.newArrayList();
+            for (String fieldName : ImmutableList.of("voteValue", "votersCount", "expressionsValue", "funded", "fundersCount")) {
+                nameMap.put("#" + fieldName, fieldName);
+                conditions.add("#" + fieldName + " = :zero");
+            }
+            nameMap.put("#expressions", "expressions");
+            conditions.add(drainedShard.getExpressions().isEmpty()
+                    ? "(attribute_not_exists(#expressions) OR size(#expressions) = :expressionsCount)"
+                    : "size(#expressions) = :expressionsCount");
+            int expressionCounter = 0;
+            for (String expression : drainedShard.getExpressions().keySet()) {
+                nameMap.put("#expr" + expressionCounter, expression);
+                conditions.add("#expressions.#expr" + expressionCounter + " = :zero");
+                expressionCounter++;
+            }
+            transactItemsBuilder.add(new TransactWriteItem().withDelete(new Delete()
+                    .withTableName(ideaCounterShardSchema.tableName())
+                    .withKey(key)
+                    .withConditionExpression(String.join(" AND ", conditions))
+                    .withExpressionAttributeNames(nameMap)
+                    .withExpressionAttributeValues(valMap)));
+        }
+        try {
+            dynamo.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(transactItemsBuilder.build()));
+        } catch (TransactionCanceledException ex) {
+            log.trace("Counter shards of idea {} in project {} written to, already cleared or idea deleted", ideaId, projectId, ex);
+            return;
+        }
+        IdeaKey ideaKey = new IdeaKey(projectId, ideaId);
+        counterShardsMarked.invalidate(ideaKey);
+        ideaCache.invalidate(ideaKey);
+    }
+
+    private long getCounterShardCount(String projectId, String ideaId) {
+        double writesPerSecond = ideaWriteRate.recordAndGetRate(projectId + "/" + ideaId);
+        if (writesPerSecond < config.counterShardingWritesPerSecond()) {
+            return 0L;
+        }
+        long shardCount = (long) Math.ceil(writesPerSecond / config.counterShardWritesPerSecond());
+        return Math.max(1L, Math.min(config.counterShardCountMax(), shardCount));
+    }
+
+    private void incrementCounterShard(IdeaCounterShard shard) {
+        Expression expression = incrementCounters(ideaCounterShardSchema.expressionBuilder().conditionExists(), shard, 1L).build();
+        UpdateItemSpec updateItemSpec = new UpdateItemSpec()
+                .withPrimaryKey(ideaCounterShardSchema.primaryKey(shard))
+                .withUpdateExpression(expression.updateExpression().orElse(null))
+                .withConditionExpression(expression.conditionExpression().orElse(null))
+                .withNameMap(expression.nameMap().orElse(null))
+                .withValueMap(expression.valMap().orElse(null));
+        try {
+            ideaCounterShardSchema.table().updateItem(updateItemSpec);
+        } catch (ConditionalCheckFailedException ex) {
+            // Shard doesn't exist yet, initialize so nested expression counters can be incremented
+            try {
+                ideaCounterShardSchema.table().putItem(new PutItemSpec()
+                        .withItem(ideaCounterShardSchema.toItem(counterIncrements(shard.getProjectId(), shard.getIdeaId())
+                                .shardId(shard.getShardId())
+                                .build()))
+                        .withConditionExpression("attribute_not_exists(#partitionKey)")
+                        .withNameMap(Map.of("#partitionKey", ideaCounterShardSchema.partitionKeyName())));
+            } catch (ConditionalCheckFailedException ex2) {
+                log.trace("Counter shard initialized concurrently", ex2);
+            }
+            ideaCounterShardSchema.table().updateItem(updateItemSpec);
+        }
+    }
+
+    private ExpressionBuilder incrementCounters(ExpressionBuilder expressionBuilder, IdeaCounterShard increments, long sign) {
+        if (increments.getVoteValue() != 0L) {
+            expressionBuilder.setIncrement("voteValue", sign * increments.getVoteValue());
+        }
+        if (increments.getVotersCount() != 0L) {
+            expressionBuilder.setIncrement("votersCount", sign * increments.getVotersCount());
+        }
+        if (increments.getExpressionsValue() != 0d) {
+            expressionBuilder.setIncrement("expressionsValue", sign * increments.getExpressionsValue());
+        }
+        if (increments.getFunded() != 0L) {
+            expressionBuilder.setIncrement("funded", sign * increments.getFunded());
+        }
+        if (increments.getFundersCount() != 0L) {
+            expressionBuilder.setIncrement("fundersCount", sign * increments.getFundersCount());
+        }
+        int expressionCounter = 0;
+        for (Map.Entry<String, Long> expression : increments.getExpressions().entrySet()) {
+            if (expression.getValue() == 0L) {
+                continue;
+            }
+            String expressionMapping = expressionBuilder.fieldMapping("expressions") + "." + expressionBuilder.fieldMapping("expr" + expressionCounter, expression.getKey());
+            expressionBuilder.setExpression(String.format("%s = if_not_exists(%s, %s) + %s",
+                    expressionMapping,
+                    expressionMapping,
+                    expressionBuilder.constantMapping("zero", 0L),
+                    expressionBuilder.constantMapping("exprVal" + expressionCounter, sign * expression.getValue())));
+            expressionCounter++;
+        }
+        return expressionBuilder;
+    }
+
+    private IdeaCounterShard sumCounterShards(IdeaCounterShard left, IdeaCounterShard right) {
+        Map<String, Long> expressions = Maps.newHashMap(left.getExpressions());
+        right.getExpressions().forEach((expression, count) -> expressions.merge(expression, count, Long::sum));
+        return left.toBuilder()
+                .voteValue(left.getVoteValue() + right.getVoteValue())
+                .votersCount(left.getVotersCount() + right.getVotersCount())
+                .expressionsValue(left.getExpressionsValue() + right.getExpressionsValue())
+                .expressions(ImmutableMap.copyOf(expressions))
+                .funded(left.getFunded() + right.getFunded())
+                .fundersCount(left.getFundersCount() + right.getFundersCount())
+                .build();
+    }
+
+    private IdeaModel applyCounterIncrements(IdeaModel idea, IdeaCounterShard increments) {
+        Map<String, Long> expressions = Maps.newHashMap(idea.getExpressions());
+        increments.getExpressions().forEach((expression, count) -> expressions.merge(expression, count, Long::sum));
+        return idea.toBuilder()
+                .voteValue(increments.getVoteValue() == 0L ? idea.getVoteValue() : Optional.ofNullable(idea.getVoteValue()).orElse(0L) + increments.getVoteValue())
+                .votersCount(increments.getVotersCount() == 0L ? idea.getVotersCount() : Optional.ofNullable(idea.getVotersCount()).orElse(0L) + increments.getVotersCount())
+                .expressionsValue(increments.getExpressionsValue() == 0d ? idea.getExpressionsValue() : Optional.ofNullable(idea.getExpressionsValue()).orElse(0d) + increments.getExpressionsValue())
+                .expressions(ImmutableMap.copyOf(expressions))
+                .funded(increments.getFunded() == 0L ? idea.getFunded() : Optional.ofNullable(idea.getFunded()).orElse(0L) + increments.getFunded())
+                .fundersCount(increments.getFundersCount() == 0L ? idea.getFundersCount() : Optional.ofNullable(idea.getFundersCount()).orElse(0L) + increments.getFundersCount())
+                .build();
+    }
+
+    private Update toTransactUpdate(String tableName, PrimaryKey primaryKey, Expression expression) {
+        return new Update()
+                .withTableName(tableName)
+                .withKey(dynamoUtil.toAttrMap(primaryKey))
+                .withUpdateExpression(expression.updateExpression().orElse(null))
+                .withConditionExpression(expression.conditionExpression().orElse(null))
+                .withExpressionAttributeNames(expression.nameMap().orElse(null))
+                .withExpressionAttributeValues(expression.valMap().map(ItemUtils::fromSimpleMap).orElse(null));
+    }
+
+    private ListenableFuture<Void> deleteCounterShards(String projectId, String ideaId) {
+        return dynamoUtil.batchDeleteAsync(ideaCounterShardSchema.tableName(), LongStream.range(0, config.counterShardCountMax())
+                .mapToObj(shardId -> ideaCounterShardSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId,
+                        "shardId", shardId)))
+                .collect(ImmutableList.toImmutableList()));
+    }
+
     @Extern
     @Override
     public IdeaAndIndexingFuture incrementIdeaCommentCount(String projectId, String ideaId, boolean incrementChildCount) {
@@ -1367,6 +2018,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
                         .withReturnValues(ReturnValue.ALL_NEW)
                         .withAttributeUpdate(attrUpdates.build()))
                 .getItem());
+        cacheIdeaWrite(idea);
 
         ImmutableMap.Builder<Object, Object> updates = ImmutableMap.builder();
         updates.put("commentCount", idea.getCommentCount());
@@ -1374,10 +2026,9 @@ public class DynamoElasticIdeaStore implements IdeaStore {
             updates.put("childCommentCount", idea.getChildCommentCount());
         }
         SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-        elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), idea.getIdeaId())
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(IDEA_INDEX, projectId, idea.getIdeaId())
                         .doc(gson.toJson(updates.build()), XContentType.JSON)
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                RequestOptions.DEFAULT,
                 ActionListeners.onFailureRetry(indexingFuture, f -> indexIdea(f, projectId, ideaId)));
 
         return new IdeaAndIndexingFuture(idea, indexingFuture);
@@ -1399,9 +2050,10 @@ public class DynamoElasticIdeaStore implements IdeaStore {
                         "ideaId", ideaId)))
                 .withConditionExpression(expression.conditionExpression().orElse(null))
                 .withNameMap(expression.nameMap().orElse(null)));
+        ideaCache.invalidate(new IdeaKey(projectId, ideaId));
 
         SettableFuture<DeleteResponse> indexingFuture = SettableFuture.create();
-        elastic.deleteAsync(new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId)
+        elastic.deleteAsync(elasticUtil.deleteRequest(IDEA_INDEX, projectId, ideaId)
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
                 RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
 
@@ -1410,62 +2062,60 @@ public class DynamoElasticIdeaStore implements IdeaStore {
 
     @Override
     public ListenableFuture<BulkResponse> deleteIdeas(String projectId, ImmutableCollection<String> ideaIds) {
-        dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(ideaSchema.tableName())
-                .withPrimaryKeysToDelete(ideaIds.stream()
-                        .map(ideaId -> ideaSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "ideaId", ideaId)))
-                        .toArray(PrimaryKey[]::new))));
-
-        SettableFuture<BulkResponse> indexingFuture = SettableFuture.create();
-        elastic.bulkAsync(new BulkRequest()
-                        .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
-                        .add(ideaIds.stream()
-                                .map(ideaId -> new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId))
-                                .collect(ImmutableList.toImmutableList())),
-                RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
+        return Futures.transformAsync(dynamoUtil.batchDeleteAsync(ideaSchema.tableName(), ideaIds.stream()
+                .map(ideaId -> ideaSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "ideaId", ideaId)))
+                .collect(ImmutableList.toImmutableList())), v -> {
+            ideaIds.forEach(ideaId -> ideaCache.invalidate(new IdeaKey(projectId, ideaId)));
 
-        return indexingFuture;
+            SettableFuture<BulkResponse> indexingFuture = SettableFuture.create();
+            elastic.bulkAsync(new BulkRequest()
+                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                            .add(ideaIds.stream()
+                                    .map(ideaId -> elasticUtil.deleteRequest(IDEA_INDEX, projectId, ideaId))
+                                    .collect(ImmutableList.toImmutableList())),
+                    RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
+            return indexingFuture;
+        }, MoreExecutors.directExecutor());
     }
 
     @Extern
     @Override
     public ListenableFuture<AcknowledgedResponse> deleteAllForProject(String projectId) {
+        List<ListenableFuture<Void>> deleteFutures = Lists.newArrayList();
+
         // Delete ideas
-        Iterables.partition(StreamSupport.stream(ideaByProjectIdSchema.index().query(new QuerySpec()
-                                        .withHashKey(ideaByProjectIdSchema.partitionKey(Map.of(
-                                                "projectId", projectId)))
-                                        .withRangeKeyCondition(new RangeKeyCondition(ideaByProjectIdSchema.rangeKeyName())
-                                                .beginsWith(ideaByProjectIdSchema.rangeValuePartial(Map.of()))))
-                                .pages()
-                                .spliterator(), false)
-                        .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                        .map(ideaByProjectIdSchema::fromItem)
-                        .filter(idea -> projectId.equals(idea.getProjectId()))
-                        .map(IdeaModel::getIdeaId)
-                        .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(ideaIdsBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(ideaSchema.tableName());
-                    ideaIdsBatch.stream()
-                            .map(ideaId -> ideaSchema.primaryKey(Map.of(
-                                    "ideaId", ideaId,
-                                    "projectId", projectId)))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+        ImmutableSet<String> ideaIds = StreamSupport.stream(ideaByProjectIdSchema.index().query(new QuerySpec()
+                                .withHashKey(ideaByProjectIdSchema.partitionKey(Map.of(
+                                        "projectId", projectId)))
+                                .withRangeKeyCondition(new RangeKeyCondition(ideaByProjectIdSchema.rangeKeyName())
+                                        .beginsWith(ideaByProjectIdSchema.rangeValuePartial(Map.of()))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(ideaByProjectIdSchema::fromItem)
+                .filter(idea -> projectId.equals(idea.getProjectId()))
+                .map(IdeaModel::getIdeaId)
+                .collect(ImmutableSet.toImmutableSet());
+        deleteFutures.add(dynamoUtil.batchDeleteAsync(ideaSchema.tableName(), ideaIds.stream()
+                .map(ideaId -> ideaSchema.primaryKey(Map.of(
+                        "ideaId", ideaId,
+                        "projectId", projectId)))
+                .collect(ImmutableList.toImmutableList())));
+        ideaIds.forEach(ideaId -> ideaCache.invalidate(new IdeaKey(projectId, ideaId)));
 
         // Delete idea index
         SettableFuture<AcknowledgedResponse> deleteFuture = SettableFuture.create();
-        elastic.indices().deleteAsync(new DeleteIndexRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId)),
-                RequestOptions.DEFAULT, ActionListeners.fromFuture(deleteFuture));
+        elasticUtil.deleteIndexAsync(IDEA_INDEX, projectId, ActionListeners.fromFuture(deleteFuture));
 
-        return deleteFuture;
+        return Futures.transformAsync(Futures.allAsList(deleteFutures), v -> deleteFuture, MoreExecutors.directExecutor());
     }
 
     private void indexIdea(SettableFuture<WriteResponse> indexingFuture, String projectId, String ideaId) {
         Optional<IdeaModel> ideaOpt = getIdea(projectId, ideaId);
         if (!ideaOpt.isPresent()) {
-            elastic.deleteAsync(new DeleteRequest(elasticUtil.getIndexName(IDEA_INDEX, projectId), ideaId),
+            elastic.deleteAsync(elasticUtil.deleteRequest(IDEA_INDEX, projectId, ideaId),
                     RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
         } else {
             elastic.indexAsync(ideaToEsIndexRequest(ideaOpt.get(), true),
@@ -1480,6 +2130,7 @@ public class DynamoElasticIdeaStore implements IdeaStore {
                 bind(IdeaStore.class).to(DynamoElasticIdeaStore.class).asEagerSingleton();
                 install(ConfigSystem.configModule(Config.class));
                 install(ConfigSystem.configModule(ConfigSearch.class, Names.named("idea")));
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(DynamoElasticIdeaStore.class);
             }
         };
     }
@@ -3,13 +3,11 @@
 package com.smotana.clearflask.store.impl;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
-import com.amazonaws.services.dynamodbv2.document.AttributeUpdate;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
-import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
@@ -34,16 +32,16 @@ import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
+import com.google.common.collect.Sets;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonNonNull;
 import com.google.gson.annotations.SerializedName;
@@ -66,18 +64,24 @@ import com.smotana.clearflask.api.model.UserSearchAdmin;
 import com.smotana.clearflask.api.model.UserUpdate;
 import com.smotana.clearflask.api.model.UserUpdateAdmin;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.Metrics;
 import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.dynamo.DynamoUtil;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.FieldProjection;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.IndexSchema;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableSchema;
 import com.smotana.clearflask.store.elastic.ActionListeners;
+import com.smotana.clearflask.store.elastic.ElasticIndexingBatcher;
+import com.smotana.clearflask.util.BloomFilterCache;
+import com.smotana.clearflask.util.BloomFilterCache.BloomFilterType;
 import com.smotana.clearflask.util.BloomFilters;
 import com.smotana.clearflask.util.ElasticUtil;
 import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.util.OAuthUtil;
+import com.smotana.clearflask.util.ScalableBloomFilter;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.util.WebhookService;
 import io.jsonwebtoken.Claims;
@@ -129,12 +133,17 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.StreamSupport;
 
-import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.util.ElasticUtil.*;
 import static com.smotana.clearflask.util.ExplicitNull.orNull;
 
@@ -181,6 +190,35 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         @DefaultValue("50")
         long fundBloomFilterExpectedInsertions();
 
+        /**
+         * Number of pending ids after which they are compacted into the bloom filter.
+         */
+        @DefaultValue("10")
+        long bloomPendingCompactionThreshold();
+
+        /**
+         * Bloom filters grow by a new layer once the newest layer's estimated element count reaches this fraction of
+         * its capacity. Each new layer has capacity multiplied by the growth factor and false positive probability
+         * multiplied by the tightening ratio. Changes only affect newly created and legacy filters being migrated.
+         */
+        @DefaultValue(ScalableBloomFilter.DEFAULT_FILL_RATIO_STR)
+        double bloomFilterFillRatio();
+
+        @DefaultValue(ScalableBloomFilter.DEFAULT_GROWTH_FACTOR_STR)
+        int bloomFilterGrowthFactor();
+
+        @DefaultValue(ScalableBloomFilter.DEFAULT_TIGHTENING_RATIO_STR)
+        double bloomFilterTighteningRatio();
+
+        @DefaultValue("5")
+        long bloomCompactionMaxAttempts();
+
+        @DefaultValue("2")
+        int bloomCompactionThreads();
+
+        @DefaultValue("10000")
+        int bloomCompactionQueueSize();
+
         @NoDefaultValue
         SecretKey tokenSignerPrivKey();
 
@@ -195,33 +233,50 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         boolean enableHistograms();
     }
 
-    private static final String USER_INDEX = "user";
+    @Value
+    public static class BloomFilterStats {
+        boolean legacyFormat;
+        long serializedBytes;
+        long pendingCount;
+        int layerCount;
+        long capacity;
+        long approximateElementCount;
+        double fill;
+        double expectedFpp;
+    }
+
+    public static final String USER_INDEX = "user";
 
     private final HashFunction hashFunction = Hashing.murmur3_128(-223823442);
 
     @Inject
     private Config config;
     @Inject
+    private Metrics metrics;
+    @Inject
     @Named("user")
     private ConfigSearch configSearch;
     @Inject
     private AmazonDynamoDB dynamo;
     @Inject
-    private DynamoDB dynamoDoc;
-    @Inject
     private DynamoMapper dynamoMapper;
     @Inject
     private DynamoUtil dynamoUtil;
     @Inject
     private RestHighLevelClient elastic;
     @Inject
+    private ElasticIndexingBatcher elasticIndexingBatcher;
+    @Inject
     private ElasticUtil elasticUtil;
     @Inject
     private Gson gson;
     @Inject
     private WebhookService webhookService;
+    @Inject
+    private BloomFilterCache bloomFilterCache;
 
     private TableSchema<UserModel> userSchema;
+    private FieldProjection<UserNotificationView> userNotificationProjection;
     private IndexSchema<UserModel> userByProjectSchema;
     private TableSchema<IdentifierUser> identifierToUserIdSchema;
     private IndexSchema<IdentifierUser> identifierByProjectIdSchema;
@@ -229,21 +284,37 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     private IndexSchema<UserSession> sessionByUserSchema;
     private TableSchema<UserCounter> userCounterSchema;
     private CloseableHttpClient client;
+    private ExecutorService bloomCompactionExecutor;
+    private final Set<String> bloomCompactionsScheduled = Sets.newConcurrentHashSet();
+    private ImmutableMap<BloomFilterType, Metrics.Histogram> bloomFillHistograms;
+    private ImmutableMap<BloomFilterType, Metrics.Histogram> bloomLayersHistograms;
 
     @Inject
     private void setup() {
         userSchema = dynamoMapper.parseTableSchema(UserModel.class);
+        userNotificationProjection = userSchema.projection(UserNotificationView.class);
         userByProjectSchema = dynamoMapper.parseGlobalSecondaryIndexSchema(2, UserModel.class);
         identifierToUserIdSchema = dynamoMapper.parseTableSchema(IdentifierUser.class);
         identifierByProjectIdSchema = dynamoMapper.parseGlobalSecondaryIndexSchema(2, IdentifierUser.class);
         sessionByIdSchema = dynamoMapper.parseTableSchema(UserSession.class);
         sessionByUserSchema = dynamoMapper.parseGlobalSecondaryIndexSchema(1, UserSession.class);
         userCounterSchema = dynamoMapper.parseTableSchema(UserCounter.class);
+
+        bloomFillHistograms = Maps.toMap(Arrays.asList(BloomFilterType.values()),
+                type -> metrics.histogram(Metrics.PREFIX + "user_bloom_filter_fill", "Fill of the newest layer of per-user bloom filters after compaction",
+                        new double[]{0.1, 0.25, 0.5, 0.75, 0.9, 1}, "type", type.name()));
+        bloomLayersHistograms = Maps.toMap(Arrays.asList(BloomFilterType.values()),
+                type -> metrics.histogram(Metrics.PREFIX + "user_bloom_filter_layers", "Layers of per-user bloom filters after compaction",
+                        new double[]{1, 2, 3, 4, 6, 8}, "type", type.name()));
     }
 
     @Override
     protected void serviceStart() throws Exception {
         client = HttpClientBuilder.create().build();
+        bloomCompactionExecutor = metrics.monitorExecutor("DynamoElasticUserStore-bloom-compaction", new ThreadPoolExecutor(
+                config.bloomCompactionThreads(), config.bloomCompactionThreads(), 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(config.bloomCompactionQueueSize()),
+                new ThreadFactoryBuilder().setNameFormat("DynamoElasticUserStore-bloom-compaction-%d").build()));
     }
 
 
@@ -252,13 +323,17 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         if (client != null) {
             client.close();
         }
+        if (bloomCompactionExecutor != null) {
+            bloomCompactionExecutor.shutdown();
+            bloomCompactionExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        }
     }
 
     @Extern
     @Override
     public ListenableFuture<CreateIndexResponse> createIndex(String projectId) {
         SettableFuture<CreateIndexResponse> indexingFuture = SettableFuture.create();
-        elastic.indices().createAsync(new CreateIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId))
+        elasticUtil.createIndexAsync(USER_INDEX, projectId, new CreateIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId))
                         .settings(gson.toJson(ImmutableMap.of(
                                 "index", ImmutableMap.of(
                                         "analysis", ImmutableMap.of(
@@ -291,7 +366,6 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                                         .put("isMod", ImmutableMap.of(
                                                 "type", "boolean"))
                                         .build())), XContentType.JSON),
-                RequestOptions.DEFAULT,
                 ActionListeners.fromFuture(indexingFuture));
         return indexingFuture;
     }
@@ -347,17 +421,46 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         if (userIds.isEmpty()) {
             return ImmutableMap.of();
         }
-        return dynamoUtil.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(userSchema.tableName()).withPrimaryKeys(userIds.stream()
+        return dynamoUtil.batchGet(new TableKeysAndAttributes(userSchema.tableName()).withPrimaryKeys(userIds.stream()
                         .map(userId -> userSchema.primaryKey(Map.of(
                                 "projectId", projectId,
                                 "userId", userId)))
-                        .toArray(PrimaryKey[]::new))))
+                        .toArray(PrimaryKey[]::new)))
                 .map(userSchema::fromItem)
                 .collect(ImmutableMap.toImmutableMap(
                         UserModel::getUserId,
                         i -> i));
     }
 
+    @Override
+    public Optional<UserNotificationView> getUserForNotification(String projectId, String userId) {
+        return Optional.ofNullable(userNotificationProjection.fromItem(userSchema.table().getItem(new GetItemSpec()
+                .withPrimaryKey(userSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "userId", userId)))
+                .withProjectionExpression(userNotificationProjection.projectionExpression())
+                .withNameMap(userNotificationProjection.nameMap()))));
+    }
+
+    @Override
+    public ImmutableMap<String, UserNotificationView> getUsersForNotification(String projectId, ImmutableCollection<String> userIds) {
+        if (userIds.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        return dynamoUtil.batchGet(new TableKeysAndAttributes(userSchema.tableName())
+                        .withPrimaryKeys(userIds.stream()
+                                .map(userId -> userSchema.primaryKey(Map.of(
+                                        "projectId", projectId,
+                                        "userId", userId)))
+                                .toArray(PrimaryKey[]::new))
+                        .withProjectionExpression(userNotificationProjection.projectionExpression())
+                        .withNameMap(userNotificationProjection.nameMap()))
+                .map(userNotificationProjection::fromItem)
+                .collect(ImmutableMap.toImmutableMap(
+                        UserNotificationView::getUserId,
+                        i -> i));
+    }
+
     @Override
     public Optional<UserModel> getUserByIdentifier(String projectId, IdentifierType type, String identifier) {
         return Optional.ofNullable(identifierToUserIdSchema.fromItem(identifierToUserIdSchema.table().getItem(new GetItemSpec()
@@ -376,7 +479,8 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         }
 
         return elasticUtil.histogram(
-                elasticUtil.getIndexName(USER_INDEX, projectId),
+                USER_INDEX,
+                projectId,
                 "created",
                 Optional.ofNullable(searchAdmin.getFilterCreatedStart()),
                 Optional.ofNullable(searchAdmin.getFilterCreatedEnd()),
@@ -434,10 +538,9 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         }
         log.trace("User search query: {}", queryBuilder);
         ElasticUtil.SearchResponseWithCursor searchResponseWithCursor = elasticUtil.searchWithCursor(
-                new SearchRequest(elasticUtil.getIndexName(USER_INDEX, projectId))
-                        .source(new SearchSourceBuilder()
-                                .fetchSource(false)
-                                .query(queryBuilder)),
+                elasticUtil.searchRequest(USER_INDEX, projectId, new SearchSourceBuilder()
+                        .fetchSource(false)
+                        .query(queryBuilder)),
                 cursorOpt, sortFields, sortOrderOpt, useAccurateCursor, pageSizeOpt, configSearch, ImmutableSet.of());
 
         SearchHit[] hits = searchResponseWithCursor.getSearchResponse().getHits().getHits();
@@ -450,7 +553,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         }
 
         ImmutableList<String> userIds = Arrays.stream(hits)
-                .map(SearchHit::getId)
+                .map(hit -> elasticUtil.parseDocId(projectId, hit.getId()))
                 .collect(ImmutableList.toImmutableList());
 
         return new SearchUsersResponse(
@@ -755,10 +858,9 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         UserModel userUpdated = userUpdatedBuilder.build();
         if (!indexUpdates.isEmpty()) {
             SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-            elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userId)
+            elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(USER_INDEX, projectId, userId)
                             .doc(gson.toJson(indexUpdates), XContentType.JSON)
                             .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                    RequestOptions.DEFAULT,
                     ActionListeners.onFailureRetry(indexingFuture, f -> indexUser(f, projectId, userId)));
             return new UserAndIndexingFuture(userUpdated, indexingFuture);
         } else {
@@ -768,59 +870,17 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
     @Override
     public UserModel userVoteUpdateBloom(String projectId, String userId, String ideaId) {
-        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-        BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.voteBloomFilterExpectedInsertions(), config.voteBloomFilterFalsePositiveProbability()));
-        boolean bloomFilterUpdated = bloomFilter.put(ideaId);
-        if (!bloomFilterUpdated) {
-            return user;
-        }
-        return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("voteBloom").put(BloomFilters.toByteArray(bloomFilter)))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+        return bloomAppend(projectId, userId, BloomFilterType.VOTE, ideaId);
     }
 
     @Override
     public UserModel userCommentVoteUpdateBloom(String projectId, String userId, String commentId) {
-        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-        BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getCommentVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.commentVoteBloomFilterExpectedInsertions(), config.commentVoteBloomFilterFalsePositiveProbability()));
-        boolean bloomFilterUpdated = bloomFilter.put(commentId);
-        if (!bloomFilterUpdated) {
-            return user;
-        }
-        return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("commentVoteBloom").put(BloomFilters.toByteArray(bloomFilter)))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+        return bloomAppend(projectId, userId, BloomFilterType.COMMENT_VOTE, commentId);
     }
 
     @Override
     public UserModel userExpressUpdateBloom(String projectId, String userId, String ideaId) {
-        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-        BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getExpressBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.expressBloomFilterExpectedInsertions(), config.expressBloomFilterFalsePositiveProbability()));
-        boolean bloomFilterUpdated = bloomFilter.put(ideaId);
-        if (!bloomFilterUpdated) {
-            return user;
-        }
-        return userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
-                        .withPrimaryKey(userSchema.primaryKey(Map.of(
-                                "projectId", projectId,
-                                "userId", userId)))
-                        .withAttributeUpdate(new AttributeUpdate("expressBloom").put(BloomFilters.toByteArray(bloomFilter)))
-                        .withReturnValues(ReturnValue.ALL_NEW))
-                .getItem());
+        return bloomAppend(projectId, userId, BloomFilterType.EXPRESS, ideaId);
     }
 
     @Override
@@ -845,6 +905,7 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
         HashMap<String, Object> valMap = Maps.newHashMap();
         List<String> conditions = Lists.newArrayList();
         List<String> setUpdates = Lists.newArrayList();
+        List<String> addUpdates = Lists.newArrayList();
 
         nameMap.put("#balance", "balance");
         valMap.put(":balanceDiff", balanceDiff);
@@ -854,14 +915,10 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
         if (updateBloomWithIdeaIdOpt.isPresent()) {
             UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
-            BloomFilter<CharSequence> bloomFilter = Optional.ofNullable(user.getFundBloom())
-                    .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
-                    .orElseGet(() -> BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), config.fundBloomFilterExpectedInsertions(), config.fundBloomFilterFalsePositiveProbability()));
-            boolean bloomFilterUpdated = bloomFilter.put(updateBloomWithIdeaIdOpt.get());
-            if (bloomFilterUpdated) {
-                nameMap.put("#fundBloom", "fundBloom");
-                valMap.put(":fundBloom", BloomFilters.toByteArray(bloomFilter));
-                setUpdates.add("#fundBloom = :fundBloom");
+            if (!bloomMightContain(user, BloomFilterType.FUND, updateBloomWithIdeaIdOpt.get())) {
+                nameMap.put("#fundBloomPending", BloomFilterType.FUND.getPendingFieldName());
+                valMap.put(":fundBloomPending", ImmutableSet.of(updateBloomWithIdeaIdOpt.get()));
+                addUpdates.add("#fundBloomPending :fundBloomPending");
             }
         }
 
@@ -871,7 +928,8 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
             conditionExpressionOpt = Optional.of("#balance >= :balanceDiffAbs");
         }
 
-        String updateExpression = "SET " + String.join(", ", setUpdates);
+        String updateExpression = "SET " + String.join(", ", setUpdates)
+                + (addUpdates.isEmpty() ? "" : " ADD " + String.join(", ", addUpdates));
         log.trace("updateUserBalance expression: {}", updateExpression);
         UserModel userModel;
         try {
@@ -892,12 +950,12 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
             }
             throw new ApiException(Response.Status.BAD_REQUEST, "Not enough credits");
         }
+        maybeScheduleBloomCompaction(userModel, BloomFilterType.FUND);
 
         SettableFuture<WriteResponse> indexingFuture = SettableFuture.create();
-        elastic.updateAsync(new UpdateRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userModel.getUserId())
+        elasticIndexingBatcher.updateAsync(elasticUtil.updateRequest(USER_INDEX, projectId, userModel.getUserId())
                         .doc(gson.toJson(Map.of("balance", userModel.getBalance())), XContentType.JSON)
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL),
-                RequestOptions.DEFAULT,
                 ActionListeners.onFailureRetry(indexingFuture, f -> indexUser(f, projectId, userId)));
         return new UserAndIndexingFuture(userModel, indexingFuture);
     }
@@ -905,21 +963,21 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     @Override
     public ListenableFuture<BulkResponse> deleteUsers(String projectId, ImmutableCollection<String> userIds) {
         ImmutableCollection<UserModel> users = getUsers(projectId, userIds).values();
-        dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(userSchema.tableName()).withPrimaryKeysToDelete(users.stream()
-                .map(userModel -> userSchema.primaryKey(Map.of(
-                        "projectId", projectId,
-                        "userId", userModel.getUserId())))
-                .toArray(PrimaryKey[]::new))));
-
-        dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(identifierToUserIdSchema.tableName()).withPrimaryKeysToDelete(users.stream()
-                .map(this::getUserIdentifiers)
-                .map(ImmutableMap::entrySet)
-                .flatMap(Collection::stream)
-                .map(e -> identifierToUserIdSchema.primaryKey(Map.of(
-                        "projectId", projectId,
-                        "type", e.getKey().getType(),
-                        "identifierHash", e.getKey().isHashed() ? hashIdentifier(e.getValue()) : e.getValue())))
-                .toArray(PrimaryKey[]::new))));
+        ListenableFuture<List<Void>> deleteFuture = Futures.allAsList(
+                dynamoUtil.batchDeleteAsync(userSchema.tableName(), users.stream()
+                        .map(userModel -> userSchema.primaryKey(Map.of(
+                                "projectId", projectId,
+                                "userId", userModel.getUserId())))
+                        .collect(ImmutableList.toImmutableList())),
+                dynamoUtil.batchDeleteAsync(identifierToUserIdSchema.tableName(), users.stream()
+                        .map(this::getUserIdentifiers)
+                        .map(ImmutableMap::entrySet)
+                        .flatMap(Collection::stream)
+                        .map(e -> identifierToUserIdSchema.primaryKey(Map.of(
+                                "projectId", projectId,
+                                "type", e.getKey().getType(),
+                                "identifierHash", e.getKey().isHashed() ? hashIdentifier(e.getValue()) : e.getValue())))
+                        .collect(ImmutableList.toImmutableList())));
 
         updateUserCountForProject(projectId, users.stream()
                 .filter(user -> user.getIsTracked() == Boolean.TRUE)
@@ -929,15 +987,20 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                 .map(UserModel::getUserId)
                 .forEach(userId -> revokeSessions(projectId, userId, Optional.empty()));
 
-        SettableFuture<BulkResponse> indexingFuture = SettableFuture.create();
-        elastic.bulkAsync(new BulkRequest()
-                        .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
-                        .add(users.stream()
-                                .map(user -> new DeleteRequest(elasticUtil.getIndexName(USER_INDEX, projectId), user.getUserId()))
-                                .collect(ImmutableList.toImmutableList())),
-                RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
-
-        return indexingFuture;
+        users.stream()
+                .map(UserModel::getUserId)
+                .forEach(userId -> bloomFilterCache.invalidate(projectId, userId));
+
+        return Futures.transformAsync(deleteFuture, v -> {
+            SettableFuture<BulkResponse> indexingFuture = SettableFuture.create();
+            elastic.bulkAsync(new BulkRequest()
+                            .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
+                            .add(users.stream()
+                                    .map(user -> elasticUtil.deleteRequest(USER_INDEX, projectId, user.getUserId()))
+                                    .collect(ImmutableList.toImmutableList())),
+                    RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
+            return indexingFuture;
+        }, MoreExecutors.directExecutor());
     }
 
     @Override
@@ -1171,6 +1234,11 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
                     null,
                     null,
                     null,
+                    ImmutableSet.of(),
+                    null,
+                    ImmutableSet.of(),
+                    ImmutableSet.of(),
+                    ImmutableSet.of(),
                     ImmutableSet.of()))
                     .getUser());
         }
@@ -1240,110 +1308,279 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
 
     @Override
     public void revokeSessions(String projectId, String userId, Optional<String> sessionToLeaveOpt) {
-        Iterables.partition(StreamSupport.stream(sessionByUserSchema.index().query(new QuerySpec()
-                                        .withHashKey(sessionByUserSchema.partitionKey(Map.of(
-                                                "userId", userId)))
-                                        .withRangeKeyCondition(new RangeKeyCondition(sessionByUserSchema.rangeKeyName())
-                                                .beginsWith(sessionByUserSchema.rangeValuePartial(Map.of()))))
-                                .pages()
-                                .spliterator(), false)
-                        .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                        .map(sessionByUserSchema::fromItem)
-                        .filter(session -> projectId.equals(session.getProjectId()))
-                        .map(UserSession::getSessionId)
-                        .filter(sessionId -> !sessionToLeaveOpt.isPresent() || !sessionToLeaveOpt.get().equals(sessionId))
-                        .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(sessionIdsBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(sessionByIdSchema.tableName());
-                    sessionIdsBatch.stream()
-                            .map(sessionId -> sessionByIdSchema.primaryKey(Map.of(
-                                    "sessionId", sessionId)))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+        // Waits as sessions must no longer be usable once this returns
+        dynamoUtil.batchDelete(sessionByIdSchema.tableName(), StreamSupport.stream(sessionByUserSchema.index().query(new QuerySpec()
+                                .withHashKey(sessionByUserSchema.partitionKey(Map.of(
+                                        "userId", userId)))
+                                .withRangeKeyCondition(new RangeKeyCondition(sessionByUserSchema.rangeKeyName())
+                                        .beginsWith(sessionByUserSchema.rangeValuePartial(Map.of()))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(sessionByUserSchema::fromItem)
+                .filter(session -> projectId.equals(session.getProjectId()))
+                .map(UserSession::getSessionId)
+                .filter(sessionId -> !sessionToLeaveOpt.isPresent() || !sessionToLeaveOpt.get().equals(sessionId))
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(sessionId -> sessionByIdSchema.primaryKey(Map.of(
+                        "sessionId", sessionId)))
+                .collect(ImmutableList.toImmutableList()));
     }
 
     @Extern
     @Override
     public ListenableFuture<AcknowledgedResponse> deleteAllForProject(String projectId) {
+        List<ListenableFuture<Void>> deleteFutures = Lists.newArrayList();
+
         // Delete users
-        Iterables.partition(StreamSupport.stream(userByProjectSchema.index().query(new QuerySpec()
-                                        .withHashKey(userByProjectSchema.partitionKey(Map.of(
-                                                "projectId", projectId)))
-                                        .withRangeKeyCondition(new RangeKeyCondition(userByProjectSchema.rangeKeyName())
-                                                .beginsWith(userByProjectSchema.rangeValuePartial(Map.of()))))
-                                .pages()
-                                .spliterator(), false)
-                        .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                        .map(userByProjectSchema::fromItem)
-                        .filter(user -> projectId.equals(user.getProjectId()))
-                        .map(UserModel::getUserId)
-                        .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(userIdsBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(userSchema.tableName());
-                    userIdsBatch.stream()
-                            .map(userId -> userSchema.primaryKey(Map.of(
-                                    "userId", userId,
-                                    "projectId", projectId)))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+        deleteFutures.add(dynamoUtil.batchDeleteAsync(userSchema.tableName(), StreamSupport.stream(userByProjectSchema.index().query(new QuerySpec()
+                                .withHashKey(userByProjectSchema.partitionKey(Map.of(
+                                        "projectId", projectId)))
+                                .withRangeKeyCondition(new RangeKeyCondition(userByProjectSchema.rangeKeyName())
+                                        .beginsWith(userByProjectSchema.rangeValuePartial(Map.of()))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(userByProjectSchema::fromItem)
+                .filter(user -> projectId.equals(user.getProjectId()))
+                .map(UserModel::getUserId)
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(userId -> userSchema.primaryKey(Map.of(
+                        "userId", userId,
+                        "projectId", projectId)))
+                .collect(ImmutableList.toImmutableList())));
 
         // Delete user identifiers
-        Iterables.partition(StreamSupport.stream(identifierByProjectIdSchema.index().query(new QuerySpec()
-                                        .withHashKey(identifierByProjectIdSchema.partitionKey(Map.of(
-                                                "projectId", projectId)))
-                                        .withRangeKeyCondition(new RangeKeyCondition(identifierByProjectIdSchema.rangeKeyName())
-                                                .beginsWith(identifierByProjectIdSchema.rangeValuePartial(Map.of()))))
-                                .pages()
-                                .spliterator(), false)
-                        .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                        .map(identifierByProjectIdSchema::fromItem)
-                        .filter(identifier -> projectId.equals(identifier.getProjectId()))
-                        .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(identifiersBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(identifierToUserIdSchema.tableName());
-                    identifiersBatch.stream()
-                            .map(identifier -> identifierToUserIdSchema.primaryKey(Map.of(
-                                    "identifierHash", identifier.getIdentifierHash(),
-                                    "type", identifier.getType(),
-                                    "projectId", projectId)))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+        deleteFutures.add(dynamoUtil.batchDeleteAsync(identifierToUserIdSchema.tableName(), StreamSupport.stream(identifierByProjectIdSchema.index().query(new QuerySpec()
+                                .withHashKey(identifierByProjectIdSchema.partitionKey(Map.of(
+                                        "projectId", projectId)))
+                                .withRangeKeyCondition(new RangeKeyCondition(identifierByProjectIdSchema.rangeKeyName())
+                                        .beginsWith(identifierByProjectIdSchema.rangeValuePartial(Map.of()))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(identifierByProjectIdSchema::fromItem)
+                .filter(identifier -> projectId.equals(identifier.getProjectId()))
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(identifier -> identifierToUserIdSchema.primaryKey(Map.of(
+                        "identifierHash", identifier.getIdentifierHash(),
+                        "type", identifier.getType(),
+                        "projectId", projectId)))
+                .collect(ImmutableList.toImmutableList())));
 
         // Delete user counter
-        Iterables.partition(StreamSupport.stream(userCounterSchema.table().query(new QuerySpec()
-                                        .withHashKey(userCounterSchema.partitionKey(Map.of(
-                                                "projectId", projectId)))
-                                        .withRangeKeyCondition(new RangeKeyCondition(userCounterSchema.rangeKeyName())
-                                                .beginsWith(userCounterSchema.rangeValuePartial(Map.of()))))
-                                .pages()
-                                .spliterator(), false)
-                        .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                        .map(userCounterSchema::fromItem)
-                        .map(userCounterSchema::primaryKey)
-                        .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(userCounterShardPrimaryKeys -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(userSchema.tableName());
-                    userCounterShardPrimaryKeys.forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+        deleteFutures.add(dynamoUtil.batchDeleteAsync(userCounterSchema.tableName(), StreamSupport.stream(userCounterSchema.table().query(new QuerySpec()
+                                .withHashKey(userCounterSchema.partitionKey(Map.of(
+                                        "projectId", projectId)))
+                                .withRangeKeyCondition(new RangeKeyCondition(userCounterSchema.rangeKeyName())
+                                        .beginsWith(userCounterSchema.rangeValuePartial(Map.of()))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(userCounterSchema::fromItem)
+                .map(userCounterSchema::primaryKey)
+                .collect(ImmutableSet.toImmutableSet())));
 
         // Delete user index
         SettableFuture<AcknowledgedResponse> deleteFuture = SettableFuture.create();
-        elastic.indices().deleteAsync(new DeleteIndexRequest(elasticUtil.getIndexName(USER_INDEX, projectId)),
-                RequestOptions.DEFAULT, ActionListeners.fromFuture(deleteFuture));
+        elasticUtil.deleteIndexAsync(USER_INDEX, projectId, ActionListeners.fromFuture(deleteFuture));
 
         // Note: not deleting sessions, they will expire themselves eventually
 
-        return deleteFuture;
+        return Futures.transformAsync(Futures.allAsList(deleteFutures), v -> deleteFuture, MoreExecutors.directExecutor());
+    }
+
+    private UserModel bloomAppend(String projectId, String userId, BloomFilterType type, String id) {
+        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
+        if (bloomMightContain(user, type, id)) {
+            return user;
+        }
+        // Appending to the pending set is atomic so concurrent appends never drop each other,
+        // and avoids rewriting the entire bloom filter on every vote.
+        UserModel userUpdated = userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
+                        .withPrimaryKey(userSchema.primaryKey(Map.of(
+                                "projectId", projectId,
+                                "userId", userId)))
+                        .withConditionExpression("attribute_exists(#partitionKey)")
+                        .withUpdateExpression("ADD #pending :id")
+                        .withNameMap(new NameMap()
+                                .with("#pending", type.getPendingFieldName())
+                                .with("#partitionKey", userSchema.partitionKeyName()))
+                        .withValueMap(new ValueMap().withStringSet(":id", id))
+                        .withReturnValues(ReturnValue.ALL_NEW))
+                .getItem());
+        maybeScheduleBloomCompaction(userUpdated, type);
+        return userUpdated;
+    }
+
+    private boolean bloomMightContain(UserModel user, BloomFilterType type, String id) {
+        return bloomFilterCache.get(user, type)
+                .filter(bloomFilter -> bloomFilter.mightContain(id))
+                .isPresent();
+    }
+
+    /**
+     * Per-user bloom filter fill, for observing the false positive rate actually served to heavy voters.
+     */
+    @Extern
+    public ImmutableMap<BloomFilterType, BloomFilterStats> getBloomFilterStats(String projectId, String userId) {
+        UserModel user = getUser(projectId, userId).orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "User not found"));
+        ImmutableMap.Builder<BloomFilterType, BloomFilterStats> statsBuilder = ImmutableMap.builder();
+        for (BloomFilterType type : BloomFilterType.values()) {
+            byte[] bytes = type.getBytesGetter().apply(user);
+            Optional<ScalableBloomFilter> bloomFilterOpt = bloomFilterCache.get(user, type);
+            if (!bloomFilterOpt.isPresent()) {
+                continue;
+            }
+            ScalableBloomFilter bloomFilter = bloomFilterOpt.get();
+            statsBuilder.put(type, new BloomFilterStats(
+                    bytes != null && BloomFilters.isLegacyFormat(bytes),
+                    bytes == null ? 0 : bytes.length,
+                    type.getPendingGetter().apply(user).size(),
+                    bloomFilter.getLayerCount(),
+                    bloomFilter.getCapacity(),
+                    bloomFilter.approximateElementCount(),
+                    bloomFilter.getFill(),
+                    bloomFilter.expectedFpp()));
+        }
+        return statsBuilder.build();
+    }
+
+    private void maybeScheduleBloomCompaction(UserModel user, BloomFilterType type) {
+        if (type.getPendingGetter().apply(user).size() < config.bloomPendingCompactionThreshold()) {
+            return;
+        }
+        String compactionKey = user.getProjectId() + "/" + user.getUserId() + "/" + type.name();
+        if (!bloomCompactionsScheduled.add(compactionKey)) {
+            return;
+        }
+        try {
+            bloomCompactionExecutor.execute(() -> {
+                try {
+                    compactBloom(user.getProjectId(), user.getUserId(), type);
+                } catch (Exception ex) {
+                    if (LogUtil.rateLimitAllowLog("userStore-bloomCompactionFailed")) {
+                        log.warn("Failed to compact bloom filter, projectId {} userId {} type {}",
+                                user.getProjectId(), user.getUserId(), type, ex);
+                    }
+                } finally {
+                    bloomCompactionsScheduled.remove(compactionKey);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // Compaction will be retried on next append
+            bloomCompactionsScheduled.remove(compactionKey);
+        }
+    }
+
+    /**
+     * Folds pending ids into the bloom filter. Guarded by an optimistic lock on the bloom version so two concurrent
+     * compactions cannot overwrite each other; only the compacted ids are removed from the pending set so appends
+     * racing with compaction are kept.
+     */
+    private void compactBloom(String projectId, String userId, BloomFilterType type) {
+        for (long attempt = 1; ; attempt++) {
+            Optional<UserModel> userOpt = Optional.ofNullable(userSchema.fromItem(userSchema.table().getItem(new GetItemSpec()
+                    .withPrimaryKey(userSchema.primaryKey(Map.of(
+                            "projectId", projectId,
+                            "userId", userId)))
+                    .withConsistentRead(true))));
+            if (!userOpt.isPresent()) {
+                return;
+            }
+            UserModel user = userOpt.get();
+            ImmutableSet<String> pending = type.getPendingGetter().apply(user);
+            if (pending.isEmpty()) {
+                return;
+            }
+            ScalableBloomFilter bloomFilter = Optional.ofNullable(type.getBytesGetter().apply(user))
+                    .map(bytes -> BloomFilters.scalableFromByteArray(bytes,
+                            config.bloomFilterGrowthFactor(),
+                            (float) config.bloomFilterTighteningRatio(),
+                            (float) config.bloomFilterFillRatio()))
+                    .orElseGet(() -> createBloomFilter(type));
+            int layerCountBefore = bloomFilter.getLayerCount();
+            pending.forEach(bloomFilter::put);
+            if (bloomFilter.getLayerCount() > layerCountBefore) {
+                log.debug("Bloom filter grew to {} layers, projectId {} userId {} type {} approximateElementCount {} expectedFpp {}",
+                        bloomFilter.getLayerCount(), projectId, userId, type, bloomFilter.approximateElementCount(), bloomFilter.expectedFpp());
+            }
+
+            NameMap nameMap = new NameMap()
+                    .with("#bloom", type.getBloomFieldName())
+                    .with("#pending", type.getPendingFieldName())
+                    .with("#bloomVersion", "bloomVersion");
+            ValueMap valueMap = new ValueMap()
+                    .withBinary(":bloom", BloomFilters.toByteArray(bloomFilter))
+                    .withStringSet(":pending", pending)
+                    .withLong(":nextBloomVersion", Optional.ofNullable(user.getBloomVersion()).orElse(0L) + 1L);
+            String conditionExpression;
+            if (user.getBloomVersion() == null) {
+                conditionExpression = "attribute_not_exists(#bloomVersion)";
+            } else {
+                conditionExpression = "#bloomVersion = :bloomVersion";
+                valueMap.withLong(":bloomVersion", user.getBloomVersion());
+            }
+            UserModel userUpdated;
+            try {
+                userUpdated = userSchema.fromItem(userSchema.table().updateItem(new UpdateItemSpec()
+                                .withPrimaryKey(userSchema.primaryKey(Map.of(
+                                        "projectId", projectId,
+                                        "userId", userId)))
+                                .withConditionExpression(conditionExpression)
+                                .withUpdateExpression("SET #bloom = :bloom, #bloomVersion = :nextBloomVersion DELETE #pending :pending")
+                                .withNameMap(nameMap)
+                                .withValueMap(valueMap)
+                                .withReturnValues(ReturnValue.ALL_NEW))
+                        .getItem());
+            } catch (ConditionalCheckFailedException ex) {
+                if (attempt >= config.bloomCompactionMaxAttempts()) {
+                    throw ex;
+                }
+                log.trace("Bloom filter compaction lost race, retrying, projectId {} userId {} type {} attempt {}",
+                        projectId, userId, type, attempt);
+                continue;
+            }
+            bloomFillHistograms.get(type).record(bloomFilter.getFill());
+            bloomLayersHistograms.get(type).record(bloomFilter.getLayerCount());
+            if (type.getPendingGetter().apply(userUpdated).isEmpty()) {
+                bloomFilterCache.put(userUpdated, type, bloomFilter);
+            }
+            return;
+        }
+    }
+
+    private ScalableBloomFilter createBloomFilter(BloomFilterType type) {
+        switch (type) {
+            case VOTE:
+                return createBloomFilter(config.voteBloomFilterExpectedInsertions(), config.voteBloomFilterFalsePositiveProbability());
+            case EXPRESS:
+                return createBloomFilter(config.expressBloomFilterExpectedInsertions(), config.expressBloomFilterFalsePositiveProbability());
+            case FUND:
+                return createBloomFilter(config.fundBloomFilterExpectedInsertions(), config.fundBloomFilterFalsePositiveProbability());
+            case COMMENT_VOTE:
+                return createBloomFilter(config.commentVoteBloomFilterExpectedInsertions(), config.commentVoteBloomFilterFalsePositiveProbability());
+            default:
+                throw new RuntimeException("Unknown bloom filter type " + type);
+        }
+    }
+
+    private ScalableBloomFilter createBloomFilter(long expectedInsertions, double falsePositiveProbability) {
+        return ScalableBloomFilter.create(
+                expectedInsertions,
+                falsePositiveProbability,
+                config.bloomFilterGrowthFactor(),
+                (float) config.bloomFilterTighteningRatio(),
+                (float) config.bloomFilterFillRatio());
     }
 
     private void indexUser(SettableFuture<WriteResponse> indexingFuture, String projectId, String userId) {
         Optional<UserModel> userOpt = getUser(projectId, userId);
         if (!userOpt.isPresent()) {
-            elastic.deleteAsync(new DeleteRequest(elasticUtil.getIndexName(USER_INDEX, projectId), userId),
+            elastic.deleteAsync(elasticUtil.deleteRequest(USER_INDEX, projectId, userId),
                     RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
         } else {
             indexUser(indexingFuture, userOpt.get());
@@ -1351,16 +1588,16 @@ public class DynamoElasticUserStore extends ManagedService implements UserStore
     }
 
     private void indexUser(SettableFuture<WriteResponse> indexingFuture, UserModel user) {
-        elastic.indexAsync(new IndexRequest(elasticUtil.getIndexName(USER_INDEX, user.getProjectId()))
+        elastic.indexAsync(elasticUtil.indexRequest(USER_INDEX, user.getProjectId(), user.getUserId())
                         .setRefreshPolicy(config.elasticForceRefresh() ? WriteRequest.RefreshPolicy.IMMEDIATE : WriteRequest.RefreshPolicy.WAIT_UNTIL)
-                        .id(user.getUserId())
-                        .source(gson.toJson(ImmutableMap.of(
-                                "name", orNull(user.getName()),
-                                "email", orNull(user.getEmail()),
-                                "created", orNull(user.getCreated().getEpochSecond()),
-                                "balance", orNull(user.getBalance()),
-                                "isMod", user.getIsMod() == Boolean.TRUE
-                        )), XContentType.JSON),
+                        .source(gson.toJson(ImmutableMap.builder()
+                                .put(PROJECT_ID_FIELD, user.getProjectId())
+                                .put("name", orNull(user.getName()))
+                                .put("email", orNull(user.getEmail()))
+                                .put("created", orNull(user.getCreated().getEpochSecond()))
+                                .put("balance", orNull(user.getBalance()))
+                                .put("isMod", user.getIsMod() == Boolean.TRUE)
+                                .build()), XContentType.JSON),
                 RequestOptions.DEFAULT, ActionListeners.fromFuture(indexingFuture));
     }
 
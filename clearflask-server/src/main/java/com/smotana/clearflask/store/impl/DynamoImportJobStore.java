@@ -0,0 +1,75 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.impl;
+
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.smotana.clearflask.store.ImportJobStore;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableSchema;
+import com.smotana.clearflask.util.Extern;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.Optional;
+
+@Slf4j
+@Singleton
+public class DynamoImportJobStore implements ImportJobStore {
+
+    @Inject
+    private DynamoMapper dynamoMapper;
+
+    private TableSchema<ImportJobModel> importJobSchema;
+
+    @Inject
+    private void setup() {
+        importJobSchema = dynamoMapper.parseTableSchema(ImportJobModel.class);
+    }
+
+    @Override
+    public void createJob(ImportJobModel job) {
+        importJobSchema.table().putItem(new PutItemSpec()
+                .withItem(importJobSchema.toItem(job))
+                .withConditionExpression("attribute_not_exists(#partitionKey)")
+                .withNameMap(Map.of("#partitionKey", importJobSchema.partitionKeyName())));
+    }
+
+    @Extern
+    @Override
+    public Optional<ImportJobModel> getJob(String projectId, String jobId) {
+        return Optional.ofNullable(importJobSchema.fromItem(importJobSchema.table().getItem(new GetItemSpec()
+                .withPrimaryKey(importJobSchema.primaryKey(Map.of(
+                        "projectId", projectId,
+                        "jobId", jobId))))));
+    }
+
+    @Override
+    public boolean updateJob(ImportJobModel job, String expectedRunId) {
+        try {
+            importJobSchema.table().putItem(new PutItemSpec()
+                    .withItem(importJobSchema.toItem(job))
+                    .withConditionExpression("#runId = :runId")
+                    .withNameMap(Map.of("#runId", "runId"))
+                    .withValueMap(Map.of(":runId", expectedRunId)));
+            return true;
+        } catch (ConditionalCheckFailedException ex) {
+            log.debug("Import job {} project {} taken over by another run", job.getJobId(), job.getProjectId());
+            return false;
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ImportJobStore.class).to(DynamoImportJobStore.class).asEagerSingleton();
+            }
+        };
+    }
+}
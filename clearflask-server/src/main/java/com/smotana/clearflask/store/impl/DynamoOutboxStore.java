@@ -0,0 +1,190 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.impl;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
+import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.dynamodbv2.document.spec.UpdateItemSpec;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.store.OutboxStore;
+import com.smotana.clearflask.store.dynamo.DynamoUtil;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.Expression;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.ExpressionBuilder;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableSchema;
+import com.smotana.clearflask.util.IdUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
+
+@Slf4j
+@Singleton
+public class DynamoOutboxStore implements OutboxStore {
+
+    public interface Config {
+        /**
+         * Number of partitions per type to spread writes across. Lowering it strands entries in higher shards.
+         */
+        @DefaultValue("4")
+        long shardCount();
+
+        @DefaultValue("P3D")
+        Duration entryExpiry();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private DynamoUtil dynamoUtil;
+    @Inject
+    private DynamoMapper dynamoMapper;
+
+    private final String leaseOwner = IdUtil.randomId();
+    private TableSchema<OutboxModel> outboxSchema;
+
+    @Inject
+    private void setup() {
+        outboxSchema = dynamoMapper.parseTableSchema(OutboxModel.class);
+    }
+
+    @Override
+    public ListenableFuture<Void> enqueue(String type, Collection<String> payloads) {
+        if (payloads.isEmpty()) {
+            return Futures.immediateFuture(null);
+        }
+        Instant now = Instant.now();
+        long ttlInEpochSec = now.plus(config.entryExpiry()).getEpochSecond();
+        // Entry ids are generated up front so they sort in the order given regardless of which batch lands first
+        ImmutableList<Item> items = payloads.stream()
+                .map(payload -> new OutboxModel(
+                        type,
+                        ThreadLocalRandom.current().nextLong(config.shardCount()),
+                        genEntryId(),
+                        payload,
+                        now,
+                        null,
+                        0L,
+                        0L,
+                        ttlInEpochSec))
+                .map(outboxSchema::toItem)
+                .collect(ImmutableList.toImmutableList());
+        return dynamoUtil.pipelineAsync(Iterables.partition(items, DYNAMO_WRITE_BATCH_MAX_SIZE).iterator(),
+                itemsBatch -> dynamoUtil.batchWriteAsync(new TableWriteItems(outboxSchema.tableName())
+                        .withItemsToPut(itemsBatch)));
+    }
+
+    @Override
+    public OutboxModel enqueueLeased(String type, String payload, Duration leaseDuration) {
+        Instant now = Instant.now();
+        OutboxModel entry = new OutboxModel(
+                type,
+                ThreadLocalRandom.current().nextLong(config.shardCount()),
+                genEntryId(),
+                payload,
+                now,
+                leaseOwner,
+                now.toEpochMilli() + leaseDuration.toMillis(),
+                1L,
+                now.plus(config.entryExpiry()).getEpochSecond());
+        outboxSchema.table().putItem(outboxSchema.toItem(entry));
+        return entry;
+    }
+
+    @Override
+    public ImmutableList<OutboxModel> lease(String type, long shard, int limit, Duration leaseDuration) {
+        long now = System.currentTimeMillis();
+        ImmutableList.Builder<OutboxModel> leasedBuilder = ImmutableList.builder();
+        int leasedCount = 0;
+        for (Item item : outboxSchema.table().query(new QuerySpec()
+                .withHashKey(outboxSchema.partitionKey(Map.of(
+                        "type", type,
+                        "shard", shard)))
+                .withRangeKeyCondition(new RangeKeyCondition(outboxSchema.rangeKeyName())
+                        .beginsWith(outboxSchema.rangeValuePartial(Map.of())))
+                .withFilterExpression("#leaseExpiry < :now")
+                .withNameMap(Map.of("#leaseExpiry", "leaseExpiry"))
+                .withValueMap(Map.of(":now", now))
+                .withMaxPageSize(limit))) {
+            OutboxModel entry = outboxSchema.fromItem(item);
+            ExpressionBuilder expressionBuilder = outboxSchema.expressionBuilder()
+                    .set("leaseOwner", leaseOwner)
+                    .set("leaseExpiry", now + leaseDuration.toMillis())
+                    .setIncrement("attempt", 1L);
+            // Only one node can move the lease forward from the observed value
+            expressionBuilder.condition(expressionBuilder.fieldMapping("leaseExpiry")
+                    + " = " + expressionBuilder.constantMapping("leaseExpiryPrev", entry.getLeaseExpiry()));
+            Expression expression = expressionBuilder.build();
+            try {
+                leasedBuilder.add(outboxSchema.fromItem(outboxSchema.table().updateItem(new UpdateItemSpec()
+                                .withPrimaryKey(outboxSchema.primaryKey(entry))
+                                .withUpdateExpression(expression.updateExpression().orElse(null))
+                                .withConditionExpression(expression.conditionExpression().orElse(null))
+                                .withNameMap(expression.nameMap().orElse(null))
+                                .withValueMap(expression.valMap().orElse(null))
+                                .withReturnValues(ReturnValue.ALL_NEW))
+                        .getItem()));
+            } catch (ConditionalCheckFailedException ex) {
+                log.trace("Outbox entry leased concurrently, type {} entryId {}", type, entry.getEntryId());
+                continue;
+            }
+            if (++leasedCount >= limit) {
+                break;
+            }
+        }
+        return leasedBuilder.build();
+    }
+
+    @Override
+    public long getShardCount() {
+        return config.shardCount();
+    }
+
+    @Override
+    public void complete(OutboxModel entry) {
+        try {
+            outboxSchema.table().deleteItem(new DeleteItemSpec()
+                    .withPrimaryKey(outboxSchema.primaryKey(entry))
+                    // Owner alone matches a later lease taken by this same node after ours expired
+                    .withConditionExpression("#leaseOwner = :leaseOwner AND #leaseExpiry = :leaseExpiry")
+                    .withNameMap(Map.of(
+                            "#leaseOwner", "leaseOwner",
+                            "#leaseExpiry", "leaseExpiry"))
+                    .withValueMap(Map.of(
+                            ":leaseOwner", leaseOwner,
+                            ":leaseExpiry", entry.getLeaseExpiry())));
+        } catch (ConditionalCheckFailedException ex) {
+            log.warn("Outbox entry lease lost before completion, may be processed twice, type {} entryId {}",
+                    entry.getType(), entry.getEntryId());
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(OutboxStore.class).to(DynamoOutboxStore.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
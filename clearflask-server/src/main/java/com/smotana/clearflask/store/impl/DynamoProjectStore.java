@@ -8,8 +8,6 @@ import com.amazonaws.services.dynamodbv2.document.ItemUtils;
 import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
-import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
-import com.amazonaws.services.dynamodbv2.document.spec.BatchGetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
@@ -31,7 +29,6 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.gson.Gson;
@@ -83,7 +80,6 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 import static com.smotana.clearflask.util.ProjectUpgraderImpl.PROJECT_VERSION_LATEST;
 
 @Slf4j
@@ -124,8 +120,6 @@ public class DynamoProjectStore implements ProjectStore {
     @Inject
     private AmazonDynamoDB dynamo;
     @Inject
-    private DynamoDB dynamoDoc;
-    @Inject
     private DynamoMapper dynamoMapper;
     @Inject
     private DynamoUtil dynamoUtil;
@@ -224,12 +218,11 @@ public class DynamoProjectStore implements ProjectStore {
         if (projectIds.isEmpty()) {
             return ImmutableSet.of();
         }
-        ImmutableSet<Project> projects = dynamoUtil.retryUnprocessed(dynamoDoc.batchGetItem(new BatchGetItemSpec()
-                        .withTableKeyAndAttributes(new TableKeysAndAttributes(projectSchema.tableName())
-                                .withConsistentRead(!useCache)
-                                .withPrimaryKeys(projectIds.stream()
-                                        .map(projectId -> projectSchema.primaryKey(Map.of("projectId", projectId)))
-                                        .toArray(PrimaryKey[]::new)))))
+        ImmutableSet<Project> projects = dynamoUtil.batchGet(new TableKeysAndAttributes(projectSchema.tableName())
+                        .withConsistentRead(!useCache)
+                        .withPrimaryKeys(projectIds.stream()
+                                .map(projectId -> projectSchema.primaryKey(Map.of("projectId", projectId)))
+                                .toArray(PrimaryKey[]::new)))
                 .map(projectSchema::fromItem)
                 .map(this::getProjectWithUpgrade)
                 .collect(ImmutableSet.toImmutableSet());
@@ -443,27 +436,23 @@ public class DynamoProjectStore implements ProjectStore {
                         "projectId", projectId))));
         projectCache.invalidate(projectId);
 
-        // Delete Slug
-        Iterables.partition(StreamSupport.stream(slugByProjectSchema.index().query(new QuerySpec()
-                                        .withHashKey(slugByProjectSchema.partitionKey(Map.of(
-                                                "projectId", projectId)))
-                                        .withRangeKeyCondition(new RangeKeyCondition(slugByProjectSchema.rangeKeyName())
-                                                .beginsWith(slugByProjectSchema.rangeValuePartial(Map.of()))))
-                                .pages()
-                                .spliterator(), false)
-                        .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
-                        .map(slugByProjectSchema::fromItem)
-                        .filter(slug -> projectId.equals(slug.getProjectId()))
-                        .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(slugsBatch -> {
-                    slugCache.invalidateAll(slugsBatch);
-                    TableWriteItems tableWriteItems = new TableWriteItems(slugSchema.tableName());
-                    slugsBatch.stream()
-                            .map(slug -> slugSchema.primaryKey(Map.of(
-                                    "slug", slug)))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+        // Delete Slug, waits so the slugs can be claimed again once this returns
+        ImmutableSet<SlugModel> slugs = StreamSupport.stream(slugByProjectSchema.index().query(new QuerySpec()
+                                .withHashKey(slugByProjectSchema.partitionKey(Map.of(
+                                        "projectId", projectId)))
+                                .withRangeKeyCondition(new RangeKeyCondition(slugByProjectSchema.rangeKeyName())
+                                        .beginsWith(slugByProjectSchema.rangeValuePartial(Map.of()))))
+                        .pages()
+                        .spliterator(), false)
+                .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
+                .map(slugByProjectSchema::fromItem)
+                .filter(slug -> projectId.equals(slug.getProjectId()))
+                .collect(ImmutableSet.toImmutableSet());
+        slugCache.invalidateAll(slugs);
+        dynamoUtil.batchDelete(slugSchema.tableName(), slugs.stream()
+                .map(slug -> slugSchema.primaryKey(Map.of(
+                        "slug", slug)))
+                .collect(ImmutableList.toImmutableList()));
     }
 
     @Override
@@ -10,7 +10,6 @@ import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.RangeKeyCondition;
 import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
-import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
 import com.amazonaws.services.dynamodbv2.document.spec.DeleteItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
@@ -22,8 +21,11 @@ import com.amazonaws.services.dynamodbv2.model.ReturnValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
@@ -46,11 +48,11 @@ import javax.ws.rs.core.Response;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.StreamSupport;
 
-import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
 
 @Slf4j
 @Singleton
@@ -133,12 +135,12 @@ public class DynamoVoteStore implements VoteStore {
         if (targetIds.isEmpty()) {
             return ImmutableMap.of();
         }
-        return dynamoUtil.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(voteSchemaByUser.tableName()).withPrimaryKeys(targetIds.stream()
+        return dynamoUtil.batchGet(new TableKeysAndAttributes(voteSchemaByUser.tableName()).withPrimaryKeys(targetIds.stream()
                 .map(targetId -> voteSchemaByUser.primaryKey(Map.of(
                         "userId", userId,
                         "projectId", projectId,
                         "targetId", targetId)))
-                .toArray(PrimaryKey[]::new))))
+                .toArray(PrimaryKey[]::new)))
                 .map(voteSchemaByUser::fromItem)
                 .filter(v -> v.getVote() != VoteValue.None.getValue())
                 .collect(ImmutableMap.toImmutableMap(
@@ -265,12 +267,12 @@ public class DynamoVoteStore implements VoteStore {
         if (targetIds.isEmpty()) {
             return ImmutableMap.of();
         }
-        return dynamoUtil.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(expressSchemaByUser.tableName()).withPrimaryKeys(targetIds.stream()
+        return dynamoUtil.batchGet(new TableKeysAndAttributes(expressSchemaByUser.tableName()).withPrimaryKeys(targetIds.stream()
                 .map(targetId -> expressSchemaByUser.primaryKey(Map.of(
                         "userId", userId,
                         "projectId", projectId,
                         "targetId", targetId)))
-                .toArray(PrimaryKey[]::new))))
+                .toArray(PrimaryKey[]::new)))
                 .map(expressSchemaByUser::fromItem)
                 .filter(e -> !e.getExpressions().isEmpty())
                 .collect(ImmutableMap.toImmutableMap(
@@ -447,12 +449,12 @@ public class DynamoVoteStore implements VoteStore {
         if (targetIds.isEmpty()) {
             return ImmutableMap.of();
         }
-        return dynamoUtil.retryUnprocessed(dynamoDoc.batchGetItem(new TableKeysAndAttributes(fundSchemaByUser.tableName()).withPrimaryKeys(targetIds.stream()
+        return dynamoUtil.batchGet(new TableKeysAndAttributes(fundSchemaByUser.tableName()).withPrimaryKeys(targetIds.stream()
                 .map(targetId -> fundSchemaByUser.primaryKey(Map.of(
                         "userId", userId,
                         "projectId", projectId,
                         "targetId", targetId)))
-                .toArray(PrimaryKey[]::new))))
+                .toArray(PrimaryKey[]::new)))
                 .map(fundSchemaByUser::fromItem)
                 .filter(f -> f.getFundAmount() != 0L)
                 .collect(ImmutableMap.toImmutableMap(
@@ -558,9 +560,11 @@ public class DynamoVoteStore implements VoteStore {
 
     @Extern
     @Override
-    public void deleteAllForProject(String projectId) {
+    public ListenableFuture<Void> deleteAllForProject(String projectId) {
+        List<ListenableFuture<Void>> deleteFutures = Lists.newArrayList();
+
         // Delete votes
-        Iterables.partition(StreamSupport.stream(voteSchemaByProjectId.index().query(new QuerySpec()
+        deleteFutures.add(dynamoUtil.batchDeleteAsync(voteSchemaByUser.tableName(), StreamSupport.stream(voteSchemaByProjectId.index().query(new QuerySpec()
                 .withHashKey(voteSchemaByProjectId.partitionKey(Map.of(
                         "projectId", projectId)))
                 .withRangeKeyCondition(new RangeKeyCondition(voteSchemaByProjectId.rangeKeyName())
@@ -570,20 +574,16 @@ public class DynamoVoteStore implements VoteStore {
                 .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
                 .map(voteSchemaByProjectId::fromItem)
                 .filter(vote -> projectId.equals(vote.getProjectId()))
-                .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(votesBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(voteSchemaByUser.tableName());
-                    votesBatch.stream()
-                            .map(vote -> voteSchemaByUser.primaryKey(Map.of(
-                                    "userId", vote.getUserId(),
-                                    "projectId", projectId,
-                                    "targetId", vote.getTargetId())))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(vote -> voteSchemaByUser.primaryKey(Map.of(
+                        "userId", vote.getUserId(),
+                        "projectId", projectId,
+                        "targetId", vote.getTargetId())))
+                .collect(ImmutableList.toImmutableList())));
 
         // Delete express
-        Iterables.partition(StreamSupport.stream(expressSchemaByProjectId.index().query(new QuerySpec()
+        deleteFutures.add(dynamoUtil.batchDeleteAsync(expressSchemaByUser.tableName(), StreamSupport.stream(expressSchemaByProjectId.index().query(new QuerySpec()
                 .withHashKey(expressSchemaByProjectId.partitionKey(Map.of(
                         "projectId", projectId)))
                 .withRangeKeyCondition(new RangeKeyCondition(expressSchemaByProjectId.rangeKeyName())
@@ -593,20 +593,16 @@ public class DynamoVoteStore implements VoteStore {
                 .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
                 .map(expressSchemaByProjectId::fromItem)
                 .filter(express -> projectId.equals(express.getProjectId()))
-                .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(expressesBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(expressSchemaByUser.tableName());
-                    expressesBatch.stream()
-                            .map(express -> expressSchemaByUser.primaryKey(Map.of(
-                                    "userId", express.getUserId(),
-                                    "projectId", projectId,
-                                    "targetId", express.getTargetId())))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(express -> expressSchemaByUser.primaryKey(Map.of(
+                        "userId", express.getUserId(),
+                        "projectId", projectId,
+                        "targetId", express.getTargetId())))
+                .collect(ImmutableList.toImmutableList())));
 
         // Delete fund
-        Iterables.partition(StreamSupport.stream(fundSchemaByProjectId.index().query(new QuerySpec()
+        deleteFutures.add(dynamoUtil.batchDeleteAsync(fundSchemaByUser.tableName(), StreamSupport.stream(fundSchemaByProjectId.index().query(new QuerySpec()
                 .withHashKey(fundSchemaByProjectId.partitionKey(Map.of(
                         "projectId", projectId)))
                 .withRangeKeyCondition(new RangeKeyCondition(fundSchemaByProjectId.rangeKeyName())
@@ -616,20 +612,16 @@ public class DynamoVoteStore implements VoteStore {
                 .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
                 .map(fundSchemaByProjectId::fromItem)
                 .filter(fund -> projectId.equals(fund.getProjectId()))
-                .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(fundsBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(fundSchemaByUser.tableName());
-                    fundsBatch.stream()
-                            .map(fund -> fundSchemaByUser.primaryKey(Map.of(
-                                    "userId", fund.getUserId(),
-                                    "projectId", projectId,
-                                    "targetId", fund.getTargetId())))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(fund -> fundSchemaByUser.primaryKey(Map.of(
+                        "userId", fund.getUserId(),
+                        "projectId", projectId,
+                        "targetId", fund.getTargetId())))
+                .collect(ImmutableList.toImmutableList())));
 
         // Delete transactions
-        Iterables.partition(StreamSupport.stream(transactionByProjectIdSchema.index().query(new QuerySpec()
+        deleteFutures.add(dynamoUtil.batchDeleteAsync(transactionSchema.tableName(), StreamSupport.stream(transactionByProjectIdSchema.index().query(new QuerySpec()
                 .withHashKey(transactionByProjectIdSchema.partitionKey(Map.of(
                         "projectId", projectId)))
                 .withRangeKeyCondition(new RangeKeyCondition(transactionByProjectIdSchema.rangeKeyName())
@@ -639,17 +631,15 @@ public class DynamoVoteStore implements VoteStore {
                 .flatMap(p -> StreamSupport.stream(p.spliterator(), false))
                 .map(transactionByProjectIdSchema::fromItem)
                 .filter(transaction -> projectId.equals(transaction.getProjectId()))
-                .collect(ImmutableSet.toImmutableSet()), DYNAMO_WRITE_BATCH_MAX_SIZE)
-                .forEach(transactionsBatch -> {
-                    TableWriteItems tableWriteItems = new TableWriteItems(transactionSchema.tableName());
-                    transactionsBatch.stream()
-                            .map(transaction -> transactionSchema.primaryKey(Map.of(
-                                    "userId", transaction.getUserId(),
-                                    "projectId", projectId,
-                                    "transactionId", transaction.getTransactionId())))
-                            .forEach(tableWriteItems::addPrimaryKeyToDelete);
-                    dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(tableWriteItems));
-                });
+                .collect(ImmutableSet.toImmutableSet())
+                .stream()
+                .map(transaction -> transactionSchema.primaryKey(Map.of(
+                        "userId", transaction.getUserId(),
+                        "projectId", projectId,
+                        "transactionId", transaction.getTransactionId())))
+                .collect(ImmutableList.toImmutableList())));
+
+        return Futures.transform(Futures.allAsList(deleteFutures), v -> null, MoreExecutors.directExecutor());
     }
 
     public static Module module() {
@@ -84,6 +84,11 @@ public class S3ContentStore extends ManagedService implements ContentStore {
         return signUrl(contentUrl);
     }
 
+    @Override
+    public InputStream download(ContentUrl contentUrl) {
+        return s3.getObject(config.bucketName(), contentUrl.getKey()).getObjectContent();
+    }
+
     @Override
     public void deleteAsUser(String matchProjectId, String matchUserId, String url) {
         delete(Optional.of(matchProjectId), Optional.of(matchUserId), url);
@@ -0,0 +1,163 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * In-process cache of deserialized user bloom filters.
+ * <p>
+ * Entries are keyed by user and filter type and versioned by a hash of the serialized filter and its pending ids, so
+ * a stale entry is never served after the user's filter changes, even if the write happened on another node.
+ * Pending ids that have not yet been compacted into the stored filter are included in the returned filter.
+ * <p>
+ * Returned filters are shared across threads and must not be mutated; use {@link ScalableBloomFilter#copy()} before put.
+ */
+@Slf4j
+@Singleton
+public class BloomFilterCache {
+
+    public interface Config {
+        @DefaultValue("true")
+        boolean enabled();
+
+        @DefaultValue("10000")
+        long maximumSize();
+
+        @DefaultValue("PT10M")
+        Duration expireAfterAccess();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public enum BloomFilterType {
+        VOTE("voteBloom", "voteBloomPending", UserModel::getVoteBloom, UserModel::getVoteBloomPending),
+        EXPRESS("expressBloom", "expressBloomPending", UserModel::getExpressBloom, UserModel::getExpressBloomPending),
+        FUND("fundBloom", "fundBloomPending", UserModel::getFundBloom, UserModel::getFundBloomPending),
+        COMMENT_VOTE("commentVoteBloom", "commentVoteBloomPending", UserModel::getCommentVoteBloom, UserModel::getCommentVoteBloomPending);
+
+        private final String bloomFieldName;
+        private final String pendingFieldName;
+        private final Function<UserModel, byte[]> bytesGetter;
+        private final Function<UserModel, ImmutableSet<String>> pendingGetter;
+    }
+
+    @Value
+    private static class CacheKey {
+        String projectId;
+        String userId;
+        BloomFilterType type;
+    }
+
+    @Value
+    private static class CacheEntry {
+        HashCode version;
+        ScalableBloomFilter bloomFilter;
+    }
+
+    private static final char SEPARATOR = '\0';
+    private static final double PENDING_ONLY_FALSE_POSITIVE_PROBABILITY = 0.001;
+
+    @Inject
+    private Config config;
+
+    private final HashFunction versionHashFunction = Hashing.murmur3_128();
+    private Cache<CacheKey, CacheEntry> cache;
+
+    @Inject
+    private void setup() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(config.maximumSize())
+                .expireAfterAccess(config.expireAfterAccess())
+                .build();
+    }
+
+    public Optional<ScalableBloomFilter> get(UserModel user, BloomFilterType type) {
+        byte[] bloomFilterBytes = type.getBytesGetter().apply(user);
+        ImmutableSet<String> pending = type.getPendingGetter().apply(user);
+        if (bloomFilterBytes == null && pending.isEmpty()) {
+            return Optional.empty();
+        }
+        if (!config.enabled()) {
+            return Optional.of(deserialize(bloomFilterBytes, pending));
+        }
+        CacheKey key = new CacheKey(user.getProjectId(), user.getUserId(), type);
+        HashCode version = version(bloomFilterBytes, pending);
+        CacheEntry entry = cache.getIfPresent(key);
+        if (entry != null && entry.getVersion().equals(version)) {
+            return Optional.of(entry.getBloomFilter());
+        }
+        ScalableBloomFilter bloomFilter = deserialize(bloomFilterBytes, pending);
+        cache.put(key, new CacheEntry(version, bloomFilter));
+        return Optional.of(bloomFilter);
+    }
+
+    /**
+     * Write-through after a filter has been persisted. Ownership of the filter is passed to the cache and it must
+     * not be modified afterwards.
+     */
+    public void put(UserModel user, BloomFilterType type, ScalableBloomFilter bloomFilter) {
+        if (!config.enabled()) {
+            return;
+        }
+        cache.put(new CacheKey(user.getProjectId(), user.getUserId(), type),
+                new CacheEntry(version(type.getBytesGetter().apply(user), type.getPendingGetter().apply(user)), bloomFilter));
+    }
+
+    public void invalidate(String projectId, String userId) {
+        for (BloomFilterType type : BloomFilterType.values()) {
+            cache.invalidate(new CacheKey(projectId, userId, type));
+        }
+    }
+
+    private HashCode version(byte[] bloomFilterBytes, ImmutableSet<String> pending) {
+        Hasher hasher = versionHashFunction.newHasher();
+        if (bloomFilterBytes != null) {
+            hasher.putBytes(bloomFilterBytes);
+        }
+        pending.stream().sorted().forEachOrdered(id -> hasher
+                .putChar(SEPARATOR)
+                .putString(id, Charsets.UTF_8));
+        return hasher.hash();
+    }
+
+    private ScalableBloomFilter deserialize(byte[] bloomFilterBytes, ImmutableSet<String> pending) {
+        ScalableBloomFilter bloomFilter = bloomFilterBytes != null
+                ? BloomFilters.scalableFromByteArray(bloomFilterBytes)
+                : ScalableBloomFilter.create(pending.size(), PENDING_ONLY_FALSE_POSITIVE_PROBABILITY);
+        pending.forEach(bloomFilter::put);
+        return bloomFilter;
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(BloomFilterCache.class).asEagerSingleton();
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
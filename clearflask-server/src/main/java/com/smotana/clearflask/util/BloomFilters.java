@@ -9,9 +9,10 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
- * Used for intercepting registration of already registered beans. Handles it by re-registering instead of throwing.
+ * Serialization of bloom filters persisted on user records.
  */
 @Slf4j
 public class BloomFilters {
@@ -31,4 +32,62 @@ public class BloomFilters {
             throw new RuntimeException(ex);
         }
     }
+
+    public static byte[] toByteArray(ScalableBloomFilter bloomFilter) {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            bloomFilter.writeTo(baos);
+            return baos.toByteArray();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Reads a {@link ScalableBloomFilter}, migrating filters persisted in the legacy Guava format into a single layer
+     * with default growth parameters. Only suitable for filters that are read, not grown.
+     */
+    public static ScalableBloomFilter scalableFromByteArray(byte[] bloomFilterBytes) {
+        return scalableFromByteArray(bloomFilterBytes,
+                ScalableBloomFilter.DEFAULT_GROWTH_FACTOR,
+                ScalableBloomFilter.DEFAULT_TIGHTENING_RATIO,
+                ScalableBloomFilter.DEFAULT_FILL_RATIO);
+    }
+
+    /**
+     * Reads a {@link ScalableBloomFilter}, migrating filters persisted in the legacy Guava format into a single layer.
+     * Growth parameters only apply to migrated filters, others keep the parameters they were persisted with.
+     */
+    public static ScalableBloomFilter scalableFromByteArray(byte[] bloomFilterBytes, int growthFactor, float tighteningRatio, float fillRatio) {
+        if (!isLegacyFormat(bloomFilterBytes)) {
+            try (ByteArrayInputStream bais = new ByteArrayInputStream(bloomFilterBytes)) {
+                return ScalableBloomFilter.readFrom(bais);
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        // Legacy filters do not store their capacity, derive it from the size and number of hash functions
+        // using the same formulas Guava uses to size them: k = m / n * ln(2) and p = 2^-k
+        ByteBuffer header = ByteBuffer.wrap(bloomFilterBytes);
+        header.get(); // Hashing strategy
+        int numHashFunctions = Byte.toUnsignedInt(header.get());
+        long numBits = header.getInt() * (long) Long.SIZE;
+        long expectedInsertions = Math.max(1L, Math.round(numBits * Math.log(2) / numHashFunctions));
+        float falsePositiveProbability = (float) Math.pow(2, -numHashFunctions);
+        return ScalableBloomFilter.wrap(
+                fromByteArray(bloomFilterBytes, ScalableBloomFilter.FUNNEL),
+                expectedInsertions,
+                falsePositiveProbability,
+                growthFactor,
+                tighteningRatio,
+                fillRatio);
+    }
+
+    /**
+     * Guava serializes its hashing strategy ordinal as the first byte, which never collides with
+     * {@link ScalableBloomFilter#MAGIC}.
+     */
+    public static boolean isLegacyFormat(byte[] bloomFilterBytes) {
+        return bloomFilterBytes.length > 0 && bloomFilterBytes[0] != ScalableBloomFilter.MAGIC;
+    }
 }
@@ -0,0 +1,77 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Ticker;
+
+import java.time.Duration;
+
+/**
+ * Consecutive failure circuit breaker.
+ * <p>
+ * Opens after a number of consecutive failures and rejects calls for the open duration. Afterwards a single trial
+ * call is let through; success closes the circuit, failure re-opens it for another open duration.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final Ticker ticker;
+
+    private int consecutiveFailures;
+    private long openedAt;
+    private State state = State.CLOSED;
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this(failureThreshold, openDuration, Ticker.systemTicker());
+    }
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration, Ticker ticker) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.ticker = ticker;
+    }
+
+    /**
+     * Returns whether a call should be attempted. When half open, only the first caller is allowed through until
+     * its outcome is recorded.
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (ticker.read() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                return true;
+            case HALF_OPEN:
+            default:
+                return false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = ticker.read();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -6,29 +6,50 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.api.model.HistogramInterval;
 import com.smotana.clearflask.api.model.HistogramResponse;
 import com.smotana.clearflask.api.model.HistogramResponsePoints;
 import com.smotana.clearflask.api.model.Hits;
+import com.smotana.clearflask.core.trace.Tracer;
 import com.smotana.clearflask.store.elastic.ActionListeners;
+import com.smotana.clearflask.store.elastic.ElasticSlowQueryLog;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.CreateIndexResponse;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MoreLikeThisQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.Aggregation;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
@@ -41,6 +62,7 @@ import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.LocalDate;
@@ -48,7 +70,9 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE_STR;
@@ -70,6 +94,24 @@ public class ElasticUtil {
             "type", "custom",
             "tokenizer", AUTOCOMPLETE_TOKENIZER_NAME);
 
+    public interface Config {
+        /**
+         * PER_PROJECT creates a set of indices for each project. SHARED places all projects in a few shared indices
+         * routed and filtered by projectId. Existing per-project indices can be moved over using
+         * ElasticIndexLayoutMigrator after switching to SHARED.
+         */
+        @DefaultValue("PER_PROJECT")
+        IndexLayout indexLayout();
+
+        @DefaultValue("5")
+        int sharedIndexShards();
+    }
+
+    public enum IndexLayout {
+        PER_PROJECT,
+        SHARED
+    }
+
     public interface ConfigSearch {
         @DefaultValue("100")
         int pageSizeMax();
@@ -97,6 +139,11 @@ public class ElasticUtil {
         FROM
     }
 
+    public static final String PROJECT_ID_FIELD = "projectId";
+    private static final String DOC_ID_SEPARATOR = ":";
+
+    @Inject
+    private Config config;
     @Inject
     @Named("cursor")
     private ServerSecret serverSecretCursor;
@@ -104,11 +151,187 @@ public class ElasticUtil {
     private Gson gson;
     @Inject
     private RestHighLevelClient elastic;
+    @Inject
+    private ElasticSlowQueryLog slowQueryLog;
+
+    /** Stored in the alias {@link #getSharedIndexName} is pointing to; bump to re-create with new settings. */
+    private static final int SHARED_INDEX_VERSION = 1;
+
+    private final Set<String> sharedIndicesCreated = Sets.newConcurrentHashSet();
+
+    public IndexLayout getIndexLayout() {
+        return config.indexLayout();
+    }
 
     public String getIndexName(String indexName, String projectId) {
+        return config.indexLayout() == IndexLayout.SHARED
+                ? getSharedIndexName(indexName)
+                : getPerProjectIndexName(indexName, projectId);
+    }
+
+    public String getPerProjectIndexName(String indexName, String projectId) {
         return indexName + "-" + projectId;
     }
 
+    /**
+     * Alias of the shared index. Underscores are used to never collide with a per-project index name.
+     */
+    public String getSharedIndexName(String indexName) {
+        return indexName + "_shared";
+    }
+
+    @VisibleForTesting
+    String getSharedIndexConcreteName(String indexName) {
+        return getSharedIndexName(indexName) + "_" + SHARED_INDEX_VERSION;
+    }
+
+    /**
+     * Ids are only unique within a project (e.g. account-linked users share user id across projects) so in a
+     * shared index, document ids are prefixed with the project id.
+     */
+    public String getDocId(String projectId, String id) {
+        return config.indexLayout() == IndexLayout.SHARED
+                ? projectId + DOC_ID_SEPARATOR + id
+                : id;
+    }
+
+    public String parseDocId(String projectId, String docId) {
+        String prefix = projectId + DOC_ID_SEPARATOR;
+        return docId.startsWith(prefix)
+                ? docId.substring(prefix.length())
+                : docId;
+    }
+
+    @Nullable
+    public String getRouting(String projectId) {
+        return config.indexLayout() == IndexLayout.SHARED
+                ? projectId
+                : null;
+    }
+
+    public QueryBuilder scopeQuery(String projectId, @Nullable QueryBuilder query) {
+        if (config.indexLayout() != IndexLayout.SHARED) {
+            return query;
+        }
+        BoolQueryBuilder scopedQuery = QueryBuilders.boolQuery()
+                .filter(QueryBuilders.termQuery(PROJECT_ID_FIELD, projectId));
+        if (query != null) {
+            scopedQuery.must(query);
+        }
+        return scopedQuery;
+    }
+
+    public IndexRequest indexRequest(String indexName, String projectId, String id) {
+        return new IndexRequest(getIndexName(indexName, projectId))
+                .id(getDocId(projectId, id))
+                .routing(getRouting(projectId));
+    }
+
+    public UpdateRequest updateRequest(String indexName, String projectId, String id) {
+        return new UpdateRequest(getIndexName(indexName, projectId), getDocId(projectId, id))
+                .routing(getRouting(projectId));
+    }
+
+    public DeleteRequest deleteRequest(String indexName, String projectId, String id) {
+        return new DeleteRequest(getIndexName(indexName, projectId), getDocId(projectId, id))
+                .routing(getRouting(projectId));
+    }
+
+    /**
+     * Reference to an indexed document, such as the like document of a more like this query. Points to the concrete
+     * index as the document is fetched by id which an alias does not support.
+     */
+    public MoreLikeThisQueryBuilder.Item moreLikeThisItem(String indexName, String projectId, String id) {
+        return new MoreLikeThisQueryBuilder.Item(
+                config.indexLayout() == IndexLayout.SHARED
+                        ? getSharedIndexConcreteName(indexName)
+                        : getPerProjectIndexName(indexName, projectId),
+                getDocId(projectId, id))
+                .routing(getRouting(projectId));
+    }
+
+    public SearchRequest searchRequest(String indexName, String projectId, SearchSourceBuilder source) {
+        return new SearchRequest(getIndexName(indexName, projectId))
+                .routing(getRouting(projectId))
+                .source(source.query(scopeQuery(projectId, source.query())));
+    }
+
+    public DeleteByQueryRequest deleteByQueryRequest(String indexName, String projectId, QueryBuilder query) {
+        DeleteByQueryRequest request = new DeleteByQueryRequest(getIndexName(indexName, projectId))
+                .setQuery(scopeQuery(projectId, query));
+        if (config.indexLayout() == IndexLayout.SHARED) {
+            request.setRouting(projectId);
+        }
+        return request;
+    }
+
+    /**
+     * Creates the project's index. In a shared layout, the shared index is created on first use with the request's
+     * settings and mappings, subsequent calls complete immediately.
+     */
+    public void createIndexAsync(String indexName, String projectId, CreateIndexRequest request, ActionListener<CreateIndexResponse> listener) {
+        if (config.indexLayout() != IndexLayout.SHARED) {
+            elastic.indices().createAsync(request, RequestOptions.DEFAULT, listener);
+            return;
+        }
+        String aliasName = getSharedIndexName(indexName);
+        if (sharedIndicesCreated.contains(aliasName)) {
+            listener.onResponse(new CreateIndexResponse(true, true, aliasName));
+            return;
+        }
+        elastic.indices().createAsync(toSharedCreateIndexRequest(indexName, request), RequestOptions.DEFAULT, new ActionListener<>() {
+            @Override
+            public void onResponse(CreateIndexResponse createIndexResponse) {
+                sharedIndicesCreated.add(aliasName);
+                listener.onResponse(createIndexResponse);
+            }
+
+            @Override
+            public void onFailure(Exception ex) {
+                if (ex instanceof ElasticsearchStatusException
+                        && ex.getMessage() != null
+                        && ex.getMessage().contains("resource_already_exists_exception")) {
+                    sharedIndicesCreated.add(aliasName);
+                    listener.onResponse(new CreateIndexResponse(true, true, aliasName));
+                } else {
+                    listener.onFailure(ex);
+                }
+            }
+        });
+    }
+
+    @VisibleForTesting
+    CreateIndexRequest toSharedCreateIndexRequest(String indexName, CreateIndexRequest request) {
+        Map<String, Object> mapping = request.mappings() == null
+                ? Maps.newHashMap()
+                : Maps.newHashMap(XContentHelper.convertToMap(request.mappings(), true, request.mappingsXContentType()).v2());
+        Map<String, Object> properties = Maps.newHashMap((Map<String, Object>) mapping.getOrDefault("properties", ImmutableMap.of()));
+        properties.put(PROJECT_ID_FIELD, ImmutableMap.of("type", "keyword"));
+        mapping.put("properties", properties);
+        mapping.put("_routing", ImmutableMap.of("required", true));
+        return new CreateIndexRequest(getSharedIndexConcreteName(indexName))
+                .settings(Settings.builder()
+                        .put(request.settings())
+                        .put("index.number_of_shards", config.sharedIndexShards()))
+                .mapping(mapping)
+                .alias(new Alias(getSharedIndexName(indexName)));
+    }
+
+    /**
+     * Deletes the project's index. In a shared layout, only the project's documents are deleted.
+     */
+    public void deleteIndexAsync(String indexName, String projectId, ActionListener<AcknowledgedResponse> listener) {
+        if (config.indexLayout() != IndexLayout.SHARED) {
+            elastic.indices().deleteAsync(new DeleteIndexRequest(getIndexName(indexName, projectId)),
+                    RequestOptions.DEFAULT, listener);
+            return;
+        }
+        DeleteByQueryRequest request = deleteByQueryRequest(indexName, projectId, null);
+        request.setConflicts("proceed");
+        elastic.deleteByQueryAsync(request, RequestOptions.DEFAULT,
+                ActionListener.map(listener, response -> new AcknowledgedResponse(true)));
+    }
+
     public SearchResponseWithCursor searchWithCursor(
             SearchRequest searchRequest,
             Optional<String> cursorOpt,
@@ -118,6 +341,19 @@ public class ElasticUtil {
             Optional<Integer> sizeOpt,
             ConfigSearch configSearch,
             ImmutableSet<String> sourceIncludes) {
+        return Tracer.trace("ElasticUtil.searchWithCursor", () -> doSearchWithCursor(searchRequest, cursorOpt, sortFields,
+                sortOrderOpt, useAccurateCursor, sizeOpt, configSearch, sourceIncludes));
+    }
+
+    private SearchResponseWithCursor doSearchWithCursor(
+            SearchRequest searchRequest,
+            Optional<String> cursorOpt,
+            ImmutableList<String> sortFields,
+            Optional<SortOrder> sortOrderOpt,
+            boolean useAccurateCursor,
+            Optional<Integer> sizeOpt,
+            ConfigSearch configSearch,
+            ImmutableSet<String> sourceIncludes) {
         checkArgument(searchRequest.source() != null);
 
         Optional<String> cursorDecryptedOpt = cursorOpt.map(serverSecretCursor::decryptString);
@@ -170,6 +406,7 @@ public class ElasticUtil {
 
                 // Finally run the search
                 searchResponse = elastic.search(searchRequest, RequestOptions.DEFAULT);
+                slowQueryLog.record(searchRequest, searchResponse);
             }
         } catch (IOException ex) {
             throw new RuntimeException(ex);
@@ -215,6 +452,7 @@ public class ElasticUtil {
 
     public HistogramResponse histogram(
             String indexName,
+            String projectId,
             String aggregateFieldName,
             Optional<LocalDate> startOpt,
             Optional<LocalDate> endOpt,
@@ -261,7 +499,7 @@ public class ElasticUtil {
         if (startBound.isPresent() || endBound.isPresent()) {
             histogramAggregation.hardBounds(new LongBounds(startBound.orElse(null), endBound.orElse(null)));
         }
-        SearchRequest searchRequest = new SearchRequest(indexName).source(new SearchSourceBuilder()
+        SearchRequest searchRequest = searchRequest(indexName, projectId, new SearchSourceBuilder()
                 .fetchSource(false)
                 .query(queryOpt.orElse(null))
                 .size(0)
@@ -272,6 +510,7 @@ public class ElasticUtil {
         org.elasticsearch.action.search.SearchResponse search;
         try {
             search = elastic.search(searchRequest, RequestOptions.DEFAULT);
+            slowQueryLog.record(searchRequest, search);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
@@ -322,7 +561,9 @@ public class ElasticUtil {
         return new AbstractModule() {
             @Override
             protected void configure() {
+                install(ConfigSystem.configModule(Config.class));
                 bind(ElasticUtil.class).asEagerSingleton();
+                install(ElasticSlowQueryLog.module());
             }
         };
     }
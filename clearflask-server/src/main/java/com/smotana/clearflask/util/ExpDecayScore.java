@@ -21,4 +21,14 @@ public class ExpDecayScore {
         double v = Math.min(prevScore, rate * timeInMillis);
         return u + Math.log1p(Math.exp(v - u));
     }
+
+    /**
+     * Folds two score updates into one: updating with the returned time is equivalent to updating with both times,
+     * in any order. Result may be fractional.
+     */
+    public double mergeTimes(double timeInMillis1, double timeInMillis2) {
+        double u = Math.max(rate * timeInMillis1, rate * timeInMillis2);
+        double v = Math.min(rate * timeInMillis1, rate * timeInMillis2);
+        return (u + Math.log1p(Math.exp(v - u))) / rate;
+    }
 }
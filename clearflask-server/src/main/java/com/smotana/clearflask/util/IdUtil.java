@@ -22,11 +22,7 @@ public class IdUtil {
     }
 
     public static String contentUnique(String content) {
-        String contentPart = StringUtils.left(content, 50)
-                .toLowerCase()
-                .replaceAll("[^0-9a-z ]+", "")
-                .replaceAll(" +", "-")
-                .trim();
+        String contentPart = contentPart(content);
         int randomChars;
         if (contentPart.length() < 5) {
             randomChars = 8;
@@ -41,6 +37,22 @@ public class IdUtil {
                 .toLowerCase();
     }
 
+    /**
+     * Same as {@link #contentUnique(String)} except with a given unique part instead of random characters.
+     */
+    public static String contentUnique(String content, String uniquePart) {
+        return (contentPart(content) + '-' + uniquePart)
+                .toLowerCase();
+    }
+
+    private static String contentPart(String content) {
+        return StringUtils.left(content, 50)
+                .toLowerCase()
+                .replaceAll("[^0-9a-z ]+", "")
+                .replaceAll(" +", "-")
+                .trim();
+    }
+
     public static String randomId(int charCount) {
         return UUID.randomUUID().toString().replace("-", "")
                 .substring(0, charCount);
@@ -0,0 +1,235 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layered bloom filter that grows as elements are added.
+ * <p>
+ * Once the estimated number of elements in the newest layer reaches its capacity times the fill ratio, a new layer is
+ * added with capacity scaled by the growth factor and false positive probability scaled by the tightening ratio. The
+ * compound false positive probability therefore stays bounded no matter how many elements are inserted.
+ * <p>
+ * Not thread-safe for concurrent puts; instances shared across threads must be copied before modification.
+ */
+@ToString
+@EqualsAndHashCode
+public final class ScalableBloomFilter {
+
+    /**
+     * First byte of the serialized form. Legacy Guava filters start with a hashing strategy ordinal which is never
+     * this value, see {@link BloomFilters#isLegacyFormat(byte[])}.
+     */
+    static final byte MAGIC = (byte) 0xB5;
+    static final byte FORMAT_VERSION = 1;
+    static final int MAX_LAYERS = 0xFF;
+    static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(Charsets.UTF_8);
+
+    public static final int DEFAULT_GROWTH_FACTOR = 2;
+    public static final String DEFAULT_GROWTH_FACTOR_STR = "2";
+    public static final float DEFAULT_TIGHTENING_RATIO = 0.5f;
+    public static final String DEFAULT_TIGHTENING_RATIO_STR = "0.5";
+    public static final float DEFAULT_FILL_RATIO = 0.9f;
+    public static final String DEFAULT_FILL_RATIO_STR = "0.9";
+
+    @Getter
+    @ToString
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class Layer {
+        private final long expectedInsertions;
+        private final float falsePositiveProbability;
+        private final BloomFilter<CharSequence> bloomFilter;
+
+        Layer copy() {
+            return new Layer(expectedInsertions, falsePositiveProbability, bloomFilter.copy());
+        }
+    }
+
+    @Getter
+    private final int growthFactor;
+    @Getter
+    private final float tighteningRatio;
+    @Getter
+    private final float fillRatio;
+    private final List<Layer> layers;
+
+    private ScalableBloomFilter(int growthFactor, float tighteningRatio, float fillRatio, List<Layer> layers) {
+        this.growthFactor = growthFactor;
+        this.tighteningRatio = tighteningRatio;
+        this.fillRatio = fillRatio;
+        this.layers = layers;
+    }
+
+    public static ScalableBloomFilter create(long expectedInsertions, double falsePositiveProbability) {
+        return create(expectedInsertions, falsePositiveProbability, DEFAULT_GROWTH_FACTOR, DEFAULT_TIGHTENING_RATIO, DEFAULT_FILL_RATIO);
+    }
+
+    public static ScalableBloomFilter create(long expectedInsertions, double falsePositiveProbability, int growthFactor, float tighteningRatio, float fillRatio) {
+        Preconditions.checkArgument(expectedInsertions > 0, "Expected insertions must be positive");
+        Preconditions.checkArgument(growthFactor >= 1 && growthFactor <= 0xFF, "Growth factor must be between 1 and 255");
+        Preconditions.checkArgument(tighteningRatio > 0f && tighteningRatio <= 1f, "Tightening ratio must be in (0, 1]");
+        Preconditions.checkArgument(fillRatio > 0f && fillRatio <= 1f, "Fill ratio must be in (0, 1]");
+        List<Layer> layers = new ArrayList<>();
+        layers.add(createLayer(expectedInsertions, (float) falsePositiveProbability));
+        return new ScalableBloomFilter(growthFactor, tighteningRatio, fillRatio, layers);
+    }
+
+    /**
+     * Wraps an existing Guava bloom filter as the first layer.
+     */
+    static ScalableBloomFilter wrap(BloomFilter<CharSequence> bloomFilter, long expectedInsertions, float falsePositiveProbability, int growthFactor, float tighteningRatio, float fillRatio) {
+        Preconditions.checkArgument(growthFactor >= 1 && growthFactor <= 0xFF, "Growth factor must be between 1 and 255");
+        Preconditions.checkArgument(tighteningRatio > 0f && tighteningRatio <= 1f, "Tightening ratio must be in (0, 1]");
+        Preconditions.checkArgument(fillRatio > 0f && fillRatio <= 1f, "Fill ratio must be in (0, 1]");
+        List<Layer> layers = new ArrayList<>();
+        layers.add(new Layer(expectedInsertions, falsePositiveProbability, bloomFilter));
+        return new ScalableBloomFilter(growthFactor, tighteningRatio, fillRatio, layers);
+    }
+
+    public boolean mightContain(CharSequence element) {
+        for (Layer layer : layers) {
+            if (layer.getBloomFilter().mightContain(element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the filter changed as a result of this operation, same semantics as {@link BloomFilter#put(Object)}
+     */
+    public boolean put(CharSequence element) {
+        if (mightContain(element)) {
+            return false;
+        }
+        Layer current = layers.get(layers.size() - 1);
+        if (layers.size() < MAX_LAYERS
+                && current.getBloomFilter().approximateElementCount() >= current.getExpectedInsertions() * fillRatio) {
+            current = createLayer(
+                    current.getExpectedInsertions() * growthFactor,
+                    current.getFalsePositiveProbability() * tighteningRatio);
+            layers.add(current);
+        }
+        return current.getBloomFilter().put(element);
+    }
+
+    public ScalableBloomFilter copy() {
+        List<Layer> layersCopy = new ArrayList<>(layers.size());
+        layers.forEach(layer -> layersCopy.add(layer.copy()));
+        return new ScalableBloomFilter(growthFactor, tighteningRatio, fillRatio, layersCopy);
+    }
+
+    public int getLayerCount() {
+        return layers.size();
+    }
+
+    public long approximateElementCount() {
+        return layers.stream()
+                .mapToLong(layer -> layer.getBloomFilter().approximateElementCount())
+                .sum();
+    }
+
+    /**
+     * Total capacity across all layers before a new layer would be added.
+     */
+    public long getCapacity() {
+        return layers.stream()
+                .mapToLong(Layer::getExpectedInsertions)
+                .sum();
+    }
+
+    /**
+     * Probability that {@link #mightContain} erroneously returns true given the current fill of each layer.
+     */
+    public double expectedFpp() {
+        double notFalsePositive = 1d;
+        for (Layer layer : layers) {
+            notFalsePositive *= 1d - layer.getBloomFilter().expectedFpp();
+        }
+        return 1d - notFalsePositive;
+    }
+
+    /**
+     * Estimated fill of the newest layer relative to its capacity.
+     */
+    public double getFill() {
+        Layer current = layers.get(layers.size() - 1);
+        return (double) current.getBloomFilter().approximateElementCount() / current.getExpectedInsertions();
+    }
+
+    public ImmutableList<Long> getLayerCapacities() {
+        return layers.stream()
+                .map(Layer::getExpectedInsertions)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * Serialized form: magic byte, format version, growth factor, tightening ratio, fill ratio and layer count
+     * followed by each layer's capacity, false positive probability and Guava serialized filter.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.writeByte(MAGIC);
+        dout.writeByte(FORMAT_VERSION);
+        dout.writeByte(growthFactor);
+        dout.writeFloat(tighteningRatio);
+        dout.writeFloat(fillRatio);
+        dout.writeByte(layers.size());
+        for (Layer layer : layers) {
+            dout.writeLong(layer.getExpectedInsertions());
+            dout.writeFloat(layer.getFalsePositiveProbability());
+            layer.getBloomFilter().writeTo(dout);
+        }
+        dout.flush();
+    }
+
+    public static ScalableBloomFilter readFrom(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        byte magic = din.readByte();
+        if (magic != MAGIC) {
+            throw new IOException("Not a scalable bloom filter, unexpected magic byte " + magic);
+        }
+        int formatVersion = din.readUnsignedByte();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported scalable bloom filter format version " + formatVersion);
+        }
+        int growthFactor = din.readUnsignedByte();
+        float tighteningRatio = din.readFloat();
+        float fillRatio = din.readFloat();
+        int layerCount = din.readUnsignedByte();
+        if (layerCount < 1) {
+            throw new IOException("Scalable bloom filter has no layers");
+        }
+        List<Layer> layers = new ArrayList<>(layerCount);
+        for (int i = 0; i < layerCount; i++) {
+            long expectedInsertions = din.readLong();
+            float falsePositiveProbability = din.readFloat();
+            layers.add(new Layer(expectedInsertions, falsePositiveProbability, BloomFilter.readFrom(din, FUNNEL)));
+        }
+        return new ScalableBloomFilter(growthFactor, tighteningRatio, fillRatio, layers);
+    }
+
+    private static Layer createLayer(long expectedInsertions, float falsePositiveProbability) {
+        return new Layer(expectedInsertions, falsePositiveProbability,
+                BloomFilter.create(FUNNEL, expectedInsertions, falsePositiveProbability));
+    }
+}
@@ -0,0 +1,72 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Estimates per key write rate as seen by this node.
+ * <p>
+ * Sliding window is approximated by weighting the previous fixed window by how much of it still overlaps.
+ * Keys without recent writes are evicted.
+ */
+public class WriteRateEstimator {
+
+    private final long windowNanos;
+    private final Ticker ticker;
+    private final Cache<String, Window> windows;
+
+    public WriteRateEstimator(Duration window, long maxKeys) {
+        this(window, maxKeys, Ticker.systemTicker());
+    }
+
+    public WriteRateEstimator(Duration window, long maxKeys, Ticker ticker) {
+        this.windowNanos = window.toNanos();
+        this.ticker = ticker;
+        this.windows = CacheBuilder.newBuilder()
+                .expireAfterAccess(window.multipliedBy(2))
+                .maximumSize(maxKeys)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Records a single write and returns the estimated writes per second including this one.
+     */
+    public double recordAndGetRate(String key) {
+        Window window;
+        try {
+            window = windows.get(key, () -> new Window(ticker.read()));
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+        return window.recordAndGetRate(ticker.read());
+    }
+
+    private class Window {
+        private long start;
+        private long count;
+        private long prevCount;
+
+        private Window(long start) {
+            this.start = start;
+        }
+
+        private synchronized double recordAndGetRate(long now) {
+            long elapsedWindows = (now - start) / windowNanos;
+            if (elapsedWindows > 0) {
+                prevCount = elapsedWindows == 1 ? count : 0L;
+                count = 0L;
+                start += elapsedWindows * windowNanos;
+            }
+            count++;
+            double prevWeight = 1d - (double) (now - start) / windowNanos;
+            return (prevCount * prevWeight + count) * 1_000_000_000d / windowNanos;
+        }
+    }
+}
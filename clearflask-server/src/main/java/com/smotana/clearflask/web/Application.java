@@ -11,6 +11,8 @@ import com.kik.config.ice.ConfigSystem;
 import com.kik.config.ice.annotations.DefaultValue;
 import com.smotana.clearflask.core.ServiceInjector;
 import com.smotana.clearflask.security.limiter.LimiterDynamicFeature;
+import com.smotana.clearflask.web.filter.MetricsEventListener;
+import com.smotana.clearflask.web.filter.TracingEventListener;
 import com.smotana.clearflask.web.security.AuthenticationFilter;
 import io.sentry.Sentry;
 import lombok.extern.slf4j.Slf4j;
@@ -62,6 +64,8 @@ public class Application extends ResourceConfig {
         register(AuthenticationFilter.class);
         register(RolesAllowedDynamicFeature.class);
         register(LimiterDynamicFeature.class);
+        register(MetricsEventListener.class);
+        register(TracingEventListener.class);
 
         log.info("Initializing HK2-Guice bridge");
         GuiceBridge.getGuiceBridge().initializeGuiceBridge(serviceLocator);
@@ -0,0 +1,100 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.web.filter;
+
+import com.google.common.collect.Maps;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.web.ApiException;
+import lombok.extern.slf4j.Slf4j;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.inject.Inject;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.smotana.clearflask.core.metrics.Metrics.PREFIX;
+
+/**
+ * Latency and response status class of every resource method.
+ * <p>
+ * Uses Jersey request events rather than a response filter, since {@link ApiException}s are not mapped by Jersey
+ * and would skip response filters.
+ */
+@Slf4j
+public class MetricsEventListener implements ApplicationEventListener {
+
+    @Inject
+    private Metrics metrics;
+
+    private final ConcurrentMap<Method, EndpointMetrics> endpointMetrics = Maps.newConcurrentMap();
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+        // No-op
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return new RequestMetrics(System.nanoTime());
+    }
+
+    private EndpointMetrics getEndpointMetrics(ResourceMethod resourceMethod) {
+        Method method = resourceMethod.getInvocable().getDefinitionMethod();
+        EndpointMetrics metrics = endpointMetrics.get(method);
+        if (metrics == null) {
+            metrics = endpointMetrics.computeIfAbsent(method, m -> new EndpointMetrics(
+                    m.getDeclaringClass().getSimpleName() + "." + m.getName()));
+        }
+        return metrics;
+    }
+
+    private class RequestMetrics implements RequestEventListener {
+        private final long startNanos;
+
+        private RequestMetrics(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void onEvent(RequestEvent event) {
+            if (event.getType() != RequestEvent.Type.FINISHED) {
+                return;
+            }
+            ResourceMethod resourceMethod = event.getUriInfo().getMatchedResourceMethod();
+            if (resourceMethod == null) {
+                return;
+            }
+            int status;
+            if (event.getContainerResponse() != null) {
+                status = event.getContainerResponse().getStatus();
+            } else if (event.getException() instanceof ApiException) {
+                status = ((ApiException) event.getException()).getStatus().getStatusCode();
+            } else if (event.getException() != null && event.getException().getCause() instanceof ApiException) {
+                status = ((ApiException) event.getException().getCause()).getStatus().getStatusCode();
+            } else {
+                status = 500;
+            }
+            EndpointMetrics metrics = getEndpointMetrics(resourceMethod);
+            metrics.latency.recordSince(startNanos);
+            metrics.responsesByStatusClass[Math.max(1, Math.min(5, status / 100))].increment();
+        }
+    }
+
+    private class EndpointMetrics {
+        private final Metrics.Timer latency;
+        private final Metrics.Counter[] responsesByStatusClass = new Metrics.Counter[6];
+
+        private EndpointMetrics(String endpoint) {
+            latency = metrics.timer(PREFIX + "http_request_duration_seconds", "Resource method latency",
+                    "endpoint", endpoint);
+            for (int i = 1; i < responsesByStatusClass.length; i++) {
+                responsesByStatusClass[i] = metrics.counter(PREFIX + "http_responses_total", "Resource method responses by status class",
+                        "endpoint", endpoint, "status", i + "xx");
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.web.filter;
+
+import com.smotana.clearflask.core.trace.Span;
+import com.smotana.clearflask.core.trace.Tracer;
+import lombok.extern.slf4j.Slf4j;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.inject.Inject;
+import java.lang.reflect.Method;
+
+/**
+ * Opens a trace for every request, named after the matched resource method.
+ * <p>
+ * Request events are delivered on the request thread, so the root span is current for the whole resource method.
+ */
+@Slf4j
+public class TracingEventListener implements ApplicationEventListener {
+
+    @Inject
+    private Tracer tracer;
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+        // No-op
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        Span root = tracer.startTrace(requestEvent.getContainerRequest().getMethod()
+                + " " + requestEvent.getUriInfo().getPath());
+        return root.isNoop() ? null : new RequestTrace(root);
+    }
+
+    private static class RequestTrace implements RequestEventListener {
+        private final Span root;
+
+        private RequestTrace(Span root) {
+            this.root = root;
+        }
+
+        @Override
+        public void onEvent(RequestEvent event) {
+            switch (event.getType()) {
+                case RESOURCE_METHOD_START:
+                    ResourceMethod resourceMethod = event.getUriInfo().getMatchedResourceMethod();
+                    if (resourceMethod != null) {
+                        Method method = resourceMethod.getInvocable().getDefinitionMethod();
+                        root.rename(method.getDeclaringClass().getSimpleName() + "." + method.getName());
+                    }
+                    break;
+                case ON_EXCEPTION:
+                    if (event.getException() != null) {
+                        root.error(event.getException());
+                    }
+                    break;
+                case FINISHED:
+                    if (event.getContainerResponse() != null) {
+                        root.attribute("http.status_code", event.getContainerResponse().getStatus());
+                    }
+                    root.close();
+                    break;
+            }
+        }
+    }
+}
@@ -2,7 +2,6 @@
 // SPDX-License-Identifier: AGPL-3.0-only
 package com.smotana.clearflask.web.resource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
@@ -10,8 +9,6 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
@@ -47,7 +44,9 @@ import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
-import com.smotana.clearflask.util.BloomFilters;
+import com.smotana.clearflask.util.BloomFilterCache;
+import com.smotana.clearflask.util.BloomFilterCache.BloomFilterType;
+import com.smotana.clearflask.util.ScalableBloomFilter;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
@@ -83,6 +82,8 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
     @Inject
     private UserStore userStore;
     @Inject
+    private BloomFilterCache bloomFilterCache;
+    @Inject
     private ProjectStore projectStore;
     @Inject
     private VoteStore voteStore;
@@ -263,8 +264,7 @@ public class CommentResource extends AbstractResource implements CommentAdminApi
                 .flatMap(userId -> userStore.getUser(projectId, userId));
         Map<String, VoteOption> voteResults = ImmutableMap.of();
         if (userOpt.isPresent()) {
-            Optional<BloomFilter<CharSequence>> bloomFilterOpt = userOpt.map(UserModel::getCommentVoteBloom)
-                    .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+            Optional<ScalableBloomFilter> bloomFilterOpt = bloomFilterCache.get(userOpt.get(), BloomFilterType.COMMENT_VOTE);
             voteResults = Maps.transformValues(
                     voteStore.voteSearch(projectId, userOpt.get().getUserId(), comments.stream()
                             .filter(comment -> userOpt.get().getUserId().equals(comment.getAuthorUserId())
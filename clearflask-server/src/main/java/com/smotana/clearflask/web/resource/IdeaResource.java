@@ -2,13 +2,11 @@
 // SPDX-License-Identifier: AGPL-3.0-only
 package com.smotana.clearflask.web.resource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.hash.Funnels;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
@@ -60,7 +58,8 @@ import com.smotana.clearflask.store.UserStore.UserSession;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
 import com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider;
-import com.smotana.clearflask.util.BloomFilters;
+import com.smotana.clearflask.util.BloomFilterCache;
+import com.smotana.clearflask.util.BloomFilterCache.BloomFilterType;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
@@ -100,6 +99,8 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     @Inject
     private UserStore userStore;
     @Inject
+    private BloomFilterCache bloomFilterCache;
+    @Inject
     private ProjectStore projectStore;
     @Inject
     private Billing billing;
@@ -157,6 +158,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 null,
                 ImmutableSet.of(),
                 null,
+                null,
                 null);
         boolean votingAllowed = project.isVotingAllowed(VoteValue.Upvote, ideaModel.getCategoryId(), Optional.ofNullable(ideaModel.getStatusId()));
         if (votingAllowed) {
@@ -226,6 +228,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 null,
                 ImmutableSet.of(),
                 ideaCreateAdmin.getOrder(),
+                null,
                 null);
         boolean votingAllowed = project.isVotingAllowed(VoteValue.Upvote, ideaModel.getCategoryId(), Optional.ofNullable(ideaModel.getStatusId()));
         try {
@@ -631,27 +634,27 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
         boolean isAuthor = user.getUserId().equals(idea.getAuthorUserId());
         Optional<VoteOption> voteOptionOpt = Optional.empty();
         if (isAuthor
-                || user.getVoteBloom() != null
-                && BloomFilters.fromByteArray(user.getVoteBloom(), Funnels.stringFunnel(Charsets.UTF_8))
-                .mightContain(idea.getIdeaId())) {
+                || bloomFilterCache.get(user, BloomFilterType.VOTE)
+                .filter(bloomFilter -> bloomFilter.mightContain(idea.getIdeaId()))
+                .isPresent()) {
             voteOptionOpt = Optional.ofNullable(voteStore.voteSearch(user.getProjectId(), user.getUserId(), ImmutableSet.of(idea.getIdeaId()))
                             .get(idea.getIdeaId()))
                     .map(voteModel -> VoteValue.fromValue(voteModel.getVote()).toVoteOption());
         }
         Optional<List<String>> expressionOpt = Optional.empty();
         if (isAuthor
-                || user.getExpressBloom() != null
-                && BloomFilters.fromByteArray(user.getExpressBloom(), Funnels.stringFunnel(Charsets.UTF_8))
-                .mightContain(idea.getIdeaId())) {
+                || bloomFilterCache.get(user, BloomFilterType.EXPRESS)
+                .filter(bloomFilter -> bloomFilter.mightContain(idea.getIdeaId()))
+                .isPresent()) {
             expressionOpt = Optional.ofNullable(voteStore.expressSearch(user.getProjectId(), user.getUserId(), ImmutableSet.of(idea.getIdeaId()))
                             .get(idea.getIdeaId()))
                     .map(expressModel -> expressModel.getExpressions().asList());
         }
         Optional<Long> fundAmountOpt = Optional.empty();
         if (isAuthor
-                || user.getFundBloom() != null
-                && BloomFilters.fromByteArray(user.getFundBloom(), Funnels.stringFunnel(Charsets.UTF_8))
-                .mightContain(idea.getIdeaId())) {
+                || bloomFilterCache.get(user, BloomFilterType.FUND)
+                .filter(bloomFilter -> bloomFilter.mightContain(idea.getIdeaId()))
+                .isPresent()) {
             fundAmountOpt = Optional.ofNullable(voteStore.fundSearch(user.getProjectId(), user.getUserId(), ImmutableSet.of(idea.getIdeaId()))
                             .get(idea.getIdeaId()))
                     .map(VoteStore.FundModel::getFundAmount);
@@ -666,8 +669,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
     }
 
     private ImmutableList<IdeaWithVote> toIdeasWithVotes(UserModel user, ImmutableCollection<IdeaModel> ideas) {
-        ImmutableMap<String, VoteStore.VoteModel> voteResults = Optional.ofNullable(user.getVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
+        ImmutableMap<String, VoteStore.VoteModel> voteResults = bloomFilterCache.get(user, BloomFilterType.VOTE)
                 .map(bloomFilter -> ideas.stream()
                         .filter(idea -> user.getUserId().equals(idea.getAuthorUserId()) || bloomFilter.mightContain(idea.getIdeaId()))
                         .map(IdeaModel::getIdeaId)
@@ -675,8 +677,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 .map(ideaIds -> voteStore.voteSearch(user.getProjectId(), user.getUserId(), ideaIds))
                 .orElse(ImmutableMap.of());
 
-        ImmutableMap<String, VoteStore.ExpressModel> expressResults = Optional.ofNullable(user.getExpressBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
+        ImmutableMap<String, VoteStore.ExpressModel> expressResults = bloomFilterCache.get(user, BloomFilterType.EXPRESS)
                 .map(bloomFilter -> ideas.stream()
                         .filter(idea -> user.getUserId().equals(idea.getAuthorUserId()) || bloomFilter.mightContain(idea.getIdeaId()))
                         .map(IdeaModel::getIdeaId)
@@ -684,8 +685,7 @@ public class IdeaResource extends AbstractResource implements IdeaApi, IdeaAdmin
                 .map(ideaIds -> voteStore.expressSearch(user.getProjectId(), user.getUserId(), ideaIds))
                 .orElse(ImmutableMap.of());
 
-        ImmutableMap<String, VoteStore.FundModel> fundResults = Optional.ofNullable(user.getFundBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)))
+        ImmutableMap<String, VoteStore.FundModel> fundResults = bloomFilterCache.get(user, BloomFilterType.FUND)
                 .map(bloomFilter -> ideas.stream()
                         .filter(idea -> user.getUserId().equals(idea.getAuthorUserId()) || bloomFilter.mightContain(idea.getIdeaId()))
                         .map(IdeaModel::getIdeaId)
@@ -0,0 +1,69 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.web.resource;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.google.inject.multibindings.Multibinder;
+import com.google.inject.name.Names;
+import com.smotana.clearflask.web.ApiException;
+import com.smotana.clearflask.web.Application;
+import com.smotana.clearflask.web.security.Role;
+import com.smotana.clearflask.web.util.CsvImporter;
+import com.smotana.clearflask.web.util.CsvImporter.ImportJobStatus;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.security.RolesAllowed;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Progress and resumption of imports started by {@link ProjectResource#projectImportPostAdmin}.
+ */
+@Slf4j
+@Singleton
+@Path(Application.RESOURCE_VERSION)
+public class ImportJobResource {
+
+    @Inject
+    private CsvImporter csvImporter;
+
+    @RolesAllowed({Role.PROJECT_ADMIN})
+    @GET
+    @Path("/project/{projectId}/admin/import/job/{jobId}")
+    @Consumes(MediaType.WILDCARD)
+    @Produces(MediaType.APPLICATION_JSON)
+    public ImportJobStatus importJobGetAdmin(@PathParam("projectId") String projectId, @PathParam("jobId") String jobId) {
+        return csvImporter.getStatus(projectId, jobId)
+                .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "Import not found"));
+    }
+
+    @RolesAllowed({Role.PROJECT_ADMIN})
+    @POST
+    @Path("/project/{projectId}/admin/import/job/{jobId}/resume")
+    @Consumes(MediaType.WILDCARD)
+    @Produces(MediaType.APPLICATION_JSON)
+    public ImportJobStatus importJobResumeAdmin(@PathParam("projectId") String projectId, @PathParam("jobId") String jobId) {
+        return csvImporter.resume(projectId, jobId)
+                .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "Import not found"));
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ImportJobResource.class);
+                Multibinder.newSetBinder(binder(), Object.class, Names.named(Application.RESOURCE_NAME)).addBinding()
+                        .to(ImportJobResource.class);
+            }
+        };
+    }
+}
@@ -0,0 +1,76 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.web.resource;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.google.inject.multibindings.Multibinder;
+import com.google.inject.name.Names;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.web.ApiException;
+import com.smotana.clearflask.web.Application;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+@Slf4j
+@Singleton
+@Path("/")
+public class MetricsResource {
+
+    public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public interface Config {
+        /**
+         * Endpoint is unauthenticated, only enable where it is reachable from internal networks alone.
+         */
+        @DefaultValue("false")
+        boolean enabled();
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private Metrics metrics;
+
+    @GET
+    @Path("metrics")
+    @Consumes(MediaType.WILDCARD)
+    @Produces(PROMETHEUS_CONTENT_TYPE)
+    public StreamingOutput metrics() {
+        if (!config.enabled()) {
+            throw new ApiException(Response.Status.NOT_FOUND, "Metrics are disabled");
+        }
+        return outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            metrics.writePrometheus(writer);
+            writer.flush();
+        };
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(MetricsResource.class);
+                install(ConfigSystem.configModule(Config.class));
+                Multibinder.newSetBinder(binder(), Object.class, Names.named(Application.RESOURCE_NAME)).addBinding()
+                        .to(MetricsResource.class);
+            }
+        };
+    }
+}
@@ -2,15 +2,15 @@
 // SPDX-License-Identifier: AGPL-3.0-only
 package com.smotana.clearflask.web.resource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
@@ -26,7 +26,6 @@ import com.smotana.clearflask.api.model.ConfigAndBindAllResult;
 import com.smotana.clearflask.api.model.ConfigAndBindAllResultByProjectId;
 import com.smotana.clearflask.api.model.ConfigAndUserBindSlugResult;
 import com.smotana.clearflask.api.model.ConfigBindSlugResult;
-import com.smotana.clearflask.api.model.IdeaStatus;
 import com.smotana.clearflask.api.model.ImportResponse;
 import com.smotana.clearflask.api.model.InvitationAdmin;
 import com.smotana.clearflask.api.model.NewProjectResult;
@@ -34,7 +33,6 @@ import com.smotana.clearflask.api.model.Onboarding;
 import com.smotana.clearflask.api.model.ProjectAdmin;
 import com.smotana.clearflask.api.model.ProjectAdminsInviteResult;
 import com.smotana.clearflask.api.model.ProjectAdminsListResult;
-import com.smotana.clearflask.api.model.Tag;
 import com.smotana.clearflask.api.model.UserBind;
 import com.smotana.clearflask.api.model.UserBindResponse;
 import com.smotana.clearflask.api.model.VersionedConfigAdmin;
@@ -46,6 +44,7 @@ import com.smotana.clearflask.security.limiter.Limit;
 import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.AccountStore.Account;
 import com.smotana.clearflask.store.CommentStore;
+import com.smotana.clearflask.store.CommentStore.CommentModel;
 import com.smotana.clearflask.store.DraftStore;
 import com.smotana.clearflask.store.GitHubStore;
 import com.smotana.clearflask.store.IdeaStore;
@@ -63,10 +62,14 @@ import com.smotana.clearflask.web.security.AuthenticationFilter;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext.ExtendedPrincipal;
 import com.smotana.clearflask.web.security.Role;
 import com.smotana.clearflask.web.security.UserBindUtil;
+import com.smotana.clearflask.web.util.CsvImporter;
+import com.smotana.clearflask.web.util.CsvImporter.ImportJobStatus;
+import com.smotana.clearflask.web.util.IdeaImportHandler;
+import com.smotana.clearflask.web.util.IdeaImportHandler.IdeaImportParams;
+import com.smotana.clearflask.web.util.ZipCsvExporter;
+import com.smotana.clearflask.web.util.ZipCsvExporter.CsvEntry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVPrinter;
 import org.elasticsearch.action.support.WriteResponse;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.client.indices.CreateIndexResponse;
@@ -84,19 +87,16 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import static com.smotana.clearflask.web.resource.UserResource.USER_AUTH_COOKIE_NAME_PREFIX;
 
@@ -106,11 +106,21 @@ import static com.smotana.clearflask.web.resource.UserResource.USER_AUTH_COOKIE_
 public class ProjectResource extends AbstractResource implements ProjectApi, ProjectAdminApi {
 
     public interface Config {
+        /**
+         * Records per second of each file in a single export, files are fetched concurrently.
+         */
         @DefaultValue("100")
         double exportRateLimitPerSecond();
 
         @DefaultValue("100")
         double importRateLimitPerSecond();
+
+        /**
+         * How long an import request waits for its job to finish before responding that it continues in the
+         * background.
+         */
+        @DefaultValue("PT10S")
+        Duration importAwaitCompletion();
     }
 
     @Context
@@ -140,6 +150,10 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
     @Inject
     private PlanStore planStore;
     @Inject
+    private ZipCsvExporter zipCsvExporter;
+    @Inject
+    private CsvImporter csvImporter;
+    @Inject
     private AuthCookie authCookie;
     @Inject
     private UserBindUtil userBindUtil;
@@ -450,9 +464,20 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
             projectStore.deleteProject(projectId);
             ListenableFuture<AcknowledgedResponse> userFuture = userStore.deleteAllForProject(projectId);
             ListenableFuture<AcknowledgedResponse> ideaFuture = ideaStore.deleteAllForProject(projectId);
-            draftStore.deleteAllForProject(projectId);
+            ListenableFuture<Void> draftFuture = draftStore.deleteAllForProject(projectId);
             ListenableFuture<AcknowledgedResponse> commentFuture = commentStore.deleteAllForProject(projectId);
-            voteStore.deleteAllForProject(projectId);
+            ListenableFuture<Void> voteFuture = voteStore.deleteAllForProject(projectId);
+            Futures.addCallback(Futures.allAsList(userFuture, ideaFuture, draftFuture, commentFuture, voteFuture), new FutureCallback<List<Object>>() {
+                @Override
+                public void onSuccess(List<Object> result) {
+                    log.debug("Deleted project {}", projectId);
+                }
+
+                @Override
+                public void onFailure(Throwable th) {
+                    log.warn("Failed to delete project {}, potentially partially deleted", projectId, th);
+                }
+            }, MoreExecutors.directExecutor());
         } catch (Throwable th) {
             log.warn("Failed to delete project {}, potentially partially deleted", projectId, th);
             throw new ApiException(Response.Status.INTERNAL_SERVER_ERROR, "Failed to delete project, please contact support", th);
@@ -470,13 +495,11 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
         String fileName = getExportFileName(projectId, "data", "zip");
         response.setHeader("content-disposition", "attachment; filename=" + fileName);
 
-        return (outputStream) -> {
-            RateLimiter limiter = RateLimiter.create(config.exportRateLimitPerSecond());
-            try (ZipOutputStream zos = new ZipOutputStream(outputStream)) {
-                CSVFormat format = CSVFormat.DEFAULT;
-                if (includePosts == Boolean.TRUE) {
-                    zos.putNextEntry(new ZipEntry(getExportFileName(projectId, "posts", "csv")));
-                    CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(zos), format.withHeader(
+        ImmutableList.Builder<CsvEntry<?>> entriesBuilder = ImmutableList.builder();
+        if (includePosts == Boolean.TRUE) {
+            entriesBuilder.add(new CsvEntry<IdeaModel>(
+                    getExportFileName(projectId, "posts", "csv"),
+                    new String[]{
                             "ideaId",
                             "authorUserId",
                             "created",
@@ -492,39 +515,32 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                             "voteValue",
                             "votersCount",
                             "expressionsValue",
-                            "expressions"));
-                    ideaStore.exportAllForProject(projectId, idea -> {
-                        try {
-                            csvPrinter.printRecord(
-                                    idea.getIdeaId(),
-                                    idea.getAuthorUserId(),
-                                    idea.getCreated(),
-                                    idea.getTitle(),
-                                    idea.getDescriptionSanitized(sanitizer),
-                                    idea.getResponseSanitized(sanitizer),
-                                    idea.getCategoryId(),
-                                    idea.getStatusId(),
-                                    String.join(",", idea.getTagIds()),
-                                    idea.getFunded(),
-                                    idea.getFundersCount(),
-                                    idea.getFundGoal(),
-                                    idea.getVoteValue(),
-                                    idea.getVotersCount(),
-                                    idea.getExpressionsValue(),
-                                    idea.getExpressions() == null ? null : idea.getExpressions().entrySet().stream()
-                                            .map(entry -> entry.getKey() + "=" + entry.getValue())
-                                            .collect(Collectors.joining(",")));
-                        } catch (IOException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                        limiter.acquire();
-                    });
-                    csvPrinter.flush();
-                    zos.closeEntry();
-                }
-                if (includeUsers == Boolean.TRUE) {
-                    zos.putNextEntry(new ZipEntry(getExportFileName(projectId, "users", "csv")));
-                    CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(zos), format.withHeader(
+                            "expressions"},
+                    consumer -> ideaStore.exportAllForProject(projectId, consumer),
+                    idea -> new Object[]{
+                            idea.getIdeaId(),
+                            idea.getAuthorUserId(),
+                            idea.getCreated(),
+                            idea.getTitle(),
+                            idea.getDescriptionSanitized(sanitizer),
+                            idea.getResponseSanitized(sanitizer),
+                            idea.getCategoryId(),
+                            idea.getStatusId(),
+                            String.join(",", idea.getTagIds()),
+                            idea.getFunded(),
+                            idea.getFundersCount(),
+                            idea.getFundGoal(),
+                            idea.getVoteValue(),
+                            idea.getVotersCount(),
+                            idea.getExpressionsValue(),
+                            idea.getExpressions() == null ? null : idea.getExpressions().entrySet().stream()
+                                    .map(entry -> entry.getKey() + "=" + entry.getValue())
+                                    .collect(Collectors.joining(","))}));
+        }
+        if (includeUsers == Boolean.TRUE) {
+            entriesBuilder.add(new CsvEntry<UserModel>(
+                    getExportFileName(projectId, "users", "csv"),
+                    new String[]{
                             "userId",
                             "ssoGuid",
                             "isMod",
@@ -533,30 +549,23 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                             "emailVerified",
                             "emailNotify",
                             "balance",
-                            "created"));
-                    userStore.exportAllForProject(projectId, user -> {
-                        try {
-                            csvPrinter.printRecord(
-                                    user.getUserId(),
-                                    user.getSsoGuid(),
-                                    user.getIsMod(),
-                                    user.getName(),
-                                    user.getEmail(),
-                                    user.getEmailVerified(),
-                                    user.isEmailNotify(),
-                                    user.getBalance(),
-                                    user.getCreated());
-                        } catch (IOException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                        limiter.acquire();
-                    });
-                    csvPrinter.flush();
-                    zos.closeEntry();
-                }
-                if (includeComments == Boolean.TRUE) {
-                    zos.putNextEntry(new ZipEntry(getExportFileName(projectId, "comments", "csv")));
-                    CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(zos), format.withHeader(
+                            "created"},
+                    consumer -> userStore.exportAllForProject(projectId, consumer),
+                    user -> new Object[]{
+                            user.getUserId(),
+                            user.getSsoGuid(),
+                            user.getIsMod(),
+                            user.getName(),
+                            user.getEmail(),
+                            user.getEmailVerified(),
+                            user.isEmailNotify(),
+                            user.getBalance(),
+                            user.getCreated()}));
+        }
+        if (includeComments == Boolean.TRUE) {
+            entriesBuilder.add(new CsvEntry<CommentModel>(
+                    getExportFileName(projectId, "comments", "csv"),
+                    new String[]{
                             "ideaId",
                             "commentId",
                             "parentCommentId",
@@ -565,31 +574,28 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                             "edited",
                             "content",
                             "upvotes",
-                            "downvotes"));
-                    commentStore.exportAllForProject(projectId, comment -> {
-                        try {
-                            csvPrinter.printRecord(
-                                    comment.getIdeaId(),
-                                    comment.getCommentId(),
-                                    comment.getParentCommentIds().isEmpty()
-                                            ? null
-                                            : comment.getParentCommentIds().get(comment.getParentCommentIds().size() - 1),
-                                    comment.getAuthorUserId(),
-                                    comment.getCreated(),
-                                    comment.getEdited(),
-                                    comment.getContentSanitized(sanitizer),
-                                    comment.getUpvotes(),
-                                    comment.getDownvotes());
-                        } catch (IOException ex) {
-                            throw new RuntimeException(ex);
-                        }
-                        limiter.acquire();
-                    });
-                    csvPrinter.flush();
-                    zos.closeEntry();
-                }
-            }
-        };
+                            "downvotes"},
+                    consumer -> commentStore.exportAllForProject(projectId, consumer),
+                    comment -> new Object[]{
+                            comment.getIdeaId(),
+                            comment.getCommentId(),
+                            comment.getParentCommentIds().isEmpty()
+                                    ? null
+                                    : comment.getParentCommentIds().get(comment.getParentCommentIds().size() - 1),
+                            comment.getAuthorUserId(),
+                            comment.getCreated(),
+                            comment.getEdited(),
+                            comment.getContentSanitized(sanitizer),
+                            comment.getUpvotes(),
+                            comment.getDownvotes()}));
+        }
+        ImmutableList<CsvEntry<?>> entries = entriesBuilder.build();
+
+        return (outputStream) -> zipCsvExporter.export(
+                outputStream,
+                CSVFormat.DEFAULT,
+                () -> RateLimiter.create(config.exportRateLimitPerSecond()),
+                entries);
     }
 
     @Override
@@ -605,8 +611,6 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
                                                  @Nullable Long indexTagIds,
                                                  @Nullable Long indexTagNames,
                                                  @Nullable Long indexVoteValue) {
-        RateLimiter limiter = RateLimiter.create(config.importRateLimitPerSecond());
-
         Optional<UserModel> authorOpt = userStore.getUser(projectId, authorUserId);
         if (!authorOpt.isPresent()) {
             return new ImportResponse("Author not found", true);
@@ -622,116 +626,35 @@ public class ProjectResource extends AbstractResource implements ProjectApi, Pro
             return new ImportResponse("Category not found", true);
         }
 
-        CSVFormat format = CSVFormat.DEFAULT;
-        if (firstRowIsHeader == Boolean.TRUE) {
-            format = format.withFirstRecordAsHeader();
-        }
-
-        ImmutableSet<String> allStatusIds = categoryOpt.get().getWorkflow().getStatuses().stream()
-                .map(IdeaStatus::getStatusId)
-                .collect(ImmutableSet.toImmutableSet());
-        ImmutableMap<String, String> statusNameToId = categoryOpt.get().getWorkflow().getStatuses().stream().collect(ImmutableMap
-                .toImmutableMap(IdeaStatus::getName, IdeaStatus::getStatusId));
-
-        ImmutableSet<String> allTagIds = categoryOpt.get().getTagging().getTags().stream()
-                .map(Tag::getTagId)
-                .collect(ImmutableSet.toImmutableSet());
-        ImmutableMap<String, String> tagNameToId = categoryOpt.get().getTagging().getTags().stream().collect(ImmutableMap
-                .toImmutableMap(Tag::getName, Tag::getTagId));
-
-        AtomicLong counter = new AtomicLong(0);
-        try (CSVParser csvFileParser = CSVParser.parse(body, Charsets.UTF_8, format)) {
-            ideaStore.createIdeas(Iterables.transform(csvFileParser, record -> {
-                limiter.acquire();
-                counter.incrementAndGet();
-
-                String title = record.get(indexTitle.intValue());
-
-                Optional<String> statusIdOpt = Optional.ofNullable(indexStatusId).map(Long::intValue).map(record::get);
-                if (statusIdOpt.isPresent() && !allStatusIds.contains(statusIdOpt.get())) {
-                    throw new ApiException(Response.Status.BAD_REQUEST, "Status with ID not found: " + statusIdOpt.get());
-                }
-                if (!statusIdOpt.isPresent() && indexStatusName != null) {
-                    statusIdOpt = Optional.ofNullable(Strings.emptyToNull(record.get(indexStatusName.intValue()))).map(statusName -> {
-                        String statusId = statusNameToId.get(statusName);
-                        if (statusId == null) {
-                            throw new ApiException(Response.Status.BAD_REQUEST, "Status with name not found: " + statusName);
-                        }
-                        return statusId;
-                    });
-                }
-
-                ImmutableSet<String> tagIds = Optional.ofNullable(indexTagIds).map(Long::intValue).map(record::get).stream()
-                        .flatMap(tagIdsStr -> {
-                            if (tagIdsStr.startsWith("[") && tagIdsStr.endsWith("]")) {
-                                tagIdsStr = tagIdsStr.substring(1, tagIdsStr.length() - 2);
-                            }
-                            return Arrays.stream(tagIdsStr.split(","));
-                        })
-                        .map(String::trim)
-                        .collect(ImmutableSet.toImmutableSet());
-                for (String tagId : tagIds) {
-                    if (!allTagIds.contains(tagId)) {
-                        throw new ApiException(Response.Status.BAD_REQUEST, "Tag with ID not found: " + tagId);
-                    }
-                }
-                if (tagIds.isEmpty() && indexTagNames != null) {
-                    tagIds = Optional.ofNullable(Strings.emptyToNull(record.get(indexTagNames.intValue())))
-                            .stream()
-                            .flatMap(tagIdsStr -> Arrays.stream(tagIdsStr.split(",")))
-                            .map(tagName -> {
-                                String tagId = tagNameToId.get(tagName);
-                                if (tagId == null) {
-                                    throw new ApiException(Response.Status.BAD_REQUEST, "Tag with name not found: " + tagName);
-                                }
-                                return tagId;
-                            })
-                            .collect(ImmutableSet.toImmutableSet());
-                }
-
-                Optional<Long> voteValueOpt = Optional.ofNullable(indexVoteValue).map(Long::intValue).map(record::get).map(Long::valueOf);
-                return new IdeaModel(
-                        projectId,
-                        ideaStore.genIdeaId(title),
-                        authorOpt.get().getUserId(),
-                        authorOpt.get().getName(),
-                        authorOpt.get().getIsMod(),
-                        Instant.now(),
-                        title,
-                        Optional.ofNullable(indexDescription).map(Long::intValue).map(record::get).orElse(null),
-                        null,
-                        null,
-                        null,
-                        null,
-                        categoryId,
-                        statusIdOpt.orElse(null),
-                        tagIds,
-                        0L,
-                        0L,
-                        null,
-                        null,
-                        null,
-                        voteValueOpt.orElse(null),
-                        voteValueOpt.map(Math::abs).orElse(null),
-                        null,
-                        null,
-                        null,
-                        ImmutableSet.of(),
-                        ImmutableSet.of(),
-                        null,
-                        null,
-                        ImmutableSet.of(),
-                        null,
-                        null);
-            })).get();
-        } catch (ApiException ex) {
-            throw ex;
-        } catch (Exception ex) {
-            log.warn("Failed to import CSV", ex);
+        ImportJobStatus status;
+        try {
+            status = csvImporter.start(projectId, body, IdeaImportHandler.TYPE, new IdeaImportParams(
+                    categoryId,
+                    authorUserId,
+                    indexTitle,
+                    firstRowIsHeader,
+                    indexDescription,
+                    indexStatusId,
+                    indexStatusName,
+                    indexTagIds,
+                    indexTagNames,
+                    indexVoteValue));
+        } catch (IOException ex) {
+            log.warn("Failed to store CSV for import", ex);
             return new ImportResponse("Failed to import CSV", true);
         }
 
-        return new ImportResponse("Successfully imported " + counter.get() + " item(s)", null);
+        // Small imports finish within the request, larger ones continue in the background
+        status = csvImporter.awaitStatus(projectId, status.getJobId(), config.importAwaitCompletion()).orElse(status);
+        switch (status.getState()) {
+            case COMPLETED:
+                return new ImportResponse("Successfully imported " + status.getRowsImported() + " item(s)", null);
+            case FAILED:
+                return new ImportResponse(status.getError(), true);
+            default:
+                return new ImportResponse("Import continues in the background as job " + status.getJobId()
+                        + ", imported " + status.getRowsImported() + " item(s) so far", null);
+        }
     }
 
     private String getExportFileName(String projectId, String type, String extension) {
@@ -0,0 +1,79 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.web.resource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.AbstractModule;
+import com.google.inject.Module;
+import com.google.inject.multibindings.Multibinder;
+import com.google.inject.name.Names;
+import com.smotana.clearflask.store.elastic.ElasticSlowQueryLog;
+import com.smotana.clearflask.store.elastic.ElasticSlowQueryLog.QueryStats;
+import com.smotana.clearflask.util.MathUtil;
+import com.smotana.clearflask.web.Application;
+import com.smotana.clearflask.web.security.Role;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.security.RolesAllowed;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Most expensive ElasticSearch query shapes and projects, see {@link ElasticSlowQueryLog}.
+ */
+@Slf4j
+@Singleton
+@Path(Application.RESOURCE_VERSION)
+public class SlowQueryResource {
+
+    private static final int LIMIT_MAX = 1000;
+
+    @Inject
+    private ElasticSlowQueryLog slowQueryLog;
+
+    @Value
+    public static class SlowQueryResponse {
+        ImmutableList<QueryStats> fingerprints;
+        ImmutableList<QueryStats> projects;
+    }
+
+    @RolesAllowed({Role.SUPER_ADMIN})
+    @GET
+    @Path("/superadmin/elastic/slowqueries")
+    @Consumes(MediaType.WILDCARD)
+    @Produces(MediaType.APPLICATION_JSON)
+    public SlowQueryResponse slowQueriesSuperAdmin(@QueryParam("limit") @DefaultValue("20") int limit) {
+        int limitBounded = MathUtil.minmax(1, limit, LIMIT_MAX);
+        return new SlowQueryResponse(
+                slowQueryLog.getTopFingerprints(limitBounded),
+                slowQueryLog.getTopProjects(limitBounded));
+    }
+
+    @RolesAllowed({Role.SUPER_ADMIN})
+    @DELETE
+    @Path("/superadmin/elastic/slowqueries")
+    @Consumes(MediaType.WILDCARD)
+    public void slowQueriesResetSuperAdmin() {
+        slowQueryLog.reset();
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(SlowQueryResource.class);
+                Multibinder.newSetBinder(binder(), Object.class, Names.named(Application.RESOURCE_NAME)).addBinding()
+                        .to(SlowQueryResource.class);
+            }
+        };
+    }
+}
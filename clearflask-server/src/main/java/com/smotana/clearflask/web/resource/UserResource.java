@@ -297,6 +297,11 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
                 null,
                 null,
                 null,
+                ImmutableSet.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
                 ImmutableSet.of());
         userStore.createUser(user);
 
@@ -358,6 +363,11 @@ public class UserResource extends AbstractResource implements UserApi, UserAdmin
                 null,
                 null,
                 null,
+                ImmutableSet.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
                 ImmutableSet.of());
         userStore.createUser(user);
         if (user.getIsMod() == Boolean.TRUE) {
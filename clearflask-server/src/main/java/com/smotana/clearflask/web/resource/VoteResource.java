@@ -2,14 +2,11 @@
 // SPDX-License-Identifier: AGPL-3.0-only
 package com.smotana.clearflask.web.resource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
 import com.google.inject.AbstractModule;
 import com.google.inject.Module;
 import com.google.inject.multibindings.Multibinder;
@@ -47,7 +44,9 @@ import com.smotana.clearflask.store.UserStore.UserSession;
 import com.smotana.clearflask.store.VoteStore;
 import com.smotana.clearflask.store.VoteStore.FundModel;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
-import com.smotana.clearflask.util.BloomFilters;
+import com.smotana.clearflask.util.BloomFilterCache;
+import com.smotana.clearflask.util.BloomFilterCache.BloomFilterType;
+import com.smotana.clearflask.util.ScalableBloomFilter;
 import com.smotana.clearflask.web.ApiException;
 import com.smotana.clearflask.web.Application;
 import com.smotana.clearflask.web.security.ExtendedSecurityContext;
@@ -81,6 +80,8 @@ public class VoteResource extends AbstractResource implements VoteApi {
     @Inject
     private UserStore userStore;
     @Inject
+    private BloomFilterCache bloomFilterCache;
+    @Inject
     private CommentStore commentStore;
     @Inject
     private Billing billing;
@@ -122,8 +123,7 @@ public class VoteResource extends AbstractResource implements VoteApi {
                 .flatMap(userId -> userStore.getUser(projectId, userId))
                 .get();
 
-        Optional<BloomFilter<CharSequence>> bloomFilterOpt = Optional.ofNullable(user.getCommentVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<ScalableBloomFilter> bloomFilterOpt = bloomFilterCache.get(user, BloomFilterType.COMMENT_VOTE);
         Map<String, VoteOption> votesByCommentId = Maps.transformValues(
                 voteStore.voteSearch(projectId, user.getUserId(), commentIds.stream()
                         .filter(commentId -> myOwnCommentIds.contains(commentId)
@@ -156,24 +156,21 @@ public class VoteResource extends AbstractResource implements VoteApi {
                 .flatMap(userId -> userStore.getUser(projectId, userId))
                 .get();
 
-        Optional<BloomFilter<CharSequence>> voteBloomFilterOpt = Optional.ofNullable(user.getVoteBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<ScalableBloomFilter> voteBloomFilterOpt = bloomFilterCache.get(user, BloomFilterType.VOTE);
         Map<String, VoteOption> votesByIdeaId = Maps.transformValues(
                 voteStore.voteSearch(projectId, user.getUserId(), ideaIds.stream()
                         .filter(ideaId -> myOwnIdeaIds.contains(ideaId)
                                 || voteBloomFilterOpt.isPresent() && voteBloomFilterOpt.get().mightContain(ideaId))
                         .collect(ImmutableSet.toImmutableSet())), voteModel -> VoteValue.fromValue(voteModel.getVote()).toVoteOption());
 
-        Optional<BloomFilter<CharSequence>> expressBloomFilterOpt = Optional.ofNullable(user.getExpressBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<ScalableBloomFilter> expressBloomFilterOpt = bloomFilterCache.get(user, BloomFilterType.EXPRESS);
         Map<String, List<String>> expressionByIdeaId = Maps.transformValues(
                 voteStore.expressSearch(projectId, user.getUserId(), ideaIds.stream()
                         .filter(ideaId -> myOwnIdeaIds.contains(ideaId)
                                 || expressBloomFilterOpt.isPresent() && expressBloomFilterOpt.get().mightContain(ideaId))
                         .collect(ImmutableSet.toImmutableSet())), expressModel -> expressModel.getExpressions().asList());
 
-        Optional<BloomFilter<CharSequence>> fundBloomFilterOpt = Optional.ofNullable(user.getFundBloom())
-                .map(bytes -> BloomFilters.fromByteArray(bytes, Funnels.stringFunnel(Charsets.UTF_8)));
+        Optional<ScalableBloomFilter> fundBloomFilterOpt = bloomFilterCache.get(user, BloomFilterType.FUND);
         Map<String, Long> fundAmountByIdeaId = Maps.transformValues(
                 voteStore.fundSearch(projectId, user.getUserId(), ideaIds.stream()
                         .filter(ideaId -> myOwnIdeaIds.contains(ideaId)
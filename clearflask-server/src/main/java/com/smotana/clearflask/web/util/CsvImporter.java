@@ -0,0 +1,576 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.web.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.inject.AbstractModule;
+import com.google.inject.Binder;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.TypeLiteral;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.core.trace.Tracer;
+import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.ContentStore.ContentType;
+import com.smotana.clearflask.store.ContentStore.ContentUrl;
+import com.smotana.clearflask.store.ImportJobStore;
+import com.smotana.clearflask.store.ImportJobStore.ImportJobModel;
+import com.smotana.clearflask.store.ImportJobStore.ImportJobModel.JobState;
+import com.smotana.clearflask.util.Extern;
+import com.smotana.clearflask.util.IdUtil;
+import com.smotana.clearflask.util.LogUtil;
+import com.smotana.clearflask.web.ApiException;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Imports CSV files as background jobs.
+ * <p>
+ * The upload is kept in the {@link ContentStore} and parsed as a stream on a job thread, rate limited and split into
+ * batches that are written with a bounded number in flight. Progress is checkpointed as the count of leading rows
+ * whose batches are all written, a failed job can be resumed from there. Rows after the checkpoint may be written
+ * again on resume, so the writer must be idempotent per row, e.g. by deriving ids from the job id and row index.
+ * <p>
+ * Job status and checkpoint are saved to the {@link ImportJobStore} periodically, so any instance can report on a
+ * job or resume it. A job whose progress stopped being saved, such as when its instance went away, is reported as
+ * failed. Rows are mapped and written by an {@link ImportHandler}, prepared from the job's stored parameters on each
+ * run.
+ */
+@Slf4j
+@Singleton
+public class CsvImporter extends ManagedService {
+
+    public interface Config {
+        @DefaultValue("4")
+        int maxConcurrentJobs();
+
+        @DefaultValue("25")
+        int batchSize();
+
+        /**
+         * Batches being written at once per job, parsing pauses until one completes.
+         */
+        @DefaultValue("4")
+        int batchesInFlight();
+
+        @DefaultValue("104857600")
+        long maxFileSizeBytes();
+
+        /**
+         * Jobs are kept this long since started.
+         */
+        @DefaultValue("P7D")
+        Duration jobRetention();
+
+        /**
+         * How often progress of queued and running jobs is saved.
+         */
+        @DefaultValue("PT5S")
+        Duration checkpointInterval();
+
+        /**
+         * A queued or running job without saved progress for this long is considered failed and may be resumed.
+         */
+        @DefaultValue("PT1M")
+        Duration jobStaleAfter();
+    }
+
+    /** Uploads are stored under this user id within the project */
+    private static final String UPLOAD_USER_ID = "import";
+
+    @Value
+    public static class ImportJobStatus {
+        String jobId;
+        String projectId;
+        JobState state;
+        /** Rows parsed so far */
+        long rowsRead;
+        /** Leading rows that are fully written, a resumed job continues from here */
+        long rowsImported;
+        String error;
+        Instant created;
+    }
+
+    /**
+     * Converts a row into the item to write, the row index is zero-based and excludes the header.
+     * Throw {@link ApiException} with a user facing message to reject the row and fail the job.
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(String jobId, long rowIndex, CSVRecord record);
+    }
+
+    /**
+     * Maps and writes rows for one type of import, bound with {@link #handlerBinder}.
+     *
+     * @param <P> Parameters of a job, stored as JSON
+     */
+    public interface ImportHandler<P> {
+
+        /** Identifies the handler within stored jobs */
+        String getType();
+
+        Class<P> getParamsClass();
+
+        /**
+         * Called at the start of each run of a job, which may be a resume on another instance.
+         * Throw {@link ApiException} with a user facing message to fail the job.
+         */
+        ImportRun<?> prepare(String projectId, P params);
+    }
+
+    @Value
+    public static class ImportRun<T> {
+        CSVFormat format;
+        /** Rows per second */
+        RateLimiter limiter;
+        RowMapper<T> mapper;
+        /** Writes a batch of items, such as {@link com.smotana.clearflask.store.IdeaStore#createIdeas} */
+        Function<ImmutableList<T>, ListenableFuture<?>> writer;
+    }
+
+    @Inject
+    private Config config;
+    @Inject
+    private Metrics metrics;
+    @Inject
+    private Gson gson;
+    @Inject
+    private ImportJobStore importJobStore;
+    @Inject
+    private ContentStore contentStore;
+    @Inject
+    private Set<ImportHandler<?>> handlerSet;
+
+    private ImmutableMap<String, ImportHandler<?>> handlers;
+    private ThreadPoolExecutor executor;
+    private ScheduledExecutorService checkpointExecutor;
+    /** Jobs queued or running on this instance */
+    private final ConcurrentMap<String, ImportJob> localJobs = Maps.newConcurrentMap();
+
+    @Inject
+    private void setup() {
+        handlers = handlerSet.stream()
+                .collect(ImmutableMap.toImmutableMap(ImportHandler::getType, handler -> handler));
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        executor = metrics.monitorExecutor("CsvImporter-job", new ThreadPoolExecutor(
+                config.maxConcurrentJobs(), config.maxConcurrentJobs(), 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("CsvImporter-job-%d").setDaemon(true).build()));
+        checkpointExecutor = metrics.monitorExecutor("CsvImporter-checkpoint", new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("CsvImporter-checkpoint-%d").setDaemon(true).build()));
+        checkpointExecutor.scheduleWithFixedDelay(this::checkpointAll,
+                config.checkpointInterval().toMillis(), config.checkpointInterval().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        // Jobs never started here become stale and may be resumed elsewhere
+        checkpointExecutor.shutdownNow();
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stores the upload and queues a job to import it.
+     *
+     * @param type   Type of the {@link ImportHandler} to import with
+     * @param params Parameters for the handler
+     */
+    public ImportJobStatus start(String projectId, InputStream body, String type, Object params) throws IOException {
+        ImportHandler<?> handler = handlers.get(type);
+        checkArgument(handler != null, "No import handler of type %s", type);
+        checkArgument(handler.getParamsClass().isInstance(params), "Wrong params for import handler of type %s", type);
+
+        String uploadUrl = upload(projectId, body);
+        Instant now = Instant.now();
+        ImportJobModel model = new ImportJobModel(
+                projectId,
+                IdUtil.randomId(),
+                type,
+                gson.toJson(params),
+                uploadUrl,
+                JobState.QUEUED,
+                IdUtil.randomId(),
+                0L,
+                0L,
+                null,
+                now,
+                now,
+                now.plus(config.jobRetention()).getEpochSecond());
+        importJobStore.createJob(model);
+        return submit(new ImportJob(model)).getStatus();
+    }
+
+    public Optional<ImportJobStatus> getStatus(String projectId, String jobId) {
+        return importJobStore.getJob(projectId, jobId)
+                .map(this::toStatus);
+    }
+
+    /**
+     * Waits up to the given time for the job to finish, returns its status either way.
+     */
+    public Optional<ImportJobStatus> awaitStatus(String projectId, String jobId, Duration timeout) {
+        Optional<ImportJob> localJobOpt = Optional.ofNullable(localJobs.get(jobId))
+                .filter(job -> job.projectId.equals(projectId));
+        if (!localJobOpt.isPresent()) {
+            return getStatus(projectId, jobId);
+        }
+        try {
+            localJobOpt.get().completion.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException ex) {
+            // Still running or status will show the failure
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return Optional.of(localJobOpt.get().getStatus());
+    }
+
+    /**
+     * Continues a failed job after its last checkpoint, on this instance.
+     */
+    public Optional<ImportJobStatus> resume(String projectId, String jobId) {
+        Optional<ImportJobModel> modelOpt = importJobStore.getJob(projectId, jobId);
+        if (!modelOpt.isPresent()) {
+            return Optional.empty();
+        }
+        ImportJobModel model = modelOpt.get();
+        if (toStatus(model).getState() != JobState.FAILED) {
+            throw new ApiException(Response.Status.CONFLICT, "Only a failed import can be resumed");
+        }
+        ImportJobModel resumed = model.toBuilder()
+                .state(JobState.QUEUED)
+                .runId(IdUtil.randomId())
+                .rowsRead(model.getRowsImported())
+                .error(null)
+                .updated(Instant.now())
+                .build();
+        // Only one resume succeeds, and a stale run can no longer save its progress
+        if (!importJobStore.updateJob(resumed, model.getRunId())) {
+            throw new ApiException(Response.Status.CONFLICT, "Import is already being resumed");
+        }
+        return Optional.of(submit(new ImportJob(resumed)).getStatus());
+    }
+
+    @Extern
+    public ImmutableList<ImportJobStatus> getLocalJobs() {
+        return localJobs.values().stream()
+                .map(ImportJob::getStatus)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    private String upload(String projectId, InputStream body) throws IOException {
+        Path file = Files.createTempFile("clearflask-import-", ".csv");
+        try {
+            long size;
+            try (OutputStream out = Files.newOutputStream(file)) {
+                size = ByteStreams.copy(ByteStreams.limit(body, config.maxFileSizeBytes() + 1), out);
+            }
+            if (size > config.maxFileSizeBytes()) {
+                throw new ApiException(Response.Status.REQUEST_ENTITY_TOO_LARGE, "File too large, limit is " + config.maxFileSizeBytes() / 1024 / 1024 + "MB");
+            }
+            try (InputStream in = Files.newInputStream(file)) {
+                return contentStore.upload(projectId, UPLOAD_USER_ID, ContentType.CSV, in, (int) size).getUrl();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private ImportJobStatus toStatus(ImportJobModel model) {
+        if ((model.getState() == JobState.QUEUED || model.getState() == JobState.RUNNING)
+                && model.getUpdated().plus(config.jobStaleAfter()).isBefore(Instant.now())) {
+            return new ImportJobStatus(model.getJobId(), model.getProjectId(), JobState.FAILED,
+                    model.getRowsRead(), model.getRowsImported(), "Import interrupted, please resume", model.getCreated());
+        }
+        return new ImportJobStatus(model.getJobId(), model.getProjectId(), model.getState(),
+                model.getRowsRead(), model.getRowsImported(), model.getError(), model.getCreated());
+    }
+
+    private ImportJob submit(ImportJob job) {
+        localJobs.put(job.jobId, job);
+        executor.execute(Tracer.wrap("CsvImporter.run", job::run));
+        return job;
+    }
+
+    private void checkpointAll() {
+        for (ImportJob job : localJobs.values()) {
+            try {
+                job.checkpoint();
+            } catch (Exception ex) {
+                if (LogUtil.rateLimitAllowLog("csvImporter-checkpoint-failed")) {
+                    log.warn("Failed to save progress of import job {} project {}", job.jobId, job.projectId, ex);
+                }
+            }
+        }
+    }
+
+    private class ImportJob {
+        private final String jobId;
+        private final String projectId;
+        private final String type;
+        private final String params;
+        private final String uploadUrl;
+        private final String runId;
+        private final Instant created;
+        private final long ttlInEpochSec;
+        /** Written batches past the checkpoint, start row to end row */
+        private final NavigableMap<Long, Long> writtenBatches = Maps.newTreeMap();
+        private final SettableFuture<Void> completion = SettableFuture.create();
+        /** Serializes saves so that a later save never carries older progress */
+        private final Object checkpointLock = new Object();
+        private JobState state;
+        private long rowsRead;
+        private long rowsImported;
+        private String error;
+        /** Another run has taken over the job */
+        private boolean superseded = false;
+
+        private ImportJob(ImportJobModel model) {
+            this.jobId = model.getJobId();
+            this.projectId = model.getProjectId();
+            this.type = model.getType();
+            this.params = model.getParams();
+            this.uploadUrl = model.getUploadUrl();
+            this.runId = model.getRunId();
+            this.created = model.getCreated();
+            this.ttlInEpochSec = model.getTtlInEpochSec();
+            this.state = model.getState();
+            this.rowsRead = model.getRowsRead();
+            this.rowsImported = model.getRowsImported();
+            this.error = model.getError();
+        }
+
+        private void run() {
+            try {
+                Optional<ImportRun<?>> importRunOpt = Optional.empty();
+                try {
+                    importRunOpt = Optional.of(prepare(handlers.get(type)));
+                } catch (ApiException ex) {
+                    fail(ex.getUserFacingMessageOpt().orElse("Failed to import CSV"), null);
+                } catch (Exception ex) {
+                    fail("Failed to import CSV", ex);
+                }
+                importRunOpt.ifPresent(this::importRows);
+
+                boolean completed;
+                synchronized (this) {
+                    if (state != JobState.FAILED && !superseded) {
+                        state = JobState.COMPLETED;
+                    }
+                    completed = state == JobState.COMPLETED;
+                }
+                checkpoint();
+                if (completed) {
+                    contentStore.delete(uploadUrl);
+                }
+            } catch (Exception ex) {
+                log.warn("Import job {} project {} failed to finish, it will show as interrupted", jobId, projectId, ex);
+            } finally {
+                localJobs.remove(jobId, this);
+                log.info("Import job {} finished {}", jobId, getStatus());
+                completion.set(null);
+            }
+        }
+
+        private <P> ImportRun<?> prepare(ImportHandler<P> handler) {
+            return handler.prepare(projectId, gson.fromJson(params, handler.getParamsClass()));
+        }
+
+        private <T> void importRows(ImportRun<T> importRun) {
+            long rowIndex;
+            synchronized (this) {
+                state = JobState.RUNNING;
+                rowIndex = rowsImported;
+            }
+            checkpoint();
+            Optional<ContentUrl> uploadOpt = contentStore.parseContentUrl(uploadUrl);
+            if (!uploadOpt.isPresent()) {
+                fail("Uploaded file is no longer available", null);
+                return;
+            }
+            int batchesInFlight = config.batchesInFlight();
+            int batchSize = config.batchSize();
+            Semaphore inFlight = new Semaphore(batchesInFlight);
+            try (Reader reader = new InputStreamReader(contentStore.download(uploadOpt.get()), StandardCharsets.UTF_8);
+                 CSVParser parser = importRun.getFormat().parse(reader)) {
+                Iterator<CSVRecord> records = parser.iterator();
+                for (long skipped = 0; skipped < rowIndex && records.hasNext(); skipped++) {
+                    records.next();
+                }
+                List<T> batch = Lists.newArrayListWithCapacity(batchSize);
+                long batchStart = rowIndex;
+                while (records.hasNext() && !isStopped()) {
+                    CSVRecord record = records.next();
+                    importRun.getLimiter().acquire();
+                    try {
+                        batch.add(importRun.getMapper().map(jobId, rowIndex, record));
+                    } catch (ApiException ex) {
+                        fail("Row " + (rowIndex + 1) + ": " + ex.getUserFacingMessageOpt().orElse("Invalid row"), null);
+                        break;
+                    }
+                    rowIndex++;
+                    setRowsRead(rowIndex);
+                    if (batch.size() >= batchSize) {
+                        write(importRun, inFlight, batchStart, ImmutableList.copyOf(batch));
+                        batch.clear();
+                        batchStart = rowIndex;
+                    }
+                }
+                if (!batch.isEmpty() && !isStopped()) {
+                    write(importRun, inFlight, batchStart, ImmutableList.copyOf(batch));
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail("Import interrupted, please resume", ex);
+            } catch (Exception ex) {
+                fail("Failed to import CSV", ex);
+            }
+            // Batches in flight must finish before the job can be resumed
+            inFlight.acquireUninterruptibly(batchesInFlight);
+        }
+
+        private <T> void write(ImportRun<T> importRun, Semaphore inFlight, long batchStart, ImmutableList<T> batch) throws InterruptedException {
+            inFlight.acquire();
+            ListenableFuture<?> writeFuture;
+            try {
+                writeFuture = importRun.getWriter().apply(batch);
+            } catch (RuntimeException ex) {
+                inFlight.release();
+                throw ex;
+            }
+            writeFuture.addListener(() -> {
+                try {
+                    Futures.getDone(writeFuture);
+                    setWritten(batchStart, batchStart + batch.size());
+                } catch (ExecutionException | RuntimeException ex) {
+                    fail("Failed to write rows " + (batchStart + 1) + " to " + (batchStart + batch.size()) + ", please resume", ex);
+                } finally {
+                    inFlight.release();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        /**
+         * Saves progress, stops the job instead if another run has taken over.
+         */
+        private void checkpoint() {
+            synchronized (checkpointLock) {
+                ImportJobModel model;
+                synchronized (this) {
+                    if (superseded) {
+                        return;
+                    }
+                    model = new ImportJobModel(projectId, jobId, type, params, uploadUrl, state, runId,
+                            rowsRead, rowsImported, error, created, Instant.now(), ttlInEpochSec);
+                }
+                if (!importJobStore.updateJob(model, runId)) {
+                    synchronized (this) {
+                        superseded = true;
+                    }
+                    log.info("Import job {} project {} taken over by another run, stopping", jobId, projectId);
+                }
+            }
+        }
+
+        private synchronized void setRowsRead(long rowsRead) {
+            this.rowsRead = rowsRead;
+        }
+
+        private synchronized void setWritten(long startRow, long endRow) {
+            writtenBatches.put(startRow, endRow);
+            // Advance checkpoint over all consecutive written batches
+            Long nextEndRow;
+            while ((nextEndRow = writtenBatches.remove(rowsImported)) != null) {
+                rowsImported = nextEndRow;
+            }
+        }
+
+        private synchronized boolean isStopped() {
+            return state == JobState.FAILED || superseded;
+        }
+
+        private synchronized void fail(String error, Throwable th) {
+            if (state == JobState.FAILED) {
+                return;
+            }
+            log.warn("Import job {} project {} failed: {}", jobId, projectId, error, th);
+            state = JobState.FAILED;
+            this.error = error;
+        }
+
+        private synchronized ImportJobStatus getStatus() {
+            return new ImportJobStatus(jobId, projectId, state, rowsRead, rowsImported, error, created);
+        }
+    }
+
+    /**
+     * Add a binding for each {@link ImportHandler}.
+     */
+    public static Multibinder<ImportHandler<?>> handlerBinder(Binder binder) {
+        return Multibinder.newSetBinder(binder, new TypeLiteral<ImportHandler<?>>() {
+        });
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(CsvImporter.class).asEagerSingleton();
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(CsvImporter.class);
+                handlerBinder(binder());
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
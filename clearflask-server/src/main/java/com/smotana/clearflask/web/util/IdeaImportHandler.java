@@ -0,0 +1,205 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.web.util;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.smotana.clearflask.api.model.Category;
+import com.smotana.clearflask.api.model.IdeaStatus;
+import com.smotana.clearflask.api.model.Tag;
+import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.IdeaStore.IdeaModel;
+import com.smotana.clearflask.store.ProjectStore;
+import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.web.ApiException;
+import com.smotana.clearflask.web.resource.ProjectResource;
+import com.smotana.clearflask.web.util.CsvImporter.ImportHandler;
+import com.smotana.clearflask.web.util.CsvImporter.ImportRun;
+import lombok.NonNull;
+import lombok.Value;
+import org.apache.commons.csv.CSVFormat;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.core.Response;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Imports each CSV row as a post, see {@link ProjectResource#projectImportPostAdmin}.
+ */
+@Singleton
+public class IdeaImportHandler implements ImportHandler<IdeaImportHandler.IdeaImportParams> {
+
+    public static final String TYPE = "idea";
+
+    @Value
+    public static class IdeaImportParams {
+        @NonNull
+        String categoryId;
+        @NonNull
+        String authorUserId;
+        /** Column indexes */
+        @NonNull
+        Long indexTitle;
+        @Nullable
+        Boolean firstRowIsHeader;
+        @Nullable
+        Long indexDescription;
+        @Nullable
+        Long indexStatusId;
+        @Nullable
+        Long indexStatusName;
+        @Nullable
+        Long indexTagIds;
+        @Nullable
+        Long indexTagNames;
+        @Nullable
+        Long indexVoteValue;
+    }
+
+    @Inject
+    private ProjectResource.Config configProjectResource;
+    @Inject
+    private ProjectStore projectStore;
+    @Inject
+    private UserStore userStore;
+    @Inject
+    private IdeaStore ideaStore;
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public Class<IdeaImportParams> getParamsClass() {
+        return IdeaImportParams.class;
+    }
+
+    @Override
+    public ImportRun<IdeaModel> prepare(String projectId, IdeaImportParams params) {
+        UserModel author = userStore.getUser(projectId, params.getAuthorUserId())
+                .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "Author not found"));
+        Category category = projectStore.getProject(projectId, false)
+                .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "Project not found"))
+                .getCategory(params.getCategoryId())
+                .orElseThrow(() -> new ApiException(Response.Status.NOT_FOUND, "Category not found"));
+
+        CSVFormat format = CSVFormat.DEFAULT;
+        if (params.getFirstRowIsHeader() == Boolean.TRUE) {
+            format = format.withFirstRecordAsHeader();
+        }
+
+        ImmutableSet<String> allStatusIds = category.getWorkflow().getStatuses().stream()
+                .map(IdeaStatus::getStatusId)
+                .collect(ImmutableSet.toImmutableSet());
+        ImmutableMap<String, String> statusNameToId = category.getWorkflow().getStatuses().stream().collect(ImmutableMap
+                .toImmutableMap(IdeaStatus::getName, IdeaStatus::getStatusId));
+
+        ImmutableSet<String> allTagIds = category.getTagging().getTags().stream()
+                .map(Tag::getTagId)
+                .collect(ImmutableSet.toImmutableSet());
+        ImmutableMap<String, String> tagNameToId = category.getTagging().getTags().stream().collect(ImmutableMap
+                .toImmutableMap(Tag::getName, Tag::getTagId));
+
+        return new ImportRun<>(format, RateLimiter.create(configProjectResource.importRateLimitPerSecond()), (jobId, rowIndex, record) -> {
+            String title = record.get(params.getIndexTitle().intValue());
+
+            Optional<String> statusIdOpt = Optional.ofNullable(params.getIndexStatusId()).map(Long::intValue).map(record::get);
+            if (statusIdOpt.isPresent() && !allStatusIds.contains(statusIdOpt.get())) {
+                throw new ApiException(Response.Status.BAD_REQUEST, "Status with ID not found: " + statusIdOpt.get());
+            }
+            if (!statusIdOpt.isPresent() && params.getIndexStatusName() != null) {
+                statusIdOpt = Optional.ofNullable(Strings.emptyToNull(record.get(params.getIndexStatusName().intValue()))).map(statusName -> {
+                    String statusId = statusNameToId.get(statusName);
+                    if (statusId == null) {
+                        throw new ApiException(Response.Status.BAD_REQUEST, "Status with name not found: " + statusName);
+                    }
+                    return statusId;
+                });
+            }
+
+            ImmutableSet<String> tagIds = Optional.ofNullable(params.getIndexTagIds()).map(Long::intValue).map(record::get).stream()
+                    .flatMap(tagIdsStr -> {
+                        if (tagIdsStr.startsWith("[") && tagIdsStr.endsWith("]")) {
+                            tagIdsStr = tagIdsStr.substring(1, tagIdsStr.length() - 2);
+                        }
+                        return Arrays.stream(tagIdsStr.split(","));
+                    })
+                    .map(String::trim)
+                    .collect(ImmutableSet.toImmutableSet());
+            for (String tagId : tagIds) {
+                if (!allTagIds.contains(tagId)) {
+                    throw new ApiException(Response.Status.BAD_REQUEST, "Tag with ID not found: " + tagId);
+                }
+            }
+            if (tagIds.isEmpty() && params.getIndexTagNames() != null) {
+                tagIds = Optional.ofNullable(Strings.emptyToNull(record.get(params.getIndexTagNames().intValue())))
+                        .stream()
+                        .flatMap(tagIdsStr -> Arrays.stream(tagIdsStr.split(",")))
+                        .map(tagName -> {
+                            String tagId = tagNameToId.get(tagName);
+                            if (tagId == null) {
+                                throw new ApiException(Response.Status.BAD_REQUEST, "Tag with name not found: " + tagName);
+                            }
+                            return tagId;
+                        })
+                        .collect(ImmutableSet.toImmutableSet());
+            }
+
+            Optional<Long> voteValueOpt = Optional.ofNullable(params.getIndexVoteValue()).map(Long::intValue).map(record::get).map(Long::valueOf);
+            return new IdeaModel(
+                    projectId,
+                    ideaStore.genDeterministicIdeaIdForImport(title, jobId, rowIndex),
+                    author.getUserId(),
+                    author.getName(),
+                    author.getIsMod(),
+                    Instant.now(),
+                    title,
+                    Optional.ofNullable(params.getIndexDescription()).map(Long::intValue).map(record::get).orElse(null),
+                    null,
+                    null,
+                    null,
+                    null,
+                    params.getCategoryId(),
+                    statusIdOpt.orElse(null),
+                    tagIds,
+                    0L,
+                    0L,
+                    null,
+                    null,
+                    null,
+                    voteValueOpt.orElse(null),
+                    voteValueOpt.map(Math::abs).orElse(null),
+                    null,
+                    null,
+                    null,
+                    ImmutableSet.of(),
+                    ImmutableSet.of(),
+                    null,
+                    null,
+                    ImmutableSet.of(),
+                    null,
+                    null,
+                    null);
+        }, ideaStore::createIdeas);
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(IdeaImportHandler.class);
+                CsvImporter.handlerBinder(binder()).addBinding().to(IdeaImportHandler.class);
+            }
+        };
+    }
+}
@@ -3,12 +3,18 @@
 package com.smotana.clearflask.web.util;
 
 import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.math.LongMath;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
@@ -23,25 +29,52 @@ import com.smotana.clearflask.api.model.SubscriptionEventTypeIdea;
 import com.smotana.clearflask.api.model.SubscriptionEventTypeUser;
 import com.smotana.clearflask.api.model.VoteOption;
 import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.core.trace.Tracer;
 import com.smotana.clearflask.store.CommentStore;
 import com.smotana.clearflask.store.IdeaStore;
+import com.smotana.clearflask.store.OutboxStore;
+import com.smotana.clearflask.store.OutboxStore.OutboxModel;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.ProjectStore.WebhookListener;
 import com.smotana.clearflask.store.ProjectStore.WebhookListener.ResourceType;
 import com.smotana.clearflask.store.UserStore;
+import com.smotana.clearflask.util.CircuitBreaker;
+import com.smotana.clearflask.util.Extern;
 import com.smotana.clearflask.util.LogUtil;
 import com.smotana.clearflask.web.security.Sanitizer;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.util.EntityUtils;
 
+import java.net.URI;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.SynchronousQueue;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 @Slf4j
@@ -51,31 +84,155 @@ public class WebhookServiceImpl extends ManagedService implements WebhookService
     public interface Config {
         @DefaultValue("true")
         boolean enabled();
+
+        @DefaultValue("2")
+        int workerThreads();
+
+        @DefaultValue("10000")
+        int workerQueueCapacity();
+
+        @DefaultValue("PT3S")
+        Duration connectTimeout();
+
+        @DefaultValue("PT10S")
+        Duration socketTimeout();
+
+        @DefaultValue("200")
+        int maxConnectionsTotal();
+
+        /**
+         * Also limits concurrent in-flight deliveries per destination host.
+         */
+        @DefaultValue("4")
+        int maxConnectionsPerHost();
+
+        @DefaultValue("1000")
+        int maxPendingPerHost();
+
+        @DefaultValue("4")
+        int maxAttempts();
+
+        @DefaultValue("PT1S")
+        Duration retryBackoffStart();
+
+        @DefaultValue("PT1M")
+        Duration retryBackoffMax();
+
+        @DefaultValue("5")
+        int circuitBreakerFailureThreshold();
+
+        @DefaultValue("PT1M")
+        Duration circuitBreakerOpenDuration();
+
+        /**
+         * Vote and expression events carry absolute state, so while queued for a listener, a newer event from the
+         * same user on the same post replaces the older one.
+         */
+        @DefaultValue("true")
+        boolean coalesceVoteEvents();
+
+        /**
+         * Persist events to the outbox in the request path and deliver them from a drainer, surviving restarts.
+         * When disabled, events are held in memory only and entries already in the outbox are not drained.
+         */
+        @DefaultValue("true")
+        boolean useOutbox();
+
+        @DefaultValue("PT1S")
+        Duration outboxDrainInterval();
+
+        /**
+         * Drain interval doubles while the outbox comes back empty, up to this. Events enqueued on this node reset it,
+         * so only entries left behind by another node may wait this long.
+         */
+        @DefaultValue("PT1M")
+        Duration outboxDrainIntervalMax();
+
+        @DefaultValue("25")
+        int outboxDrainBatchSize();
+
+        /**
+         * Caps deliveries leased from the outbox at any one time, keeping delivery rate steady during bursts.
+         */
+        @DefaultValue("200")
+        int outboxMaxInFlight();
+
+        /**
+         * Must exceed the time a delivery takes including all retries, otherwise it may be handed out twice.
+         */
+        @DefaultValue("PT10M")
+        Duration outboxLeaseDuration();
+
+        @DefaultValue("3")
+        long outboxMaxLeaseAttempts();
     }
 
+    private static final String OUTBOX_TYPE = "webhook";
+    private static final ImmutableSet<String> COALESCABLE_EVENT_TYPES = ImmutableSet.of(
+            SubscriptionEventTypeIdea.VOTE_CHANGED.name(),
+            SubscriptionEventTypeIdea.EXPRESSIONS_CHANGED.name());
+
     @Inject
     private Config config;
     @Inject
+    private Metrics metrics;
+    @Inject
     private ProjectStore projectStore;
     @Inject
     private Gson gson;
     @Inject
     private Sanitizer sanitizer;
+    @Inject
+    private OutboxStore outboxStore;
 
+    private final LongAdder droppedCount = new LongAdder();
+    private final AtomicInteger outboxInFlight = new AtomicInteger();
     private ListeningExecutorService executor;
-    private CloseableHttpClient client;
+    private ScheduledExecutorService retryScheduler;
+    private ScheduledExecutorService outboxExecutor;
+    /** Guards rescheduling of the drainer between the drainer itself and events enqueued on this node */
+    private final Object outboxDrainLock = new Object();
+    private ScheduledFuture<?> outboxDrainFuture;
+    private long outboxDrainDelayMillis;
+    private CloseableHttpAsyncClient client;
+    private Cache<String, HostQueue> hostQueues;
+    private Cache<String, CircuitBreaker> circuitBreakers;
 
     @Override
     protected void serviceStart() throws Exception {
-        executor = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(
-                2, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
-                new ThreadFactoryBuilder().setNameFormat("WebhookServiceImpl-worker-%d").build()));
-        client = HttpClientBuilder.create().build();
+        executor = MoreExecutors.listeningDecorator(metrics.monitorExecutor("WebhookServiceImpl-worker", new ThreadPoolExecutor(
+                config.workerThreads(), config.workerThreads(), 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(config.workerQueueCapacity()),
+                new ThreadFactoryBuilder().setNameFormat("WebhookServiceImpl-worker-%d").build())));
+        retryScheduler = metrics.monitorExecutor("WebhookServiceImpl-retry", new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("WebhookServiceImpl-retry-%d").setDaemon(true).build()));
+        client = HttpAsyncClients.custom()
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout((int) config.connectTimeout().toMillis())
+                        .setSocketTimeout((int) config.socketTimeout().toMillis())
+                        .setConnectionRequestTimeout((int) config.socketTimeout().toMillis())
+                        .build())
+                .setMaxConnTotal(config.maxConnectionsTotal())
+                .setMaxConnPerRoute(config.maxConnectionsPerHost())
+                .setThreadFactory(new ThreadFactoryBuilder().setNameFormat("WebhookServiceImpl-io-%d").build())
+                .build();
+        client.start();
+        hostQueues = CacheBuilder.newBuilder()
+                .expireAfterAccess(Duration.ofHours(1))
+                .build();
+        circuitBreakers = CacheBuilder.newBuilder()
+                .expireAfterAccess(Duration.ofHours(1))
+                .build();
+        outboxExecutor = metrics.monitorExecutor("WebhookServiceImpl-outbox", new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("WebhookServiceImpl-outbox-%d").build()));
+        scheduleOutboxDrain(config.outboxDrainInterval().toMillis());
     }
 
     @Override
     protected void serviceStop() throws Exception {
+        // Deliveries in progress are left leased and resumed by any node once the lease expires
+        outboxExecutor.shutdownNow();
         executor.shutdownNow();
+        retryScheduler.shutdownNow();
         executor.awaitTermination(30, TimeUnit.SECONDS);
         client.close();
     }
@@ -222,6 +379,25 @@ public class WebhookServiceImpl extends ManagedService implements WebhookService
         return map;
     }
 
+    @Extern
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Extern
+    public ImmutableMap<String, String> getHostQueueStats() {
+        return hostQueues.asMap().entrySet().stream()
+                .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, e -> e.getValue().toString()));
+    }
+
+    @Extern
+    public ImmutableSet<String> getOpenCircuitUrls() {
+        return circuitBreakers.asMap().entrySet().stream()
+                .filter(e -> e.getValue().getState() != CircuitBreaker.State.CLOSED)
+                .map(Map.Entry::getKey)
+                .collect(ImmutableSet.toImmutableSet());
+    }
+
     private ListenableFuture<Void> handleEvent(ResourceType resourceType, String eventType, String projectId, Supplier<Map<String, Object>> payloadSupplier) {
         ImmutableSet<WebhookListener> listeners = projectStore.getProject(projectId, true)
                 .map(project -> project.getWebhookListenerUrls(resourceType, eventType))
@@ -229,48 +405,282 @@ public class WebhookServiceImpl extends ManagedService implements WebhookService
 
         if (listeners.isEmpty()) {
             return Futures.immediateFuture(null);
-        } else {
-            return submit(() -> {
-                String payload = gson.toJson(payloadSupplier.get());
-                for (WebhookListener listener : listeners) {
-                    log.trace("Sending webhook callback, url {} payload {}", listener.getUrl(), payload);
-                    HttpPost req = new HttpPost(listener.getUrl());
-                    req.setEntity(new StringEntity(payload, Charsets.UTF_8));
-                    try (CloseableHttpResponse res = client.execute(req)) {
-                        if (res.getStatusLine().getStatusCode() == 410) {
-                            projectStore.removeWebhookListener(projectId, listener);
-                        } else if (res.getStatusLine().getStatusCode() < 200
-                                || res.getStatusLine().getStatusCode() > 299) {
-                            if (LogUtil.rateLimitAllowLog("webhookService-send-status-non-200")) {
-                                // TODO notify account owner
-                                log.info("Send to webhook got status {}, url {} projectId {} event {}",
-                                        res.getStatusLine().getStatusCode(), listener.getUrl(), projectId, eventType);
-                            }
-                        }
-                    } catch (Exception ex) {
-                        if (LogUtil.rateLimitAllowLog("webhookService-send-failed")) {
-                            log.warn("Failed to send to webhook url {} for projectId {} event {}",
-                                    listener.getUrl(), projectId, eventType);
-                        }
+        }
+        if (config.useOutbox()) {
+            ImmutableList<OutboxDelivery> outboxDeliveries = toOutboxDeliveries(listeners, eventType, projectId, payloadSupplier);
+            return Futures.catchingAsync(Futures.transform(outboxStore.enqueue(OUTBOX_TYPE, outboxDeliveries.stream()
+                                    .map(gson::toJson)
+                                    .collect(ImmutableList.toImmutableList())),
+                            v -> {
+                                drainOutboxSoon();
+                                return null;
+                            }, MoreExecutors.directExecutor()),
+                    Exception.class, ex -> {
+                        log.warn("Failed to write webhook event {} to outbox for projectId {}, delivering from memory",
+                                eventType, projectId, ex);
+                        return enqueueAll(outboxDeliveries);
+                    }, MoreExecutors.directExecutor());
+        }
+
+        try {
+            return Futures.submitAsync(() -> enqueueAll(toOutboxDeliveries(listeners, eventType, projectId, payloadSupplier)),
+                    Tracer.propagating("WebhookService.enqueueAll", executor));
+        } catch (RejectedExecutionException ex) {
+            droppedCount.add(listeners.size());
+            if (LogUtil.rateLimitAllowLog("webhookService-queue-full")) {
+                log.warn("Webhook queue full, dropping event {} for projectId {}", eventType, projectId);
+            }
+            return Futures.immediateFuture(null);
+        }
+    }
+
+    private ListenableFuture<Void> enqueueAll(ImmutableList<OutboxDelivery> outboxDeliveries) {
+        ImmutableList.Builder<ListenableFuture<Void>> resultsBuilder = ImmutableList.builder();
+        for (OutboxDelivery outboxDelivery : outboxDeliveries) {
+            Delivery delivery = outboxDelivery.toDelivery();
+            resultsBuilder.add(delivery.getResult());
+            enqueue(delivery);
+        }
+        return Futures.whenAllComplete(resultsBuilder.build()).call(() -> null, MoreExecutors.directExecutor());
+    }
+
+    private ImmutableList<OutboxDelivery> toOutboxDeliveries(ImmutableSet<WebhookListener> listeners, String eventType, String projectId, Supplier<Map<String, Object>> payloadSupplier) {
+        Map<String, Object> payloadMap = payloadSupplier.get();
+        String payload = gson.toJson(payloadMap);
+        Optional<String> coalesceKeyOpt = getCoalesceKey(eventType, payloadMap);
+        return listeners.stream()
+                .map(listener -> new OutboxDelivery(projectId, listener, eventType, payload,
+                        coalesceKeyOpt.map(coalesceKey -> listener.getUrl() + " " + coalesceKey).orElse(null)))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    private void scheduleOutboxDrain(long delayMillis) {
+        synchronized (outboxDrainLock) {
+            outboxDrainDelayMillis = delayMillis;
+            try {
+                outboxDrainFuture = outboxExecutor.schedule(this::drainOutboxAndReschedule, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                log.trace("Outbox drainer shut down, not rescheduling", ex);
+            }
+        }
+    }
+
+    private void drainOutboxAndReschedule() {
+        boolean found = drainOutbox();
+        synchronized (outboxDrainLock) {
+            scheduleOutboxDrain(found
+                    ? config.outboxDrainInterval().toMillis()
+                    : Math.min(outboxDrainDelayMillis * 2, config.outboxDrainIntervalMax().toMillis()));
+        }
+    }
+
+    /**
+     * Brings a backed off drainer forward after this node enqueued entries.
+     */
+    private void drainOutboxSoon() {
+        long drainIntervalMillis = config.outboxDrainInterval().toMillis();
+        synchronized (outboxDrainLock) {
+            if (outboxDrainDelayMillis <= drainIntervalMillis) {
+                return;
+            }
+            if (outboxDrainFuture != null && outboxDrainFuture.cancel(false)) {
+                scheduleOutboxDrain(drainIntervalMillis);
+            } else {
+                // Drainer is running and reschedules itself relative to this
+                outboxDrainDelayMillis = drainIntervalMillis;
+            }
+        }
+    }
+
+    /**
+     * @return Whether any entries were leased or more are waiting on deliveries in flight
+     */
+    private boolean drainOutbox() {
+        if (!config.useOutbox()) {
+            return false;
+        }
+        boolean found = false;
+        try {
+            for (long shard = 0; shard < outboxStore.getShardCount(); shard++) {
+                int available = Math.min(config.outboxDrainBatchSize(), config.outboxMaxInFlight() - outboxInFlight.get());
+                if (available <= 0) {
+                    return true;
+                }
+                for (OutboxModel entry : outboxStore.lease(OUTBOX_TYPE, shard, available, config.outboxLeaseDuration())) {
+                    found = true;
+                    if (entry.getAttempt() > config.outboxMaxLeaseAttempts()) {
+                        log.warn("Giving up on webhook outbox entry after {} leases, entryId {}", entry.getAttempt() - 1, entry.getEntryId());
+                        outboxStore.complete(entry);
+                        continue;
                     }
+                    Delivery delivery = gson.fromJson(entry.getPayload(), OutboxDelivery.class).toDelivery();
+                    outboxInFlight.incrementAndGet();
+                    delivery.getResult().addListener(() -> {
+                        outboxInFlight.decrementAndGet();
+                        outboxStore.complete(entry);
+                    }, outboxExecutor);
+                    enqueue(delivery);
                 }
-            });
+            }
+        } catch (Exception ex) {
+            if (LogUtil.rateLimitAllowLog("webhookService-outbox-drain-failed")) {
+                log.warn("Failed to drain webhook outbox", ex);
+            }
         }
+        return found;
     }
 
-    private ListenableFuture<Void> submit(Runnable task) {
-        return executor.submit(() -> {
-            try {
-                task.run();
-            } catch (Throwable th) {
-                if (LogUtil.rateLimitAllowLog("webhookService-submit-failed")) {
-                    log.warn("Failed to complete task", th);
+    private Optional<String> getCoalesceKey(String eventType, Map<String, Object> payloadMap) {
+        if (!config.coalesceVoteEvents() || !COALESCABLE_EVENT_TYPES.contains(eventType)) {
+            return Optional.empty();
+        }
+        Object postId = ((Map<?, ?>) payloadMap.get("post")).get("postId");
+        Object userId = ((Map<?, ?>) payloadMap.get("user")).get("userId");
+        return Optional.of(eventType + " " + postId + " " + userId);
+    }
+
+    private void enqueue(Delivery delivery) {
+        String host;
+        try {
+            host = URIUtils.extractHost(new URI(delivery.getListener().getUrl())).toURI();
+        } catch (Exception ex) {
+            if (LogUtil.rateLimitAllowLog("webhookService-invalid-url")) {
+                log.warn("Invalid webhook url {} for projectId {}", delivery.getListener().getUrl(), delivery.getProjectId());
+            }
+            delivery.getResult().set(null);
+            return;
+        }
+        HostQueue hostQueue;
+        try {
+            hostQueue = hostQueues.get(host, () -> new HostQueue(host));
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+        if (!hostQueue.offer(delivery)) {
+            droppedCount.increment();
+            if (LogUtil.rateLimitAllowLog("webhookService-host-queue-full")) {
+                log.warn("Webhook queue for host {} full, dropping event {} for projectId {}",
+                        host, delivery.getEventType(), delivery.getProjectId());
+            }
+            delivery.getResult().set(null);
+            return;
+        }
+        dispatch(hostQueue);
+    }
+
+    private void dispatch(HostQueue hostQueue) {
+        Optional<Delivery> deliveryOpt;
+        while ((deliveryOpt = hostQueue.poll()).isPresent()) {
+            send(hostQueue, deliveryOpt.get());
+        }
+    }
+
+    private void send(HostQueue hostQueue, Delivery delivery) {
+        CircuitBreaker circuitBreaker;
+        try {
+            circuitBreaker = circuitBreakers.get(delivery.getListener().getUrl(), () -> new CircuitBreaker(
+                    config.circuitBreakerFailureThreshold(), config.circuitBreakerOpenDuration()));
+        } catch (ExecutionException ex) {
+            throw new RuntimeException(ex);
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            droppedCount.increment();
+            if (LogUtil.rateLimitAllowLog("webhookService-circuit-open")) {
+                log.info("Webhook circuit open, dropping event {} url {} projectId {}",
+                        delivery.getEventType(), delivery.getListener().getUrl(), delivery.getProjectId());
+            }
+            delivery.getResult().set(null);
+            hostQueue.release();
+            return;
+        }
+
+        log.trace("Sending webhook callback, url {} payload {}", delivery.getListener().getUrl(), delivery.getPayload());
+        HttpPost req = new HttpPost(delivery.getListener().getUrl());
+        req.setEntity(new StringEntity(delivery.getPayload(), Charsets.UTF_8));
+        client.execute(req, new FutureCallback<>() {
+            @Override
+            public void completed(HttpResponse res) {
+                EntityUtils.consumeQuietly(res.getEntity());
+                int statusCode = res.getStatusLine().getStatusCode();
+                if (statusCode >= 200 && statusCode <= 299) {
+                    circuitBreaker.recordSuccess();
+                    delivery.getResult().set(null);
+                } else if (statusCode == 410) {
+                    circuitBreaker.recordSuccess();
+                    removeListener(delivery);
+                    delivery.getResult().set(null);
+                } else if (statusCode == 429 || statusCode >= 500) {
+                    circuitBreaker.recordFailure();
+                    retryOrGiveUp(delivery, "status " + statusCode);
+                } else {
+                    // Endpoint is up but refuses this payload, retrying will not help
+                    circuitBreaker.recordSuccess();
+                    if (LogUtil.rateLimitAllowLog("webhookService-send-status-non-200")) {
+                        // TODO notify account owner
+                        log.info("Send to webhook got status {}, url {} projectId {} event {}",
+                                statusCode, delivery.getListener().getUrl(), delivery.getProjectId(), delivery.getEventType());
+                    }
+                    delivery.getResult().set(null);
                 }
+                next();
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                circuitBreaker.recordFailure();
+                retryOrGiveUp(delivery, ex.toString());
+                next();
+            }
+
+            @Override
+            public void cancelled() {
+                delivery.getResult().set(null);
+                next();
+            }
+
+            private void next() {
+                hostQueue.release();
+                dispatch(hostQueue);
             }
-            return null;
         });
     }
 
+    private void retryOrGiveUp(Delivery delivery, String reason) {
+        if (delivery.getAttempt() >= config.maxAttempts()) {
+            if (LogUtil.rateLimitAllowLog("webhookService-send-failed")) {
+                log.warn("Failed to send to webhook after {} attempts, url {} projectId {} event {} reason {}",
+                        delivery.getAttempt(), delivery.getListener().getUrl(), delivery.getProjectId(), delivery.getEventType(), reason);
+            }
+            delivery.getResult().set(null);
+            return;
+        }
+        try {
+            retryScheduler.schedule(() -> enqueue(delivery.toBuilder()
+                            .attempt(delivery.getAttempt() + 1)
+                            .build()),
+                    getBackoffMs(delivery.getAttempt()), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            delivery.getResult().set(null);
+        }
+    }
+
+    private long getBackoffMs(int attempt) {
+        long sleepMaxMs = Math.min(
+                config.retryBackoffMax().toMillis(),
+                LongMath.saturatedMultiply(config.retryBackoffStart().toMillis(), LongMath.saturatedPow(2, attempt - 1)));
+        return ThreadLocalRandom.current().nextLong(sleepMaxMs + 1);
+    }
+
+    private void removeListener(Delivery delivery) {
+        // Avoid blocking the IO thread
+        try {
+            executor.execute(() -> projectStore.removeWebhookListener(delivery.getProjectId(), delivery.getListener()));
+        } catch (RejectedExecutionException ex) {
+            log.warn("Failed to remove gone webhook listener url {} projectId {}, queue full",
+                    delivery.getListener().getUrl(), delivery.getProjectId());
+        }
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
@@ -281,4 +691,99 @@ public class WebhookServiceImpl extends ManagedService implements WebhookService
             }
         };
     }
+
+    /**
+     * Serialized form of a delivery as stored in the outbox.
+     */
+    @Value
+    @AllArgsConstructor
+    private static class OutboxDelivery {
+        @NonNull
+        String projectId;
+        @NonNull
+        WebhookListener listener;
+        @NonNull
+        String eventType;
+        @NonNull
+        String payload;
+        String coalesceKey;
+
+        private Delivery toDelivery() {
+            return new Delivery(projectId, listener, eventType, payload, coalesceKey, 1, SettableFuture.create());
+        }
+    }
+
+    @Value
+    @Builder(toBuilder = true)
+    @AllArgsConstructor
+    private static class Delivery {
+        @NonNull
+        String projectId;
+        @NonNull
+        WebhookListener listener;
+        @NonNull
+        String eventType;
+        @NonNull
+        String payload;
+        /**
+         * If set, a queued delivery with the same key is replaced by this one.
+         */
+        String coalesceKey;
+        int attempt;
+        /**
+         * Completes once the delivery succeeds, is dropped or gives up; never fails.
+         */
+        @NonNull
+        SettableFuture<Void> result;
+    }
+
+    /**
+     * Pending deliveries for a single destination host. Limits concurrent in-flight requests so a slow host only
+     * ties up its own connections.
+     */
+    private class HostQueue {
+        private final String host;
+        private final LinkedHashMap<Object, Delivery> pending = Maps.newLinkedHashMap();
+        private int inFlight;
+
+        private HostQueue(String host) {
+            this.host = host;
+        }
+
+        private synchronized boolean offer(Delivery delivery) {
+            if (delivery.getCoalesceKey() != null) {
+                Delivery replaced = pending.get(delivery.getCoalesceKey());
+                if (replaced != null) {
+                    pending.put(delivery.getCoalesceKey(), delivery);
+                    replaced.getResult().setFuture(delivery.getResult());
+                    return true;
+                }
+            }
+            if (pending.size() >= config.maxPendingPerHost()) {
+                return false;
+            }
+            pending.put(delivery.getCoalesceKey() != null ? delivery.getCoalesceKey() : new Object(), delivery);
+            return true;
+        }
+
+        private synchronized Optional<Delivery> poll() {
+            if (inFlight >= config.maxConnectionsPerHost() || pending.isEmpty()) {
+                return Optional.empty();
+            }
+            Iterator<Delivery> iterator = pending.values().iterator();
+            Delivery delivery = iterator.next();
+            iterator.remove();
+            inFlight++;
+            return Optional.of(delivery);
+        }
+
+        private synchronized void release() {
+            inFlight--;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "inFlight " + inFlight + " pending " + pending.size();
+        }
+    }
 }
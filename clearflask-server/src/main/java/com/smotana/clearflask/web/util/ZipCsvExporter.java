@@ -0,0 +1,210 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.web.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.multibindings.Multibinder;
+import com.kik.config.ice.ConfigSystem;
+import com.kik.config.ice.annotations.DefaultValue;
+import com.smotana.clearflask.core.ManagedService;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.core.trace.Tracer;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes multiple CSV files into a zip while fetching all of them concurrently.
+ * <p>
+ * Zip entries must be written one after another, so each entry is fetched on its own thread into a bounded queue
+ * that the writer drains in order. A fetcher runs ahead of the writer by at most {@link Config#prefetchRecords()}
+ * records and then waits, so memory stays bounded and output is streamed as it is produced.
+ */
+@Slf4j
+@Singleton
+public class ZipCsvExporter extends ManagedService {
+
+    public interface Config {
+        /**
+         * Records fetched ahead of the writer, per entry.
+         */
+        @DefaultValue("1000")
+        int prefetchRecords();
+
+        /**
+         * Entries fetched at once across all exports, others wait for a thread in submission order. As each export
+         * submits its entries in the order they are written, a waiting entry never holds up one written before it.
+         */
+        @DefaultValue("32")
+        int fetchThreads();
+    }
+
+    /** Marks the end of an entry's records */
+    private static final Object END = new Object();
+
+    @Inject
+    private Config config;
+    @Inject
+    private Metrics metrics;
+
+    private ThreadPoolExecutor executor;
+
+    @Value
+    public static class CsvEntry<T> {
+        String fileName;
+        String[] header;
+        /** Feeds all records to the given consumer, such as a store's exportAllForProject */
+        Consumer<Consumer<T>> source;
+        Function<T, Object[]> toRecord;
+    }
+
+    @Override
+    protected void serviceStart() throws Exception {
+        executor = metrics.monitorExecutor("ZipCsvExporter-fetch", new ThreadPoolExecutor(
+                config.fetchThreads(), config.fetchThreads(), 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("ZipCsvExporter-fetch-%d").setDaemon(true).build()));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    protected void serviceStop() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Fetches all entries concurrently and writes them into a zip in the given order.
+     *
+     * @param limiterSupplier Creates a limiter for each entry, one permit per record
+     */
+    public void export(OutputStream outputStream, CSVFormat format, Supplier<RateLimiter> limiterSupplier, ImmutableList<CsvEntry<?>> entries) throws IOException {
+        AtomicBoolean done = new AtomicBoolean(false);
+        ImmutableList<Fetcher<?>> fetchers = entries.stream()
+                .map(entry -> new Fetcher<>(entry, limiterSupplier.get(), done))
+                .collect(ImmutableList.toImmutableList());
+        try {
+            for (Fetcher<?> fetcher : fetchers) {
+                executor.execute(Tracer.wrap("ZipCsvExporter.fetch", fetcher));
+            }
+            try (ZipOutputStream zos = new ZipOutputStream(outputStream)) {
+                for (Fetcher<?> fetcher : fetchers) {
+                    fetcher.writeTo(zos, format);
+                }
+            }
+        } finally {
+            // Stops fetchers still running if the writer failed, such as when the client disconnects
+            done.set(true);
+        }
+    }
+
+    private class Fetcher<T> implements Runnable {
+        private final CsvEntry<T> entry;
+        private final RateLimiter limiter;
+        private final AtomicBoolean done;
+        private final BlockingQueue<Object> queue;
+        private volatile Throwable failure;
+
+        private Fetcher(CsvEntry<T> entry, RateLimiter limiter, AtomicBoolean done) {
+            this.entry = entry;
+            this.limiter = limiter;
+            this.done = done;
+            this.queue = new ArrayBlockingQueue<>(config.prefetchRecords());
+        }
+
+        @Override
+        public void run() {
+            if (done.get()) {
+                // Export ended while waiting for a thread
+                return;
+            }
+            try {
+                entry.getSource().accept(record -> {
+                    limiter.acquire();
+                    put(record);
+                });
+                put(END);
+            } catch (CancellationException ex) {
+                log.debug("Export of {} cancelled", entry.getFileName());
+            } catch (Throwable th) {
+                failure = th;
+                // If the queue is full, the writer notices the failure once it is drained
+                queue.offer(END);
+            }
+        }
+
+        private void put(Object record) {
+            try {
+                while (!queue.offer(record, 1, TimeUnit.SECONDS)) {
+                    if (done.get()) {
+                        throw new CancellationException();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+        }
+
+        private void writeTo(ZipOutputStream zos, CSVFormat format) throws IOException {
+            zos.putNextEntry(new ZipEntry(entry.getFileName()));
+            CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(zos), format.withHeader(entry.getHeader()));
+            while (true) {
+                Object next;
+                try {
+                    next = queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while exporting " + entry.getFileName());
+                }
+                if (next == null || next == END) {
+                    if (failure != null) {
+                        throw new IOException("Failed to fetch " + entry.getFileName(), failure);
+                    }
+                    if (next == END) {
+                        break;
+                    }
+                    // Fetcher fell behind, send out what is written so far
+                    csvPrinter.flush();
+                    continue;
+                }
+                csvPrinter.printRecord(entry.getToRecord().apply((T) next));
+            }
+            csvPrinter.flush();
+            zos.closeEntry();
+        }
+    }
+
+    public static Module module() {
+        return new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ZipCsvExporter.class).asEagerSingleton();
+                Multibinder.newSetBinder(binder(), ManagedService.class).addBinding().to(ZipCsvExporter.class);
+                install(ConfigSystem.configModule(Config.class));
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.core.metrics;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class MetricsTest extends AbstractTest {
+
+    @Inject
+    private Metrics metrics;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Metrics.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testPrometheus() throws Exception {
+        Metrics.Timer timer = metrics.timer("latency_seconds", "Latency", "op", "get\"\\\n");
+        assertSame(timer, metrics.timer("latency_seconds", "Latency", "op", "get\"\\\n"));
+        timer.record(1, TimeUnit.MILLISECONDS);
+        timer.record(3, TimeUnit.MILLISECONDS);
+        timer.record(1, TimeUnit.MINUTES);
+        assertEquals(3, timer.getCount());
+
+        Metrics.Histogram histogram = metrics.histogram("fill_ratio", "Fill", new double[]{0.5, 1});
+        histogram.record(0.25);
+        histogram.record(0.5);
+        histogram.record(2);
+        assertEquals(3, histogram.getCount());
+
+        metrics.counter("calls_total", "Calls").increment();
+        metrics.gauge("queue_size", "Queue size", () -> 1.5d, "queue", "a");
+
+        StringWriter writer = new StringWriter();
+        metrics.writePrometheus(writer);
+        String output = writer.toString();
+        log.info("Output:\n{}", output);
+
+        assertTrue(output.contains("# TYPE latency_seconds histogram\n"));
+        assertTrue(output.contains("latency_seconds_bucket{op=\"get\\\"\\\\\\n\",le=\"0.001\"} 1\n"));
+        assertTrue(output.contains("latency_seconds_bucket{op=\"get\\\"\\\\\\n\",le=\"0.0025\"} 1\n"));
+        assertTrue(output.contains("latency_seconds_bucket{op=\"get\\\"\\\\\\n\",le=\"0.005\"} 2\n"));
+        assertTrue(output.contains("latency_seconds_bucket{op=\"get\\\"\\\\\\n\",le=\"10.0\"} 2\n"));
+        assertTrue(output.contains("latency_seconds_bucket{op=\"get\\\"\\\\\\n\",le=\"+Inf\"} 3\n"));
+        assertTrue(output.contains("latency_seconds_sum{op=\"get\\\"\\\\\\n\"} 60.004\n"));
+        assertTrue(output.contains("latency_seconds_count{op=\"get\\\"\\\\\\n\"} 3\n"));
+        assertTrue(output.contains("# TYPE fill_ratio histogram\n"));
+        assertTrue(output.contains("fill_ratio_bucket{le=\"0.5\"} 2\n"));
+        assertTrue(output.contains("fill_ratio_bucket{le=\"1.0\"} 2\n"));
+        assertTrue(output.contains("fill_ratio_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(output.contains("fill_ratio_sum 2.75\n"));
+        assertTrue(output.contains("fill_ratio_count 3\n"));
+        assertTrue(output.contains("# TYPE calls_total counter\ncalls_total 1\n"));
+        assertTrue(output.contains("# TYPE queue_size gauge\nqueue_size{queue=\"a\"} 1.5\n"));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMonitorExecutor() throws Exception {
+        ThreadPoolExecutor executor = metrics.monitorExecutor("test", new ThreadPoolExecutor(
+                1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1)));
+        try {
+            executor.shutdown();
+            try {
+                executor.execute(() -> {
+                });
+                fail();
+            } catch (RejectedExecutionException ex) {
+                // Expected
+            }
+            StringWriter writer = new StringWriter();
+            metrics.writePrometheus(writer);
+            assertTrue(writer.toString().contains(Metrics.PREFIX + "executor_rejected_total{executor=\"test\"} 1\n"));
+            assertTrue(writer.toString().contains(Metrics.PREFIX + "executor_queue_size{executor=\"test\"} 0\n"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMonitorCache() throws Exception {
+        Cache<String, String> cache = metrics.monitorCache("test", CacheBuilder.newBuilder()
+                .recordStats()
+                .<String, String>build());
+        cache.put("a", "a");
+        cache.getIfPresent("a");
+        cache.getIfPresent("b");
+
+        StringWriter writer = new StringWriter();
+        metrics.writePrometheus(writer);
+        assertTrue(writer.toString().contains(Metrics.PREFIX + "cache_hit_ratio{cache=\"test\"} 0.5\n"));
+        assertTrue(writer.toString().contains(Metrics.PREFIX + "cache_hits_total{cache=\"test\"} 1\n"));
+        assertTrue(writer.toString().contains(Metrics.PREFIX + "cache_misses_total{cache=\"test\"} 1\n"));
+        assertTrue(writer.toString().contains(Metrics.PREFIX + "cache_size{cache=\"test\"} 1\n"));
+    }
+}
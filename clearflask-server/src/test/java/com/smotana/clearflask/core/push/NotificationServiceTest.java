@@ -8,9 +8,13 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ControllableSleepingStopwatch;
 import com.google.common.util.concurrent.GuavaRateLimiters;
+import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
 import com.smotana.clearflask.api.model.TransactionType;
 import com.smotana.clearflask.api.model.VersionedConfigAdmin;
 import com.smotana.clearflask.core.push.message.EmailLogin;
@@ -19,6 +23,7 @@ import com.smotana.clearflask.core.push.message.EmailVerify;
 import com.smotana.clearflask.core.push.message.OnAccountSignup;
 import com.smotana.clearflask.core.push.message.OnCommentReply;
 import com.smotana.clearflask.core.push.message.OnCreditChange;
+import com.smotana.clearflask.core.push.message.OnDigest;
 import com.smotana.clearflask.core.push.message.OnEmailChanged;
 import com.smotana.clearflask.core.push.message.OnForgotPassword;
 import com.smotana.clearflask.core.push.message.OnModInvite;
@@ -27,16 +32,20 @@ import com.smotana.clearflask.core.push.message.OnStatusOrResponseChange;
 import com.smotana.clearflask.core.push.message.OnTeammateInvite;
 import com.smotana.clearflask.core.push.message.OnTrialEnded;
 import com.smotana.clearflask.core.push.provider.BrowserPushService.BrowserPush;
+import com.smotana.clearflask.core.push.provider.EmailService.BulkEmail;
 import com.smotana.clearflask.core.push.provider.EmailService.Email;
 import com.smotana.clearflask.core.push.provider.MockBrowserPushService;
 import com.smotana.clearflask.core.push.provider.MockEmailService;
 import com.smotana.clearflask.core.push.provider.MockNotificationStore;
 import com.smotana.clearflask.security.limiter.rate.LocalRateLimiter;
+import com.smotana.clearflask.store.AccountStore;
 import com.smotana.clearflask.store.CommentStore;
 import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.IdeaStore;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.MockModelUtil;
 import com.smotana.clearflask.store.NotificationStore.NotificationModel;
+import com.smotana.clearflask.store.OutboxStore;
 import com.smotana.clearflask.store.ProjectStore;
 import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.UserStore.UserModel;
@@ -45,6 +54,9 @@ import com.smotana.clearflask.store.VoteStore.ExpressModel;
 import com.smotana.clearflask.store.VoteStore.FundModel;
 import com.smotana.clearflask.store.VoteStore.TransactionModel;
 import com.smotana.clearflask.store.VoteStore.VoteModel;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
+import com.smotana.clearflask.store.impl.DynamoOutboxStore;
 import com.smotana.clearflask.testutil.AbstractTest;
 import com.smotana.clearflask.util.IdUtil;
 import com.smotana.clearflask.util.ModelUtil;
@@ -62,15 +74,24 @@ import org.junit.Test;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.Security;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
+import static com.smotana.clearflask.core.push.message.EmailTemplates.AUTH_TOKEN_PLACEHOLDER;
 import static com.smotana.clearflask.testutil.HtmlUtil.textToSimpleHtml;
 import static nl.martijndwars.webpush.Utils.ALGORITHM;
 import static nl.martijndwars.webpush.Utils.CURVE;
 import static org.bouncycastle.jce.provider.BouncyCastleProvider.PROVIDER_NAME;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
 
@@ -89,6 +110,10 @@ public class NotificationServiceTest extends AbstractTest {
     private UserStore mockUserStore;
     @Inject
     private MockNotificationStore mockNotificationStore;
+    @Inject
+    private OutboxStore outboxStore;
+    @Inject
+    private ProjectStore mockProjectStore;
 
     @Override
     protected void configure() {
@@ -99,15 +124,34 @@ public class NotificationServiceTest extends AbstractTest {
         bindMock(VoteStore.class);
         bindMock(UserStore.class);
         bindMock(ContentStore.class);
+        bindMock(ProjectStore.class);
+        bindMock(IdeaStore.class);
+        bindMock(CommentStore.class);
+        bindMock(AccountStore.class);
 
         install(Application.module());
-        install(NotificationServiceImpl.module());
+        install(Modules.override(
+                NotificationServiceImpl.module(),
+                DynamoOutboxStore.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(NotificationServiceImpl.Config.class, om -> {
+                    om.override(om.id().fanOutBatchSize()).withValue(2);
+                    om.override(om.id().outboxDrainInterval()).withValue(Duration.ofMillis(100));
+                }));
+                install(ConfigSystem.overrideModule(DynamoOutboxStore.Config.class, om -> {
+                    om.override(om.id().shardCount()).withValue(1L);
+                }));
+            }
+        }));
         install(EmailTemplates.module());
         install(OnCommentReply.module());
         install(OnStatusOrResponseChange.module());
         install(OnTrialEnded.module());
         install(OnPaymentFailed.module());
         install(OnCreditChange.module());
+        install(OnDigest.module());
         install(OnForgotPassword.module());
         install(OnAccountSignup.module());
         install(OnTeammateInvite.module());
@@ -120,6 +164,8 @@ public class NotificationServiceTest extends AbstractTest {
         install(MockBrowserPushService.module());
         install(MockEmailService.module());
         install(MockNotificationStore.module());
+        install(InMemoryDynamoDbProvider.module());
+        install(DynamoMapperImpl.module());
         install(LocalRateLimiter.module());
         ControllableSleepingStopwatch controllableSleepingStopwatch = new ControllableSleepingStopwatch();
         install(GuavaRateLimiters.testModule(controllableSleepingStopwatch));
@@ -164,7 +210,7 @@ public class NotificationServiceTest extends AbstractTest {
                 .targetId(idea.getIdeaId())
                 .vote(1)
                 .build()), Optional.empty()));
-        when(this.mockUserStore.getUsers(any(), any())).thenReturn(ImmutableMap.of(user.getUserId(), user));
+        when(this.mockUserStore.getUsersForNotification(any(), any())).thenReturn(ImmutableMap.of(user.getUserId(), user.toNotificationView()));
         when(this.mockUserStore.createToken(any(), any(), any())).thenReturn("myAuthToken");
 
         service.onStatusOrResponseChanged(
@@ -191,6 +237,111 @@ public class NotificationServiceTest extends AbstractTest {
         assertFalse(inApp.getDescription().contains("__"));
     }
 
+    @Test(timeout = 10_000L)
+    public void testOnStatusOrResponseChangedFanOutBatches() throws Exception {
+        String projectId = "myProject";
+        VersionedConfigAdmin versionedConfigAdmin = ModelUtil.createEmptyConfig(projectId);
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .statusId(versionedConfigAdmin.getConfig().getContent().getCategories().get(0).getWorkflow().getStatuses().get(0).getStatusId())
+                .categoryId(versionedConfigAdmin.getConfig().getContent().getCategories().get(0).getCategoryId())
+                .fundersCount(0L)
+                .votersCount(5L).voteValue(5L)
+                .expressions(ImmutableMap.of())
+                .build();
+        ImmutableList<UserModel> users = IntStream.range(0, 5)
+                .mapToObj(i -> MockModelUtil.getRandomUser().toBuilder()
+                        .projectId(projectId)
+                        .userId(IdUtil.randomId())
+                        .emailNotify(false)
+                        .browserPushToken(null)
+                        .build())
+                .collect(ImmutableList.toImmutableList());
+        when(this.mockVoteStore.voteListByTarget(any(), any(), any())).thenReturn(new VoteStore.ListResponse<>(users.stream()
+                .map(user -> VoteModel.builder()
+                        .userId(user.getUserId())
+                        .projectId(projectId)
+                        .targetId(idea.getIdeaId())
+                        .vote(1)
+                        .build())
+                .collect(ImmutableList.toImmutableList()), Optional.empty()));
+        when(this.mockUserStore.getUsersForNotification(any(), any())).thenReturn(users.stream()
+                .collect(ImmutableMap.toImmutableMap(UserModel::getUserId, UserModel::toNotificationView)));
+
+        service.onStatusOrResponseChanged(
+                versionedConfigAdmin.getConfig(),
+                idea,
+                true,
+                false,
+                Optional.of(users.get(0)));
+
+        Set<String> notifiedUserIds = Sets.newHashSet();
+        for (int i = 0; i < 4; i++) {
+            notifiedUserIds.add(mockNotificationStore.sent.take().getUserId());
+        }
+        assertEquals(users.subList(1, 5).stream()
+                .map(UserModel::getUserId)
+                .collect(ImmutableSet.toImmutableSet()), notifiedUserIds);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testOnStatusOrResponseChangedBulkEmail() throws Exception {
+        String projectId = "myProject";
+        VersionedConfigAdmin versionedConfigAdmin = ModelUtil.createEmptyConfig(projectId);
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .statusId(versionedConfigAdmin.getConfig().getContent().getCategories().get(0).getWorkflow().getStatuses().get(0).getStatusId())
+                .categoryId(versionedConfigAdmin.getConfig().getContent().getCategories().get(0).getCategoryId())
+                .fundersCount(0L)
+                .votersCount(4L).voteValue(4L)
+                .expressions(ImmutableMap.of())
+                .build();
+        ImmutableList<UserModel> users = IntStream.range(0, 4)
+                .mapToObj(i -> MockModelUtil.getRandomUser().toBuilder()
+                        .projectId(projectId)
+                        .userId(IdUtil.randomId())
+                        .email("user" + i + "@email.com")
+                        .emailNotify(true)
+                        .browserPushToken(null)
+                        .build())
+                .collect(ImmutableList.toImmutableList());
+        when(this.mockVoteStore.voteListByTarget(any(), any(), any())).thenReturn(new VoteStore.ListResponse<>(users.stream()
+                .map(user -> VoteModel.builder()
+                        .userId(user.getUserId())
+                        .projectId(projectId)
+                        .targetId(idea.getIdeaId())
+                        .vote(1)
+                        .build())
+                .collect(ImmutableList.toImmutableList()), Optional.empty()));
+        when(this.mockUserStore.getUsersForNotification(any(), any())).thenReturn(users.stream()
+                .collect(ImmutableMap.toImmutableMap(UserModel::getUserId, UserModel::toNotificationView)));
+        when(this.mockUserStore.createToken(any(), any(), any())).thenAnswer(invocation -> "token" + invocation.getArgument(1));
+
+        service.onStatusOrResponseChanged(
+                versionedConfigAdmin.getConfig(),
+                idea,
+                true,
+                false,
+                Optional.empty());
+
+        // One bulk email per fan-out batch
+        for (int i = 0; i < 2; i++) {
+            BulkEmail bulkEmail = mockEmailService.sentBulk.take();
+            assertEquals(2, bulkEmail.getRecipients().size());
+            assertTrue(bulkEmail.getContentHtml().contains(AUTH_TOKEN_PLACEHOLDER));
+        }
+        ImmutableMap<String, String> userIdByEmail = users.stream()
+                .collect(ImmutableMap.toImmutableMap(UserModel::getEmail, UserModel::getUserId));
+        for (int i = 0; i < 4; i++) {
+            Email email = mockEmailService.sent.take();
+            String authToken = "token" + userIdByEmail.get(email.getToAddress());
+            assertTrue(email.getContentHtml().contains(authToken));
+            assertTrue(email.getContentText().contains(authToken));
+            assertFalse(email.getContentHtml().contains("__"));
+            assertFalse(email.getContentText().contains("__"));
+        }
+    }
+
     @Test(timeout = 10_000L)
     public void testOnCommentReply() throws Exception {
         String projectId = "myProject";
@@ -228,7 +379,7 @@ public class NotificationServiceTest extends AbstractTest {
                 .ideaId(idea.getIdeaId())
                 .authorUserId(sender.getUserId())
                 .build();
-        when(this.mockUserStore.getUser(any(), any())).thenReturn(Optional.of(user));
+        when(this.mockUserStore.getUserForNotification(any(), any())).thenReturn(Optional.of(user.toNotificationView()));
         when(this.mockUserStore.createToken(any(), any(), any())).thenReturn("myAuthToken");
 
         service.onCommentReply(
@@ -295,6 +446,67 @@ public class NotificationServiceTest extends AbstractTest {
         assertFalse(inApp.getDescription().contains("__"));
     }
 
+    @Test(timeout = 10_000L)
+    public void testDigest() throws Exception {
+        configSet(NotificationServiceImpl.Config.class, "digestWindow", "PT1S");
+        String projectId = "myProject";
+        VersionedConfigAdmin versionedConfigAdmin = ModelUtil.createEmptyConfig(projectId);
+        ImmutableList<IdeaModel> ideas = IntStream.range(0, 2)
+                .mapToObj(i -> MockModelUtil.getRandomIdea().toBuilder()
+                        .projectId(projectId)
+                        .build())
+                .collect(ImmutableList.toImmutableList());
+        UserModel user = MockModelUtil.getRandomUser().toBuilder()
+                .projectId(projectId)
+                .userId(IdUtil.randomId())
+                .email("user@email.com")
+                .emailNotify(true)
+                .browserPushToken("browserPushToken")
+                .build();
+        UserModel sender = MockModelUtil.getRandomUser().toBuilder()
+                .projectId(projectId)
+                .userId(IdUtil.randomId())
+                .build();
+        when(this.mockUserStore.getUserForNotification(any(), any())).thenReturn(Optional.of(user.toNotificationView()));
+        when(this.mockUserStore.createToken(any(), any(), any())).thenReturn("myAuthToken");
+
+        // Two replies on the first post, one on the second
+        ImmutableList<CommentStore.CommentModel> comments = Stream.of(ideas.get(0), ideas.get(0), ideas.get(1))
+                .map(idea -> MockModelUtil.getRandomComment().toBuilder()
+                        .projectId(projectId)
+                        .ideaId(idea.getIdeaId())
+                        .authorUserId(sender.getUserId())
+                        .build())
+                .collect(ImmutableList.toImmutableList());
+        for (CommentStore.CommentModel comment : comments) {
+            service.onCommentReply(
+                    versionedConfigAdmin.getConfig(),
+                    ideas.stream().filter(idea -> idea.getIdeaId().equals(comment.getIdeaId())).findAny().get(),
+                    Optional.empty(),
+                    comment,
+                    sender);
+        }
+
+        // Single email and push for all posts, in-app deduplicated per post
+        Email email = mockEmailService.sent.take();
+        BrowserPush push = mockBrowserPushService.sent.take();
+        log.info("email {}", email);
+        log.info("push {}", push);
+        assertTrue(email.getSubject().startsWith("2 "));
+        assertFalse(email.getContentHtml().contains("__"));
+        assertFalse(email.getContentText().contains("__"));
+        assertTrue(push.getTitle().startsWith("2 "));
+        assertEquals(ideas.stream()
+                        .map(IdeaModel::getIdeaId)
+                        .collect(ImmutableSet.toImmutableSet()),
+                ImmutableSet.of(
+                        mockNotificationStore.sent.take().getRelatedIdeaId(),
+                        mockNotificationStore.sent.take().getRelatedIdeaId()));
+        assertNull(mockEmailService.sent.poll(1500, TimeUnit.MILLISECONDS));
+        assertTrue(mockNotificationStore.sent.isEmpty());
+        assertEquals(0, ((NotificationServiceImpl) service).getPendingDigestCount());
+    }
+
     @Test(timeout = 10_000L)
     public void testOnForgotPassword() throws Exception {
         String projectId = "myProject";
@@ -306,7 +518,7 @@ public class NotificationServiceTest extends AbstractTest {
                 .emailNotify(true)
                 .browserPushToken("browserPushToken")
                 .build();
-        when(this.mockUserStore.getUser(any(), any())).thenReturn(Optional.of(user));
+        when(this.mockUserStore.getUserForNotification(any(), any())).thenReturn(Optional.of(user.toNotificationView()));
         when(this.mockUserStore.createToken(any(), any(), any())).thenReturn("myAuthToken");
 
         service.onForgotPassword(
@@ -332,7 +544,7 @@ public class NotificationServiceTest extends AbstractTest {
                 .email("user@email.com")
                 .emailNotify(true)
                 .build();
-        when(this.mockUserStore.getUser(any(), any())).thenReturn(Optional.of(user));
+        when(this.mockUserStore.getUserForNotification(any(), any())).thenReturn(Optional.of(user.toNotificationView()));
         when(this.mockUserStore.createToken(any(), any(), any())).thenReturn("myAuthToken");
 
         service.onModInvite(
@@ -358,7 +570,7 @@ public class NotificationServiceTest extends AbstractTest {
                 .email("user@email.com")
                 .emailNotify(true)
                 .build();
-        when(this.mockUserStore.getUser(any(), any())).thenReturn(Optional.of(user));
+        when(this.mockUserStore.getUserForNotification(any(), any())).thenReturn(Optional.of(user.toNotificationView()));
         when(this.mockUserStore.createToken(any(), any(), any())).thenReturn("myAuthToken");
 
         service.onTeammateInvite(new ProjectStore.InvitationModel(
@@ -389,7 +601,7 @@ public class NotificationServiceTest extends AbstractTest {
                 .email("user@email.com")
                 .emailNotify(true)
                 .build();
-        when(this.mockUserStore.getUser(any(), any())).thenReturn(Optional.of(user));
+        when(this.mockUserStore.getUserForNotification(any(), any())).thenReturn(Optional.of(user.toNotificationView()));
         when(this.mockUserStore.createToken(any(), any(), any())).thenReturn("myAuthToken");
 
         service.onEmailChanged(
@@ -405,6 +617,32 @@ public class NotificationServiceTest extends AbstractTest {
         assertFalse(email.getContentText().contains("__"));
     }
 
+    @Test(timeout = 10_000L)
+    public void testOutboxReplay() throws Exception {
+        ProjectStore.InvitationModel invitation = new ProjectStore.InvitationModel(
+                IdUtil.randomId(),
+                "myProject",
+                "sandy@example.com",
+                "Sanders",
+                "Sand Project",
+                null,
+                Instant.now().plusSeconds(1000L).getEpochSecond());
+        when(this.mockProjectStore.getInvitation(invitation.getInvitationId())).thenReturn(Optional.of(invitation));
+
+        // Left behind by a node that went away while processing
+        outboxStore.enqueueLeased("notification",
+                "{\"type\":\"TEAMMATE_INVITE\",\"invitationId\":\"" + invitation.getInvitationId() + "\"}",
+                Duration.ZERO);
+
+        Email email = mockEmailService.sent.take();
+        assertEquals("sandy@example.com", email.getToAddress());
+
+        // Completed once sent
+        Thread.sleep(500L);
+        assertEquals(ImmutableList.of(), outboxStore.lease("notification", 0L, 10, Duration.ZERO));
+        assertNull(mockEmailService.sent.poll());
+    }
+
     private KeyPair generateKeyPair() {
         try {
             Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
@@ -0,0 +1,66 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.core.push.message;
+
+import com.google.common.collect.ImmutableMap;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+@Slf4j
+public class CompiledTemplateTest extends AbstractTest {
+
+    @Test(timeout = 10_000L)
+    public void testRender() throws Exception {
+        CompiledTemplate template = CompiledTemplate.compile("Hello __name__, you have __count__ new __unknown__ messages__");
+        assertEquals("Hello Matus, you have 5 new __unknown__ messages__",
+                template.render(ImmutableMap.of("name", "Matus", "count", "5")));
+        assertEquals("", CompiledTemplate.compile("").render(ImmutableMap.of()));
+        assertEquals("no slots", CompiledTemplate.compile("no slots").render(ImmutableMap.of("name", "Matus")));
+        assertEquals("ab", CompiledTemplate.compile("__a____b__").render(ImmutableMap.of("a", "a", "b", "b")));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testNested() throws Exception {
+        CompiledTemplate template = CompiledTemplate.compile("<p>__CONTENT__</p><a href=\"__BUTTON_URL__\">__BUTTON_TEXT__</a>");
+        CompiledTemplate content = CompiledTemplate.compile("Reply from __sender__ on __title__");
+        assertEquals("<p>Reply from Matus on My idea</p><a href=\"https://example.com\">VIEW</a>",
+                template.render(ImmutableMap.of(
+                        "CONTENT", content,
+                        "sender", "Matus",
+                        "title", "My idea",
+                        "BUTTON_URL", "https://example.com",
+                        "BUTTON_TEXT", "VIEW")));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMatchesChainedReplace() throws Exception {
+        EmailTemplates emailTemplates = new EmailTemplates();
+        String content = "You were invited by __sender__ to __project__";
+        ImmutableMap<String, String> values = ImmutableMap.of(
+                "sender", "Matus",
+                "project", "ClearFlask",
+                "BUTTON_TEXT", "ACCEPT",
+                "BUTTON_URL", "https://example.com/invite",
+                "UNSUBSCRIBE_URL", "https://example.com/unsubscribe");
+        ImmutableMap<String, Object> valuesWithContent = ImmutableMap.<String, Object>builder()
+                .putAll(values)
+                .put("CONTENT", CompiledTemplate.compile(content))
+                .build();
+        for (CompiledTemplate template : new CompiledTemplate[]{
+                emailTemplates.getNotificationTemplateHtml(),
+                emailTemplates.getNotificationTemplateText(),
+                emailTemplates.getNotificationNoUnsubTemplateHtml(),
+                emailTemplates.getNotificationNoUnsubTemplateText()}) {
+            String expected = template.toString().replace("__CONTENT__", content);
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                expected = expected.replace("__" + entry.getKey() + "__", entry.getValue());
+            }
+            assertEquals(expected, template.render(valuesWithContent));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.core.push.provider;
+
+import com.amazonaws.services.simpleemailv2.AmazonSimpleEmailServiceV2;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailEntry;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailEntryResult;
+import com.amazonaws.services.simpleemailv2.model.BulkEmailStatus;
+import com.amazonaws.services.simpleemailv2.model.CreateEmailTemplateRequest;
+import com.amazonaws.services.simpleemailv2.model.SendBulkEmailRequest;
+import com.amazonaws.services.simpleemailv2.model.SendBulkEmailResult;
+import com.amazonaws.services.simpleemailv2.model.SendEmailRequest;
+import com.amazonaws.services.simpleemailv2.model.SendEmailResult;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ControllableSleepingStopwatch;
+import com.google.common.util.concurrent.GuavaRateLimiters;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.core.push.provider.EmailService.BulkEmail;
+import com.smotana.clearflask.core.push.provider.EmailService.Recipient;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.web.Application;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@Slf4j
+public class EmailServiceTest extends AbstractTest {
+
+    @Inject
+    private EmailService service;
+    @Inject
+    private AmazonSimpleEmailServiceV2 mockSes;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(AmazonSimpleEmailServiceV2.class);
+
+        install(Application.module());
+        install(Modules.override(
+                EmailServiceImpl.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(EmailServiceImpl.Config.class, om -> {
+                    om.override(om.id().rateLimitPerSecond()).withValue(1_000d);
+                }));
+            }
+        }));
+        install(GuavaRateLimiters.testModule(new ControllableSleepingStopwatch()));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSendBulk() throws Exception {
+        when(mockSes.sendBulkEmail(any())).thenAnswer(invocation -> new SendBulkEmailResult()
+                .withBulkEmailEntryResults(invocation.<SendBulkEmailRequest>getArgument(0).getBulkEmailEntries().stream()
+                        .map(entry -> new BulkEmailEntryResult().withStatus(BulkEmailStatus.SUCCESS))
+                        .collect(Collectors.toList())));
+
+        ImmutableList<Recipient> recipients = IntStream.range(0, 120)
+                .mapToObj(i -> new Recipient("user" + i + "@example.com", ImmutableMap.of("AUTH_TOKEN", "token" + i)))
+                .collect(ImmutableList.toImmutableList());
+        service.sendBulk(new BulkEmail(
+                "Subject",
+                "<a href=\"https://example.com/?token=__AUTH_TOKEN__\">__BUTTON_TEXT__</a>",
+                "https://example.com/?token=__AUTH_TOKEN__",
+                "projectId",
+                "POST_CREATED",
+                recipients));
+
+        // Static template holds variables only
+        ArgumentCaptor<CreateEmailTemplateRequest> createCaptor = ArgumentCaptor.forClass(CreateEmailTemplateRequest.class);
+        verify(mockSes).createEmailTemplate(createCaptor.capture());
+        String templateName = createCaptor.getValue().getTemplateName();
+        assertEquals("{{{subject0}}}", createCaptor.getValue().getTemplateContent().getSubject());
+        assertEquals("{{{html0}}}{{{AUTH_TOKEN}}}{{{html1}}}", createCaptor.getValue().getTemplateContent().getHtml());
+        assertEquals("{{{text0}}}{{{AUTH_TOKEN}}}{{{text1}}}", createCaptor.getValue().getTemplateContent().getText());
+
+        // Destinations chunked to bulk limit with shared content as default data
+        ArgumentCaptor<SendBulkEmailRequest> sendCaptor = ArgumentCaptor.forClass(SendBulkEmailRequest.class);
+        verify(mockSes, times(3)).sendBulkEmail(sendCaptor.capture());
+        Map<String, String> defaultTemplateData = new Gson().fromJson(
+                sendCaptor.getValue().getDefaultContent().getTemplate().getTemplateData(),
+                new TypeToken<Map<String, String>>() {
+                }.getType());
+        assertEquals(ImmutableMap.of(
+                "subject0", "Subject",
+                "html0", "<a href=\"https://example.com/?token=",
+                "html1", "\">__BUTTON_TEXT__</a>",
+                "text0", "https://example.com/?token=",
+                "text1", ""), defaultTemplateData);
+        assertEquals(ImmutableList.of(50, 50, 20), sendCaptor.getAllValues().stream()
+                .map(request -> request.getBulkEmailEntries().size())
+                .collect(ImmutableList.toImmutableList()));
+        List<BulkEmailEntry> entries = sendCaptor.getAllValues().stream()
+                .flatMap(request -> request.getBulkEmailEntries().stream())
+                .collect(Collectors.toList());
+        for (int i = 0; i < recipients.size(); i++) {
+            assertEquals(ImmutableList.of("user" + i + "@example.com"), entries.get(i).getDestination().getToAddresses());
+            assertEquals("{\"AUTH_TOKEN\":\"token" + i + "\"}", entries.get(i).getReplacementEmailContent().getReplacementTemplate().getReplacementTemplateData());
+        }
+        sendCaptor.getAllValues().forEach(request ->
+                assertEquals(templateName, request.getDefaultContent().getTemplate().getTemplateName()));
+
+        verify(mockSes, never()).sendEmail(any());
+
+        // Template reused by later emails of the same type, content with braces is passed as data
+        service.sendBulk(new BulkEmail(
+                "Other {{subject}}",
+                "<a href=\"https://example.com/other?token=__AUTH_TOKEN__\">Other</a>",
+                "https://example.com/other?token=__AUTH_TOKEN__",
+                "projectId",
+                "POST_CREATED",
+                recipients));
+        verify(mockSes, times(1)).createEmailTemplate(any());
+        verify(mockSes, times(6)).sendBulkEmail(sendCaptor.capture());
+        assertEquals(templateName, sendCaptor.getValue().getDefaultContent().getTemplate().getTemplateName());
+        assertTrue(sendCaptor.getValue().getDefaultContent().getTemplate().getTemplateData().contains("Other {{subject}}"));
+        verify(mockSes, never()).deleteEmailTemplate(any());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSendBulkFewRecipients() throws Exception {
+        when(mockSes.sendEmail(any())).thenReturn(new SendEmailResult().withMessageId("messageId"));
+
+        service.sendBulk(new BulkEmail(
+                "Subject",
+                "<a href=\"https://example.com/?token=__AUTH_TOKEN__\">View</a>",
+                "https://example.com/?token=__AUTH_TOKEN__",
+                "projectId",
+                "POST_CREATED",
+                ImmutableList.of(
+                        new Recipient("user1@example.com", ImmutableMap.of("AUTH_TOKEN", "token1")),
+                        new Recipient("user2@example.com", ImmutableMap.of("AUTH_TOKEN", "token2")))));
+
+        ArgumentCaptor<SendEmailRequest> sendCaptor = ArgumentCaptor.forClass(SendEmailRequest.class);
+        verify(mockSes, times(2)).sendEmail(sendCaptor.capture());
+        assertEquals("https://example.com/?token=token1",
+                sendCaptor.getAllValues().get(0).getContent().getSimple().getBody().getText().getData());
+        assertEquals("https://example.com/?token=token2",
+                sendCaptor.getAllValues().get(1).getContent().getSimple().getBody().getText().getData());
+        verify(mockSes, never()).createEmailTemplate(any());
+        verify(mockSes, never()).sendBulkEmail(any());
+    }
+}
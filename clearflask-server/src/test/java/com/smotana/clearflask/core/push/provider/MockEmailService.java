@@ -15,6 +15,7 @@ import java.util.concurrent.BlockingQueue;
 public class MockEmailService implements EmailService {
 
     public final BlockingQueue<Email> sent = Queues.newLinkedBlockingDeque();
+    public final BlockingQueue<BulkEmail> sentBulk = Queues.newLinkedBlockingDeque();
 
     @Override
     public void send(Email email) {
@@ -22,6 +23,13 @@ public class MockEmailService implements EmailService {
         this.sent.add(email);
     }
 
+    @Override
+    public void sendBulk(BulkEmail bulkEmail) {
+        log.info("Send bulk {}", bulkEmail);
+        this.sentBulk.add(bulkEmail);
+        this.sent.addAll(bulkEmail.toEmails());
+    }
+
     public static Module module() {
         return new AbstractModule() {
             @Override
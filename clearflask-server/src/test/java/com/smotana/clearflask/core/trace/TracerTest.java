@@ -0,0 +1,110 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.core.trace;
+
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.inject.Inject;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class TracerTest extends AbstractTest {
+
+    @Inject
+    private Tracer tracer;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Tracer.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testExport() throws Exception {
+        File file = File.createTempFile("traces", ".json");
+        file.deleteOnExit();
+        configSet(Tracer.Config.class, "otlpJsonFile", file.getAbsolutePath());
+        configSet(Tracer.Config.class, "slowThreshold", "PT0S");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            try (Span root = tracer.startTrace("root")) {
+                try (Span child = Tracer.span("child")) {
+                    Tracer.leafSpan("leaf").attribute("table", "test").close();
+                    executor.submit(Tracer.wrap("async", () -> {
+                        try (Span asyncChild = Tracer.span("asyncChild")) {
+                            assertFalse(asyncChild.isNoop());
+                        }
+                    })).get();
+                }
+                Tracer.span("sibling").error(new RuntimeException()).close();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(Tracer.span("afterRoot").isNoop());
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        log.info("Exported:\n{}", lines);
+        assertEquals(1, lines.size());
+        Map<String, JsonObject> spans = Maps.newHashMap();
+        for (JsonElement spanJson : new JsonParser().parse(lines.get(0)).getAsJsonObject()
+                .getAsJsonArray("resourceSpans").get(0).getAsJsonObject()
+                .getAsJsonArray("scopeSpans").get(0).getAsJsonObject()
+                .getAsJsonArray("spans")) {
+            spans.put(spanJson.getAsJsonObject().get("name").getAsString(), spanJson.getAsJsonObject());
+        }
+        assertEquals(spans.keySet().toString(), 6, spans.size());
+        assertFalse(spans.get("root").has("parentSpanId"));
+        assertParent(spans, "root", "child");
+        assertParent(spans, "child", "leaf");
+        assertParent(spans, "child", "async");
+        assertParent(spans, "async", "asyncChild");
+        assertParent(spans, "root", "sibling");
+        assertEquals(2, spans.get("sibling").getAsJsonObject("status").get("code").getAsInt());
+        assertEquals("table", spans.get("leaf").getAsJsonArray("attributes")
+                .get(0).getAsJsonObject().get("key").getAsString());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testNotSampled() throws Exception {
+        File file = File.createTempFile("traces", ".json");
+        file.deleteOnExit();
+        configSet(Tracer.Config.class, "otlpJsonFile", file.getAbsolutePath());
+
+        try (Span root = tracer.startTrace("root")) {
+            Tracer.span("child").close();
+        }
+        assertTrue(Tracer.span("afterRoot").isNoop());
+        assertEquals(0, file.length());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testNoTrace() throws Exception {
+        Runnable task = () -> {
+        };
+        assertSame(task, Tracer.wrap("task", task));
+        assertTrue(Tracer.span("orphan").isNoop());
+        assertTrue(Tracer.leafSpan("orphan").isNoop());
+    }
+
+    private void assertParent(Map<String, JsonObject> spans, String parent, String child) {
+        assertEquals(child, spans.get(parent).get("spanId").getAsString(),
+                spans.get(child).get("parentSpanId").getAsString());
+    }
+}
@@ -0,0 +1,96 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.security.limiter.rate;
+
+import com.google.common.util.concurrent.ControllableSleepingStopwatch;
+import com.google.common.util.concurrent.GuavaRateLimiters;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class DynamoRateLimiterTest extends AbstractTest {
+
+    @Inject
+    private RateLimiter rateLimiter;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Modules.override(
+                DynamoRateLimiter.module(),
+                InMemoryDynamoDbProvider.module(),
+                DynamoMapperImpl.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(DynamoRateLimiter.Config.class, om -> {
+                    om.override(om.id().useSharedBuckets()).withValue(true);
+                    om.override(om.id().leaseBatchInSeconds()).withValue(5d);
+                }));
+            }
+        }));
+        install(GuavaRateLimiters.testModule(new ControllableSleepingStopwatch()));
+    }
+
+    @Test(timeout = 10_000L)
+    public void test() throws Exception {
+        // 10 permits precharged, leased 5 at a time
+        for (int i = 0; i < 10; i++) {
+            assertTrue("Acquire " + i, rateLimiter.tryAcquire("target", 1, 10, 1, 100));
+        }
+        assertFalse(rateLimiter.tryAcquire("target", 1, 10, 1, 100));
+
+        // Dropping local leases, as if another node, still sees the bucket drained
+        rateLimiter.clearAll();
+        assertFalse(rateLimiter.tryAcquire("target", 1, 10, 1, 100));
+
+        // Separate buckets per target and tier
+        assertTrue(rateLimiter.tryAcquire("otherTarget", 1, 10, 1, 100));
+        assertTrue(rateLimiter.tryAcquire("target", 1, 10, 2, 100));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testLeaseIsShared() throws Exception {
+        // 4 permits, all leased locally in one batch
+        assertTrue(rateLimiter.tryAcquire("target", 1, 4, 1, 10));
+
+        // Leased permits are no longer available to other nodes
+        rateLimiter.clearAll();
+        assertFalse(rateLimiter.tryAcquire("target", 1, 4, 1, 10));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRefill() throws Exception {
+        assertTrue(rateLimiter.tryAcquire("target", 5, 0.5, 10, 1));
+        assertFalse(rateLimiter.tryAcquire("target", 5, 0.5, 10, 1));
+
+        rateLimiter.clearAll();
+        Thread.sleep(600);
+        assertTrue(rateLimiter.tryAcquire("target", 5, 0.5, 10, 1));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSharedBucketsDisabled() throws Exception {
+        configSet(DynamoRateLimiter.Config.class, "useSharedBuckets", "false");
+
+        // Last permit is borrowed from the future
+        for (int i = 0; i < 5; i++) {
+            assertTrue("Acquire " + i, rateLimiter.tryAcquire("target", 1, 4, 1, 10));
+        }
+        assertFalse(rateLimiter.tryAcquire("target", 1, 4, 1, 10));
+
+        // Limited on this node only
+        rateLimiter.clearAll();
+        assertTrue(rateLimiter.tryAcquire("target", 1, 4, 1, 10));
+    }
+}
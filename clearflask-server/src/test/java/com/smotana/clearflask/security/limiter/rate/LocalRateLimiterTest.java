@@ -0,0 +1,115 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.security.limiter.rate;
+
+import com.google.common.util.concurrent.ControllableSleepingStopwatch;
+import com.google.common.util.concurrent.GuavaRateLimiters;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class LocalRateLimiterTest extends AbstractTest {
+
+    @Inject
+    private LocalRateLimiter rateLimiter;
+    @Inject
+    private ControllableSleepingStopwatch stopwatch;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Modules.override(
+                LocalRateLimiter.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(LocalRateLimiter.Config.class, om -> {
+                    om.override(om.id().maxBuckets()).withValue(10L);
+                }));
+            }
+        }));
+        ControllableSleepingStopwatch controllableSleepingStopwatch = new ControllableSleepingStopwatch();
+        install(GuavaRateLimiters.testModule(controllableSleepingStopwatch));
+        bind(ControllableSleepingStopwatch.class).toInstance(controllableSleepingStopwatch);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testTiers() throws Exception {
+        // 2 qps over 10 seconds, 1 qps over 100 seconds, precharged 5 seconds
+        double[] altPermCap = {2, 10, 1, 100};
+        // Last permit is borrowed from the future
+        for (int i = 0; i < 6; i++) {
+            assertTrue("Acquire " + i, rateLimiter.tryAcquire("target", 1, 5, altPermCap));
+        }
+        assertFalse(rateLimiter.tryAcquire("target", 1, 5, altPermCap));
+
+        // Second tier refills after a second
+        stopwatch.addMicros(500_000L);
+        assertFalse(rateLimiter.tryAcquire("target", 1, 5, altPermCap));
+        stopwatch.addMicros(500_000L);
+        assertTrue(rateLimiter.tryAcquire("target", 1, 5, altPermCap));
+        assertFalse(rateLimiter.tryAcquire("target", 1, 5, altPermCap));
+
+        // Refill is capped by capacity
+        stopwatch.addMicros(1_000_000_000L);
+        for (int i = 0; i < 21; i++) {
+            assertTrue("Acquire " + i, rateLimiter.tryAcquire("target", 1, 5, altPermCap));
+        }
+        assertFalse(rateLimiter.tryAcquire("target", 1, 5, altPermCap));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testConcurrent() throws Exception {
+        double[] altPermCap = {1, 100_000, 1_000, 100};
+        int threads = 64;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = executor.invokeAll(IntStream.range(0, threads)
+                    .<Callable<Integer>>mapToObj(i -> () -> {
+                        int acquired = 0;
+                        for (int j = 0; j < 1_000; j++) {
+                            if (rateLimiter.tryAcquire("target", 1, 10_000, altPermCap)) {
+                                acquired++;
+                            }
+                        }
+                        return acquired;
+                    })
+                    .collect(Collectors.toList()));
+            int acquired = 0;
+            for (Future<Integer> result : results) {
+                acquired += result.get();
+            }
+            // Last tier runs out at 10k precharged permits plus one borrowed
+            assertEquals(10_001, acquired);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testEviction() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertTrue(rateLimiter.tryAcquire("target" + i, 2, 1, 1, 1));
+        }
+        assertTrue(rateLimiter.getBucketCount() <= 10);
+
+        // Recently used bucket survives eviction
+        assertFalse(rateLimiter.tryAcquire("target99", 2, 1, 1, 1));
+    }
+}
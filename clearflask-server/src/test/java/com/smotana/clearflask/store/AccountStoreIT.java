@@ -14,10 +14,13 @@ import com.smotana.clearflask.api.model.SubscriptionStatus;
 import com.smotana.clearflask.store.AccountStore.Account;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
+import com.smotana.clearflask.store.elastic.ElasticIndexingBatcher;
 import com.smotana.clearflask.store.impl.DynamoElasticAccountStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.DynamoOutboxStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.ElasticUtil;
 import com.smotana.clearflask.util.IdUtil;
@@ -61,9 +64,12 @@ public class AccountStoreIT extends AbstractIT {
                 Application.module(),
                 IntercomUtil.module(),
                 ElasticUtil.module(),
+                BloomFilterCache.module(),
+                ElasticIndexingBatcher.module(),
                 Sanitizer.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
+                DynamoOutboxStore.module(),
                 DynamoElasticUserStore.module()
         ).with(new AbstractModule() {
             @Override
@@ -16,12 +16,15 @@ import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.VoteStore.VoteValue;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
+import com.smotana.clearflask.store.elastic.ElasticIndexingBatcher;
 import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.DynamoOutboxStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.ElasticUtil;
 import com.smotana.clearflask.util.IdUtil;
@@ -67,9 +70,12 @@ public class CommentStoreIT extends AbstractIT {
                 DynamoVoteStore.module(),
                 Sanitizer.module(),
                 ElasticUtil.module(),
+                BloomFilterCache.module(),
+                ElasticIndexingBatcher.module(),
                 DynamoElasticIdeaStore.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
+                DynamoOutboxStore.module(),
                 DynamoProjectStore.module(),
                 ProjectUpgraderImpl.module(),
                 IntercomUtil.module()
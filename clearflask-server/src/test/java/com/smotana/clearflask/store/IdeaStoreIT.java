@@ -20,11 +20,14 @@ import com.smotana.clearflask.api.model.IdeaUpdateAdmin;
 import com.smotana.clearflask.store.IdeaStore.IdeaModel;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
+import com.smotana.clearflask.store.elastic.ElasticIndexingBatcher;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.DynamoOutboxStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.ElasticUtil;
 import com.smotana.clearflask.util.IdUtil;
@@ -48,6 +51,7 @@ import static com.smotana.clearflask.store.VoteStore.VoteValue.*;
 import static com.smotana.clearflask.testutil.HtmlUtil.textToSimpleHtml;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 
 @Slf4j
 public class IdeaStoreIT extends AbstractIT {
@@ -72,8 +76,11 @@ public class IdeaStoreIT extends AbstractIT {
                 DynamoVoteStore.module(),
                 Sanitizer.module(),
                 ElasticUtil.module(),
+                BloomFilterCache.module(),
+                ElasticIndexingBatcher.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
+                DynamoOutboxStore.module(),
                 DynamoProjectStore.module(),
                 ProjectUpgraderImpl.module(),
                 IntercomUtil.module()
@@ -311,6 +318,43 @@ public class IdeaStoreIT extends AbstractIT {
     }
 
     /** Assert presence with specific order */
+    @Test(timeout = 30_000L)
+    public void testSearchSimilarSharedLayout() throws Exception {
+        configSet(ElasticUtil.Config.class, "indexLayout", ElasticUtil.IndexLayout.SHARED.name());
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea1 = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .title("aaa aaaa aaaaa aa")
+                .description("aaaa aaa aa aaaaa")
+                .build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .title("aaa aaaa aa aaaaaaa")
+                .description("aaa aa aaaa aaaa aaa")
+                .build();
+        IdeaModel idea3 = MockModelUtil.getRandomIdea().toBuilder()
+                .projectId(projectId)
+                .title("ccccc cccccc cccccc cc ccc")
+                .description("cccc ccccc cccc cccc ccc")
+                .build();
+        store.createIdea(idea1).get();
+        store.createIdea(idea2).get();
+        store.createIdea(idea3).get();
+
+        // Same idea id in another project sharing the index must not be used as the like document
+        String otherProjectId = IdUtil.randomId();
+        store.createIndex(otherProjectId).get();
+        store.createIdea(idea3.toBuilder()
+                .projectId(otherProjectId)
+                .ideaId(idea1.getIdeaId())
+                .build()).get();
+
+        assertSearchResult(projectId, IdeaSearchAdmin.builder()
+                        .similarToIdeaId(idea1.getIdeaId()).build(),
+                ImmutableSet.of(idea2.getIdeaId()));
+    }
+
     void assertSearchResult(String projectId, IdeaSearchAdmin search, ImmutableList<String> expectedPostIds) {
         assertEquals(expectedPostIds, store.searchIdeas(
                         projectId, search, false, Optional.empty())
@@ -596,4 +640,76 @@ public class IdeaStoreIT extends AbstractIT {
         assertEquals(Long.valueOf(1L), store.getIdea(projectId, idea.getIdeaId()).get().getFundersCount());
         assertEquals(Long.valueOf(7L), store.getIdea(projectId, idea.getIdeaId()).get().getFunded());
     }
-}
\ No newline at end of file
+
+    @Test(timeout = 30_000L)
+    public void testVoteCounterSharding() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        store.createIdea(idea).get();
+
+        // Enough writes within the rate window to switch over to counter shards
+        for (int i = 0; i < 100; i++) {
+            store.voteIdea(projectId, idea.getIdeaId(), IdUtil.randomId(), Upvote);
+        }
+
+        // Pending shards are discovered from the idea itself, such as on a node that did not write them
+        assertNotEquals(null, store.getIdea(projectId, idea.getIdeaId()).get().getCounterShardCount());
+        assertEquals(Long.valueOf(100L), store.getIdea(projectId, idea.getIdeaId()).get().getVoteValue());
+        assertEquals(Long.valueOf(100L), store.getIdeas(projectId, ImmutableList.of(idea.getIdeaId())).get(idea.getIdeaId()).getVoteValue());
+
+        ((DynamoElasticIdeaStore) store).foldCounterShards(projectId, idea.getIdeaId());
+
+        assertEquals(Long.valueOf(100L), store.getIdea(projectId, idea.getIdeaId()).get().getVoteValue());
+        assertEquals(Long.valueOf(100L), store.getIdea(projectId, idea.getIdeaId()).get().getVotersCount());
+
+        // Folding drained shards clears them so reads no longer include them
+        ((DynamoElasticIdeaStore) store).foldCounterShards(projectId, idea.getIdeaId());
+        assertNull(store.getIdea(projectId, idea.getIdeaId()).get().getCounterShardCount());
+        assertEquals(Long.valueOf(100L), store.getIdea(projectId, idea.getIdeaId()).get().getVoteValue());
+    }
+
+    @Test(timeout = 30_000L)
+    public void testCache() throws Exception {
+        configSet(DynamoElasticIdeaStore.Config.class, "enableIdeaCacheRead", "true");
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        IdeaModel idea2 = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        assertEquals(Optional.empty(), store.getIdea(projectId, idea.getIdeaId()));
+        store.createIdea(idea).get();
+        assertEquals(Optional.of(idea), store.getIdea(projectId, idea.getIdeaId()));
+
+        IdeaModel ideaUpdated = store.updateIdea(projectId, idea.getIdeaId(), IdeaUpdate.builder()
+                .title("newTitle")
+                .build()).getIdea();
+        assertEquals(Optional.of(ideaUpdated), store.getIdea(projectId, idea.getIdeaId()));
+
+        store.createIdea(idea2).get();
+        assertEquals(ImmutableMap.of(idea.getIdeaId(), ideaUpdated, idea2.getIdeaId(), idea2),
+                store.getIdeas(projectId, ImmutableList.of(idea.getIdeaId(), idea2.getIdeaId(), "nonExistent")));
+
+        store.deleteIdea(projectId, idea.getIdeaId(), true).get();
+        assertEquals(Optional.empty(), store.getIdea(projectId, idea.getIdeaId()));
+        assertEquals(ImmutableMap.of(idea2.getIdeaId(), idea2),
+                store.getIdeas(projectId, ImmutableList.of(idea.getIdeaId(), idea2.getIdeaId())));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testCacheNotFilledWhileDisabled() throws Exception {
+        String projectId = IdUtil.randomId();
+        store.createIndex(projectId).get();
+        IdeaModel idea = MockModelUtil.getRandomIdea().toBuilder().projectId(projectId).build();
+        store.createIdea(idea).get();
+        store.updateIdea(projectId, idea.getIdeaId(), IdeaUpdate.builder()
+                .title("newTitle")
+                .build());
+        store.getIdea(projectId, idea.getIdeaId());
+
+        configSet(DynamoElasticIdeaStore.Config.class, "enableIdeaCacheRead", "true");
+        store.getIdea(projectId, idea.getIdeaId());
+        assertEquals(0L, ((DynamoElasticIdeaStore) store).getIdeaCacheStats().hitCount());
+        store.getIdea(projectId, idea.getIdeaId());
+        assertEquals(1L, ((DynamoElasticIdeaStore) store).getIdeaCacheStats().hitCount());
+    }
+}
@@ -41,6 +41,11 @@ public class MockModelUtil {
                 null,
                 null,
                 null,
+                ImmutableSet.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
                 ImmutableSet.of());
     }
 
@@ -77,6 +82,7 @@ public class MockModelUtil {
                 null,
                 ImmutableSet.of(),
                 null,
+                null,
                 null);
     }
 
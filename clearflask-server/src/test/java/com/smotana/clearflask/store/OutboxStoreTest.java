@@ -0,0 +1,101 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.store.OutboxStore.OutboxModel;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
+import com.smotana.clearflask.store.impl.DynamoOutboxStore;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class OutboxStoreTest extends AbstractTest {
+
+    @Inject
+    private OutboxStore store;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Modules.override(
+                DynamoOutboxStore.module(),
+                InMemoryDynamoDbProvider.module(),
+                DynamoMapperImpl.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(DynamoOutboxStore.Config.class, om -> {
+                    om.override(om.id().shardCount()).withValue(1L);
+                }));
+            }
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void test() throws Exception {
+        store.enqueue("test", ImmutableList.of("payload1", "payload2", "payload3")).get();
+        store.enqueue("other", ImmutableList.of("payloadOther")).get();
+
+        // Oldest first, leased entries are skipped
+        ImmutableList<OutboxModel> leased1 = store.lease("test", 0L, 2, Duration.ofMinutes(1));
+        assertEquals(ImmutableList.of("payload1", "payload2"), payloads(leased1));
+        assertEquals(1L, leased1.get(0).getAttempt());
+        ImmutableList<OutboxModel> leased2 = store.lease("test", 0L, 2, Duration.ZERO);
+        assertEquals(ImmutableList.of("payload3"), payloads(leased2));
+
+        // Expired lease is handed out again
+        Thread.sleep(10L);
+        ImmutableList<OutboxModel> leased3 = store.lease("test", 0L, 2, Duration.ZERO);
+        assertEquals(ImmutableList.of("payload3"), payloads(leased3));
+        assertEquals(2L, leased3.get(0).getAttempt());
+
+        // Completing with a superseded lease by the same owner is a no-op
+        leased2.forEach(store::complete);
+        Thread.sleep(10L);
+        ImmutableList<OutboxModel> leased4 = store.lease("test", 0L, 2, Duration.ofMinutes(1));
+        assertEquals(ImmutableList.of("payload3"), payloads(leased4));
+        assertEquals(3L, leased4.get(0).getAttempt());
+
+        leased1.forEach(store::complete);
+        leased4.forEach(store::complete);
+        Thread.sleep(10L);
+        assertEquals(ImmutableList.of(), store.lease("test", 0L, 10, Duration.ZERO));
+        assertEquals(ImmutableList.of("payloadOther"), payloads(store.lease("other", 0L, 10, Duration.ZERO)));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testEnqueueLeased() throws Exception {
+        OutboxModel entry = store.enqueueLeased("test", "payload1", Duration.ofMinutes(1));
+        assertEquals(1L, entry.getAttempt());
+        assertEquals(ImmutableList.of(), store.lease("test", 0L, 10, Duration.ZERO));
+
+        store.complete(entry);
+        Thread.sleep(10L);
+        assertEquals(ImmutableList.of(), store.lease("test", 0L, 10, Duration.ZERO));
+
+        // Handed out to others once expired
+        store.enqueueLeased("test", "payload2", Duration.ZERO);
+        Thread.sleep(10L);
+        ImmutableList<OutboxModel> leased = store.lease("test", 0L, 10, Duration.ofMinutes(1));
+        assertEquals(ImmutableList.of("payload2"), payloads(leased));
+        assertEquals(2L, leased.get(0).getAttempt());
+    }
+
+    private ImmutableList<String> payloads(ImmutableList<OutboxModel> entries) {
+        return entries.stream()
+                .map(OutboxModel::getPayload)
+                .collect(ImmutableList.toImmutableList());
+    }
+}
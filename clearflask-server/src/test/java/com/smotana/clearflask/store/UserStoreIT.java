@@ -3,6 +3,7 @@
 package com.smotana.clearflask.store;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
@@ -18,14 +19,21 @@ import com.smotana.clearflask.store.UserStore.UserModel;
 import com.smotana.clearflask.store.UserStore.UserSession;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
+import com.smotana.clearflask.store.elastic.ElasticIndexingBatcher;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
+import com.smotana.clearflask.store.impl.DynamoOutboxStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.testutil.RetryUtil;
+import com.smotana.clearflask.util.BloomFilterCache;
+import com.smotana.clearflask.util.BloomFilterCache.BloomFilterType;
+import com.smotana.clearflask.util.BloomFilters;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.ElasticUtil;
 import com.smotana.clearflask.util.IdUtil;
 import com.smotana.clearflask.util.IntercomUtil;
 import com.smotana.clearflask.util.ProjectUpgraderImpl;
+import com.smotana.clearflask.util.ScalableBloomFilter;
 import com.smotana.clearflask.util.ServerSecretTest;
 import com.smotana.clearflask.util.StringableSecretKey;
 import com.smotana.clearflask.web.Application;
@@ -41,6 +49,7 @@ import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
 import java.util.Optional;
+import java.util.stream.IntStream;
 
 import static io.jsonwebtoken.SignatureAlgorithm.HS512;
 import static org.junit.Assert.*;
@@ -50,6 +59,8 @@ public class UserStoreIT extends AbstractIT {
 
     @Inject
     private UserStore store;
+    @Inject
+    private BloomFilterCache bloomFilterCache;
 
     @Override
     protected void configure() {
@@ -64,8 +75,11 @@ public class UserStoreIT extends AbstractIT {
                 DynamoElasticUserStore.module(),
                 Sanitizer.module(),
                 ElasticUtil.module(),
+                BloomFilterCache.module(),
+                ElasticIndexingBatcher.module(),
                 DefaultServerSecret.module(Names.named("cursor")),
                 WebhookServiceImpl.module(),
+                DynamoOutboxStore.module(),
                 DynamoProjectStore.module(),
                 ProjectUpgraderImpl.module(),
                 IntercomUtil.module()
@@ -80,6 +94,8 @@ public class UserStoreIT extends AbstractIT {
                 install(ConfigSystem.overrideModule(DynamoElasticUserStore.Config.class, om -> {
                     om.override(om.id().tokenSignerPrivKey()).withValue(privKey);
                     om.override(om.id().elasticForceRefresh()).withValue(true);
+                    om.override(om.id().bloomPendingCompactionThreshold()).withValue(2L);
+                    om.override(om.id().voteBloomFilterExpectedInsertions()).withValue(5L);
                 }));
             }
         }));
@@ -109,6 +125,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
+                ImmutableSet.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
                 ImmutableSet.of());
 
         store.createIndex(user.getProjectId()).get();
@@ -156,6 +177,48 @@ public class UserStoreIT extends AbstractIT {
         assertEquals(Optional.empty(), store.getUser(userUpdatedWithToken.getProjectId(), userUpdatedWithToken.getUserId()));
     }
 
+    @Test(timeout = 10_000L)
+    public void testUserForNotification() throws Exception {
+        UserModel user1 = MockModelUtil.getRandomUser().toBuilder()
+                .email("user1@example.com")
+                .emailNotify(true)
+                .browserPushToken("browserPushToken")
+                .build();
+        UserModel user2 = MockModelUtil.getRandomUser().toBuilder()
+                .projectId(user1.getProjectId())
+                .build();
+        store.createIndex(user1.getProjectId()).get();
+        store.createUser(user1).getIndexingFuture().get();
+        store.createUser(user2).getIndexingFuture().get();
+
+        assertEquals(Optional.of(user1.toNotificationView()), store.getUserForNotification(user1.getProjectId(), user1.getUserId()));
+        assertEquals(Optional.empty(), store.getUserForNotification(user1.getProjectId(), "missing"));
+        assertEquals(ImmutableMap.of(
+                        user1.getUserId(), user1.toNotificationView(),
+                        user2.getUserId(), user2.toNotificationView()),
+                store.getUsersForNotification(user1.getProjectId(), ImmutableList.of(user1.getUserId(), user2.getUserId(), "missing")));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testBloomConcurrentAppend() throws Exception {
+        UserModel user = MockModelUtil.getRandomUser();
+        store.createIndex(user.getProjectId()).get();
+        store.createUser(user).getIndexingFuture().get();
+
+        ImmutableList<String> ideaIds = IntStream.range(0, 20)
+                .mapToObj(i -> IdUtil.randomId())
+                .collect(ImmutableList.toImmutableList());
+        ideaIds.parallelStream().forEach(ideaId -> store.userVoteUpdateBloom(user.getProjectId(), user.getUserId(), ideaId));
+
+        RetryUtil.retry(() -> {
+            UserModel userUpdated = store.getUser(user.getProjectId(), user.getUserId()).get();
+            assertTrue(userUpdated.getVoteBloomPending().size() < 2);
+            ScalableBloomFilter bloomFilter = bloomFilterCache.get(userUpdated, BloomFilterType.VOTE).get();
+            ideaIds.forEach(ideaId -> assertTrue(ideaId, bloomFilter.mightContain(ideaId)));
+            assertTrue(BloomFilters.scalableFromByteArray(userUpdated.getVoteBloom()).getLayerCount() > 1);
+        });
+    }
+
     @Test(timeout = 10_000L)
     public void testSearchUsers() throws Exception {
         String projectId = IdUtil.randomId();
@@ -181,6 +244,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
+                ImmutableSet.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
                 ImmutableSet.of());
         UserModel user2 = new UserModel(
                 projectId,
@@ -204,6 +272,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
+                ImmutableSet.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
                 ImmutableSet.of());
         UserModel user3 = new UserModel(
                 projectId,
@@ -227,6 +300,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
+                ImmutableSet.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
                 ImmutableSet.of());
 
         store.createIndex(projectId).get().index();
@@ -331,6 +409,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
+                ImmutableSet.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
                 ImmutableSet.of());
 
         store.createIndex(user.getProjectId()).get();
@@ -370,6 +453,11 @@ public class UserStoreIT extends AbstractIT {
                 null,
                 null,
                 null,
+                ImmutableSet.of(),
+                null,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
                 ImmutableSet.of());
 
         store.createIndex(user.getProjectId()).get();
@@ -0,0 +1,141 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.dynamo;
+
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
+import com.amazonaws.services.dynamodbv2.document.TableKeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.document.TableWriteItems;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableSchema;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoTable;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static com.smotana.clearflask.store.dynamo.DefaultDynamoDbProvider.DYNAMO_WRITE_BATCH_MAX_SIZE;
+import static com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableType.Primary;
+import static org.junit.Assert.*;
+
+@Slf4j
+public class DynamoUtilTest extends AbstractTest {
+
+    @Inject
+    private DynamoUtil dynamoUtil;
+    @Inject
+    private DynamoMapper mapper;
+    @Inject
+    private DynamoDB dynamoDoc;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Modules.override(
+                InMemoryDynamoDbProvider.module(),
+                DynamoMapperImpl.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(DynamoMapperImpl.Config.class, om -> {
+                    om.override(om.id().createTables()).withValue(true);
+                }));
+            }
+        }));
+    }
+
+    @Value
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = "id", rangePrefix = "batchGetData")
+    public static class Data {
+        @NonNull
+        private final String id;
+    }
+
+    @Test(timeout = 30_000L)
+    public void testBatchGetChunked() throws Exception {
+        TableSchema<Data> schema = mapper.parseTableSchema(Data.class);
+        ImmutableList<Data> datas = IntStream.range(0, 250)
+                .mapToObj(i -> new Data("id" + i))
+                .collect(ImmutableList.toImmutableList());
+        for (List<Data> batch : Iterables.partition(datas, DYNAMO_WRITE_BATCH_MAX_SIZE)) {
+            dynamoUtil.retryUnprocessed(dynamoDoc.batchWriteItem(new TableWriteItems(schema.tableName())
+                    .withItemsToPut(batch.stream()
+                            .map(schema::toItem)
+                            .collect(ImmutableList.toImmutableList()))));
+        }
+
+        assertEquals(ImmutableSet.copyOf(datas), dynamoUtil.batchGet(new TableKeysAndAttributes(schema.tableName())
+                        .withPrimaryKeys(IntStream.range(0, 300)
+                                .mapToObj(i -> schema.primaryKey(Map.of("id", "id" + i)))
+                                .toArray(PrimaryKey[]::new)))
+                .map(schema::fromItem)
+                .collect(ImmutableSet.toImmutableSet()));
+
+        assertEquals(ImmutableSet.of(datas.get(5)), dynamoUtil.batchGet(new TableKeysAndAttributes(schema.tableName())
+                        .withConsistentRead(true)
+                        .withPrimaryKeys(schema.primaryKey(Map.of("id", "id5"))))
+                .map(schema::fromItem)
+                .collect(ImmutableSet.toImmutableSet()));
+    }
+
+    @Test(timeout = 30_000L)
+    public void testBatchWriteAsync() throws Exception {
+        TableSchema<Data> schema = mapper.parseTableSchema(Data.class);
+        ImmutableList<Data> datas = IntStream.range(0, 110)
+                .mapToObj(i -> new Data("write" + i))
+                .collect(ImmutableList.toImmutableList());
+        dynamoUtil.pipelineAsync(Iterables.partition(datas, DYNAMO_WRITE_BATCH_MAX_SIZE).iterator(), batch -> dynamoUtil.batchWriteAsync(new TableWriteItems(schema.tableName())
+                        .withItemsToPut(batch.stream()
+                                .map(schema::toItem)
+                                .collect(ImmutableList.toImmutableList()))))
+                .get();
+        ImmutableList<PrimaryKey> primaryKeys = datas.stream()
+                .map(schema::primaryKey)
+                .collect(ImmutableList.toImmutableList());
+        assertEquals(ImmutableSet.copyOf(datas), dynamoUtil.batchGet(new TableKeysAndAttributes(schema.tableName())
+                        .withPrimaryKeys(primaryKeys.toArray(PrimaryKey[]::new)))
+                .map(schema::fromItem)
+                .collect(ImmutableSet.toImmutableSet()));
+
+        dynamoUtil.batchDeleteAsync(schema.tableName(), primaryKeys).get();
+        assertEquals(0L, dynamoUtil.batchGet(new TableKeysAndAttributes(schema.tableName())
+                        .withPrimaryKeys(primaryKeys.toArray(PrimaryKey[]::new)))
+                .count());
+    }
+
+    @Test(timeout = 30_000L)
+    public void testPipelineAsyncFailure() throws Exception {
+        AtomicLong consumed = new AtomicLong();
+        try {
+            dynamoUtil.pipelineAsync(IntStream.range(0, 1_000).iterator(), i -> {
+                consumed.incrementAndGet();
+                return i == 5
+                        ? Futures.immediateFailedFuture(new RuntimeException("expected"))
+                        : Futures.immediateFuture(null);
+            }).get();
+            fail();
+        } catch (ExecutionException ex) {
+            assertEquals("expected", ex.getCause().getMessage());
+        }
+        assertTrue(consumed.get() < 1_000);
+    }
+}
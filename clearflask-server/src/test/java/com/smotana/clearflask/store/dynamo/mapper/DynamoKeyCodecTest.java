@@ -0,0 +1,135 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.dynamo.mapper;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.annotations.SerializedName;
+import com.google.inject.Inject;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.StringSerdeUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class DynamoKeyCodecTest extends AbstractTest {
+
+    private static final String SPECIAL_CHARS = "\"\\:/\t\b\n\r\f\u0000\u001f\u007f\u2028\u2029<>&='\ud83d\ude00\uffff";
+
+    @Inject
+    private DynamoKeyCodec keyCodec;
+    @Inject
+    private Gson gson;
+
+    enum TestEnum {
+        PLAIN,
+        @SerializedName("re:named\\")
+        RENAMED
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMatchesGson() throws Exception {
+        Random random = new Random(42L);
+        for (int i = 0; i < 10_000; i++) {
+            String prefix = random.nextBoolean() ? randomString(random) : null;
+            Object[] values = new Object[random.nextInt(4)];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = randomValue(random);
+            }
+
+            String expected = mergeWithGson(prefix, values);
+
+            Function<Object[], Object>[] getters = new Function[values.length];
+            String[] keyNames = new String[values.length];
+            Map<String, Object> valuesMap = Maps.newHashMap();
+            for (int j = 0; j < values.length; j++) {
+                int index = j;
+                getters[j] = obj -> obj[index];
+                keyNames[j] = "key" + j;
+                valuesMap.put(keyNames[j], values[j]);
+            }
+
+            String message = "prefix " + prefix + " values " + Arrays.toString(values);
+            assertEquals(message, expected, keyCodec.encode(prefix, getters, values));
+            assertEquals(message, expected, keyCodec.encode(prefix, keyNames, valuesMap, false));
+            if (expected != null) {
+                assertArrayEquals(message, StringSerdeUtil.unMergeString(expected), StringSerdeUtil.unMergeString(keyCodec.encode(prefix, getters, values)));
+            }
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testPartial() throws Exception {
+        String[] keyNames = {"a", "b", "c"};
+        assertEquals(mergeWithGson("prefix", new Object[]{"x", 2L}),
+                keyCodec.encode("prefix", keyNames, ImmutableMap.of("a", "x", "b", 2L), true));
+        assertEquals(mergeWithGson("prefix", new Object[]{"x"}),
+                keyCodec.encode("prefix", keyNames, ImmutableMap.of("a", "x", "c", 3L), true));
+        assertEquals("prefix", keyCodec.encode("prefix", keyNames, ImmutableMap.of(), true));
+        assertNull(keyCodec.encode(null, keyNames, ImmutableMap.of(), true));
+        try {
+            keyCodec.encode("prefix", keyNames, ImmutableMap.of("a", "x"), false);
+            fail();
+        } catch (NullPointerException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * The encoding used prior to DynamoKeyCodec, all stored keys are in this format.
+     */
+    private String mergeWithGson(String prefix, Object[] values) {
+        return StringSerdeUtil.mergeStrings(Stream.concat(
+                        Stream.ofNullable(prefix),
+                        Arrays.stream(values).map(gson::toJson))
+                .toArray(String[]::new));
+    }
+
+    private Object randomValue(Random random) {
+        switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+            case 2:
+                return randomString(random);
+            case 3:
+                return random.nextLong();
+            case 4:
+                return random.nextInt(1000) - 500;
+            case 5:
+                return random.nextBoolean();
+            case 6:
+                return TestEnum.values()[random.nextInt(TestEnum.values().length)];
+            default:
+                return Instant.ofEpochMilli(random.nextLong() >>> 24);
+        }
+    }
+
+    private String randomString(Random random) {
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    builder.append(SPECIAL_CHARS.charAt(random.nextInt(SPECIAL_CHARS.length())));
+                    break;
+                case 1:
+                    builder.append((char) random.nextInt(Character.MAX_VALUE + 1));
+                    break;
+                default:
+                    builder.append((char) ('a' + random.nextInt(26)));
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -4,14 +4,20 @@ package com.smotana.clearflask.store.dynamo.mapper;
 
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
 import com.amazonaws.services.dynamodbv2.document.spec.PutItemSpec;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.util.Modules;
 import com.kik.config.ice.ConfigSystem;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.FieldProjection;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.IndexSchema;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableSchema;
 import com.smotana.clearflask.testutil.AbstractTest;
@@ -26,8 +32,7 @@ import java.util.Optional;
 import java.util.stream.StreamSupport;
 
 import static com.smotana.clearflask.store.dynamo.mapper.DynamoMapper.TableType.*;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNull;
+import static org.junit.Assert.*;
 
 @Slf4j
 public class DynamoMapperTest extends AbstractTest {
@@ -103,4 +108,100 @@ public class DynamoMapperTest extends AbstractTest {
         assertEquals(Optional.of(data), StreamSupport.stream(gsi1.index().query(gsi1.partitionKey(data)).pages().spliterator(), false).flatMap(p -> StreamSupport.stream(p.spliterator(), false)).map(gsi1::fromItem).findAny());
         assertEquals(Optional.of(data), StreamSupport.stream(gsi2.index().query(gsi2.partitionKey(data)).pages().spliterator(), false).flatMap(p -> StreamSupport.stream(p.spliterator(), false)).map(gsi2::fromItem).findAny());
     }
+
+    @Test(timeout = 20_000L)
+    public void testAttrMap() throws Exception {
+        TableSchema<Data> primary = mapper.parseTableSchema(Data.class);
+        IndexSchema<Data> gsi2 = mapper.parseGlobalSecondaryIndexSchema(2, Data.class);
+
+        Data data = new Data("f1", 2L, "f3", 4, Instant.ofEpochMilli(5), "f6");
+
+        ImmutableMap<String, AttributeValue> attrMap = primary.toAttrMap(data);
+        assertEquals(primary.partitionKey(data).getValue(), attrMap.get(primary.partitionKeyName()).getS());
+        assertEquals(primary.rangeKey(data).getValue(), attrMap.get(primary.rangeKeyName()).getS());
+        assertEquals(gsi2.partitionKey(data).getValue(), attrMap.get(gsi2.partitionKeyName()).getS());
+        assertEquals(gsi2.rangeKey(data).getValue(), attrMap.get(gsi2.rangeKeyName()).getS());
+        assertEquals(data, primary.fromAttrMap(attrMap));
+        assertEquals(data, primary.fromItem(primary.toItem(data)));
+
+        Item missingField = primary.toItem(data).removeAttribute("f6");
+        try {
+            primary.fromItem(missingField);
+            fail();
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Failed to construct"));
+            assertTrue(ex.getCause() instanceof NullPointerException);
+        }
+    }
+
+    @Value
+    @AllArgsConstructor
+    @DynamoTable(type = Primary, partitionKeys = {"id"}, rangePrefix = "prefixPartial")
+    public static class PartialData {
+        @NonNull
+        private final String id;
+        @NonNull
+        private final long count;
+        private final String name;
+        private final byte[] blob;
+        @NonNull
+        private final ImmutableSet<String> tags;
+    }
+
+    @Test(timeout = 20_000L)
+    public void testProjection() throws Exception {
+        TableSchema<PartialData> primary = mapper.parseTableSchema(PartialData.class);
+        PartialData data = new PartialData("id1", 3L, "name1", new byte[]{1, 2, 3}, ImmutableSet.of("tag1"));
+        primary.table().putItem(primary.toItem(data));
+
+        FieldProjection<PartialDataView> projection = primary.projection(PartialDataView.class);
+        assertEquals(ImmutableSet.of("id", "count", "name", "tags"), projection.fieldNames());
+        PartialDataView partial = projection.fromItem(primary.table().getItem(new GetItemSpec()
+                .withPrimaryKey(primary.primaryKey(data))
+                .withProjectionExpression(projection.projectionExpression())
+                .withNameMap(projection.nameMap())));
+        assertEquals(new PartialDataView("id1", 3L, "name1", ImmutableSet.of("tag1")), partial);
+        assertEquals(partial, projection.fromAttrMap(primary.toAttrMap(data)));
+
+        try {
+            primary.projection(PartialDataViewUnknown.class);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+        try {
+            primary.projection(PartialDataViewMismatch.class);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+
+    @Value
+    @AllArgsConstructor
+    public static class PartialDataView {
+        @NonNull
+        private final String id;
+        @NonNull
+        private final long count;
+        private final String name;
+        @NonNull
+        private final ImmutableSet<String> tags;
+    }
+
+    @Value
+    @AllArgsConstructor
+    public static class PartialDataViewUnknown {
+        @NonNull
+        private final String id;
+        private final String unknown;
+    }
+
+    @Value
+    @AllArgsConstructor
+    public static class PartialDataViewMismatch {
+        @NonNull
+        private final String id;
+        private final int count;
+    }
 }
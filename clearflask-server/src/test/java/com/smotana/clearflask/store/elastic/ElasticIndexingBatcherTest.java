@@ -0,0 +1,144 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.elastic;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.ExpDecayScore;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class ElasticIndexingBatcherTest extends AbstractTest {
+
+    private static final long DECAY_PERIOD_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    private final Gson gson = new Gson();
+
+    @Test(timeout = 10_000L)
+    public void testMergeDoc() throws Exception {
+        UpdateRequest merged = ElasticIndexingBatcher.merge(
+                doc(ImmutableMap.of("a", 1, "b", 2)).setRefreshPolicy(WriteRequest.RefreshPolicy.NONE),
+                doc(ImmutableMap.of("b", 3, "c", 4)).setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL)).get();
+        assertNull(merged.script());
+        assertEquals(ImmutableMap.of("a", 1, "b", 3, "c", 4), merged.doc().sourceAsMap());
+        assertEquals(WriteRequest.RefreshPolicy.WAIT_UNTIL, merged.getRefreshPolicy());
+        assertEquals("index", merged.index());
+        assertEquals("id", merged.id());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMergeDocNested() throws Exception {
+        UpdateRequest merged = ElasticIndexingBatcher.merge(
+                doc(ImmutableMap.of("a", ImmutableMap.of("b", 1, "c", ImmutableMap.of("d", 2)), "e", ImmutableList.of(1))),
+                doc(ImmutableMap.of("a", ImmutableMap.of("c", ImmutableMap.of("f", 3)), "e", ImmutableList.of(2)))).get();
+        assertEquals(ImmutableMap.of(
+                "a", ImmutableMap.of("b", 1, "c", ImmutableMap.of("d", 2, "f", 3)),
+                "e", ImmutableList.of(2)), merged.doc().sourceAsMap());
+
+        // Non-objects replace objects and vice versa
+        merged = ElasticIndexingBatcher.merge(
+                doc(ImmutableMap.of("a", ImmutableMap.of("b", 1), "c", 2)),
+                doc(ImmutableMap.of("a", 3, "c", ImmutableMap.of("d", 4)))).get();
+        assertEquals(ImmutableMap.of("a", 3, "c", ImmutableMap.of("d", 4)), merged.doc().sourceAsMap());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMergeExpDecay() throws Exception {
+        long time1 = 1_600_000_000_000L;
+        long time2 = time1 + 60_000L;
+        UpdateRequest merged = ElasticIndexingBatcher.merge(
+                expDecay(time1, ImmutableMap.of("voteValue", 1, "votersCount", 1)),
+                expDecay(time2, ImmutableMap.of("voteValue", 2))).get();
+        assertTrue(ElasticScript.EXP_DECAY.matches(merged.script()));
+        Map<String, Object> params = merged.script().getParams();
+        assertEquals(ImmutableMap.of("voteValue", 2, "votersCount", 1), params.get("extraUpdates"));
+
+        ExpDecayScore expDecayScore = new ExpDecayScore(DECAY_PERIOD_MILLIS);
+        double prevScore = 2700d;
+        double expected = expDecayScore.updateScore(expDecayScore.updateScore(prevScore, time1), time2);
+        double mergedTime = ((Number) params.get("timeInMillis")).doubleValue();
+        double rate = 1d / DECAY_PERIOD_MILLIS;
+        double u = Math.max(prevScore, rate * mergedTime);
+        double v = Math.min(prevScore, rate * mergedTime);
+        assertEquals(expected, u + Math.log1p(Math.exp(v - u)), 1e-9);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMergeDocAndExpDecay() throws Exception {
+        UpdateRequest merged = ElasticIndexingBatcher.merge(
+                doc(ImmutableMap.of("commentCount", 5, "voteValue", 1)),
+                expDecay(1_600_000_000_000L, ImmutableMap.of("voteValue", 2))).get();
+        assertEquals(ImmutableMap.of("commentCount", 5, "voteValue", 2), merged.script().getParams().get("extraUpdates"));
+
+        merged = ElasticIndexingBatcher.merge(
+                expDecay(1_600_000_000_000L, ImmutableMap.of("voteValue", 2)),
+                doc(ImmutableMap.of("commentCount", 5, "voteValue", 1))).get();
+        assertEquals(ImmutableMap.of("commentCount", 5, "voteValue", 1), merged.script().getParams().get("extraUpdates"));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testMergeWilson() throws Exception {
+        UpdateRequest merged = ElasticIndexingBatcher.merge(
+                wilson(1, 0),
+                wilson(-1, 1)).get();
+        assertEquals(ImmutableMap.of(
+                "upvoteDiff", 0,
+                "downvoteDiff", 1,
+                "z", 1.96d), merged.script().getParams());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testNotMergeable() throws Exception {
+        // Array operations are order dependent
+        assertFalse(ElasticIndexingBatcher.merge(
+                expDecay(1_600_000_000_000L, ImmutableMap.of()),
+                new UpdateRequest("index", "id").script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
+                        "decayPeriodInMillis", DECAY_PERIOD_MILLIS,
+                        "timeInMillis", 1_600_000_000_000L,
+                        "extraUpdates", ImmutableMap.of(),
+                        "extraArrayAdditions", ImmutableMap.of("funderUserIds", "user1"))))).isPresent());
+        // Different scripts
+        assertFalse(ElasticIndexingBatcher.merge(
+                expDecay(1_600_000_000_000L, ImmutableMap.of()),
+                wilson(1, 0)).isPresent());
+        // Upserts
+        assertFalse(ElasticIndexingBatcher.merge(
+                doc(ImmutableMap.of("a", 1)).docAsUpsert(true),
+                doc(ImmutableMap.of("a", 2))).isPresent());
+        // Partial document objects are deep merged
+        assertFalse(ElasticIndexingBatcher.merge(
+                doc(ImmutableMap.of("a", ImmutableMap.of("b", 1))),
+                expDecay(1_600_000_000_000L, ImmutableMap.of())).isPresent());
+    }
+
+    private UpdateRequest doc(Map<String, Object> doc) {
+        return new UpdateRequest("index", "id")
+                .doc(gson.toJson(doc), XContentType.JSON);
+    }
+
+    private UpdateRequest expDecay(long timeInMillis, Map<String, Object> extraUpdates) {
+        return new UpdateRequest("index", "id")
+                .script(ElasticScript.EXP_DECAY.toScript(ImmutableMap.of(
+                        "decayPeriodInMillis", DECAY_PERIOD_MILLIS,
+                        "timeInMillis", timeInMillis,
+                        "extraUpdates", extraUpdates)));
+    }
+
+    private UpdateRequest wilson(int upvoteDiff, int downvoteDiff) {
+        return new UpdateRequest("index", "id")
+                .script(ElasticScript.WILSON.toScript(ImmutableMap.of(
+                        "upvoteDiff", upvoteDiff,
+                        "downvoteDiff", downvoteDiff,
+                        "z", 1.96d)));
+    }
+}
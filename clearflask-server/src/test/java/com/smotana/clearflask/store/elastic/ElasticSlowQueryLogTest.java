@@ -0,0 +1,109 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.store.elastic;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.Fuzziness;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class ElasticSlowQueryLogTest extends AbstractTest {
+
+    @Inject
+    private ElasticSlowQueryLog slowQueryLog;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(ElasticSlowQueryLog.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testFingerprint() throws Exception {
+        String fingerprint = ElasticSlowQueryLog.fingerprint(search("projectA", ImmutableList.of("tag1"), "hello", Fuzziness.AUTO, SortOrder.DESC)
+                .from(0).size(10));
+        log.info("Fingerprint {}", fingerprint);
+        assertFalse(fingerprint.contains("projectA"));
+        assertFalse(fingerprint.contains("tag1"));
+        assertFalse(fingerprint.contains("hello"));
+        assertTrue(fingerprint.contains("\"fields\":[\"description^1.0\",\"title^3.0\"]"));
+
+        assertEquals(fingerprint, ElasticSlowQueryLog.fingerprint(search("projectB", ImmutableList.of("tag2", "tag3"), "world", Fuzziness.AUTO, SortOrder.DESC)
+                .from(20).size(50)));
+        assertNotEquals(fingerprint, ElasticSlowQueryLog.fingerprint(search("projectA", ImmutableList.of("tag1"), "hello", Fuzziness.ZERO, SortOrder.DESC)));
+        assertNotEquals(fingerprint, ElasticSlowQueryLog.fingerprint(search("projectA", ImmutableList.of("tag1"), "hello", Fuzziness.AUTO, SortOrder.ASC)));
+        assertNotEquals(fingerprint, ElasticSlowQueryLog.fingerprint(new SearchSourceBuilder()
+                .query(QueryBuilders.termsQuery("tagIds", "tag1"))));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRecord() throws Exception {
+        slowQueryLog.record(new SearchRequest("idea-projectA").source(search("projectA", ImmutableList.of("tag1"), "hello", Fuzziness.AUTO, SortOrder.DESC)),
+                response(100, 7));
+        slowQueryLog.record(new SearchRequest("idea_shared").routing("projectB").source(search("projectB", ImmutableList.of("tag2"), "world", Fuzziness.AUTO, SortOrder.DESC)),
+                response(2000, 3));
+        slowQueryLog.record(new SearchRequest("user-projectA").source(new SearchSourceBuilder()
+                        .query(QueryBuilders.matchAllQuery())),
+                response(5, 1));
+
+        slowQueryLog.record(new SearchRequest("idea-projectA").source(search("projectA", ImmutableList.of("tag1"), "hello", Fuzziness.AUTO, SortOrder.DESC)),
+                response(1500, 2));
+
+        ImmutableList<ElasticSlowQueryLog.QueryStats> fingerprints = slowQueryLog.getTopFingerprints(10);
+        assertEquals(1, fingerprints.size());
+        assertEquals("idea", fingerprints.get(0).getType());
+        assertEquals(2, fingerprints.get(0).getCount());
+        assertEquals(2, fingerprints.get(0).getSlowCount());
+        assertEquals(3500, fingerprints.get(0).getTotalTookMillis());
+        assertEquals(2000, fingerprints.get(0).getMaxTookMillis());
+        assertEquals(5, fingerprints.get(0).getTotalHits());
+        assertEquals(10, fingerprints.get(0).getTotalShards());
+
+        ImmutableList<ElasticSlowQueryLog.QueryStats> projects = slowQueryLog.getTopProjects(10);
+        assertEquals(2, projects.size());
+        assertEquals("projectB", projects.get(0).getKey());
+        assertEquals("projectA", projects.get(1).getKey());
+        assertEquals(3, projects.get(1).getCount());
+        assertEquals(1, projects.get(1).getSlowCount());
+
+        slowQueryLog.reset();
+        assertTrue(slowQueryLog.getTopFingerprints(10).isEmpty());
+    }
+
+    private SearchSourceBuilder search(String projectId, ImmutableList<String> tagIds, String text, Fuzziness fuzziness, SortOrder sortOrder) {
+        return new SearchSourceBuilder()
+                .query(QueryBuilders.boolQuery()
+                        .filter(QueryBuilders.termQuery("projectId", projectId))
+                        .filter(QueryBuilders.termsQuery("tagIds", tagIds))
+                        .must(QueryBuilders.multiMatchQuery(text, "title", "description")
+                                .field("title", 3f)
+                                .fuzziness(fuzziness)))
+                .sort("created", sortOrder);
+    }
+
+    private SearchResponse response(long tookMillis, long totalHits) {
+        SearchResponse response = Mockito.mock(SearchResponse.class);
+        Mockito.when(response.getTook()).thenReturn(TimeValue.timeValueMillis(tookMillis));
+        Mockito.when(response.getTotalShards()).thenReturn(5);
+        Mockito.when(response.getSuccessfulShards()).thenReturn(5);
+        Mockito.when(response.getHits()).thenReturn(new SearchHits(new SearchHit[0],
+                new TotalHits(totalHits, TotalHits.Relation.EQUAL_TO), 1f));
+        return response;
+    }
+}
@@ -0,0 +1,75 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.inject.Inject;
+import com.smotana.clearflask.store.MockModelUtil;
+import com.smotana.clearflask.store.UserStore.UserModel;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.BloomFilterCache.BloomFilterType;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class BloomFilterCacheTest extends AbstractTest {
+
+    @Inject
+    private BloomFilterCache bloomFilterCache;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(BloomFilterCache.module());
+    }
+
+    @Test(timeout = 10_000L)
+    public void test() throws Exception {
+        UserModel user = MockModelUtil.getRandomUser();
+        assertFalse(bloomFilterCache.get(user, BloomFilterType.VOTE).isPresent());
+
+        // Legacy format is migrated on read
+        BloomFilter<CharSequence> bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), 100, 0.001);
+        bloomFilter.put("idea1");
+        user = user.toBuilder().voteBloom(BloomFilters.toByteArray(bloomFilter)).build();
+
+        ScalableBloomFilter cached = bloomFilterCache.get(user, BloomFilterType.VOTE).get();
+        assertTrue(cached.mightContain("idea1"));
+        assertFalse(cached.mightContain("idea2"));
+        assertSame(cached, bloomFilterCache.get(user, BloomFilterType.VOTE).get());
+        assertFalse(bloomFilterCache.get(user, BloomFilterType.EXPRESS).isPresent());
+
+        // Changed bytes are never served from a stale entry
+        ScalableBloomFilter updated = cached.copy();
+        updated.put("idea2");
+        user = user.toBuilder().voteBloom(BloomFilters.toByteArray(updated)).build();
+        assertTrue(bloomFilterCache.get(user, BloomFilterType.VOTE).get().mightContain("idea2"));
+        assertNotSame(cached, bloomFilterCache.get(user, BloomFilterType.VOTE).get());
+
+        // Pending ids are included
+        user = user.toBuilder().voteBloomPending(ImmutableSet.of("idea4")).build();
+        assertTrue(bloomFilterCache.get(user, BloomFilterType.VOTE).get().mightContain("idea4"));
+        assertTrue(bloomFilterCache.get(user, BloomFilterType.VOTE).get().mightContain("idea2"));
+        user = user.toBuilder().expressBloomPending(ImmutableSet.of("idea5")).build();
+        assertTrue(bloomFilterCache.get(user, BloomFilterType.EXPRESS).get().mightContain("idea5"));
+
+        // Write-through entry is served for matching bytes
+        ScalableBloomFilter writtenThrough = updated.copy();
+        writtenThrough.put("idea3");
+        user = user.toBuilder()
+                .voteBloom(BloomFilters.toByteArray(writtenThrough))
+                .voteBloomPending(ImmutableSet.of())
+                .build();
+        bloomFilterCache.put(user, BloomFilterType.VOTE, writtenThrough);
+        assertSame(writtenThrough, bloomFilterCache.get(user, BloomFilterType.VOTE).get());
+
+        bloomFilterCache.invalidate(user.getProjectId(), user.getUserId());
+        assertNotSame(writtenThrough, bloomFilterCache.get(user, BloomFilterType.VOTE).get());
+    }
+}
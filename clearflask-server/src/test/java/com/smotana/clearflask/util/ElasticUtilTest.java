@@ -0,0 +1,111 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.ElasticUtil.IndexLayout;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.MoreLikeThisQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class ElasticUtilTest extends AbstractTest {
+
+    @Inject
+    private ElasticUtil elasticUtil;
+    @Inject
+    private Gson gson;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        bindMock(RestHighLevelClient.class);
+
+        install(Modules.override(
+                ElasticUtil.module(),
+                DefaultServerSecret.module(Names.named("cursor"))
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                install(ConfigSystem.overrideModule(DefaultServerSecret.Config.class, Names.named("cursor"), om -> {
+                    om.override(om.id().sharedKey()).withValue(ServerSecretTest.getRandomSharedKey());
+                }));
+                install(ConfigSystem.overrideModule(ElasticUtil.Config.class, om -> {
+                    om.override(om.id().indexLayout()).withValue(IndexLayout.SHARED);
+                    om.override(om.id().sharedIndexShards()).withValue(3);
+                }));
+            }
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSharedLayout() throws Exception {
+        assertEquals(IndexLayout.SHARED, elasticUtil.getIndexLayout());
+        assertEquals("idea_shared", elasticUtil.getIndexName("idea", "project1"));
+        assertEquals("idea-project1", elasticUtil.getPerProjectIndexName("idea", "project1"));
+
+        String docId = elasticUtil.getDocId("project1", "user1");
+        assertNotEquals(docId, elasticUtil.getDocId("project2", "user1"));
+        assertEquals("user1", elasticUtil.parseDocId("project1", docId));
+
+        UpdateRequest updateRequest = elasticUtil.updateRequest("idea", "project1", "idea1");
+        assertEquals("idea_shared", updateRequest.index());
+        assertEquals(docId.replace("user1", "idea1"), updateRequest.id());
+        assertEquals("project1", updateRequest.routing());
+
+        SearchRequest searchRequest = elasticUtil.searchRequest("idea", "project1", new SearchSourceBuilder()
+                .query(QueryBuilders.termQuery("categoryId", "category1")));
+        assertEquals("project1", searchRequest.routing());
+        BoolQueryBuilder query = (BoolQueryBuilder) searchRequest.source().query();
+        assertEquals(QueryBuilders.termQuery(ElasticUtil.PROJECT_ID_FIELD, "project1"), query.filter().get(0));
+        assertEquals(QueryBuilders.termQuery("categoryId", "category1"), query.must().get(0));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSharedMoreLikeThisItem() throws Exception {
+        MoreLikeThisQueryBuilder.Item item = elasticUtil.moreLikeThisItem("idea", "project1", "idea1");
+        assertEquals("idea_shared_1", item.index());
+        assertEquals(elasticUtil.getDocId("project1", "idea1"), item.id());
+        assertEquals("project1", item.routing());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSharedCreateIndexRequest() throws Exception {
+        CreateIndexRequest request = elasticUtil.toSharedCreateIndexRequest("idea", new CreateIndexRequest("idea-project1")
+                .mapping(gson.toJson(ImmutableMap.of(
+                        "dynamic", "false",
+                        "properties", ImmutableMap.of(
+                                "title", ImmutableMap.of("type", "text")))), XContentType.JSON));
+
+        assertEquals("idea_shared_1", request.index());
+        assertEquals("idea_shared", request.aliases().iterator().next().name());
+        assertEquals("3", request.settings().get("index.number_of_shards"));
+        Map<String, Object> mapping = XContentHelper.convertToMap(request.mappings(), true, request.mappingsXContentType()).v2();
+        assertEquals("false", mapping.get("dynamic"));
+        assertEquals(ImmutableMap.of("required", true), mapping.get("_routing"));
+        Map<String, Object> properties = (Map<String, Object>) mapping.get("properties");
+        assertEquals(ImmutableMap.of("type", "text"), properties.get("title"));
+        assertEquals(ImmutableMap.of("type", "keyword"), properties.get(ElasticUtil.PROJECT_ID_FIELD));
+    }
+}
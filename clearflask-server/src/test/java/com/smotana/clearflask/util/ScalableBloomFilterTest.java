@@ -0,0 +1,102 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class ScalableBloomFilterTest extends AbstractTest {
+
+    @Test(timeout = 10_000L)
+    public void testGrowth() throws Exception {
+        ScalableBloomFilter bloomFilter = ScalableBloomFilter.create(10, 0.01);
+        assertEquals(1, bloomFilter.getLayerCount());
+
+        // Fixed ids keep the observed false positive rate deterministic
+        ImmutableList<String> ids = IntStream.range(0, 1_000)
+                .mapToObj(i -> "id" + i)
+                .collect(ImmutableList.toImmutableList());
+        ids.forEach(bloomFilter::put);
+        ids.forEach(id -> assertTrue(id, bloomFilter.mightContain(id)));
+
+        log.info("Layers {} capacity {} count {} fill {} fpp {}",
+                bloomFilter.getLayerCount(), bloomFilter.getLayerCapacities(), bloomFilter.approximateElementCount(),
+                bloomFilter.getFill(), bloomFilter.expectedFpp());
+        assertTrue(bloomFilter.getLayerCount() > 1);
+        assertTrue(bloomFilter.getCapacity() >= ids.size());
+        // Compound false positive probability is bounded by p / (1 - r)
+        assertTrue(bloomFilter.expectedFpp() < 0.02);
+
+        long falsePositives = IntStream.range(0, 10_000)
+                .filter(i -> bloomFilter.mightContain("other" + i))
+                .count();
+        assertTrue("False positives " + falsePositives, falsePositives < 10_000 * 0.03);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testSerde() throws Exception {
+        ScalableBloomFilter bloomFilter = ScalableBloomFilter.create(5, 0.001, 3, 0.8f, 0.75f);
+        IntStream.range(0, 100).forEach(i -> bloomFilter.put("id" + i));
+
+        ScalableBloomFilter deserialized = BloomFilters.scalableFromByteArray(BloomFilters.toByteArray(bloomFilter));
+        assertEquals(bloomFilter, deserialized);
+        assertEquals(3, deserialized.getGrowthFactor());
+        assertEquals(0.8f, deserialized.getTighteningRatio(), 0f);
+        assertEquals(0.75f, deserialized.getFillRatio(), 0f);
+        IntStream.range(0, 100).forEach(i -> assertTrue(deserialized.mightContain("id" + i)));
+
+        ScalableBloomFilter copy = deserialized.copy();
+        copy.put("another");
+        assertTrue(copy.mightContain("another"));
+        assertEquals(bloomFilter, deserialized);
+    }
+
+    @Test(timeout = 10_000L)
+    public void testLegacyMigration() throws Exception {
+        BloomFilter<CharSequence> legacy = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), 50, 0.001);
+        IntStream.range(0, 50).forEach(i -> legacy.put("id" + i));
+        byte[] legacyBytes = BloomFilters.toByteArray(legacy);
+        assertTrue(BloomFilters.isLegacyFormat(legacyBytes));
+
+        ScalableBloomFilter migrated = BloomFilters.scalableFromByteArray(legacyBytes);
+        assertEquals(1, migrated.getLayerCount());
+        // Capacity is recovered from the filter size
+        assertEquals(50d, migrated.getCapacity(), 5d);
+        IntStream.range(0, 50).forEach(i -> assertTrue(migrated.mightContain("id" + i)));
+
+        // Saturated legacy filter grows instead of degrading
+        IntStream.range(50, 200).forEach(i -> migrated.put("id" + i));
+        assertTrue(migrated.getLayerCount() > 1);
+        IntStream.range(0, 200).forEach(i -> assertTrue(migrated.mightContain("id" + i)));
+
+        byte[] migratedBytes = BloomFilters.toByteArray(migrated);
+        assertFalse(BloomFilters.isLegacyFormat(migratedBytes));
+        assertEquals(migrated, BloomFilters.scalableFromByteArray(migratedBytes));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testLegacyMigrationGrowthParameters() throws Exception {
+        BloomFilter<CharSequence> legacy = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8), 50, 0.001);
+        byte[] legacyBytes = BloomFilters.toByteArray(legacy);
+
+        ScalableBloomFilter migrated = BloomFilters.scalableFromByteArray(legacyBytes, 3, 0.8f, 0.9f);
+        assertEquals(3, migrated.getGrowthFactor());
+        assertEquals(0.8f, migrated.getTighteningRatio(), 0f);
+        assertEquals(0.9f, migrated.getFillRatio(), 0f);
+
+        // Persisted parameters take precedence over the given ones
+        ScalableBloomFilter reread = BloomFilters.scalableFromByteArray(BloomFilters.toByteArray(migrated), 2, 0.5f, 1f);
+        assertEquals(migrated, reread);
+        assertEquals(0.9f, reread.getFillRatio(), 0f);
+    }
+}
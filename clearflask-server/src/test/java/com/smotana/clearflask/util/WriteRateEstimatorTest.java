@@ -0,0 +1,50 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.util;
+
+import com.google.common.base.Ticker;
+import com.smotana.clearflask.testutil.AbstractTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+@Slf4j
+public class WriteRateEstimatorTest extends AbstractTest {
+
+    private final AtomicLong nanos = new AtomicLong(TimeUnit.DAYS.toNanos(1));
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test(timeout = 10_000L)
+    public void test() throws Exception {
+        WriteRateEstimator estimator = new WriteRateEstimator(Duration.ofSeconds(10), 100L, ticker);
+
+        assertEquals(0.1d, estimator.recordAndGetRate("a"), 0.0001d);
+        assertEquals(0.1d, estimator.recordAndGetRate("b"), 0.0001d);
+        for (int i = 0; i < 98; i++) {
+            estimator.recordAndGetRate("a");
+        }
+        assertEquals(10d, estimator.recordAndGetRate("a"), 0.0001d);
+
+        // Previous window weighted by overlap
+        advance(Duration.ofSeconds(15));
+        assertEquals(5.1d, estimator.recordAndGetRate("a"), 0.0001d);
+
+        // Previous window no longer overlaps
+        advance(Duration.ofSeconds(20));
+        assertEquals(0.1d, estimator.recordAndGetRate("a"), 0.0001d);
+    }
+
+    private void advance(Duration duration) {
+        nanos.addAndGet(duration.toNanos());
+    }
+}
@@ -48,6 +48,7 @@ import com.smotana.clearflask.core.push.message.EmailVerify;
 import com.smotana.clearflask.core.push.message.OnAccountSignup;
 import com.smotana.clearflask.core.push.message.OnCommentReply;
 import com.smotana.clearflask.core.push.message.OnCreditChange;
+import com.smotana.clearflask.core.push.message.OnDigest;
 import com.smotana.clearflask.core.push.message.OnEmailChanged;
 import com.smotana.clearflask.core.push.message.OnForgotPassword;
 import com.smotana.clearflask.core.push.message.OnModInvite;
@@ -66,6 +67,7 @@ import com.smotana.clearflask.store.UserStore;
 import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapper;
 import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
+import com.smotana.clearflask.store.elastic.ElasticIndexingBatcher;
 import com.smotana.clearflask.store.github.GitHubClientProviderImpl;
 import com.smotana.clearflask.store.github.GitHubStoreImpl;
 import com.smotana.clearflask.store.impl.DynamoCertStore;
@@ -75,6 +77,8 @@ import com.smotana.clearflask.store.impl.DynamoElasticCommentStore;
 import com.smotana.clearflask.store.impl.DynamoElasticIdeaStore;
 import com.smotana.clearflask.store.impl.DynamoElasticUserStore;
 import com.smotana.clearflask.store.impl.DynamoNotificationStore;
+import com.smotana.clearflask.store.impl.DynamoImportJobStore;
+import com.smotana.clearflask.store.impl.DynamoOutboxStore;
 import com.smotana.clearflask.store.impl.DynamoProjectStore;
 import com.smotana.clearflask.store.impl.DynamoTokenVerifyStore;
 import com.smotana.clearflask.store.impl.DynamoVoteStore;
@@ -82,6 +86,7 @@ import com.smotana.clearflask.store.impl.ResourceLegalStore;
 import com.smotana.clearflask.store.impl.S3ContentStore;
 import com.smotana.clearflask.store.s3.DefaultS3ClientProvider;
 import com.smotana.clearflask.testutil.AbstractIT;
+import com.smotana.clearflask.util.BloomFilterCache;
 import com.smotana.clearflask.util.DefaultServerSecret;
 import com.smotana.clearflask.util.ElasticUtil;
 import com.smotana.clearflask.util.IdUtil;
@@ -98,7 +103,10 @@ import com.smotana.clearflask.web.security.MockExtendedSecurityContext;
 import com.smotana.clearflask.web.security.Sanitizer;
 import com.smotana.clearflask.web.security.SuperAdminPredicate;
 import com.smotana.clearflask.web.security.UserBindUtil;
+import com.smotana.clearflask.web.util.CsvImporter;
+import com.smotana.clearflask.web.util.IdeaImportHandler;
 import com.smotana.clearflask.web.util.WebhookServiceImpl;
+import com.smotana.clearflask.web.util.ZipCsvExporter;
 import io.jsonwebtoken.security.Keys;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -191,6 +199,10 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 IdeaResource.module(),
                 VoteResource.module(),
                 ProjectResource.module(),
+                ZipCsvExporter.module(),
+                CsvImporter.module(),
+                IdeaImportHandler.module(),
+                ImportJobResource.module(),
                 SupportResource.module(),
                 ConnectResource.module(),
                 ContentResource.module(),
@@ -212,7 +224,10 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 NotificationServiceImpl.module(),
                 EmailTemplates.module(),
                 OnCreditChange.module(),
+                OnDigest.module(),
                 WebhookServiceImpl.module(),
+                DynamoOutboxStore.module(),
+                DynamoImportJobStore.module(),
                 OnCommentReply.module(),
                 OnStatusOrResponseChange.module(),
                 OnTrialEnded.module(),
@@ -248,6 +263,8 @@ public abstract class AbstractBlackboxIT extends AbstractIT {
                 MockAuthCookie.module(),
                 UserBindUtil.module(),
                 ElasticUtil.module(),
+                BloomFilterCache.module(),
+                ElasticIndexingBatcher.module(),
                 Sanitizer.module(),
                 DefaultServerSecret.module(Names.named("cursor"))
         ).with(new AbstractModule() {
@@ -0,0 +1,249 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.web.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.inject.Inject;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.store.ContentStore;
+import com.smotana.clearflask.store.ContentStore.ContentType;
+import com.smotana.clearflask.store.ContentStore.ContentUrl;
+import com.smotana.clearflask.store.ImportJobStore;
+import com.smotana.clearflask.store.ImportJobStore.ImportJobModel;
+import com.smotana.clearflask.store.ImportJobStore.ImportJobModel.JobState;
+import com.smotana.clearflask.store.dynamo.InMemoryDynamoDbProvider;
+import com.smotana.clearflask.store.dynamo.mapper.DynamoMapperImpl;
+import com.smotana.clearflask.store.impl.DynamoImportJobStore;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.util.IdUtil;
+import com.smotana.clearflask.web.ApiException;
+import com.smotana.clearflask.web.util.CsvImporter.ImportHandler;
+import com.smotana.clearflask.web.util.CsvImporter.ImportJobStatus;
+import com.smotana.clearflask.web.util.CsvImporter.ImportRun;
+import com.smotana.clearflask.web.util.CsvImporter.RowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@Slf4j
+public class CsvImporterTest extends AbstractTest {
+
+    private static final int ROWS = 1_000;
+    private static final String TYPE = "test";
+
+    @Inject
+    private CsvImporter importer;
+    @Inject
+    private ImportJobStore importJobStore;
+
+    /** Uploads by url */
+    private final Map<String, byte[]> uploads = Maps.newConcurrentMap();
+    private volatile RowMapper<Long> mapper = (jobId, rowIndex, record) -> rowIndex;
+    private volatile Function<ImmutableList<Long>, ListenableFuture<?>> writer = batch -> Futures.immediateFuture(null);
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Metrics.module());
+        install(CsvImporter.module());
+        install(DynamoImportJobStore.module());
+        install(InMemoryDynamoDbProvider.module());
+        install(DynamoMapperImpl.module());
+
+        ContentStore contentStore = mock(ContentStore.class);
+        when(contentStore.upload(any(), any(), any(), any(), anyInt())).thenAnswer(invocation -> {
+            ContentUrl contentUrl = contentUrl("https://upload.example.com/" + IdUtil.randomId() + ".csv");
+            uploads.put(contentUrl.getUrl(), ByteStreams.toByteArray(invocation.<InputStream>getArgument(3)));
+            return contentUrl;
+        });
+        when(contentStore.parseContentUrl(any())).thenAnswer(invocation -> Optional.of(contentUrl(invocation.getArgument(0))));
+        when(contentStore.download(any())).thenAnswer(invocation -> new ByteArrayInputStream(
+                uploads.get(invocation.<ContentUrl>getArgument(0).getUrl())));
+        doAnswer(invocation -> uploads.remove(invocation.<String>getArgument(0)))
+                .when(contentStore).delete(any());
+        bind(ContentStore.class).toInstance(contentStore);
+
+        CsvImporter.handlerBinder(binder()).addBinding().toInstance(new ImportHandler<String>() {
+            @Override
+            public String getType() {
+                return TYPE;
+            }
+
+            @Override
+            public Class<String> getParamsClass() {
+                return String.class;
+            }
+
+            @Override
+            public ImportRun<?> prepare(String projectId, String params) {
+                return new ImportRun<>(CSVFormat.DEFAULT.withFirstRecordAsHeader(), RateLimiter.create(1_000_000d), mapper, writer);
+            }
+        });
+    }
+
+    @Test(timeout = 10_000L)
+    public void testImport() throws Exception {
+        Set<Long> written = Sets.newConcurrentHashSet();
+        mapper = (jobId, rowIndex, record) -> {
+            assertEquals("title" + rowIndex, record.get("title"));
+            return rowIndex;
+        };
+        writer = batch -> {
+            written.addAll(batch);
+            return Futures.immediateFuture(null);
+        };
+        ImportJobStatus status = await(importer.start("projectId", csv(ROWS), TYPE, "params"));
+
+        assertEquals(JobState.COMPLETED, status.getState());
+        assertEquals(ROWS, status.getRowsRead());
+        assertEquals(ROWS, status.getRowsImported());
+        assertEquals(allRows(), written);
+        assertEquals(JobState.COMPLETED, importer.getStatus("projectId", status.getJobId()).get().getState());
+        assertFalse(importer.getStatus("otherProjectId", status.getJobId()).isPresent());
+        assertTrue(uploads.isEmpty());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testResume() throws Exception {
+        Set<Long> written = Sets.newConcurrentHashSet();
+        AtomicBoolean failOnce = new AtomicBoolean(true);
+        writer = batch -> {
+            if (batch.contains(500L) && failOnce.getAndSet(false)) {
+                return Futures.immediateFailedFuture(new RuntimeException("Expected"));
+            }
+            written.addAll(batch);
+            return Futures.immediateFuture(null);
+        };
+
+        ImportJobStatus status = await(importer.start("projectId", csv(ROWS), TYPE, "params"));
+        assertEquals(JobState.FAILED, status.getState());
+        assertTrue(status.getRowsImported() <= 500);
+        assertNotNull(status.getError());
+        assertEquals(status.getRowsImported(), importer.getStatus("projectId", status.getJobId()).get().getRowsImported());
+        assertEquals(1, uploads.size());
+
+        status = importer.resume("projectId", status.getJobId()).get();
+        status = await(status);
+        assertEquals(JobState.COMPLETED, status.getState());
+        assertEquals(ROWS, status.getRowsImported());
+        assertEquals(allRows(), written);
+        assertTrue(uploads.isEmpty());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testResumeStaleJob() throws Exception {
+        Set<Long> written = Sets.newConcurrentHashSet();
+        writer = batch -> {
+            written.addAll(batch);
+            return Futures.immediateFuture(null);
+        };
+
+        // Job left running by an instance that went away
+        String uploadUrl = "https://upload.example.com/stale.csv";
+        uploads.put(uploadUrl, ByteStreams.toByteArray(csv(ROWS)));
+        Instant created = Instant.now().minus(Duration.ofHours(1));
+        importJobStore.createJob(new ImportJobModel(
+                "projectId",
+                "jobId",
+                TYPE,
+                "\"params\"",
+                uploadUrl,
+                JobState.RUNNING,
+                "otherRunId",
+                600L,
+                500L,
+                null,
+                created,
+                created,
+                Instant.now().plus(Duration.ofDays(1)).getEpochSecond()));
+        ImportJobStatus status = importer.getStatus("projectId", "jobId").get();
+        assertEquals(JobState.FAILED, status.getState());
+        assertEquals(500L, status.getRowsImported());
+
+        status = await(importer.resume("projectId", "jobId").get());
+        assertEquals(JobState.COMPLETED, status.getState());
+        assertEquals(ROWS, status.getRowsImported());
+        assertEquals(LongStream.range(500, ROWS).boxed().collect(Collectors.toSet()), written);
+
+        // Stale run can no longer save progress
+        assertFalse(importJobStore.updateJob(importJobStore.getJob("projectId", "jobId").get(), "otherRunId"));
+        try {
+            importer.resume("projectId", "jobId");
+            fail();
+        } catch (ApiException ex) {
+            assertEquals(Response.Status.CONFLICT, ex.getStatus());
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testRowRejected() throws Exception {
+        mapper = (jobId, rowIndex, record) -> {
+            if (rowIndex == 10L) {
+                throw new ApiException(Response.Status.BAD_REQUEST, "Status not found");
+            }
+            return rowIndex;
+        };
+        ImportJobStatus status = await(importer.start("projectId", csv(ROWS), TYPE, "params"));
+        assertEquals(JobState.FAILED, status.getState());
+        assertEquals("Row 11: Status not found", status.getError());
+        assertEquals(0L, status.getRowsImported());
+    }
+
+    @Test(timeout = 10_000L)
+    public void testFileTooLarge() throws Exception {
+        configSet(CsvImporter.Config.class, "maxFileSizeBytes", "100");
+        try {
+            importer.start("projectId", csv(ROWS), TYPE, "params");
+            fail();
+        } catch (ApiException ex) {
+            assertEquals(Response.Status.REQUEST_ENTITY_TOO_LARGE, ex.getStatus());
+        }
+        assertTrue(uploads.isEmpty());
+    }
+
+    private ImportJobStatus await(ImportJobStatus status) {
+        return importer.awaitStatus(status.getProjectId(), status.getJobId(), Duration.ofSeconds(5)).get();
+    }
+
+    private ContentUrl contentUrl(String url) {
+        return new ContentUrl(url, url, url.substring(url.lastIndexOf('/') + 1), null, "projectId", "import", ContentType.CSV);
+    }
+
+    private InputStream csv(int rows) {
+        return new ByteArrayInputStream(IntStream.range(0, rows)
+                .mapToObj(i -> "title" + i + ",description" + i + "\n")
+                .collect(Collectors.joining("", "title,description\n", ""))
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Set<Long> allRows() {
+        return LongStream.range(0, ROWS).boxed().collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,126 @@
+// SPDX-FileCopyrightText: 2019-2021 Matus Faro <matus@smotana.com>
+// SPDX-License-Identifier: AGPL-3.0-only
+package com.smotana.clearflask.web.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.util.Modules;
+import com.kik.config.ice.ConfigSystem;
+import com.smotana.clearflask.core.metrics.Metrics;
+import com.smotana.clearflask.testutil.AbstractTest;
+import com.smotana.clearflask.web.util.ZipCsvExporter.CsvEntry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class ZipCsvExporterTest extends AbstractTest {
+
+    @Inject
+    private ZipCsvExporter exporter;
+
+    @Override
+    protected void configure() {
+        super.configure();
+
+        install(Metrics.module());
+        install(Modules.override(
+                ZipCsvExporter.module()
+        ).with(new AbstractModule() {
+            @Override
+            protected void configure() {
+                // Fewer threads than entries, later entries wait for earlier ones
+                install(ConfigSystem.overrideModule(ZipCsvExporter.Config.class, om -> {
+                    om.override(om.id().fetchThreads()).withValue(2);
+                }));
+            }
+        }));
+    }
+
+    @Test(timeout = 10_000L)
+    public void testExport() throws Exception {
+        configSet(ZipCsvExporter.Config.class, "prefetchRecords", "10");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(out, CSVFormat.DEFAULT, () -> RateLimiter.create(1_000_000d), ImmutableList.of(
+                entry("a.csv", 0),
+                entry("b.csv", 1_000),
+                entry("c.csv", 100)));
+
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEntry(zis, "a.csv", 0);
+            assertEntry(zis, "b.csv", 1_000);
+            assertEntry(zis, "c.csv", 100);
+            assertNull(zis.getNextEntry());
+        }
+    }
+
+    @Test(timeout = 10_000L)
+    public void testFetchFailure() throws Exception {
+        configSet(ZipCsvExporter.Config.class, "prefetchRecords", "10");
+
+        CountDownLatch otherStarted = new CountDownLatch(1);
+        CountDownLatch otherStopped = new CountDownLatch(1);
+        CsvEntry<Integer> endless = new CsvEntry<>("endless.csv", new String[]{"id"},
+                consumer -> {
+                    otherStarted.countDown();
+                    try {
+                        IntStream.iterate(0, i -> i + 1).forEach(consumer::accept);
+                    } finally {
+                        otherStopped.countDown();
+                    }
+                },
+                i -> new Object[]{i});
+        CsvEntry<Integer> failing = new CsvEntry<>("failing.csv", new String[]{"id"},
+                consumer -> {
+                    // Fail once the other is running, an entry not yet started is skipped altogether
+                    try {
+                        otherStarted.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IllegalStateException("Expected");
+                },
+                i -> new Object[]{i});
+
+        try {
+            exporter.export(new ByteArrayOutputStream(), CSVFormat.DEFAULT, () -> RateLimiter.create(1_000_000d), ImmutableList.of(failing, endless));
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(otherStopped.await(5, TimeUnit.SECONDS));
+    }
+
+    private CsvEntry<Integer> entry(String fileName, int count) {
+        return new CsvEntry<>(fileName, new String[]{"id", "name"},
+                consumer -> IntStream.range(0, count).forEach(consumer::accept),
+                i -> new Object[]{i, fileName + i});
+    }
+
+    private void assertEntry(ZipInputStream zis, String fileName, int count) throws IOException {
+        ZipEntry entry = zis.getNextEntry();
+        assertNotNull(entry);
+        assertEquals(fileName, entry.getName());
+        String expected = IntStream.range(0, count)
+                .mapToObj(i -> i + "," + fileName + i + "\r\n")
+                .collect(Collectors.joining("", "id,name\r\n", ""));
+        assertEquals(expected, new String(ByteStreams.toByteArray(zis), Charset.defaultCharset()));
+    }
+}